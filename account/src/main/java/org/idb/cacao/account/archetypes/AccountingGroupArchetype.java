@@ -10,7 +10,11 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.idb.cacao.account.etl.AccountingLoader;
+import org.idb.cacao.account.etl.ComputedStatementIncomeProcessor;
+import org.idb.cacao.account.etl.CustomerSupplierReconciliation;
+import org.idb.cacao.account.etl.StatementIncomeReconciliation;
 import org.idb.cacao.account.generator.AccountDataGenerator;
+import org.idb.cacao.api.PopulationRollup;
 import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.templates.CustomDataGenerator;
 import org.idb.cacao.api.templates.DocumentFormat;
@@ -54,7 +58,18 @@ public abstract class AccountingGroupArchetype implements TemplateArchetype {
 				AccountingLoader.INDEX_PUBLISHED_GENERAL_LEDGER,
 				AccountingLoader.INDEX_PUBLISHED_COMPUTED_STATEMENT_INCOME,
 				AccountingLoader.INDEX_PUBLISHED_CUSTOMERS,
-				AccountingLoader.INDEX_PUBLISHED_SUPPLIERS);
+				AccountingLoader.INDEX_PUBLISHED_SUPPLIERS,
+				CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION,
+				StatementIncomeReconciliation.INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.idb.cacao.api.templates.TemplateArchetype#getPopulationRollups()
+	 */
+	@Override
+	public List<PopulationRollup> getPopulationRollups() {
+		return Arrays.asList(ComputedStatementIncomeProcessor.POPULATION_ROLLUP);
 	}
 
 	/*
@@ -17,9 +17,11 @@ import java.util.List;
 import org.apache.commons.text.CaseUtils;
 import org.idb.cacao.account.elements.StatementComprehensiveIncome;
 import org.idb.cacao.account.etl.IncomeStatementLoader;
+import org.idb.cacao.account.etl.StatementIncomeReconciliation;
 import org.idb.cacao.account.generator.IncomeStatementGenerator;
 import org.idb.cacao.account.validations.IncomeStatementValidations;
 import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.PopulationRollup;
 import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.templates.CustomDataGenerator;
@@ -141,7 +143,17 @@ public class IncomeStatementArchetype implements TemplateArchetype {
 	 */
 	@Override
 	public List<String> getRelatedPublishedDataIndices() {
-		return Arrays.asList(IncomeStatementLoader.INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME);
+		return Arrays.asList(IncomeStatementLoader.INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME,
+				StatementIncomeReconciliation.INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.idb.cacao.api.templates.TemplateArchetype#getPopulationRollups()
+	 */
+	@Override
+	public List<PopulationRollup> getPopulationRollups() {
+		return Arrays.asList(IncomeStatementLoader.POPULATION_ROLLUP);
 	}
 
 	/*
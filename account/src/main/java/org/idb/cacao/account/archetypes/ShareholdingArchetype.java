@@ -13,6 +13,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.idb.cacao.account.elements.StatementComprehensiveIncome;
+import org.idb.cacao.account.etl.OwnershipGraphProcessor;
 import org.idb.cacao.account.etl.ShareholdingLoader;
 import org.idb.cacao.account.generator.ShareholdingGenerator;
 import org.idb.cacao.account.validations.ShareholdingValidations;
@@ -206,7 +207,8 @@ public class ShareholdingArchetype implements TemplateArchetype {
 	 */
 	@Override
 	public List<String> getRelatedPublishedDataIndices() {
-		return Arrays.asList(ShareholdingLoader.INDEX_PUBLISHED_SHAREHOLDING);
+		return Arrays.asList(ShareholdingLoader.INDEX_PUBLISHED_SHAREHOLDING,
+				OwnershipGraphProcessor.INDEX_PUBLISHED_OWNERSHIP);
 	}
 
 	/*
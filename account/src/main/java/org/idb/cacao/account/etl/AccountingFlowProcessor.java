@@ -11,9 +11,14 @@ import static org.idb.cacao.api.utils.ParserUtils.ISO_8601_DATE;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -84,10 +89,43 @@ public class AccountingFlowProcessor {
 	 */
 	private static final double EPSILON = 0.005;		
 	
+	/**
+	 * Default value for {@link #getMaxSearchSteps() maxSearchSteps}
+	 */
+	public static final int DEFAULT_MAX_SEARCH_STEPS = 10_000;
+	
+	/**
+	 * Orders partial entries according to their amounts (descending)
+	 */
+	private static final Comparator<PartialEntry> AMOUNT_DESCENDING = Comparator.comparingLong(PartialEntry::getCents).reversed();
+	
+	/**
+	 * Maximum number of steps while searching for a combination of entries matching one entry (the 'work budget'
+	 * for each debit or credit in a book entry with multiple debits and multiple credits)
+	 */
+	private int maxSearchSteps;
+	
 	public AccountingFlowProcessor() {
-		debitEntries = new LinkedList<>();
-		creditEntries = new LinkedList<>();
+		debitEntries = new ArrayList<>();
+		creditEntries = new ArrayList<>();
 		mapAccountingFlows = new HashMap<>();
+		maxSearchSteps = DEFAULT_MAX_SEARCH_STEPS;
+	}
+
+	/**
+	 * Maximum number of steps while searching for a combination of entries matching one entry (the 'work budget'
+	 * for each debit or credit in a book entry with multiple debits and multiple credits)
+	 */
+	public int getMaxSearchSteps() {
+		return maxSearchSteps;
+	}
+
+	/**
+	 * Maximum number of steps while searching for a combination of entries matching one entry (the 'work budget'
+	 * for each debit or credit in a book entry with multiple debits and multiple credits)
+	 */
+	public void setMaxSearchSteps(int maxSearchSteps) {
+		this.maxSearchSteps = maxSearchSteps;
 	}
 
 	/**
@@ -290,113 +328,35 @@ public class AccountingFlowProcessor {
 	
 	/**
 	 * Try combinations if we have many accounts being debited and many accounts being credited.<BR>
-	 * The matches found are removed from 'debitEntries' and 'creditEntries'.
+	 * The matches found are removed from 'debitEntries' and 'creditEntries'.<BR>
+	 * The amounts are compared as fixed-point numbers (cents). First it looks for 1:1 matches using a hash index
+	 * over the amounts. Then it looks for one debit matching a subset of credits and one credit matching a subset of
+	 * debits. The search for subsets is bounded by {@link #getMaxSearchSteps() maxSearchSteps} for each entry.
 	 * @return Returns TRUE if found at least one match. Returns FALSE if found none.
 	 */
 	private boolean tryCombinationsManyToMany() {
 		
 		// Let's order each set according to their values descending
-		debitEntries.sort(Comparator.comparing(PartialEntry::getAmount).reversed());
-		creditEntries.sort(Comparator.comparing(PartialEntry::getAmount).reversed());
-		
-		// Move along trying to match values from one to another
+		debitEntries.sort(AMOUNT_DESCENDING);
+		creditEntries.sort(AMOUNT_DESCENDING);
 		
 		boolean foundAny = false;
 		
-		// Try one debit to 1 or more credits
+		// Try one debit to one credit
 		
-		int startingCreditNotBiggerThanDebit = 0;
-		lookingForDebits:
-		for (int debit=0; debit<debitEntries.size(); debit++) {
-			double debitAmount = debitEntries.get(debit).getAmount();
-			String debitAccount = debitEntries.get(debit).getAccount();
-			boolean updateStartingCreditNotBiggerThanDebit = true;
-			for (int credit=startingCreditNotBiggerThanDebit; credit<creditEntries.size(); credit++) {
-				double creditAmount = creditEntries.get(credit).getAmount();
-				String creditAccount = creditEntries.get(credit).getAccount();
-				if (creditAmount>debitAmount)
-					continue;
-				if (updateStartingCreditNotBiggerThanDebit) {
-					updateStartingCreditNotBiggerThanDebit = false;
-					startingCreditNotBiggerThanDebit = credit; // in the next 'debit loop' we know for sure that any credit before this position is bigger
-				}
-				if (debitAccount.equals(creditAccount)) 
-					 continue; // we won't try to match a debit/credit into the same account
-				// Check if we have a 1:1 match
-				if (Math.abs(debitAmount - creditAmount) < EPSILON) {
-					// We have a 1:1 match, form an accounting flow
-					commitFlow1D1C(debit, credit);
-					foundAny = true;
-					// Fix the debit index because we've removed one debit part when we built the flow
-					debit--;
-					// Let's move to the next debit
-					continue lookingForDebits;
-				}
-				// If we got here, we know for sure that the 'debitAmount' is bigger than the 'creditAmount',
-				// Check if we have a 1:2 match, starting with the extremes (upper and lower) boundaries in credits values
-				for (int credit2=creditEntries.size()-1;credit2>credit;credit2--) {
-					double credit2Amount = creditEntries.get(credit2).getAmount();
-					String credit2Account = creditEntries.get(credit2).getAccount();
-					double credits = creditAmount + credit2Amount;
-					if (debitAccount.equals(credit2Account)) 
-						 continue; // we won't try to match a debit/credit into the same account
-					if (Math.abs(debitAmount - credits) < EPSILON) {
-						// We have a 1:2 match, form an accounting flow
-						commitFlow1D2C(debit, credit, credit2);
-						foundAny = true;
-						// Fix the debit index because we've removed one debit part when we built the flow
-						debit--;
-						// Let's move to the next debit
-						continue lookingForDebits;
-					}
-					if (credits > creditAmount)
-						break; // there is no point continuing this LOOP as 'the sum of credits' gets bigger
-				}
-			}
-		}
+		if (matchOneToOne())
+			foundAny = true;
 		
-		// Try one credit to 2 or more debits (we've already tested all the 1:1 possibilities in the previous loop)
+		// Try one debit to 2 or more credits
 		
-		int startingDebitNotBiggerThanCredit = 0;
-		lookingForCredits:
-		for (int credit=0; credit<creditEntries.size(); credit++) {
-			double creditAmount = creditEntries.get(credit).getAmount();
-			String creditAccount = creditEntries.get(credit).getAccount();
-			boolean updateStartingDebitNotBiggerThanCredit  = true;
-			for (int debit=startingDebitNotBiggerThanCredit; debit<debitEntries.size(); debit++) {
-				double debitAmount = debitEntries.get(debit).getAmount();
-				String debitAccount = debitEntries.get(debit).getAccount();
-				if (debitAmount>creditAmount)
-					continue;
-				if (updateStartingDebitNotBiggerThanCredit) {
-					updateStartingDebitNotBiggerThanCredit = false;
-					startingDebitNotBiggerThanCredit = debit; // in the next 'credit loop' we know for sure that any debit before this position is bigger
-				}
-				if (debitAccount.equals(creditAccount)) 
-					 continue; // we won't try to match a debit/credit into the same account
-				// If we got here, we know for sure that the 'creditAmount' is bigger than the 'debitAmount',
-				// Check if we have a 1:2 match, starting with the extremes (upper and lower) boundaries in debit values
-				for (int debit2=debitEntries.size()-1;debit2>debit;debit2--) {
-					double debit2Amount = debitEntries.get(debit2).getAmount();
-					String debit2Account = debitEntries.get(debit2).getAccount();
-					double debits = debitAmount + debit2Amount;
-					if (debit2Account.equals(creditAccount)) 
-						 continue; // we won't try to match a debit/credit into the same account
-					if (Math.abs(creditAmount - debits) < EPSILON) {
-						// We have a 1:2 match, form an accounting flow
-						commitFlow2D1C(debit, debit2, credit);
-						foundAny = true;
-						// Fix the credit index because we've removed one credit part when we built the flow
-						credit--;
-						// Let's move to the next credit
-						continue lookingForCredits;
-					}
-					if (debits > creditAmount)
-						break; // there is no point continuing this LOOP as 'the sum of debits' gets bigger
-				}
-			}
-		}
+		if (!debitEntries.isEmpty() && !creditEntries.isEmpty() && matchOneToMany(debitEntries, creditEntries, /*singleIsDebit*/true))
+			foundAny = true;
 		
+		// Try one credit to 2 or more debits
+		
+		if (!debitEntries.isEmpty() && !creditEntries.isEmpty() && matchOneToMany(creditEntries, debitEntries, /*singleIsDebit*/false))
+			foundAny = true;
+
 		// Don't try any other combinations because with multiple debits and multiple credits
 		// we don't have a 'good' accounting flow (it would be written as 'many to many')
 		
@@ -404,67 +364,199 @@ public class AccountingFlowProcessor {
 	}
 	
 	/**
-	 * Create an accounting flow with one debit and one credit taken from the set of debits and credits
+	 * Matches debits and credits of the same amount (but different accounts) using a hash index over the amounts of credits.<BR>
+	 * The matches found are removed from 'debitEntries' and 'creditEntries'.
+	 * @return Returns TRUE if found at least one match. Returns FALSE if found none.
 	 */
-	private void commitFlow1D1C(int debitIndex, int creditIndex) {
-		PartialEntry debitEntry = debitEntries.remove(debitIndex);
-		PartialEntry creditEntry = creditEntries.remove(creditIndex);
-		DailyAccountingFlow flow = new DailyAccountingFlow();
-		flow.setDate(currentDate);
-		flow.setDebitedAccountCode(debitEntry.getAccount());
-		flow.setCreditedAccountCode(creditEntry.getAccount());
-		flow.setAmount(debitEntry.getAmount());
-		addFlow(flow);					
+	private boolean matchOneToOne() {
+		
+		Map<Long, List<PartialEntry>> creditsPerAmount = indexByAmount(creditEntries);
+		Set<PartialEntry> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+		
+		for (PartialEntry debit: debitEntries) {
+			List<PartialEntry> candidates = creditsPerAmount.get(debit.getCents());
+			if (candidates==null)
+				continue;
+			for (Iterator<PartialEntry> it=candidates.iterator(); it.hasNext(); ) {
+				PartialEntry credit = it.next();
+				if (debit.getAccount().equals(credit.getAccount()))
+					continue; // we won't try to match a debit/credit into the same account
+				// We have a 1:1 match, form an accounting flow
+				it.remove();
+				matched.add(debit);
+				matched.add(credit);
+				addFlow(debit.getAccount(), credit.getAccount(), debit.getAmount());
+				break;
+			}
+		}
+		
+		if (matched.isEmpty())
+			return false;
+		debitEntries.removeIf(matched::contains);
+		creditEntries.removeIf(matched::contains);
+		return true;
 	}
-
+	
 	/**
-	 * Create two accounting flows with one debit and two credits taken from the set of debits and credits
-	 */
-	private void commitFlow1D2C(int debitIndex, int creditIndex1, int creditIndex2) {
-		PartialEntry debitEntry = debitEntries.remove(debitIndex);
-		PartialEntry creditEntry1 = creditEntries.remove(creditIndex1);
-		DailyAccountingFlow flow1 = new DailyAccountingFlow();
-		flow1.setDate(currentDate);
-		flow1.setDebitedAccountCode(debitEntry.getAccount());
-		flow1.setCreditedAccountCode(creditEntry1.getAccount());
-		flow1.setAmount(creditEntry1.getAmount());
-		addFlow(flow1);					
+	 * Matches each entry in 'singles' with a subset of two or more entries in 'counterparts' summing up the same amount.<BR>
+	 * Both lists must be ordered by amount (descending). The matches found are removed from both lists.
+	 * @param singles The entries to be matched individually (one at a time)
+	 * @param counterparts The entries that may be combined in order to match one of the 'singles'
+	 * @param singleIsDebit Indicates if 'singles' are the debits (and 'counterparts' are the credits)
+	 * @return Returns TRUE if found at least one match. Returns FALSE if found none.
+	 */
+	private boolean matchOneToMany(List<PartialEntry> singles, List<PartialEntry> counterparts, boolean singleIsDebit) {
 		
-		if (creditIndex1<creditIndex2)
-			creditIndex2--;
-		PartialEntry creditEntry2 = creditEntries.remove(creditIndex2);
-		DailyAccountingFlow flow2 = new DailyAccountingFlow();
-		flow2.setDate(currentDate);
-		flow2.setDebitedAccountCode(debitEntry.getAccount());
-		flow2.setCreditedAccountCode(creditEntry2.getAccount());
-		flow2.setAmount(creditEntry2.getAmount());
-		addFlow(flow2);					
-
+		Map<Long, List<PartialEntry>> counterpartsPerAmount = indexByAmount(counterparts);
+		Set<PartialEntry> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+		
+		for (PartialEntry single: singles) {
+			
+			final long target = single.getCents();
+			
+			// Candidates are the counterparts not matched yet, not bigger than the target and not related to the same account
+			List<PartialEntry> candidates = new ArrayList<>();
+			for (PartialEntry counterpart: counterparts) {
+				if (counterpart.getCents()>=target || matched.contains(counterpart) || single.getAccount().equals(counterpart.getAccount()))
+					continue;
+				candidates.add(counterpart);
+			}
+			if (candidates.size()<2)
+				continue;
+			
+			List<PartialEntry> subset = findPair(single, target, candidates, counterpartsPerAmount, matched);
+			if (subset==null && candidates.size()>2)
+				subset = findSubset(target, candidates);
+			if (subset==null)
+				continue;
+			
+			matched.add(single);
+			for (PartialEntry counterpart: subset) {
+				matched.add(counterpart);
+				if (singleIsDebit)
+					addFlow(single.getAccount(), counterpart.getAccount(), counterpart.getAmount());
+				else
+					addFlow(counterpart.getAccount(), single.getAccount(), counterpart.getAmount());
+			}
+		}
+		
+		if (matched.isEmpty())
+			return false;
+		singles.removeIf(matched::contains);
+		counterparts.removeIf(matched::contains);
+		return true;
 	}
-
+	
 	/**
-	 * Create two accounting flows with two debits and one credit taken from the set of debits and credits
-	 */
-	private void commitFlow2D1C(int debitIndex1, int debitIndex2, int creditIndex) {
-		PartialEntry creditEntry = creditEntries.remove(creditIndex);
-		PartialEntry debitEntry1 = debitEntries.remove(debitIndex1);
-		DailyAccountingFlow flow1 = new DailyAccountingFlow();
-		flow1.setDate(currentDate);
-		flow1.setDebitedAccountCode(debitEntry1.getAccount());
-		flow1.setCreditedAccountCode(creditEntry.getAccount());
-		flow1.setAmount(debitEntry1.getAmount());
-		addFlow(flow1);					
-		
-		if (debitIndex1<debitIndex2)
-			debitIndex2--;
-		PartialEntry debitEntry2 = debitEntries.remove(debitIndex2);
-		DailyAccountingFlow flow2 = new DailyAccountingFlow();
-		flow2.setDate(currentDate);
-		flow2.setDebitedAccountCode(debitEntry2.getAccount());
-		flow2.setCreditedAccountCode(creditEntry.getAccount());
-		flow2.setAmount(debitEntry2.getAmount());
-		addFlow(flow2);					
-
+	 * Look for two candidates summing up the target amount using the hash index over the amounts
+	 * @return Returns the matching pair or NULL if none was found
+	 */
+	private List<PartialEntry> findPair(PartialEntry single, long target, List<PartialEntry> candidates, 
+			Map<Long, List<PartialEntry>> counterpartsPerAmount, Set<PartialEntry> matched) {
+		for (PartialEntry first: candidates) {
+			List<PartialEntry> complements = counterpartsPerAmount.get(target - first.getCents());
+			if (complements==null)
+				continue;
+			for (PartialEntry second: complements) {
+				if (second==first || matched.contains(second) || single.getAccount().equals(second.getAccount()))
+					continue;
+				return Arrays.asList(first, second);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Look for three or more candidates summing up the target amount. Performs a depth-first search over the candidates (ordered by amount descending)
+	 * with pruning, limited by {@link #getMaxSearchSteps() maxSearchSteps}.
+	 * @return Returns the matching subset or NULL if none was found (or if the search was interrupted)
+	 */
+	private List<PartialEntry> findSubset(long target, List<PartialEntry> candidates) {
+		final int n = candidates.size();
+		final long[] amounts = new long[n];
+		// remaining[i] = sum of amounts from position 'i' up to the end
+		final long[] remaining = new long[n+1];
+		for (int i=n-1; i>=0; i--) {
+			amounts[i] = candidates.get(i).getCents();
+			remaining[i] = remaining[i+1] + amounts[i];
+		}
+		if (remaining[0]<target)
+			return null;
+		final int[] chosen = new int[n];
+		int size = searchSubset(amounts, remaining, target, chosen, maxSearchSteps);
+		if (size<=0)
+			return null;
+		List<PartialEntry> subset = new ArrayList<>(size);
+		for (int i=0; i<size; i++)
+			subset.add(candidates.get(chosen[i]));
+		return subset;
+	}
+	
+	/**
+	 * Depth-first search of {@link #findSubset(long, List) findSubset}. The search is iterative, using 'chosen' as the
+	 * explicit stack (chosen[d] is the candidate tried at depth 'd'), so that its depth is not bounded by the call stack.
+	 * @param budget Maximum number of candidates to try
+	 * @return Returns the size of the subset found, or zero if not found
+	 */
+	private static int searchSubset(long[] amounts, long[] remaining, long target, int[] chosen, int budget) {
+		int depth = 0;
+		int i = 0;			// next candidate to try at the current depth
+		long need = target;	// amount still needed at the current depth
+		while (true) {
+			boolean backtrack;
+			if (i>=amounts.length) {
+				backtrack = true;
+			}
+			else {
+				if (--budget<0)
+					return 0;
+				// there is no point continuing at this depth if 'the sum of the remaining amounts' is not enough
+				backtrack = remaining[i]<need;
+			}
+			if (backtrack) {
+				if (depth==0)
+					return 0;
+				depth--;
+				need += amounts[chosen[depth]];
+				i = chosen[depth]+1;
+				continue;
+			}
+			final int position = (depth==0) ? 0 : chosen[depth-1]+1;
+			if (amounts[i]>need
+				|| (i>position && amounts[i]==amounts[i-1])) { // same amount as the previous attempt at this depth
+				i++;
+				continue;
+			}
+			chosen[depth] = i;
+			if (amounts[i]==need)
+				return depth+1;
+			need -= amounts[i];
+			depth++;
+			i++;
+		}
+	}
+	
+	/**
+	 * Builds an index of entries according to their amounts (in cents)
+	 */
+	private static Map<Long, List<PartialEntry>> indexByAmount(List<PartialEntry> entries) {
+		Map<Long, List<PartialEntry>> index = new HashMap<>();
+		for (PartialEntry entry: entries) {
+			index.computeIfAbsent(entry.getCents(), k->new LinkedList<>()).add(entry);
+		}
+		return index;
+	}
+	
+	/**
+	 * Creates an accounting flow with one debited account and one credited account
+	 */
+	private void addFlow(String debitedAccount, String creditedAccount, double amount) {
+		DailyAccountingFlow flow = new DailyAccountingFlow();
+		flow.setDate(currentDate);
+		flow.setDebitedAccountCode(debitedAccount);
+		flow.setCreditedAccountCode(creditedAccount);
+		flow.setAmount(amount);
+		addFlow(flow);					
 	}
 
 	/**
@@ -14,7 +14,6 @@ import java.time.ZoneId;
 import java.time.format.TextStyle;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -33,13 +32,11 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.search.sort.SortOrder;
 import org.idb.cacao.account.archetypes.AccountBuiltInDomainTables;
 import org.idb.cacao.account.archetypes.ChartOfAccountsArchetype;
 import org.idb.cacao.account.archetypes.GeneralLedgerArchetype;
 import org.idb.cacao.account.archetypes.OpeningBalanceArchetype;
 import org.idb.cacao.account.elements.AccountStandard;
-import org.idb.cacao.account.elements.BalanceSheet;
 import org.idb.cacao.account.elements.DailyAccountingFlow;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentUploaded;
@@ -56,6 +53,7 @@ import org.idb.cacao.api.templates.DocumentField;
 import org.idb.cacao.api.templates.DocumentTemplate;
 import org.idb.cacao.api.templates.DomainEntry;
 import org.idb.cacao.api.templates.DomainTable;
+import org.idb.cacao.api.utils.ExternalSorter;
 import org.idb.cacao.api.utils.IndexNamesUtils;
 import org.idb.cacao.api.utils.StringUtils;
 
@@ -117,6 +115,11 @@ public class AccountingLoader {
 	 */
 	private static final double EPSILON = 0.005;		
 
+	/**
+	 * Number of parallel readers used for reading the validated General Ledger
+	 */
+	private static final int PARALLEL_READERS_FOR_GENERAL_LEDGER = 4;
+
 	/**
 	 * Fields names for published (denormalized) views
 	 */
@@ -597,7 +600,10 @@ public class AccountingLoader {
 			customDomainTables.remove(ledgerDebitCredit);
  
 
-			LoadDataStrategy loader = context.getLoadDataStrategy();
+			// The processors running in parallel share the same object for writing the results
+			final LoadDataStrategy originalLoader = context.getLoadDataStrategy();
+			final LoadDataStrategy loader = new ETLContext.SynchronizedLoadDataStrategy(originalLoader);
+			context.setLoadDataStrategy(loader);
 			loader.start();
 			
 			final LongAdder countRecordsOverall = new LongAdder();
@@ -644,15 +650,50 @@ public class AccountingLoader {
 			customersSuppliers.setCountRecordsOverall(countRecordsOverall);
 			customersSuppliers.setDocumentUploadedForGeneralLedger(gl);
 			customersSuppliers.setDeclarantInformation(declarantInformation);
+			
+			// The Monthly Balance Sheets are computed in the same thread that reads the General Ledger because the
+			// denormalized General Ledger includes the running balances. The other processors run in parallel, each one
+			// in its own thread.
+			final ProcessorsFanOut fanOut = new ProcessorsFanOut();
+			fanOut.addProcessor("AccountingFlow", 
+				entry->{
+					if (entry.getAmount()!=null && Math.abs(entry.getAmount().doubleValue())>EPSILON)
+						accountingFlowProc.computeEntry(entry.getDate(), entry.getAccountCode(), entry.getAmount(), entry.isDebit());
+				}, 
+				accountingFlowProc::finish);
+			fanOut.addProcessor("StatementIncome", 
+				entry->computedStatementIncome.computeEntry(entry.getDate(), entry.getAccountCode(), entry.getAmount(), entry.isDebit()), 
+				computedStatementIncome::finish);
+			fanOut.addProcessor("CustomersSuppliers", 
+				entry->{
+					if (entry.getCustomerSupplierId()!=null)
+						customersSuppliers.computeEntry(entry.getDate(), entry.getAccountCode(), 
+							entry.getCustomerSupplierId(), entry.getCustomerSupplierName(), 
+							entry.getAmount(), entry.isDebit());
+				}, 
+				customersSuppliers::finish);
 
 			// Search for the validated general ledger related to the matching template
-			// Reads the validated general ledger in chronological order. For each day order by ledger entry ID.
-			Stream<Map<String, Object>> gl_data = context.getValidatedDataRepository().getValidatedData(gl.getTemplateName(), gl.getTemplateVersion(), gl.getFileId(),
-					/*sortBy*/Optional.of(new String[] {ledgerDate, ledgerId+".keyword" }),
-					/*sortOrder*/Optional.of(SortOrder.ASC));
-			
-			if (gl_data==null)
-				gl_data = Collections.<Map<String, Object>>emptySet().stream();
+			// Reads the validated general ledger in no particular order (with parallel readers) and sorts it here
+			// in chronological order. For each day order by ledger entry ID.
+			final ExternalSorter<SortableLedgerRecord> gl_sorter = new ExternalSorter<>(SortableLedgerRecord.CHRONOLOGICAL);
+			try (Stream<Map<String, Object>> gl_unsorted = context.getValidatedDataRepository().getValidatedDataUnsorted(gl.getTemplateName(), gl.getTemplateVersion(), gl.getFileId(),
+					PARALLEL_READERS_FOR_GENERAL_LEDGER);) {
+				if (gl_unsorted!=null) {
+					gl_unsorted.forEach(record->gl_sorter.add(new SortableLedgerRecord(record, 
+						ValidationContext.toOffsetDateTime(record.get(ledgerDate)), 
+						ValidationContext.toString(record.get(ledgerId)))));
+				}
+			}
+			catch (RuntimeException e) {
+				gl_sorter.close();
+				throw e;
+			}
+			if (log.isLoggable(Level.FINE) && gl_sorter.getSpilledRuns()>0) {
+				log.log(Level.FINE, "Sorting "+gl_sorter.getCount()+" records of General Ledger for taxpayer id "+taxPayerId+" period "+taxPeriodNumber
+					+" using "+gl_sorter.getSpilledRuns()+" temporary files");
+			}
+			final Stream<Map<String, Object>> gl_data = gl_sorter.sorted().map(SortableLedgerRecord::getRecord);
 			
 			// Deletes previous published data
 			for (String index: new String[] {
@@ -665,7 +706,7 @@ public class AccountingLoader {
 			}) {
 
 				try {
-					context.getLoadDataStrategy().delete(index, taxPayerId, taxPeriodNumber);
+					loader.delete(index, taxPayerId, taxPeriodNumber);
 				} catch (Exception e) {
 					log.log(Level.SEVERE, "Error while deleting previous published data at "+index+" regarding "+taxPayerId+" and period "+taxPeriodNumber, e);
 				}
@@ -677,6 +718,8 @@ public class AccountingLoader {
 			boolean success = true;
 			try {
 				
+				fanOut.start();
+				
 				gl_data.forEach(record->{
 					
 					final OffsetDateTime date = ValidationContext.toOffsetDateTime(record.get(ledgerDate));
@@ -713,26 +756,15 @@ public class AccountingLoader {
 					
 					// Computes Monthly Balance Sheet
 					
-					BalanceSheet balanceSheet = balanceSheetProc.computeEntry(date, accountCode, amount, is_debit);
-					
-					// Computes Accounting Flow
-					
-					if (amount!=null && Math.abs(amount.doubleValue())>EPSILON)
-						accountingFlowProc.computeEntry(date, accountCode, amount, is_debit);
+					final double balance = balanceSheetProc.computeEntry(date, accountCode, amount, is_debit);
 					
-					// Computes Statement of Incomes
+					// Computes Accounting Flow, Statement of Incomes and aggregates information about customers and suppliers
 					
-					computedStatementIncome.computeEntry(date, accountCode, amount, is_debit);
-					
-					// Aggregates information about customers and suppliers
 					Object customerSupplierId = record.get(publishedCustomerSupplierId);
 					Object customerSupplierName = record.get(publishedCustomerSupplierName);
-					if (customerSupplierId!=null) {
-						customersSuppliers.computeEntry(date, accountCode, 
-								ValidationContext.toString(customerSupplierId), 
-								ValidationContext.toString(customerSupplierName), 
-								amount, is_debit);
-					}
+					fanOut.accept(new LedgerEntry(date, accountCode, amount, is_debit, 
+							ValidationContext.toString(customerSupplierId), 
+							ValidationContext.toString(customerSupplierName)));
 
 					// Publish denormalized GENERAL LEDGER record
 					
@@ -754,8 +786,8 @@ public class AccountingLoader {
 					normalizedRecord_GL.put(publishedtaxPeriodNumber, taxPeriodNumber);
 					normalizedRecord_GL.put(publishedTemplateName, gl.getTemplateName());
 					normalizedRecord_GL.put(publishedTemplateVersion, gl.getTemplateVersion());
-					normalizedRecord_GL.put(ledgerBalance, balanceSheet.getFinalValue());
-					normalizedRecord_GL.put(ledgerBalanceDebitCredit, balanceSheet.isFinalValueDebit() ? "D" : "C");
+					normalizedRecord_GL.put(ledgerBalance, balance);
+					normalizedRecord_GL.put(ledgerBalanceDebitCredit, (balance>=0) ? "D" : "C");
 					if (amount!=null && is_debit)
 						normalizedRecord_GL.put(ledgerAmountDebits, amount);
 					if (amount!=null && !is_debit)
@@ -781,17 +813,15 @@ public class AccountingLoader {
 				// After processing all the General Ledger, let's fill the Monthly Balance Sheet for all accounts
 				balanceSheetProc.finish();
 				
-				// After processing all the General Ledger, let's finish computing the Daily Accounting Flows
-				accountingFlowProc.finish();
-				
-				// After processing all the General Ledger, let's finish computing the Statement of Income
-				computedStatementIncome.finish();
-				
-				// After processing all the General Ledger, let's finish computing aggregations over Customers and Suppliers
-				customersSuppliers.finish();
+				// After processing all the General Ledger, let's wait for the Daily Accounting Flows, the Statement of Income
+				// and the aggregations over Customers and Suppliers
+				fanOut.finish();
 			}
 			finally {
+				fanOut.close();
 				gl_data.close();
+				gl_sorter.close();
+				context.setLoadDataStrategy(originalLoader);
 				try {
 					loader.commit();
 				}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates running balances of accounts while iterating over General Ledger entries.<BR>
+ * Each account code receives a dense integer id (in order of appearance), and all the values
+ * are kept in primitive arrays indexed by this id, so there is no boxing and no additional
+ * objects per book entry.<BR>
+ * The final balances of each closed month are also kept in primitive arrays (one array per month)
+ * for later completing the balance sheets of absent months.<BR>
+ * All the balances follow the same convention: positive = debit, negative = credit.<BR>
+ * This class is not thread-safe.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BalanceAccumulator {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Dense id for each account code
+	 */
+	private final Map<String, Integer> accountIds;
+
+	private String[] accountCodes;
+
+	/**
+	 * Balance at the start of current month for each account
+	 */
+	private double[] initialValues;
+
+	/**
+	 * Sum of debits in current month for each account
+	 */
+	private double[] debits;
+
+	/**
+	 * Sum of credits in current month for each account
+	 */
+	private double[] credits;
+
+	/**
+	 * Count of book entries in current month for each account
+	 */
+	private int[] countEntries;
+
+	/**
+	 * Number of accounts
+	 */
+	private int size;
+
+	/**
+	 * Final balances of closed months (the key is year+month in the format yyyymm)
+	 */
+	private final Map<Integer, ClosedMonth> closedMonths;
+
+	private int minClosedYearMonth;
+
+	private int maxClosedYearMonth;
+
+	public BalanceAccumulator() {
+		this.accountIds = new HashMap<>();
+		this.accountCodes = new String[INITIAL_CAPACITY];
+		this.initialValues = new double[INITIAL_CAPACITY];
+		this.debits = new double[INITIAL_CAPACITY];
+		this.credits = new double[INITIAL_CAPACITY];
+		this.countEntries = new int[INITIAL_CAPACITY];
+		this.closedMonths = new HashMap<>();
+	}
+
+	/**
+	 * Returns the id of the account code, or -1 if it was not registered yet
+	 */
+	public int getAccountId(String accountCode) {
+		Integer id = accountIds.get(accountCode);
+		return (id==null) ? -1 : id.intValue();
+	}
+
+	/**
+	 * Registers a new account with its initial balance (positive = debit, negative = credit) and returns its id
+	 */
+	public int addAccount(String accountCode, double initialValue) {
+		Integer existent = accountIds.get(accountCode);
+		if (existent!=null)
+			return existent.intValue();
+		if (size==accountCodes.length) {
+			int capacity = size * 2;
+			accountCodes = Arrays.copyOf(accountCodes, capacity);
+			initialValues = Arrays.copyOf(initialValues, capacity);
+			debits = Arrays.copyOf(debits, capacity);
+			credits = Arrays.copyOf(credits, capacity);
+			countEntries = Arrays.copyOf(countEntries, capacity);
+		}
+		int id = size++;
+		accountCodes[id] = accountCode;
+		initialValues[id] = initialValue;
+		accountIds.put(accountCode, id);
+		return id;
+	}
+
+	/**
+	 * Number of registered accounts
+	 */
+	public int size() {
+		return size;
+	}
+
+	public String getAccountCode(int id) {
+		return accountCodes[id];
+	}
+
+	/**
+	 * Compute a book entry from journal for the account with the given id
+	 */
+	public void computeEntry(int id, Number amount, boolean isDebit) {
+		if (amount==null)
+			return;
+		if (isDebit)
+			debits[id] += Math.abs(amount.doubleValue());
+		else
+			credits[id] += Math.abs(amount.doubleValue());
+		countEntries[id]++;
+	}
+
+	/**
+	 * Balance at the start of current month (positive = debit, negative = credit)
+	 */
+	public double getInitialValue(int id) {
+		return initialValues[id];
+	}
+
+	/**
+	 * Sum of debits in current month
+	 */
+	public double getDebits(int id) {
+		return debits[id];
+	}
+
+	/**
+	 * Sum of credits in current month
+	 */
+	public double getCredits(int id) {
+		return credits[id];
+	}
+
+	/**
+	 * Count of book entries in current month
+	 */
+	public int getCountEntries(int id) {
+		return countEntries[id];
+	}
+
+	/**
+	 * Balance at the end of current month (positive = debit, negative = credit)
+	 */
+	public double getFinalValue(int id) {
+		return initialValues[id] + debits[id] - credits[id];
+	}
+
+	/**
+	 * Keeps the final balance of the account for the given month and starts the next month
+	 * with this balance (resetting debits, credits and count of entries).
+	 */
+	public void closeMonth(int id, int yearMonth) {
+		final double finalValue = getFinalValue(id);
+		ClosedMonth closed = closedMonths.get(yearMonth);
+		if (closed==null) {
+			closed = new ClosedMonth(accountCodes.length);
+			closedMonths.put(yearMonth, closed);
+			if (minClosedYearMonth==0 || yearMonth<minClosedYearMonth)
+				minClosedYearMonth = yearMonth;
+			if (maxClosedYearMonth==0 || yearMonth>maxClosedYearMonth)
+				maxClosedYearMonth = yearMonth;
+		}
+		closed.put(id, finalValue);
+		initialValues[id] = finalValue;
+		debits[id] = 0;
+		credits[id] = 0;
+		countEntries[id] = 0;
+	}
+
+	/**
+	 * Minimum year+month of closed months, or 0 if none
+	 */
+	public int getMinClosedYearMonth() {
+		return minClosedYearMonth;
+	}
+
+	/**
+	 * Maximum year+month of closed months, or 0 if none
+	 */
+	public int getMaxClosedYearMonth() {
+		return maxClosedYearMonth;
+	}
+
+	/**
+	 * Returns TRUE if the month was closed for the account code
+	 */
+	public boolean isClosed(String accountCode, int yearMonth) {
+		ClosedMonth closed = closedMonths.get(yearMonth);
+		if (closed==null)
+			return false;
+		int id = getAccountId(accountCode);
+		return id>=0 && closed.informed.get(id);
+	}
+
+	/**
+	 * Returns the final balance of the account code in a closed month. Should check {@link #isClosed(String, int) isClosed} first.
+	 */
+	public double getClosedBalance(String accountCode, int yearMonth) {
+		ClosedMonth closed = closedMonths.get(yearMonth);
+		if (closed==null)
+			return 0.0;
+		int id = getAccountId(accountCode);
+		return (id<0 || id>=closed.finalValues.length) ? 0.0 : closed.finalValues[id];
+	}
+
+	/**
+	 * Final balances of all accounts in a closed month
+	 */
+	private static class ClosedMonth {
+
+		double[] finalValues;
+
+		final BitSet informed;
+
+		ClosedMonth(int capacity) {
+			this.finalValues = new double[capacity];
+			this.informed = new BitSet(capacity);
+		}
+
+		void put(int id, double finalValue) {
+			if (id>=finalValues.length)
+				finalValues = Arrays.copyOf(finalValues, Math.max(id+1, finalValues.length*2));
+			finalValues[id] = finalValue;
+			informed.set(id);
+		}
+	}
+}
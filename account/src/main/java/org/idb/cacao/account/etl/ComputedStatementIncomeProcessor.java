@@ -17,6 +17,8 @@ import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.elasticsearch.action.index.IndexRequest;
 import org.idb.cacao.account.archetypes.AccountBuiltInDomainTables;
@@ -29,6 +31,7 @@ import org.idb.cacao.account.etl.AccountingLoader.AccountingFieldNames;
 import org.idb.cacao.api.DocumentUploaded;
 import org.idb.cacao.api.DomainLanguage;
 import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.PopulationRollup;
 import org.idb.cacao.api.PublishedDataFieldNames;
 import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.ETLContext.LoadDataStrategy;
@@ -48,6 +51,8 @@ import com.google.common.cache.LoadingCache;
  */
 public class ComputedStatementIncomeProcessor implements Function<StatementComprehensiveIncome, Number> {
 
+	private static final Logger log = Logger.getLogger(ComputedStatementIncomeProcessor.class.getName());
+
 	/**
 	 * The field name for date/time of published data
 	 */
@@ -108,6 +113,12 @@ public class ComputedStatementIncomeProcessor implements Function<StatementCompr
 	 */
 	private static final String amountRelative = IndexNamesUtils.formatFieldName("AmountRelative");
 
+	/**
+	 * Population statistics of each statement entry relative to Revenue Net, for each year
+	 */
+	public static final PopulationRollup POPULATION_ROLLUP = new PopulationRollup(AccountingLoader.INDEX_PUBLISHED_COMPUTED_STATEMENT_INCOME,
+			publishedYear, statementNumber, statementEntry + "_name", amount, amountRelative);
+
 	/**
 	 * The field name of the subcategory of an account according to the Taxpayer's Chart of Account
 	 */
@@ -156,6 +167,11 @@ public class ComputedStatementIncomeProcessor implements Function<StatementCompr
 
 	private DocumentUploaded gl;
 
+	/**
+	 * Compares the computed values with the declared Statement of Income
+	 */
+	private final StatementIncomeReconciliation reconciliation;
+
 	/**
 	 * Ignores differences lesser than half of a cent	
 	 */
@@ -174,6 +190,8 @@ public class ComputedStatementIncomeProcessor implements Function<StatementCompr
 		this.taxPeriodNumber = context.getDocumentUploaded().getTaxPeriodNumber();
 		this.timestamp = timestamp;
 		this.declarantInformation = Optional.empty();
+		this.reconciliation = new StatementIncomeReconciliation(context, timestamp);
+		this.reconciliation.setMapDomainTexts(mapDomainTexts);
 
 		// Use the domain table (either the built-in or the one configured at application)
 		DomainTable sci_dt;
@@ -220,6 +238,7 @@ public class ComputedStatementIncomeProcessor implements Function<StatementCompr
 
 	public void setDeclarantInformation(Optional<Map<String, Object>> declarantInformation) {
 		this.declarantInformation = declarantInformation;
+		this.reconciliation.setDeclarantInformation(declarantInformation);
 	}
 
 	/**
@@ -333,6 +352,21 @@ public class ComputedStatementIncomeProcessor implements Function<StatementCompr
 				countRecordsOverall.increment();	
 		}
 
+		// Store the differences with the declared Statement of Income
+		
+		Map<StatementComprehensiveIncome, Number> computedValues = new HashMap<>();
+		for (Map.Entry<StatementComprehensiveIncome, ComputedStatementEntry> entry: mapStatementEntries.entrySet()) {
+			computedValues.put(entry.getKey(), entry.getValue().getValue());
+		}
+		try {
+			long countReconciliation = reconciliation.publishComputed(year, computedValues);
+			if (countRecordsOverall!=null)
+				countRecordsOverall.add(countReconciliation);
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Error while comparing the computed Statement of Income with the declared one for taxpayer id "+taxPayerId+" period "+taxPeriodNumber, e);
+		}
+
 	}
 
 	@Override
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar store of monthly aggregations over customers (or over suppliers) while iterating over General Ledger entries.<BR>
+ * Each customer/supplier identification receives a dense integer id (in order of appearance) and all the monthly values
+ * are kept in primitive arrays indexed by this id. Identifications are case insensitive (the first spelling is kept).<BR>
+ * Only the customers/suppliers with book entries in current month are visited when the month is published, and
+ * the arrays are reused for the next month.<BR>
+ * Any additional information about the customer/supplier (e.g. information from the taxpayers registry) may be attached
+ * to its id and is kept for all months.<BR>
+ * This class is not thread-safe.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class CustomerSupplierAggregations {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Dense id for each customer/supplier identification, as informed in General Ledger
+	 */
+	private final Map<String, Integer> ids;
+
+	/**
+	 * Dense id for each customer/supplier identification in upper case
+	 */
+	private final Map<String, Integer> idsIgnoringCase;
+
+	private String[] customerSupplierIds;
+
+	/**
+	 * Additional information about each customer/supplier (kept for all months)
+	 */
+	private Object[] attachments;
+
+	/**
+	 * Customer/supplier name according to accounting entries of current month
+	 */
+	private String[] names;
+
+	/**
+	 * Sum of debits in current month
+	 */
+	private double[] debits;
+
+	/**
+	 * Sum of credits in current month
+	 */
+	private double[] credits;
+
+	/**
+	 * Sum of amounts in current month (positive if additive, negative otherwise)
+	 */
+	private double[] amounts;
+
+	/**
+	 * Count of book entries in current month
+	 */
+	private long[] entries;
+
+	/**
+	 * Ids with book entries in current month (in order of appearance)
+	 */
+	private int[] touched;
+
+	private int countTouched;
+
+	/**
+	 * Number of customers/suppliers
+	 */
+	private int size;
+
+	public CustomerSupplierAggregations() {
+		this.ids = new HashMap<>();
+		this.idsIgnoringCase = new HashMap<>();
+		this.customerSupplierIds = new String[INITIAL_CAPACITY];
+		this.attachments = new Object[INITIAL_CAPACITY];
+		this.names = new String[INITIAL_CAPACITY];
+		this.debits = new double[INITIAL_CAPACITY];
+		this.credits = new double[INITIAL_CAPACITY];
+		this.amounts = new double[INITIAL_CAPACITY];
+		this.entries = new long[INITIAL_CAPACITY];
+		this.touched = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Returns the id of the customer/supplier, registering it if necessary
+	 */
+	public int getId(String customerSupplierId) {
+		Integer id = ids.get(customerSupplierId);
+		if (id!=null)
+			return id.intValue();
+		// Different spelling of a known customer/supplier, or a new one
+		id = idsIgnoringCase.get(customerSupplierId.toUpperCase());
+		if (id==null) {
+			id = addCustomerSupplier(customerSupplierId);
+		}
+		ids.put(customerSupplierId, id);
+		return id.intValue();
+	}
+
+	private int addCustomerSupplier(String customerSupplierId) {
+		if (size==customerSupplierIds.length) {
+			int capacity = size * 2;
+			customerSupplierIds = Arrays.copyOf(customerSupplierIds, capacity);
+			attachments = Arrays.copyOf(attachments, capacity);
+			names = Arrays.copyOf(names, capacity);
+			debits = Arrays.copyOf(debits, capacity);
+			credits = Arrays.copyOf(credits, capacity);
+			amounts = Arrays.copyOf(amounts, capacity);
+			entries = Arrays.copyOf(entries, capacity);
+			touched = Arrays.copyOf(touched, capacity);
+		}
+		int id = size++;
+		customerSupplierIds[id] = customerSupplierId;
+		idsIgnoringCase.put(customerSupplierId.toUpperCase(), id);
+		return id;
+	}
+
+	/**
+	 * Number of registered customers/suppliers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Compute a book entry from journal for the customer/supplier with the given id
+	 * @param name Customer/supplier name informed in accounting (only the first one informed in a month is kept)
+	 * @param amount Amount
+	 * @param isDebit Indication whether the account was debited (otherwise it was credited)
+	 * @param debitIsAdditive Indication whether debits should be added to the amount (otherwise credits are added)
+	 */
+	public void computeEntry(int id, String name, double amount, boolean isDebit, boolean debitIsAdditive) {
+		if (entries[id]==0) {
+			touched[countTouched++] = id;
+		}
+		if (debitIsAdditive==isDebit)
+			amounts[id] += amount;
+		else
+			amounts[id] -= amount;
+		if (isDebit)
+			debits[id] += amount;
+		else
+			credits[id] += amount;
+		entries[id]++;
+		if (names[id]==null && name!=null && name.trim().length()>0)
+			names[id] = name;
+	}
+
+	/**
+	 * Number of customers/suppliers with book entries in current month
+	 */
+	public int getCountTouched() {
+		return countTouched;
+	}
+
+	/**
+	 * Returns the id of the i-th customer/supplier with book entries in current month
+	 */
+	public int getTouched(int i) {
+		return touched[i];
+	}
+
+	public String getCustomerSupplierId(int id) {
+		return customerSupplierIds[id];
+	}
+
+	/**
+	 * Customer/supplier name according to accounting entries of current month (or NULL if not informed)
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	public double getDebits(int id) {
+		return debits[id];
+	}
+
+	public double getCredits(int id) {
+		return credits[id];
+	}
+
+	public double getAmount(int id) {
+		return amounts[id];
+	}
+
+	public long getEntries(int id) {
+		return entries[id];
+	}
+
+	/**
+	 * Additional information previously attached to the customer/supplier (or NULL if none)
+	 */
+	public Object getAttachment(int id) {
+		return attachments[id];
+	}
+
+	/**
+	 * Attaches additional information to the customer/supplier
+	 */
+	public void setAttachment(int id, Object attachment) {
+		attachments[id] = attachment;
+	}
+
+	/**
+	 * Resets all the monthly values of the customers/suppliers with book entries in current month
+	 */
+	public void resetMonth() {
+		for (int i=0; i<countTouched; i++) {
+			int id = touched[i];
+			debits[id] = 0;
+			credits[id] = 0;
+			amounts[id] = 0;
+			entries[id] = 0;
+			names[id] = null;
+		}
+		countTouched = 0;
+	}
+}
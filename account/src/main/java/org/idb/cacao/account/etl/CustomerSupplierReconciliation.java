@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.idb.cacao.account.etl.AccountingLoader.AccountingFieldNames;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.Periodicity;
+import org.idb.cacao.api.PublishedDataFieldNames;
+import org.idb.cacao.api.ValidationContext;
+import org.idb.cacao.api.ETLContext.LoadDataStrategy;
+import org.idb.cacao.api.utils.IndexNamesUtils;
+
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Keeps the monthly flows between each pair of taxpayers (one selling to the other) as reported by both sides: the
+ * sales according to the seller's customers and the purchases according to the buyer's suppliers.<BR>
+ * Whenever a General Ledger is published, all the pairs involving the declarant (either as seller or as buyer) in the
+ * months covered by its period are replaced (e.g. only one month for a monthly General Ledger). The declarant's side comes
+ * from the General Ledger being published and the counterparties' side is read from the published customers and suppliers
+ * indices. The other pairs and the other months are not affected.<BR>
+ * There is one record in the reconciliation index for each year, month, seller and buyer.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class CustomerSupplierReconciliation {
+
+	private static final Logger log = Logger.getLogger(CustomerSupplierReconciliation.class.getName());
+
+	/**
+	 * Index name for published data regarding the flows between each pair of taxpayers as reported by both sides.<BR>
+	 * There is one record for each year, month, seller and buyer.
+	 */
+	public static final String INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION = IndexNamesUtils.formatIndexNameForPublishedData("Accounting Customers Suppliers Reconciliation");
+
+	/**
+	 * Ignores differences lesser than half of a cent
+	 */
+	private static final double EPSILON = 0.005;
+
+	/**
+	 * Field names for the reconciliation published data
+	 */
+	public static enum CustomerSupplierFieldNames {
+
+		/**
+		 * Taxpayer Id of the seller (the one reporting the buyer as customer)
+		 */
+		SellerId,
+
+		SellerName,
+
+		/**
+		 * Taxpayer Id of the buyer (the one reporting the seller as supplier)
+		 */
+		BuyerId,
+
+		BuyerName,
+
+		/**
+		 * Amount of sales according to the seller's General Ledger
+		 */
+		SalesAmount,
+
+		/**
+		 * Amount of purchases according to the buyer's General Ledger
+		 */
+		PurchasesAmount,
+
+		/**
+		 * Sales minus purchases
+		 */
+		Difference,
+
+		/**
+		 * Absolute value of the difference
+		 */
+		AbsoluteDifference,
+
+		/**
+		 * Indication whether the sales differ from the purchases (ignoring differences lesser than half of a cent)
+		 */
+		Mismatch,
+
+		/**
+		 * Indication whether the seller reported the buyer as customer in this month
+		 */
+		ReportedBySeller,
+
+		/**
+		 * Indication whether the buyer reported the seller as supplier in this month
+		 */
+		ReportedByBuyer;
+
+		private final String fieldName;
+
+		CustomerSupplierFieldNames() {
+			this.fieldName = IndexNamesUtils.formatFieldName(name());
+		}
+
+		public String getFieldName() {
+			return fieldName;
+		}
+	}
+
+	/**
+	 * The field name for date/time of published data
+	 */
+	private static final String publishedTimestamp = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TIMESTAMP.name());
+
+	/**
+	 * The field name for taxpayer ID in published data
+	 */
+	private static final String publishedTaxpayerId = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TAXPAYER_ID.name());
+
+	/**
+	 * The field name for indication of Year
+	 */
+	private static final String publishedYear = IndexNamesUtils.formatFieldName(AccountingFieldNames.Year.name());
+
+	/**
+	 * The field name for number indication of Month
+	 */
+	private static final String publishedMonthNumber = IndexNamesUtils.formatFieldName(AccountingFieldNames.MonthNumber.name());
+
+	/**
+	 * The field name for published data regarding the monthly amount of each customer or supplier
+	 */
+	private static final String publishedAmount = IndexNamesUtils.formatFieldName("Amount");
+
+	private static final String publishedCustomerId = IndexNamesUtils.formatFieldName("CustomerId");
+
+	private static final String publishedSupplierId = IndexNamesUtils.formatFieldName("SupplierId");
+
+	private final ETLContext.PublishedDataRepository publishedDataRepository;
+
+	private final LoadDataStrategy loader;
+
+	private final LoadingCache<String, Optional<Map<String, Object>>> lookupTaxpayers;
+
+	private final String taxPayerId;
+
+	private final OffsetDateTime timestamp;
+
+	/**
+	 * Months to be replaced, in the format yyyymm
+	 */
+	private final Set<Integer> yearMonths;
+
+	/**
+	 * Indicates the months to be replaced are given by the period of the General Ledger. Otherwise they are given by
+	 * the flows computed.
+	 */
+	private boolean fixedPeriod;
+
+	/**
+	 * Flows between the declarant and its counterparties, indexed by the record id
+	 */
+	private final Map<String, Flow> flows;
+
+	public CustomerSupplierReconciliation(final ETLContext context,
+			final LoadingCache<String, Optional<Map<String, Object>>> lookupTaxpayers,
+			final OffsetDateTime timestamp) {
+		this.publishedDataRepository = context.getPublishedDataRepository();
+		this.loader = context.getLoadDataStrategy();
+		this.lookupTaxpayers = lookupTaxpayers;
+		this.taxPayerId = context.getDocumentUploaded().getTaxPayerId();
+		this.timestamp = timestamp;
+		this.yearMonths = new TreeSet<>();
+		this.flows = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Includes all the months of a period (e.g. the period of the General Ledger being published) to be replaced, even
+	 * if there are no sales or purchases in these months. Once a period is given, flows in other months are ignored.
+	 * @param taxPeriodNumber Period number (yyyymm, yyyys or yyyy)
+	 */
+	public void addPeriod(Number taxPeriodNumber) {
+		Integer year = Periodicity.getYear(taxPeriodNumber);
+		int minMonth = Periodicity.getMinMonthNumber(taxPeriodNumber, null);
+		int maxMonth = Periodicity.getMaxMonthNumber(taxPeriodNumber, null);
+		if (year==null || minMonth==0 || maxMonth==0)
+			return;
+		for (int month=minMonth; month<=maxMonth; month++)
+			yearMonths.add(year*100 + month);
+		fixedPeriod = true;
+	}
+
+	/**
+	 * Computes the monthly sales of the declarant to one customer
+	 * @param yearMonth Year and month in the format yyyymm
+	 */
+	public void computeSales(String customerId, int yearMonth, double amount) {
+		if (customerId==null || customerId.trim().length()==0 || !acceptMonth(yearMonth))
+			return;
+		Flow flow = getFlow(taxPayerId, customerId, yearMonth);
+		flow.sales += amount;
+		flow.reportedBySeller = true;
+	}
+
+	/**
+	 * Computes the monthly purchases of the declarant from one supplier
+	 * @param yearMonth Year and month in the format yyyymm
+	 */
+	public void computePurchases(String supplierId, int yearMonth, double amount) {
+		if (supplierId==null || supplierId.trim().length()==0 || !acceptMonth(yearMonth))
+			return;
+		Flow flow = getFlow(supplierId, taxPayerId, yearMonth);
+		flow.purchases += amount;
+		flow.reportedByBuyer = true;
+	}
+
+	/**
+	 * Returns TRUE if the flows of the declarant in this month should be considered. If the period of the General Ledger was
+	 * not given, includes the month to be replaced.
+	 */
+	private boolean acceptMonth(int yearMonth) {
+		if (fixedPeriod)
+			return yearMonths.contains(yearMonth);
+		yearMonths.add(yearMonth);
+		return true;
+	}
+
+	private Flow getFlow(String sellerId, String buyerId, int yearMonth) {
+		return flows.computeIfAbsent(formatRowId(sellerId, buyerId, yearMonth), id->new Flow(sellerId, buyerId, yearMonth));
+	}
+
+	/**
+	 * Should be called after computing all the sales and purchases of the declarant. Replaces all the records of the
+	 * reconciliation index involving the declarant in the same months.
+	 * @return Returns the number of records published in reconciliation index
+	 */
+	public long finish() throws Exception {
+
+		if (publishedDataRepository==null) {
+			log.log(Level.WARNING, "Missing repository of published data. The reconciliation of customers and suppliers was not updated for taxpayer "+taxPayerId);
+			return 0;
+		}
+
+		if (yearMonths.isEmpty())
+			return 0;
+
+		// Purchases from the declarant according to the other taxpayers (the declarant is the seller)
+		try (Stream<Map<String,Object>> purchases = publishedDataRepository.getPublishedData(AccountingLoader.INDEX_PUBLISHED_SUPPLIERS,
+				queryByMonths(publishedSupplierId));) {
+			purchases.forEach(record->{
+				String buyerId = ValidationContext.toString(record.get(publishedTaxpayerId));
+				int yearMonth = getYearMonth(record);
+				Number amount = ValidationContext.toNumber(record.get(publishedAmount));
+				if (buyerId==null || buyerId.equals(taxPayerId) || !taxPayerId.equals(ValidationContext.toString(record.get(publishedSupplierId)))
+						|| !yearMonths.contains(yearMonth) || amount==null)
+					return;
+				Flow flow = getFlow(taxPayerId, buyerId, yearMonth);
+				flow.purchases += amount.doubleValue();
+				flow.reportedByBuyer = true;
+			});
+		}
+
+		// Sales to the declarant according to the other taxpayers (the declarant is the buyer)
+		try (Stream<Map<String,Object>> sales = publishedDataRepository.getPublishedData(AccountingLoader.INDEX_PUBLISHED_CUSTOMERS,
+				queryByMonths(publishedCustomerId));) {
+			sales.forEach(record->{
+				String sellerId = ValidationContext.toString(record.get(publishedTaxpayerId));
+				int yearMonth = getYearMonth(record);
+				Number amount = ValidationContext.toNumber(record.get(publishedAmount));
+				if (sellerId==null || sellerId.equals(taxPayerId) || !taxPayerId.equals(ValidationContext.toString(record.get(publishedCustomerId)))
+						|| !yearMonths.contains(yearMonth) || amount==null)
+					return;
+				Flow flow = getFlow(sellerId, taxPayerId, yearMonth);
+				flow.sales += amount.doubleValue();
+				flow.reportedBySeller = true;
+			});
+		}
+
+		// Previous records involving the declarant that are not related to any flow anymore
+		try (Stream<Map<String,Object>> previous = publishedDataRepository.getPublishedData(INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION,
+				QueryBuilders.boolQuery()
+				.filter(coveredMonths())
+				.filter(QueryBuilders.boolQuery()
+					.should(QueryBuilders.termQuery(CustomerSupplierFieldNames.SellerId.getFieldName()+".keyword", taxPayerId))
+					.should(QueryBuilders.termQuery(CustomerSupplierFieldNames.BuyerId.getFieldName()+".keyword", taxPayerId))
+					.minimumShouldMatch(1)));) {
+			previous.forEach(record->{
+				String sellerId = ValidationContext.toString(record.get(CustomerSupplierFieldNames.SellerId.getFieldName()));
+				String buyerId = ValidationContext.toString(record.get(CustomerSupplierFieldNames.BuyerId.getFieldName()));
+				int yearMonth = getYearMonth(record);
+				if (sellerId==null || buyerId==null || !yearMonths.contains(yearMonth))
+					return;
+				if (!taxPayerId.equals(sellerId) && !taxPayerId.equals(buyerId))
+					return;
+				String rowId = formatRowId(sellerId, buyerId, yearMonth);
+				if (flows.containsKey(rowId))
+					return; // will be replaced
+				try {
+					loader.deleteById(INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION, rowId);
+				}
+				catch (Exception e) {
+					log.log(Level.SEVERE, "Error while deleting previous reconciliation of customers and suppliers with id "+rowId, e);
+				}
+			});
+		}
+
+		long countRecords = 0;
+		for (Map.Entry<String, Flow> entry: flows.entrySet()) {
+			final Flow flow = entry.getValue();
+			final int year = flow.yearMonth/100;
+			final int monthNumber = flow.yearMonth%100;
+			final double difference = flow.sales - flow.purchases;
+
+			Map<String,Object> record = new HashMap<>();
+			record.put(PublishedDataFieldNames.ETL_TIMESTAMP.getFieldName(), timestamp);
+			record.put(publishedTimestamp, LocalDate.of(year, monthNumber, 1));
+			record.put(publishedYear, year);
+			record.put(publishedMonthNumber, monthNumber);
+			record.put(CustomerSupplierFieldNames.SellerId.getFieldName(), flow.sellerId);
+			Object sellerName = getTaxpayerName(flow.sellerId);
+			if (sellerName!=null)
+				record.put(CustomerSupplierFieldNames.SellerName.getFieldName(), sellerName);
+			record.put(CustomerSupplierFieldNames.BuyerId.getFieldName(), flow.buyerId);
+			Object buyerName = getTaxpayerName(flow.buyerId);
+			if (buyerName!=null)
+				record.put(CustomerSupplierFieldNames.BuyerName.getFieldName(), buyerName);
+			record.put(CustomerSupplierFieldNames.SalesAmount.getFieldName(), flow.sales);
+			record.put(CustomerSupplierFieldNames.PurchasesAmount.getFieldName(), flow.purchases);
+			record.put(CustomerSupplierFieldNames.Difference.getFieldName(), difference);
+			record.put(CustomerSupplierFieldNames.AbsoluteDifference.getFieldName(), Math.abs(difference));
+			record.put(CustomerSupplierFieldNames.Mismatch.getFieldName(), Math.abs(difference)>EPSILON);
+			record.put(CustomerSupplierFieldNames.ReportedBySeller.getFieldName(), flow.reportedBySeller);
+			record.put(CustomerSupplierFieldNames.ReportedByBuyer.getFieldName(), flow.reportedByBuyer);
+
+			loader.add(new IndexRequest(INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION)
+					.id(entry.getKey())
+					.source(record));
+			countRecords++;
+		}
+
+		return countRecords;
+	}
+
+	/**
+	 * Returns the name of the taxpayer according to the taxpayers registry
+	 */
+	private Object getTaxpayerName(String taxpayerId) {
+		return lookupTaxpayers.getUnchecked(taxpayerId).map(info->info.get("taxpayer_name")).orElse(null);
+	}
+
+	/**
+	 * Query published data of the same months with the declarant in the given field
+	 */
+	private QueryBuilder queryByMonths(String fieldName) {
+		return QueryBuilders.boolQuery()
+			.filter(coveredMonths())
+			.filter(QueryBuilders.termQuery(fieldName+".keyword", taxPayerId));
+	}
+
+	/**
+	 * Query published data of the months to be replaced (one clause for each year)
+	 */
+	private QueryBuilder coveredMonths() {
+		Map<Integer, Set<Integer>> monthsPerYear = new TreeMap<>();
+		for (int yearMonth: yearMonths)
+			monthsPerYear.computeIfAbsent(yearMonth/100, y->new TreeSet<>()).add(yearMonth%100);
+		BoolQueryBuilder query = QueryBuilders.boolQuery().minimumShouldMatch(1);
+		for (Map.Entry<Integer, Set<Integer>> entry: monthsPerYear.entrySet()) {
+			query = query.should(QueryBuilders.boolQuery()
+				.filter(QueryBuilders.termQuery(publishedYear, entry.getKey()))
+				.filter(QueryBuilders.termsQuery(publishedMonthNumber, entry.getValue())));
+		}
+		return query;
+	}
+
+	/**
+	 * Returns the year and month of the published record in the format yyyymm, or 0 if not informed
+	 */
+	private static int getYearMonth(Map<String,Object> record) {
+		Number year = ValidationContext.toNumber(record.get(publishedYear));
+		Number month = ValidationContext.toNumber(record.get(publishedMonthNumber));
+		if (year==null || month==null || month.intValue()<1 || month.intValue()>12)
+			return 0;
+		return year.intValue()*100 + month.intValue();
+	}
+
+	/**
+	 * Returns the record id, which is the same regardless of which side was published
+	 */
+	public static String formatRowId(String sellerId, String buyerId, int yearMonth) {
+		return yearMonth+"."+sellerId+"."+buyerId;
+	}
+
+	/**
+	 * Monthly flow from one seller to one buyer
+	 */
+	private static class Flow {
+
+		final String sellerId;
+
+		final String buyerId;
+
+		final int yearMonth;
+
+		double sales;
+
+		double purchases;
+
+		boolean reportedBySeller;
+
+		boolean reportedByBuyer;
+
+		Flow(String sellerId, String buyerId, int yearMonth) {
+			this.sellerId = sellerId;
+			this.buyerId = buyerId;
+			this.yearMonth = yearMonth;
+		}
+	}
+}
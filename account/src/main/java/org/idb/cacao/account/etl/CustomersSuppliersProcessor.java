@@ -6,20 +6,25 @@
  *******************************************************************************/
 package org.idb.cacao.account.etl;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.Month;
 import java.time.OffsetDateTime;
 import java.time.format.TextStyle;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.idb.cacao.account.archetypes.ChartOfAccountsArchetype;
 import org.idb.cacao.account.archetypes.GeneralLedgerArchetype;
 import org.idb.cacao.account.elements.AccountStandard;
@@ -30,6 +35,7 @@ import org.idb.cacao.api.ETLContext;
 import org.idb.cacao.api.PublishedDataFieldNames;
 import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.ETLContext.LoadDataStrategy;
+import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.utils.IndexNamesUtils;
 
 import com.google.common.cache.LoadingCache;
@@ -42,6 +48,8 @@ import com.google.common.cache.LoadingCache;
  */
 public class CustomersSuppliersProcessor {
 
+	private static final Logger log = Logger.getLogger(CustomersSuppliersProcessor.class.getName());
+
 	/**
 	 * The field name for date/time of published data
 	 */
@@ -153,29 +161,34 @@ public class CustomersSuppliersProcessor {
 	/**
 	 * Aggregates information about customers
 	 */
-	private final Map<String, CustomerSupplierAggregation> customersAggregations;
+	private final CustomerSupplierAggregations customersAggregations;
 	
-	private final AtomicLong countRecordsInCustomers;
+	private long countRecordsInCustomers;
 	
 	/**
-	 * For each customer Id maps the corresponding customer name according to accounting entries
+	 * Aggregates information about suppliers
 	 */
-	private final Map<String, String> customersNames;
+	private final CustomerSupplierAggregations suppliersAggregations;
+
+	private long countRecordsInSuppliers;
 
 	/**
-	 * Aggregates information about suppliers
+	 * Month names (index 0 = January) rendered according to the default locale
 	 */
-	private final Map<String, CustomerSupplierAggregation> suppliersAggregations;
-
-	private final AtomicLong countRecordsInSuppliers;
+	private final String[] monthsNames;
 
 	/**
-	 * For each supplier Id maps the corresponding supplier name according to accounting entries
+	 * Prefix of all row identifications
 	 */
-	private final Map<String, String> suppliersNames;
+	private final String rowIdPrefix;
 
 	private final LoadDataStrategy loader;
 
+	/**
+	 * Compares the sales and purchases with the ones reported by the counterparties
+	 */
+	private final CustomerSupplierReconciliation reconciliation;
+
 	private DocumentUploaded gl;
 
 	private LongAdder countRecordsOverall;
@@ -195,13 +208,17 @@ public class CustomersSuppliersProcessor {
 		this.lookupTaxpayers = lookupTaxpayers;
 		this.indicationPerSubCategory = getCustomerSupplierIndication(accountStandard);
 		this.indicationPerAccount = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); // will be populated during journal processing
-		this.customersAggregations = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); // will be populated during journal processing and reset after each month
-		this.customersNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); // will be populated during journal processing and reset after each month
-		this.suppliersAggregations = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); // will be populated during journal processing and reset after each month
-		this.suppliersNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); // will be populated during journal processing and reset after each month
-		this.countRecordsInCustomers = new AtomicLong();
-		this.countRecordsInSuppliers = new AtomicLong();
+		this.customersAggregations = new CustomerSupplierAggregations(); // will be populated during journal processing and reset after each month
+		this.suppliersAggregations = new CustomerSupplierAggregations(); // will be populated during journal processing and reset after each month
+		this.monthsNames = new String[12];
+		for (Month month: Month.values()) {
+			monthsNames[month.ordinal()] = month.getDisplayName(TextStyle.SHORT, Locale.getDefault());
+		}
+		this.rowIdPrefix = taxPayerId+"."+taxPeriodNumber+".";
 		this.loader = context.getLoadDataStrategy();
+		this.reconciliation = new CustomerSupplierReconciliation(context, lookupTaxpayers, timestamp);
+		if (taxPeriodNumber!=null)
+			this.reconciliation.addPeriod(taxPeriodNumber);
 	}
 
 	public void setDocumentUploadedForGeneralLedger(DocumentUploaded gl) {
@@ -260,24 +277,16 @@ public class CustomersSuppliersProcessor {
 		
 		switch (indication) {
 		case CUSTOMER_ADDITIVE_FOR_DEBITS:
-			customersAggregations.computeIfAbsent(customerSupplierId, k->new CustomerSupplierAggregation()).compute(amount, isDebit, /*debitIsAdditive*/true);
-			if (customerSupplierName!=null && customerSupplierName.trim().length()>0)
-				customersNames.computeIfAbsent(customerSupplierId, k->customerSupplierName);
+			customersAggregations.computeEntry(customersAggregations.getId(customerSupplierId), customerSupplierName, amount.doubleValue(), isDebit, /*debitIsAdditive*/true);
 			break;
 		case CUSTOMER_ADDITIVE_FOR_CREDITS:
-			customersAggregations.computeIfAbsent(customerSupplierId, k->new CustomerSupplierAggregation()).compute(amount, isDebit, /*debitIsAdditive*/false);
-			if (customerSupplierName!=null && customerSupplierName.trim().length()>0)
-				customersNames.computeIfAbsent(customerSupplierId, k->customerSupplierName);
+			customersAggregations.computeEntry(customersAggregations.getId(customerSupplierId), customerSupplierName, amount.doubleValue(), isDebit, /*debitIsAdditive*/false);
 			break;
 		case SUPPLIER_ADDITIVE_FOR_DEBITS:
-			suppliersAggregations.computeIfAbsent(customerSupplierId, k->new CustomerSupplierAggregation()).compute(amount, isDebit, /*debitIsAdditive*/true);
-			if (customerSupplierName!=null && customerSupplierName.trim().length()>0)
-				suppliersNames.computeIfAbsent(customerSupplierId, k->customerSupplierName);
+			suppliersAggregations.computeEntry(suppliersAggregations.getId(customerSupplierId), customerSupplierName, amount.doubleValue(), isDebit, /*debitIsAdditive*/true);
 			break;
 		case SUPPLIER_ADDITIVE_FOR_CREDITS:
-			suppliersAggregations.computeIfAbsent(customerSupplierId, k->new CustomerSupplierAggregation()).compute(amount, isDebit, /*debitIsAdditive*/false);
-			if (customerSupplierName!=null && customerSupplierName.trim().length()>0)
-				suppliersNames.computeIfAbsent(customerSupplierId, k->customerSupplierName);
+			suppliersAggregations.computeEntry(suppliersAggregations.getId(customerSupplierId), customerSupplierName, amount.doubleValue(), isDebit, /*debitIsAdditive*/false);
 			break;
 		default:
 			// Nothing to aggregate under this indication
@@ -294,6 +303,16 @@ public class CustomersSuppliersProcessor {
 		if (previous_year_month!=0) {
 			addRecordToMonthlyAggregation(previous_year_month);
 		}
+		
+		// Replaces the flows between this taxpayer and the other taxpayers
+		try {
+			long countReconciliation = reconciliation.finish();
+			if (countRecordsOverall!=null)
+				countRecordsOverall.add(countReconciliation);
+		}
+		catch (Exception e) {
+			log.log(Level.SEVERE, "Error while comparing customers and suppliers with the other taxpayers for taxpayer id "+taxPayerId+" period "+taxPeriodNumber, e);
+		}
 	}
 	
 	/**
@@ -304,85 +323,146 @@ public class CustomersSuppliersProcessor {
 		
 		final int year = yearMonth/100;
 		final int monthNumber = yearMonth%100;
-		final String month = Month.of(monthNumber).getDisplayName(
-	        TextStyle.SHORT, 
-	        Locale.getDefault()
-	    );
+		final String month = monthsNames[monthNumber-1];
+		final LocalDate monthStart = LocalDate.of(year, monthNumber, 1);
 		
 		final int PASS_CUSTOMER = 0; // PASS_SUPPLIER = 1
 		for (int pass=0; pass<2; pass++) {
 			
-			final Map<String,CustomerSupplierAggregation> aggregations = (pass==PASS_CUSTOMER) ? customersAggregations : suppliersAggregations;
+			final CustomerSupplierAggregations aggregations = (pass==PASS_CUSTOMER) ? customersAggregations : suppliersAggregations;
 			final String index_name = (pass==PASS_CUSTOMER) ? AccountingLoader.INDEX_PUBLISHED_CUSTOMERS : AccountingLoader.INDEX_PUBLISHED_SUPPLIERS;
-			final AtomicLong count_records = (pass==PASS_CUSTOMER) ? countRecordsInCustomers : countRecordsInSuppliers;
-			final Map<String, String> names = (pass==PASS_CUSTOMER) ? customersNames : suppliersNames;
 			final String fieldPrefix = (pass==PASS_CUSTOMER) ? "customer" : "supplier";
+			final String fieldCustomerSupplierId = publishedCustomerSupplierId.replace("customer_supplier", fieldPrefix);
 		
-			for (Map.Entry<String,CustomerSupplierAggregation> entryAg: aggregations.entrySet()) {
-				String customerSupplierId = entryAg.getKey();
-				CustomerSupplierAggregation aggregation = entryAg.getValue();
-				if (aggregation.isEmpty())
-					continue;
-				String rowId_CS = String.format("%s.%d.%014d", taxPayerId, taxPeriodNumber, count_records.incrementAndGet());
-				Map<String,Object> normalizedRecord_CS = new HashMap<>();
-				normalizedRecord_CS.put(PublishedDataFieldNames.ETL_TIMESTAMP.getFieldName(), timestamp);
-				normalizedRecord_CS.put(publishedTimestamp, LocalDate.of(year, monthNumber, 1));
-				normalizedRecord_CS.put(lineNumber, count_records.longValue());
-				normalizedRecord_CS.put(publishedTaxpayerId, taxPayerId);
-				normalizedRecord_CS.put(publishedtaxPeriodNumber, taxPeriodNumber);
-				if (gl!=null) {
-					normalizedRecord_CS.put(publishedTemplateName, gl.getTemplateName());
-					normalizedRecord_CS.put(publishedTemplateVersion, gl.getTemplateVersion());
+			for (int i=0; i<aggregations.getCountTouched(); i++) {
+				final int id = aggregations.getTouched(i);
+				final String customerSupplierId = aggregations.getCustomerSupplierId(id);
+				final long count_records = (pass==PASS_CUSTOMER) ? ++countRecordsInCustomers : ++countRecordsInSuppliers;
+				
+				// Information about the customer/supplier according to the taxpayers registry is kept for all months
+				RegistryFields registry = (RegistryFields)aggregations.getAttachment(id);
+				if (registry==null) {
+					registry = new RegistryFields(lookupTaxpayers.getUnchecked(customerSupplierId), fieldPrefix);
+					aggregations.setAttachment(id, registry);
 				}
-				normalizedRecord_CS.put(publishedYear, year);
-				normalizedRecord_CS.put(publishedMonth, month);
-				normalizedRecord_CS.put(publishedMonthNumber, monthNumber);
 				
-				normalizedRecord_CS.put(publishedCustomerSupplierId.replace("customer_supplier", fieldPrefix), customerSupplierId);
-				Optional<Map<String, Object>> customerSupplierInformation = lookupTaxpayers.getUnchecked(customerSupplierId);
-				if (customerSupplierInformation.isPresent() && !customerSupplierInformation.get().isEmpty()) {
-					for (Map.Entry<String,Object> entry: customerSupplierInformation.get().entrySet()) {
-						String fieldName = entry.getKey();
-						if ("taxpayer_id".equals(fieldName))
-							continue; // we already got this information in 'customer_id' or 'supplier_id' field
-						if ("taxpayer_name".equals(fieldName)) {
+				// Writes the published record directly (without intermediate map)
+				try {
+					XContentBuilder source = XContentFactory.jsonBuilder().startObject();
+					field(source, PublishedDataFieldNames.ETL_TIMESTAMP.getFieldName(), timestamp);
+					field(source, publishedTimestamp, monthStart);
+					field(source, lineNumber, count_records);
+					field(source, publishedTaxpayerId, taxPayerId);
+					field(source, publishedtaxPeriodNumber, taxPeriodNumber);
+					if (gl!=null) {
+						field(source, publishedTemplateName, gl.getTemplateName());
+						field(source, publishedTemplateVersion, gl.getTemplateVersion());
+					}
+					field(source, publishedYear, year);
+					field(source, publishedMonth, month);
+					field(source, publishedMonthNumber, monthNumber);
+					field(source, fieldCustomerSupplierId, customerSupplierId);
+					for (int f=0; f<registry.fieldNames.length; f++) {
+						if (f==registry.nameIndex) {
 							// The informed name takes precedence over taxpayers registry
-							String customerSupplierName = names.get(customerSupplierId);
-							if (customerSupplierName!=null && customerSupplierName.trim().length()>0) {
-								normalizedRecord_CS.put(fieldName.replace("taxpayer", fieldPrefix), customerSupplierName);								
-							}
-							else {
-								normalizedRecord_CS.put(fieldName.replace("taxpayer", fieldPrefix), entry.getValue());
-							}
-							continue;
+							String customerSupplierName = aggregations.getName(id);
+							field(source, registry.fieldNames[f], (customerSupplierName!=null) ? customerSupplierName : registry.values[f]);
 						}
-						// All the other fields will be stored as 'customer_XXXXX' or 'supplier_XXXXX'
-						if (fieldName.startsWith("taxpayer")) {
-							normalizedRecord_CS.put(fieldName.replace("taxpayer", fieldPrefix), entry.getValue());
+						else {
+							field(source, registry.fieldNames[f], registry.values[f]);
 						}
-					} // LOOP over fields of customer/supplier according to the taxpayers registry
+					}
+					field(source, publishedDebits, aggregations.getDebits(id));
+					field(source, publishedCredits, aggregations.getCredits(id));
+					field(source, bookEntries, aggregations.getEntries(id));
+					field(source, ledgerAmount, aggregations.getAmount(id));
+					if (declarantInformation.isPresent()) {
+						for (Map.Entry<String,Object> entry: declarantInformation.get().entrySet()) {
+							source.field(entry.getKey(), entry.getValue());
+						}
+					}
+					source.endObject();
+					
+					loader.add(new IndexRequest(index_name)
+						.id(formatRowId(rowIdPrefix, count_records))
+						.source(source));
+				}
+				catch (IOException ex) {
+					throw new GeneralException("Error writing monthly aggregation of "+fieldPrefix+" "+customerSupplierId, ex);
 				}
-				
-				normalizedRecord_CS.put(publishedDebits, aggregation.debits);
-				normalizedRecord_CS.put(publishedCredits, aggregation.credits);
-				normalizedRecord_CS.put(bookEntries, aggregation.entries);
-				normalizedRecord_CS.put(ledgerAmount, aggregation.amount);
-				if (declarantInformation.isPresent())
-					normalizedRecord_CS.putAll(declarantInformation.get());
-				
-				loader.add(new IndexRequest(index_name)
-					.id(rowId_CS)
-					.source(normalizedRecord_CS));
 				if (countRecordsOverall!=null)
 					countRecordsOverall.increment();	
-				aggregation.reset();
+				
+				if (pass==PASS_CUSTOMER)
+					reconciliation.computeSales(customerSupplierId, yearMonth, aggregations.getAmount(id));
+				else
+					reconciliation.computePurchases(customerSupplierId, yearMonth, aggregations.getAmount(id));
 			} // LOOP each aggregation (each customer or each supplier)
 			
-			names.clear();
+			aggregations.resetMonth();
 			
 		} // TWO PASS: one for CUSTOMERS, other for SUPPLIERS
 		
 	}
+	
+	/**
+	 * Writes one field of published data, unless it's also provided by declarant information (which takes precedence)
+	 */
+	private void field(XContentBuilder source, String fieldName, Object value) throws IOException {
+		if (declarantInformation.isPresent() && declarantInformation.get().containsKey(fieldName))
+			return;
+		source.field(fieldName, value);
+	}
+	
+	/**
+	 * Returns the row identification composed of the prefix and the sequence number with 14 digits (the same as
+	 * String.format("%s%014d", prefix, sequence) for non negative numbers)
+	 */
+	public static String formatRowId(String prefix, long sequence) {
+		String digits = Long.toString(sequence);
+		StringBuilder rowId = new StringBuilder(prefix.length()+Math.max(14, digits.length()));
+		rowId.append(prefix);
+		for (int i=digits.length(); i<14; i++)
+			rowId.append('0');
+		rowId.append(digits);
+		return rowId.toString();
+	}
+
+	/**
+	 * Fields about one customer/supplier according to the taxpayers registry, already renamed as 'customer_XXXXX' or 'supplier_XXXXX'
+	 */
+	private static class RegistryFields {
+		
+		final String[] fieldNames;
+		
+		final Object[] values;
+		
+		/**
+		 * Index of the field with the name of the customer/supplier (or -1 if absent)
+		 */
+		int nameIndex = -1;
+		
+		RegistryFields(Optional<Map<String, Object>> customerSupplierInformation, String fieldPrefix) {
+			List<String> names = new ArrayList<>();
+			List<Object> vals = new ArrayList<>();
+			if (customerSupplierInformation.isPresent()) {
+				for (Map.Entry<String,Object> entry: customerSupplierInformation.get().entrySet()) {
+					String fieldName = entry.getKey();
+					if ("taxpayer_id".equals(fieldName))
+						continue; // we already got this information in 'customer_id' or 'supplier_id' field
+					// All the other fields will be stored as 'customer_XXXXX' or 'supplier_XXXXX'
+					if (fieldName.startsWith("taxpayer")) {
+						if ("taxpayer_name".equals(fieldName))
+							nameIndex = names.size();
+						names.add(fieldName.replace("taxpayer", fieldPrefix));
+						vals.add(entry.getValue());
+					}
+				}
+			}
+			this.fieldNames = names.toArray(new String[0]);
+			this.values = vals.toArray();
+		}
+	}
 
 	/**
 	 * Enumerates the possible indications regarding customer/suppliers for each account according to the account sub-category
@@ -410,35 +490,4 @@ public class CustomersSuppliersProcessor {
 		
 		return indicationsBySubCategory;
 	}
-	
-	/**
-	 * Aggregated information about customer/supplier
-	 */
-	private static class CustomerSupplierAggregation {
-		double debits;
-		double credits;
-		double amount;
-		long entries;
-		void compute(Number amount, boolean isDebit, boolean debitIsAdditive) {
-			if (debitIsAdditive==isDebit) {
-				this.amount += amount.doubleValue();
-			}
-			else {
-				this.amount -= amount.doubleValue();
-			}
-			if (isDebit) {
-				this.debits += amount.doubleValue();
-			}
-			else {
-				this.credits += amount.doubleValue();
-			}
-			entries++;
-		}
-		void reset() {
-			debits = credits = amount = entries = 0;
-		}
-		boolean isEmpty() {
-			return entries==0;
-		}
-	}
 }
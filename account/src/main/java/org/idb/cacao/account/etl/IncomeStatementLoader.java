@@ -28,6 +28,7 @@ import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DomainLanguage;
 import org.idb.cacao.api.ETLContext;
 import org.idb.cacao.api.Periodicity;
+import org.idb.cacao.api.PopulationRollup;
 import org.idb.cacao.api.PublishedDataFieldNames;
 import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.templates.DomainEntry;
@@ -115,6 +116,12 @@ public class IncomeStatementLoader {
 	 */
 	private static final String amountRelative = IndexNamesUtils.formatFieldName("AmountRelative");
 
+	/**
+	 * Population statistics of each statement entry relative to Revenue Net, for each year
+	 */
+	public static final PopulationRollup POPULATION_ROLLUP = new PopulationRollup(INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME,
+			publishedYear, statementNumber, statementEntry + "_name", amount, amountRelative);
+
 	/**
 	 * Performs the Extract/Transform/Load operations with available data
 	 */
@@ -246,6 +253,18 @@ public class IncomeStatementLoader {
 
 				}
 				
+				// Store the differences with the Statement of Income computed from General Ledger
+				
+				StatementIncomeReconciliation reconciliation = new StatementIncomeReconciliation(context, timestamp);
+				reconciliation.setDeclarantInformation(declarantInformation);
+				reconciliation.setMapDomainTexts(mapDomainTexts);
+				try {
+					countRecordsOverall.addAndGet(reconciliation.publishDeclared(year, mapValues));
+				}
+				catch (Exception e) {
+					log.log(Level.SEVERE, "Error while comparing the declared Statement of Income with the computed one for taxpayer id "+taxPayerId+" period "+taxPeriodNumber, e);
+				}
+				
 			}
 			finally {
 				data.close();
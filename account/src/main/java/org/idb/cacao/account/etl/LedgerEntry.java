@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Immutable representation of one line of the General Ledger, holding only the fields
+ * needed by the accounting processors. Instances are shared among different threads
+ * by {@link ProcessorsFanOut ProcessorsFanOut}, so they must not be changed after creation.
+ *
+ * @author Gustavo Figueiredo
+ */
+public class LedgerEntry {
+
+	/**
+	 * Date of this book entry
+	 */
+	private final OffsetDateTime date;
+
+	/**
+	 * The account that was credited or debited
+	 */
+	private final String accountCode;
+
+	/**
+	 * The amount credited or debited (may be NULL)
+	 */
+	private final Number amount;
+
+	/**
+	 * Indication whether the account was debited (otherwise it was credited)
+	 */
+	private final boolean debit;
+
+	/**
+	 * Customer/supplier identification informed in accounting (may be NULL)
+	 */
+	private final String customerSupplierId;
+
+	/**
+	 * Customer/supplier name informed in accounting (may be NULL)
+	 */
+	private final String customerSupplierName;
+
+	public LedgerEntry(OffsetDateTime date, String accountCode, Number amount, boolean debit,
+			String customerSupplierId, String customerSupplierName) {
+		this.date = date;
+		this.accountCode = accountCode;
+		this.amount = amount;
+		this.debit = debit;
+		this.customerSupplierId = customerSupplierId;
+		this.customerSupplierName = customerSupplierName;
+	}
+
+	public OffsetDateTime getDate() {
+		return date;
+	}
+
+	public String getAccountCode() {
+		return accountCode;
+	}
+
+	public Number getAmount() {
+		return amount;
+	}
+
+	public boolean isDebit() {
+		return debit;
+	}
+
+	public String getCustomerSupplierId() {
+		return customerSupplierId;
+	}
+
+	public String getCustomerSupplierName() {
+		return customerSupplierName;
+	}
+
+	public String toString() {
+		return String.format("%s %s: %s %s", date, accountCode, amount, (debit) ? "D" : "C");
+	}
+}
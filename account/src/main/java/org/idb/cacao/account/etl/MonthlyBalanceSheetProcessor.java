@@ -33,7 +33,6 @@ import org.idb.cacao.account.archetypes.GeneralLedgerArchetype;
 import org.idb.cacao.account.archetypes.OpeningBalanceArchetype;
 import org.idb.cacao.account.elements.AccountCategory;
 import org.idb.cacao.account.elements.AccountStandard;
-import org.idb.cacao.account.elements.BalanceSheet;
 import org.idb.cacao.account.etl.AccountingLoader.AccountingFieldNames;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentUploaded;
@@ -44,7 +43,6 @@ import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.ETLContext.LoadDataStrategy;
 import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.utils.IndexNamesUtils;
-import org.springframework.data.util.Pair;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -182,15 +180,11 @@ public class MonthlyBalanceSheetProcessor {
 	private final Set<String> accountsForBalanceSheets;
 
 	/**
-	 * Computes balance sheets while iterating over General Ledger entries
+	 * Computes balance sheets while iterating over General Ledger entries. Also keeps track of informed balance sheets for
+	 * accounts and months and their corresponding final balance. This will be used for completing balance sheets for
+	 * absent months after we have processed all the data.
 	 */
-	private final Map<String, BalanceSheet> mapBalanceSheets;
-
-	/**
-	 * Keep track of informed balance sheets for accounts (first in key pair) and months (second in key pair) and their corresponding
-	 * final balance. This will be used for completing balance sheets for absent months after we have processed all the data.
-	 */
-	private final Map<Pair<String, Integer>, Double> informedBalancedSheetsAccountsAndMonths;
+	private final BalanceAccumulator balances;
 
 	/**
 	 * Structure for loading and caching information from the provided Opening Balance
@@ -233,8 +227,7 @@ public class MonthlyBalanceSheetProcessor {
 			final OffsetDateTime timestamp) {
 		this.previousMonth = new AtomicInteger(0);
 		this.accountsForBalanceSheets = getAccountsForOpeningBalances(context.getValidatedDataRepository(), ob);
-		this.mapBalanceSheets = new HashMap<>();
-		this.informedBalancedSheetsAccountsAndMonths = new HashMap<>();
+		this.balances = new BalanceAccumulator();
 		this.lookupOpeningBalance = getLookupOpeningBalance(context.getValidatedDataRepository(), ob);
 		this.taxPayerId = context.getDocumentUploaded().getTaxPayerId();
 		this.taxPeriodNumber = context.getDocumentUploaded().getTaxPeriodNumber();
@@ -283,9 +276,9 @@ public class MonthlyBalanceSheetProcessor {
 	 * @param accountCode Account code
 	 * @param amount Amount
 	 * @param isDebit Indication whether the account was debited (otherwise it was credited)
-	 * @return Returns the resulting BalanceSheet (still open for further inputs)
+	 * @return Returns the resulting balance of the account (positive = debit, negative = credit)
 	 */
-	public BalanceSheet computeEntry(OffsetDateTime date, String accountCode, Number amount, boolean isDebit) {
+	public double computeEntry(OffsetDateTime date, String accountCode, Number amount, boolean isDebit) {
 		
 		final int year_month = (date==null) ? 0 : ( date.getYear() * 100 + date.getMonthValue() );
 		final boolean changed_month = year_month!=0 && previousMonth.get()!=0 && previousMonth.get()!=year_month;
@@ -297,42 +290,48 @@ public class MonthlyBalanceSheetProcessor {
 		if (changed_month) {
 			// If the month has changed, let's fill the Monthly Balance Sheet for all accounts
 			addRecordToMonthlyBalanceSheet(gl, accountsForBalanceSheets, previous_year_month,
-					mapBalanceSheets, taxPayerId, taxPeriodNumber, timestamp,
+					balances, taxPayerId, taxPeriodNumber, timestamp,
 					countRecordsInBalanceSheet, countRecordsOverall, declarantInformation,
 					lookupChartOfAccounts,
-					informedBalancedSheetsAccountsAndMonths,
 					loader);
 		}
 
-		final Optional<Map<String,Object>> accountInformation = (lookupChartOfAccounts==null) ? Optional.empty() : lookupChartOfAccounts.getUnchecked(accountCode);
+		int accountId = balances.getAccountId(accountCode);
+		if (accountId<0) {
+			accountId = balances.addAccount(accountCode, getInitialBalance(accountCode));
+		}
+		
+		balances.computeEntry(accountId, amount, isDebit);
 
-		BalanceSheet balanceSheet =
-		mapBalanceSheets.computeIfAbsent(accountCode, acc->{
-			BalanceSheet balance = new BalanceSheet();
-			Optional<Map<String, Object>> opening = lookupOpeningBalance.getUnchecked(acc);
-			if (opening.isPresent()) {
-				Number initialBalance = ValidationContext.toNumber(opening.get().get(openingBalanceInitial));
-				String balanceDebitCredit = ValidationContext.toString(opening.get().get(openingBalanceDC));
-				boolean initialIsDebit = balanceDebitCredit.equalsIgnoreCase("D");
-				if (initialBalance!=null && Math.abs(initialBalance.doubleValue())>EPSILON) {
-					if (initialIsDebit)
-						balance.setInitialValue(Math.abs(initialBalance.doubleValue()));
-					else
-						balance.setInitialValue(-Math.abs(initialBalance.doubleValue()));
-				}
-			}
-			else if (accountInformation.isPresent()) {
-				collectWarnings.accept("{account.error.missing.opening.balance("
-						+acc.replaceAll("[\\{\\}\\,\\(\\)\r\n\t]","")
-						+")}");
-				accountsForBalanceSheets.add(acc);
-			}
-			return balance;
-		});
+		return balances.getFinalValue(accountId);
+	}
+	
+	/**
+	 * Returns the initial balance of an account not seen before (positive = debit, negative = credit)
+	 */
+	private double getInitialBalance(String accountCode) {
 		
-		balanceSheet.computeEntry(amount, isDebit);
+		final Optional<Map<String,Object>> accountInformation = (lookupChartOfAccounts==null) ? Optional.empty() : lookupChartOfAccounts.getUnchecked(accountCode);
 
-		return balanceSheet;
+		Optional<Map<String, Object>> opening = lookupOpeningBalance.getUnchecked(accountCode);
+		if (opening.isPresent()) {
+			Number initialBalance = ValidationContext.toNumber(opening.get().get(openingBalanceInitial));
+			String balanceDebitCredit = ValidationContext.toString(opening.get().get(openingBalanceDC));
+			boolean initialIsDebit = balanceDebitCredit.equalsIgnoreCase("D");
+			if (initialBalance!=null && Math.abs(initialBalance.doubleValue())>EPSILON) {
+				if (initialIsDebit)
+					return Math.abs(initialBalance.doubleValue());
+				else
+					return -Math.abs(initialBalance.doubleValue());
+			}
+		}
+		else if (accountInformation.isPresent()) {
+			collectWarnings.accept("{account.error.missing.opening.balance("
+					+accountCode.replaceAll("[\\{\\}\\,\\(\\)\r\n\t]","")
+					+")}");
+			accountsForBalanceSheets.add(accountCode);
+		}
+		return 0.0;
 	}
 	
 	/**
@@ -343,17 +342,16 @@ public class MonthlyBalanceSheetProcessor {
 		final int previous_year_month = previousMonth.get();
 		if (previous_year_month!=0) {
 			addRecordToMonthlyBalanceSheet(gl, accountsForBalanceSheets, previous_year_month,
-				mapBalanceSheets, taxPayerId, taxPeriodNumber, timestamp,
+				balances, taxPayerId, taxPeriodNumber, timestamp,
 				countRecordsInBalanceSheet, countRecordsOverall, declarantInformation,
 				lookupChartOfAccounts,
-				informedBalancedSheetsAccountsAndMonths,
 				loader);
 			fillMissingMonthlyBalanceSheet(gl, accountsForBalanceSheets,
 				taxPayerId, taxPeriodNumber, timestamp,
 				countRecordsInBalanceSheet, countRecordsOverall, declarantInformation,
 				lookupChartOfAccounts,
 				lookupOpeningBalance,
-				informedBalancedSheetsAccountsAndMonths, periodicity,
+				balances, periodicity,
 				loader);
 		}
 
@@ -384,7 +382,7 @@ public class MonthlyBalanceSheetProcessor {
 	 * @param gl The Upload record regarding the General Ledger
 	 * @param accountsForBalanceSheets Collection of all account codes (according to the taxpayer's Chart of Accounts)
 	 * @param yearMonth Year+Month of balance sheet
-	 * @param mapBalanceSheets For each account code keeps track of the computed balance sheet so far (presumably of the same month)
+	 * @param balances For each account code keeps track of the computed balance sheet so far (presumably of the same month) and of all informed balance sheets
 	 * @param taxPayerId The Taxpayer ID
 	 * @param taxPeriodNumber The number of the period
 	 * @param timestamp Time date/time of ETL procedure
@@ -392,14 +390,13 @@ public class MonthlyBalanceSheetProcessor {
 	 * @param countRecordsOverall The total number of records (incremented here)
 	 * @param declarantInformation Additional information about the declarant
 	 * @param lookupChartOfAccounts Object used for searching additional information about accounts
-	 * @param informedBalancedSheetsAccountsAndMonths Keeps track of all informed balance sheets
 	 * @param loader Object used for writing the results
 	 */
 	private void addRecordToMonthlyBalanceSheet(
 			final DocumentUploaded gl,
 			final Set<String> accountsForBalanceSheets,
 			final int yearMonth,
-			final Map<String, BalanceSheet> mapBalanceSheets,
+			final BalanceAccumulator balances,
 			final String taxPayerId,
 			final Integer taxPeriodNumber,
 			final OffsetDateTime timestamp,
@@ -407,7 +404,6 @@ public class MonthlyBalanceSheetProcessor {
 			final LongAdder countRecordsOverall,
 			final Optional<Map<String,Object>> declarantInformation,
 			final LoadingCache<String, Optional<Map<String, Object>>> lookupChartOfAccounts,
-			final Map<Pair<String, Integer>, Double> informedBalancedSheetsAccountsAndMonths,
 			final LoadDataStrategy loader) {
 		
 		final int year = yearMonth/100;
@@ -418,8 +414,10 @@ public class MonthlyBalanceSheetProcessor {
 	    );
 		
 		for (String account: accountsForBalanceSheets) {
-			BalanceSheet computedBalanceSheet = mapBalanceSheets.get(account);
-			if (computedBalanceSheet!=null) {
+			final int accountId = balances.getAccountId(account);
+			if (accountId>=0) {
+				final double initialValue = balances.getInitialValue(accountId);
+				final double finalValue = balances.getFinalValue(accountId);
 				final Optional<Map<String,Object>> accountInformation = (lookupChartOfAccounts==null) ? Optional.empty() : lookupChartOfAccounts.getUnchecked(account);
 				String rowId_BS = String.format("%s.%d.%014d", taxPayerId, taxPeriodNumber, countRecordsInBalanceSheet.incrementAndGet());
 				Map<String,Object> normalizedRecord_BS = new HashMap<>();
@@ -436,31 +434,30 @@ public class MonthlyBalanceSheetProcessor {
 				normalizedRecord_BS.put(publishedMonth, month);
 				normalizedRecord_BS.put(publishedMonthNumber, monthNumber);
 				normalizedRecord_BS.put(balanceAccountCode, account);
-				normalizedRecord_BS.put(openingBalanceInitial, Math.abs(computedBalanceSheet.getInitialValue()));
-				normalizedRecord_BS.put(openingBalanceMonthlyDC, (computedBalanceSheet.isInitialValueDebit()) ? "D" : "C");
-				normalizedRecord_BS.put(balanceAmountDebits, computedBalanceSheet.getDebits());
-				normalizedRecord_BS.put(balanceAmountCredits, computedBalanceSheet.getCredits());
-				normalizedRecord_BS.put(closingBalanceMonthly, Math.abs(computedBalanceSheet.getFinalValue()));
-				normalizedRecord_BS.put(closingBalanceMonthlyDC, (computedBalanceSheet.isFinalValueDebit()) ? "D" : "C");
-				normalizedRecord_BS.put(bookEntries, computedBalanceSheet.getCountEntries());
+				normalizedRecord_BS.put(openingBalanceInitial, Math.abs(initialValue));
+				normalizedRecord_BS.put(openingBalanceMonthlyDC, (initialValue>=0) ? "D" : "C");
+				normalizedRecord_BS.put(balanceAmountDebits, balances.getDebits(accountId));
+				normalizedRecord_BS.put(balanceAmountCredits, balances.getCredits(accountId));
+				normalizedRecord_BS.put(closingBalanceMonthly, Math.abs(finalValue));
+				normalizedRecord_BS.put(closingBalanceMonthlyDC, (finalValue>=0) ? "D" : "C");
+				normalizedRecord_BS.put(bookEntries, balances.getCountEntries(accountId));
 				if (declarantInformation.isPresent())
 					normalizedRecord_BS.putAll(declarantInformation.get());
 				if (accountInformation.isPresent()) {
 					normalizedRecord_BS.putAll(accountInformation.get());
-					addBalanceWithSign(openingBalanceWithSign, accountInformation.get(), Math.abs(computedBalanceSheet.getInitialValue()), computedBalanceSheet.isInitialValueDebit(),
+					addBalanceWithSign(openingBalanceWithSign, accountInformation.get(), Math.abs(initialValue), (initialValue>=0),
 							categoriesWithDebitNature,
 							normalizedRecord_BS);
-					addBalanceWithSign(closingBalanceWithSign, accountInformation.get(), Math.abs(computedBalanceSheet.getFinalValue()), computedBalanceSheet.isFinalValueDebit(),
+					addBalanceWithSign(closingBalanceWithSign, accountInformation.get(), Math.abs(finalValue), (finalValue>=0),
 							categoriesWithDebitNature,
 							normalizedRecord_BS);
 				}
 				loader.add(new IndexRequest(AccountingLoader.INDEX_PUBLISHED_BALANCE_SHEET)
 					.id(rowId_BS)
 					.source(normalizedRecord_BS));
-				informedBalancedSheetsAccountsAndMonths.put(Pair.of(account, yearMonth), computedBalanceSheet.getFinalValue());
 				if (countRecordsOverall!=null)
 					countRecordsOverall.increment();	
-				computedBalanceSheet.flipBalance();
+				balances.closeMonth(accountId, yearMonth);
 			}
 		}
 	}
@@ -479,7 +476,7 @@ public class MonthlyBalanceSheetProcessor {
 			final Optional<Map<String,Object>> declarantInformation,
 			final LoadingCache<String, Optional<Map<String, Object>>> lookupChartOfAccounts,
 			final LoadingCache<String, Optional<Map<String, Object>>> lookupOpeningBalance,
-			final Map<Pair<String, Integer>, Double> informedBalancedSheetsAccountsAndMonths,
+			final BalanceAccumulator balances,
 			final Periodicity periodicity,
 			final LoadDataStrategy loader) {
 		
@@ -487,12 +484,10 @@ public class MonthlyBalanceSheetProcessor {
 			return;
 		
 		// Minimum year+month according to published Monthly Balance Sheets, or 0 if none
-		int min_year_month_filled = informedBalancedSheetsAccountsAndMonths.isEmpty() ? 0
-				: informedBalancedSheetsAccountsAndMonths.keySet().stream().mapToInt(Pair::getSecond).min().orElse(0);
+		int min_year_month_filled = balances.getMinClosedYearMonth();
 
 		// Maximum year+month according to published Monthly Balance Sheets, or 0 if none
-		int max_year_month_filled = informedBalancedSheetsAccountsAndMonths.isEmpty() ? 0
-				: informedBalancedSheetsAccountsAndMonths.keySet().stream().mapToInt(Pair::getSecond).max().orElse(0);
+		int max_year_month_filled = balances.getMaxClosedYearMonth();
 		
 		// The informed year, minimum month and maximum month according to published Monthly Balance Sheet, or 0 if none
 		int actual_year = min_year_month_filled/100;
@@ -532,14 +527,12 @@ public class MonthlyBalanceSheetProcessor {
 		
 		for (int month=first_month; month<=last_month; month++) {
 			
-			Integer expected_year_month = year * 100 + month;
+			final int expected_year_month = year * 100 + month;
 			for (String account: accountsForBalanceSheets) {
 				
-				Pair<String,Integer> expected_account_and_period = Pair.of(account, expected_year_month);
-				Double reported_balance = informedBalancedSheetsAccountsAndMonths.get(expected_account_and_period);
-				if (reported_balance!=null) {
+				if (balances.isClosed(account, expected_year_month)) {
 					// if we have reported a Balance Sheet for this account and period, we are done with it
-					previousBalanceSheets.put(account, reported_balance);
+					previousBalanceSheets.put(account, balances.getClosedBalance(account, expected_year_month));
 					continue;
 				}
 				
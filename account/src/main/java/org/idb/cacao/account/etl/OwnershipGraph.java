@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Graph of shareholdings among taxpayers. Each edge goes from the owner to the owned taxpayer, weighted by the
+ * percentage of shares held (100 = 100%).<BR>
+ * Each taxpayer receives a dense integer id (in order of appearance) and the edges are kept in primitive arrays
+ * indexed by this id.<BR>
+ * The effective ownership of one taxpayer over another is the sum, over all the paths between them, of the
+ * products of the percentages along the path (including indirect ownership through cross-holdings).<BR>
+ * The group of a taxpayer is identified by its 'ultimate parent', which is found by following the controlling
+ * owners (direct owners of more than 50%) until reaching a taxpayer that is not controlled by anyone.<BR>
+ * This class is not thread-safe.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class OwnershipGraph {
+
+	/**
+	 * Minimum percentage for controlling another taxpayer
+	 */
+	public static final double CONTROL_PERCENTAGE = 50.0;
+
+	/**
+	 * Indirect contributions lesser than this fraction are ignored
+	 */
+	private static final double EPSILON = 1e-7;
+
+	/**
+	 * Limits the computation of effective ownership in case of pathological cross-holdings
+	 */
+	private static final int MAX_PROPAGATIONS = 1_000_000;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Dense id for each taxpayer
+	 */
+	private final Map<String, Integer> ids;
+
+	private String[] taxpayerIds;
+
+	/**
+	 * For each owner, the ids of the owned taxpayers
+	 */
+	private int[][] targets;
+
+	/**
+	 * For each owner, the fractions held of the owned taxpayers (1.0 = 100%)
+	 */
+	private double[][] fractions;
+
+	/**
+	 * For each owner, the number of owned taxpayers
+	 */
+	private int[] degrees;
+
+	/**
+	 * Number of taxpayers
+	 */
+	private int size;
+
+	/**
+	 * For each taxpayer, the id of the controlling owner (or -1). Computed on demand.
+	 */
+	private int[] controllers;
+
+	public OwnershipGraph() {
+		this.ids = new HashMap<>();
+		this.taxpayerIds = new String[INITIAL_CAPACITY];
+		this.targets = new int[INITIAL_CAPACITY][];
+		this.fractions = new double[INITIAL_CAPACITY][];
+		this.degrees = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Returns the id of the taxpayer, registering it if necessary
+	 */
+	public int getId(String taxpayerId) {
+		Integer id = ids.get(taxpayerId);
+		if (id!=null)
+			return id.intValue();
+		if (size==taxpayerIds.length) {
+			int capacity = size * 2;
+			taxpayerIds = Arrays.copyOf(taxpayerIds, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			fractions = Arrays.copyOf(fractions, capacity);
+			degrees = Arrays.copyOf(degrees, capacity);
+		}
+		int newId = size++;
+		taxpayerIds[newId] = taxpayerId;
+		ids.put(taxpayerId, newId);
+		controllers = null;
+		return newId;
+	}
+
+	/**
+	 * Returns the id of the taxpayer, or -1 if it was not registered
+	 */
+	public int findId(String taxpayerId) {
+		Integer id = ids.get(taxpayerId);
+		return (id==null) ? -1 : id.intValue();
+	}
+
+	public String getTaxpayerId(int id) {
+		return taxpayerIds[id];
+	}
+
+	/**
+	 * Number of registered taxpayers
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of taxpayers directly owned by the given owner
+	 */
+	public int getDegree(int owner) {
+		return degrees[owner];
+	}
+
+	/**
+	 * Includes shares held by the owner. If there was already some shares between the same taxpayers (e.g. of a different
+	 * class of shares), adds the percentage to the previous one. The resulting percentage is limited to 100%.
+	 * @param percentage Percentage of shares held (100 = 100%)
+	 */
+	public void addShares(String ownerId, String ownedId, double percentage) {
+		if (percentage<=0 || ownerId.equals(ownedId))
+			return;
+		final int owner = getId(ownerId);
+		final int owned = getId(ownedId);
+		final double fraction = percentage / 100.0;
+		for (int i=0; i<degrees[owner]; i++) {
+			if (targets[owner][i]==owned) {
+				fractions[owner][i] = Math.min(1.0, fractions[owner][i] + fraction);
+				controllers = null;
+				return;
+			}
+		}
+		if (targets[owner]==null) {
+			targets[owner] = new int[4];
+			fractions[owner] = new double[4];
+		}
+		else if (degrees[owner]==targets[owner].length) {
+			targets[owner] = Arrays.copyOf(targets[owner], degrees[owner]*2);
+			fractions[owner] = Arrays.copyOf(fractions[owner], degrees[owner]*2);
+		}
+		targets[owner][degrees[owner]] = owned;
+		fractions[owner][degrees[owner]] = Math.min(1.0, fraction);
+		degrees[owner]++;
+		controllers = null;
+	}
+
+	/**
+	 * Returns the percentage of shares directly held by the owner (100 = 100%)
+	 */
+	public double getDirectPercentage(int owner, int owned) {
+		for (int i=0; i<degrees[owner]; i++) {
+			if (targets[owner][i]==owned)
+				return fractions[owner][i] * 100.0;
+		}
+		return 0.0;
+	}
+
+	/**
+	 * Returns the effective percentages (100 = 100%) held by the owner of all the taxpayers reachable from it,
+	 * considering direct and indirect ownership. The owner itself is not included (even in case of cross-holdings).
+	 */
+	public Map<Integer, Double> getEffectiveOwnership(int owner) {
+		final Map<Integer, Double> effective = new HashMap<>();
+		// Fractions reaching each taxpayer that were not propagated yet
+		final Map<Integer, Double> residuals = new HashMap<>();
+		final ArrayDeque<Integer> pending = new ArrayDeque<>();
+		for (int i=0; i<degrees[owner]; i++) {
+			residuals.put(targets[owner][i], fractions[owner][i]);
+			pending.add(targets[owner][i]);
+		}
+		int propagations = 0;
+		while (!pending.isEmpty() && propagations<MAX_PROPAGATIONS) {
+			final int node = pending.poll();
+			final Double residual = residuals.remove(node);
+			if (residual==null)
+				continue;
+			effective.merge(node, residual, Double::sum);
+			for (int i=0; i<degrees[node]; i++) {
+				final double contribution = residual * fractions[node][i];
+				if (contribution<EPSILON)
+					continue;
+				if (!residuals.containsKey(targets[node][i]))
+					pending.add(targets[node][i]);
+				residuals.merge(targets[node][i], contribution, Double::sum);
+				propagations++;
+			}
+		}
+		effective.remove(owner);
+		effective.replaceAll((node,fraction)->Math.min(100.0, fraction * 100.0));
+		return effective;
+	}
+
+	/**
+	 * Returns the id of the direct owner of more than 50% of the taxpayer, or -1 if there is none
+	 */
+	public int getController(int owned) {
+		if (controllers==null) {
+			controllers = new int[size];
+			Arrays.fill(controllers, -1);
+			double[] max = new double[size];
+			for (int owner=0; owner<size; owner++) {
+				for (int i=0; i<degrees[owner]; i++) {
+					final int target = targets[owner][i];
+					final double percentage = fractions[owner][i] * 100.0;
+					if (percentage>CONTROL_PERCENTAGE && percentage>max[target]) {
+						max[target] = percentage;
+						controllers[target] = owner;
+					}
+				}
+			}
+		}
+		return controllers[owned];
+	}
+
+	/**
+	 * Returns the id of the taxpayer that ultimately controls the given taxpayer (directly or through a chain of controlled
+	 * taxpayers). Returns the taxpayer itself if it's not controlled by anyone. In case of circular control, returns the
+	 * taxpayer of the cycle with the lowest taxpayer Id.
+	 */
+	public int getUltimateParent(int id) {
+		final Set<Integer> chain = new HashSet<>();
+		int current = id;
+		while (chain.add(current)) {
+			final int controller = getController(current);
+			if (controller<0)
+				return current;
+			current = controller;
+		}
+		// Circular control: 'current' is part of the cycle
+		int parent = current;
+		int node = getController(current);
+		while (node!=current) {
+			if (taxpayerIds[node].compareTo(taxpayerIds[parent])<0)
+				parent = node;
+			node = getController(node);
+		}
+		return parent;
+	}
+
+	/**
+	 * Returns TRUE if the owner controls the owned taxpayer, directly or through a chain of controlled taxpayers
+	 */
+	public boolean isControlledBy(int owned, int owner) {
+		final Set<Integer> chain = new HashSet<>();
+		int current = owned;
+		while (chain.add(current)) {
+			final int controller = getController(current);
+			if (controller<0)
+				return false;
+			if (controller==owner)
+				return true;
+			current = controller;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.idb.cacao.account.archetypes.ShareholdingArchetype;
+import org.idb.cacao.account.etl.AccountingLoader.AccountingFieldNames;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.PublishedDataFieldNames;
+import org.idb.cacao.api.ValidationContext;
+import org.idb.cacao.api.ETLContext.LoadDataStrategy;
+import org.idb.cacao.api.utils.IndexNamesUtils;
+
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Maintains the ownership graph derived from the Shareholding declarations of all taxpayers. Whenever a new Shareholding
+ * declaration is published, this processor loads the part of the graph connected to the declarant (considering the
+ * direct shareholdings already published by other taxpayers for the same year), computes the effective (direct and indirect)
+ * ownership percentages and the groups of taxpayers, and replaces the corresponding records in the ownership index.<BR>
+ * Only the connected part of the graph is recomputed. The other records in the ownership index are not affected.<BR>
+ * There is one record in the ownership index for each pair of owner and owned taxpayer (directly or indirectly).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class OwnershipGraphProcessor {
+
+	private static final Logger log = Logger.getLogger(OwnershipGraphProcessor.class.getName());
+
+	/**
+	 * Index name for published data regarding the ownership graph (direct and indirect ownership, and group of taxpayers).<BR>
+	 * There is one record for each year and each pair of owner and owned taxpayer.
+	 */
+	public static final String INDEX_PUBLISHED_OWNERSHIP = IndexNamesUtils.formatIndexNameForPublishedData("Accounting Ownership");
+
+	/**
+	 * Limits the number of taxpayers in the part of the graph loaded for computing ownership
+	 */
+	public static final int MAX_TAXPAYERS_IN_GRAPH = 100_000;
+
+	/**
+	 * Maximum number of taxpayers in each query for shareholdings
+	 */
+	private static final int MAX_TERMS_PER_QUERY = 1_000;
+
+	/**
+	 * Field names for the ownership graph published data
+	 */
+	public static enum OwnershipFieldNames {
+
+		/**
+		 * Taxpayer Id of the owner (direct or indirect)
+		 */
+		OwnerId,
+
+		OwnerName,
+
+		/**
+		 * Taxpayer Id of the owned taxpayer (directly or indirectly)
+		 */
+		OwnedId,
+
+		OwnedName,
+
+		/**
+		 * Percentage of shares directly held by the owner (100 = 100%)
+		 */
+		DirectPercentage,
+
+		/**
+		 * Percentage of shares effectively held by the owner, directly and indirectly (100 = 100%)
+		 */
+		EffectivePercentage,
+
+		/**
+		 * Indication whether the owner controls the owned taxpayer, directly or through a chain of controlled taxpayers
+		 */
+		Controlled,
+
+		/**
+		 * Taxpayer Id of the ultimate parent of the owner
+		 */
+		OwnerGroupId,
+
+		/**
+		 * Taxpayer Id of the ultimate parent of the owned taxpayer
+		 */
+		OwnedGroupId;
+
+		private final String fieldName;
+
+		OwnershipFieldNames() {
+			this.fieldName = IndexNamesUtils.formatFieldName(name());
+		}
+
+		public String getFieldName() {
+			return fieldName;
+		}
+	}
+
+	/**
+	 * The field name for date/time of published data
+	 */
+	private static final String publishedTimestamp = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TIMESTAMP.name());
+
+	/**
+	 * The field name for taxpayer ID in published data
+	 */
+	private static final String publishedTaxpayerId = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TAXPAYER_ID.name());
+
+	/**
+	 * The field name for period number in published data
+	 */
+	private static final String publishedtaxPeriodNumber = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TAXPERIOD_NUMBER.name());
+
+	/**
+	 * The field name for indication of Year
+	 */
+	private static final String publishedYear = IndexNamesUtils.formatFieldName(AccountingFieldNames.Year.name());
+
+	/**
+	 * The field name for published data regarding Shareholding Identification number
+	 */
+	private static final String publishedShareholdingId = IndexNamesUtils.formatFieldName(ShareholdingArchetype.FIELDS_NAMES.ShareholdingId.name());
+
+	/**
+	 * The field name for published data regarding percentage of shares
+	 */
+	private static final String publishedSharePercentage = IndexNamesUtils.formatFieldName(ShareholdingArchetype.FIELDS_NAMES.SharePercentage.name());
+
+	private final ETLContext.PublishedDataRepository publishedDataRepository;
+
+	private final LoadDataStrategy loader;
+
+	private final LoadingCache<String, Optional<Map<String, Object>>> lookupTaxpayers;
+
+	private final String taxPayerId;
+
+	private final Integer taxPeriodNumber;
+
+	private final int year;
+
+	private final OffsetDateTime timestamp;
+
+	private final OffsetDateTime timestampForView;
+
+	/**
+	 * Shares declared by the taxpayer in the Shareholding being published (the owned taxpayer Id and the percentage)
+	 */
+	private final Map<String, Double> declaredShares;
+
+	public OwnershipGraphProcessor(final ETLContext context,
+			final LoadingCache<String, Optional<Map<String, Object>>> lookupTaxpayers,
+			final int year,
+			final OffsetDateTime timestampForView) {
+		this.publishedDataRepository = context.getPublishedDataRepository();
+		this.loader = context.getLoadDataStrategy();
+		this.lookupTaxpayers = lookupTaxpayers;
+		this.taxPayerId = context.getDocumentUploaded().getTaxPayerId();
+		this.taxPeriodNumber = context.getDocumentUploaded().getTaxPeriodNumber();
+		this.year = year;
+		this.timestamp = context.getDocumentUploaded().getTimestamp();
+		this.timestampForView = timestampForView;
+		this.declaredShares = new HashMap<>();
+	}
+
+	/**
+	 * Computes one record of the Shareholding being published
+	 */
+	public void computeRecord(Map<String, Object> record) {
+		String shareholdingId = ValidationContext.toString(record.get(publishedShareholdingId));
+		if (shareholdingId==null || shareholdingId.trim().length()==0)
+			return;
+		Object percentage = record.get(publishedSharePercentage);
+		if (!(percentage instanceof Number))
+			return;
+		declaredShares.merge(shareholdingId, ((Number)percentage).doubleValue(), Double::sum);
+	}
+
+	/**
+	 * Should be called after computing all the records of the Shareholding being published. Updates the ownership graph.
+	 * @return Returns the number of records published in ownership index
+	 */
+	public long finish() throws Exception {
+
+		if (publishedDataRepository==null) {
+			log.log(Level.WARNING, "Missing repository of published data. The ownership graph was not updated for taxpayer "+taxPayerId+" period "+taxPeriodNumber);
+			return 0;
+		}
+
+		OwnershipGraph graph = new OwnershipGraph();
+
+		// Starts with the taxpayer and the taxpayers related to it, either according to the current declaration or according
+		// to the previous computation of ownership (they may not be related anymore)
+		Set<String> seeds = new LinkedHashSet<>();
+		seeds.add(taxPayerId);
+		seeds.addAll(declaredShares.keySet());
+		try (Stream<Map<String,Object>> previous = publishedDataRepository.getPublishedData(INDEX_PUBLISHED_OWNERSHIP,
+				queryByYear(OwnershipFieldNames.OwnerId.getFieldName(), Collections.singleton(taxPayerId)));) {
+			previous.forEach(record->addIfPresent(seeds, record.get(OwnershipFieldNames.OwnedId.getFieldName())));
+		}
+		try (Stream<Map<String,Object>> previous = publishedDataRepository.getPublishedData(INDEX_PUBLISHED_OWNERSHIP,
+				queryByYear(OwnershipFieldNames.OwnedId.getFieldName(), Collections.singleton(taxPayerId)));) {
+			previous.forEach(record->addIfPresent(seeds, record.get(OwnershipFieldNames.OwnerId.getFieldName())));
+		}
+
+		// The shares declared by the taxpayer come from the declaration being published
+		graph.getId(taxPayerId);
+		for (Map.Entry<String, Double> share: declaredShares.entrySet()) {
+			graph.addShares(taxPayerId, share.getKey(), share.getValue());
+		}
+
+		// Walks through the graph (in both directions) loading the shares declared by other taxpayers
+		Set<String> visited = new LinkedHashSet<>(seeds);
+		List<String> frontier = new ArrayList<>(seeds);
+		while (!frontier.isEmpty()) {
+			Set<String> discovered = new LinkedHashSet<>();
+			for (int start=0; start<frontier.size(); start+=MAX_TERMS_PER_QUERY) {
+				List<String> owners = frontier.subList(start, Math.min(frontier.size(), start+MAX_TERMS_PER_QUERY));
+				// Shares held by these taxpayers
+				try (Stream<Map<String,Object>> shares = publishedDataRepository.getPublishedData(ShareholdingLoader.INDEX_PUBLISHED_SHAREHOLDING,
+						queryByYear(publishedTaxpayerId, owners));) {
+					shares.forEach(record->{
+						String owner = ValidationContext.toString(record.get(publishedTaxpayerId));
+						String owned = ValidationContext.toString(record.get(publishedShareholdingId));
+						Object percentage = record.get(publishedSharePercentage);
+						if (owner==null || owned==null || owner.equals(taxPayerId) || !(percentage instanceof Number))
+							return;
+						graph.addShares(owner, owned, ((Number)percentage).doubleValue());
+						discovered.add(owned);
+					});
+				}
+				// Shares of these taxpayers held by others
+				try (Stream<Map<String,Object>> shares = publishedDataRepository.getPublishedData(ShareholdingLoader.INDEX_PUBLISHED_SHAREHOLDING,
+						queryByYear(publishedShareholdingId, owners));) {
+					shares.forEach(record->addIfPresent(discovered, record.get(publishedTaxpayerId)));
+				}
+			}
+			discovered.removeAll(visited);
+			if (visited.size()+discovered.size()>MAX_TAXPAYERS_IN_GRAPH) {
+				log.log(Level.WARNING, "The ownership graph related to taxpayer "+taxPayerId+" period "+taxPeriodNumber+" exceeds "
+						+MAX_TAXPAYERS_IN_GRAPH+" taxpayers. Only part of it will be considered.");
+				break;
+			}
+			visited.addAll(discovered);
+			frontier = new ArrayList<>(discovered);
+		}
+
+		// Replaces all the previous records regarding the taxpayers of this part of the graph
+		for (String owner: visited) {
+			loader.delete(INDEX_PUBLISHED_OWNERSHIP, owner, taxPeriodNumber);
+		}
+
+		long countRecords = 0;
+		for (String ownerId: visited) {
+			final int owner = graph.findId(ownerId);
+			if (owner<0 || graph.getDegree(owner)==0)
+				continue;
+			final String ownerGroupId = graph.getTaxpayerId(graph.getUltimateParent(owner));
+			final Object ownerName = getTaxpayerName(ownerId);
+			for (Map.Entry<Integer, Double> effective: graph.getEffectiveOwnership(owner).entrySet()) {
+				final int owned = effective.getKey();
+				final String ownedId = graph.getTaxpayerId(owned);
+
+				Map<String,Object> record = new HashMap<>();
+				record.put(PublishedDataFieldNames.ETL_TIMESTAMP.getFieldName(), timestamp);
+				record.put(publishedTimestamp, timestampForView);
+				record.put(publishedTaxpayerId, ownerId);
+				record.put(publishedtaxPeriodNumber, taxPeriodNumber);
+				record.put(publishedYear, year);
+				record.put(OwnershipFieldNames.OwnerId.getFieldName(), ownerId);
+				if (ownerName!=null)
+					record.put(OwnershipFieldNames.OwnerName.getFieldName(), ownerName);
+				record.put(OwnershipFieldNames.OwnedId.getFieldName(), ownedId);
+				Object ownedName = getTaxpayerName(ownedId);
+				if (ownedName!=null)
+					record.put(OwnershipFieldNames.OwnedName.getFieldName(), ownedName);
+				record.put(OwnershipFieldNames.DirectPercentage.getFieldName(), graph.getDirectPercentage(owner, owned));
+				record.put(OwnershipFieldNames.EffectivePercentage.getFieldName(), effective.getValue());
+				record.put(OwnershipFieldNames.Controlled.getFieldName(), graph.isControlledBy(owned, owner));
+				record.put(OwnershipFieldNames.OwnerGroupId.getFieldName(), ownerGroupId);
+				record.put(OwnershipFieldNames.OwnedGroupId.getFieldName(), graph.getTaxpayerId(graph.getUltimateParent(owned)));
+
+				loader.add(new IndexRequest(INDEX_PUBLISHED_OWNERSHIP)
+						.id(year+"."+ownerId+"."+ownedId)
+						.source(record));
+				countRecords++;
+			}
+		}
+
+		return countRecords;
+	}
+
+	/**
+	 * Returns the name of the taxpayer according to the taxpayers registry
+	 */
+	private Object getTaxpayerName(String taxpayerId) {
+		return lookupTaxpayers.getUnchecked(taxpayerId).map(info->info.get("taxpayer_name")).orElse(null);
+	}
+
+	/**
+	 * Query published data of the same year matching any of the taxpayers Id's in the given field
+	 */
+	private BoolQueryBuilder queryByYear(String fieldName, Collection<String> taxpayersIds) {
+		return QueryBuilders.boolQuery()
+			.filter(QueryBuilders.termQuery(publishedYear, year))
+			.filter(QueryBuilders.termsQuery(fieldName+".keyword", taxpayersIds));
+	}
+
+	private static void addIfPresent(Collection<String> taxpayersIds, Object taxpayerId) {
+		String id = ValidationContext.toString(taxpayerId);
+		if (id!=null && id.trim().length()>0)
+			taxpayersIds.add(id);
+	}
+}
@@ -24,9 +24,16 @@ public class PartialEntry {
 	 */
 	private final double amount;
 	
+	/**
+	 * The amount credited or debited represented as fixed-point number (in cents). Used
+	 * for exact comparisons and hashing.
+	 */
+	private final long cents;
+	
 	public PartialEntry(String account, Number amount) {
 		this.account = account;
 		this.amount = Math.abs(amount.doubleValue());
+		this.cents = Math.round(this.amount * 100.0);
 	}
 
 	public String getAccount() {
@@ -37,7 +44,11 @@ public class PartialEntry {
 		return amount;
 	}
 	
+	public long getCents() {
+		return cents;
+	}
+	
 	public String toString () {
-		return String.format("%s: %d", account, amount);
+		return String.format("%s: %.2f", account, amount);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.idb.cacao.api.errors.GeneralException;
+
+/**
+ * Broadcasts the ordered stream of General Ledger entries to multiple processors, each one
+ * running on its own thread and receiving the entries through its own bounded buffer.<BR>
+ * The entries are delivered in batches in order to reduce the synchronization overhead. The
+ * producer blocks whenever the buffer of the slowest processor is full, so the memory
+ * footprint is bounded by 'bufferCapacity' x 'batchSize' entries for each processor.<BR>
+ * Each processor receives all the entries in the same order they were produced, so the
+ * processors that depend on ordering (e.g. by Date and Entry Id) keep working as expected.<BR>
+ * The processors must not share mutable state among themselves (objects such as the
+ * {@link org.idb.cacao.api.ETLContext.LoadDataStrategy LoadDataStrategy} must be synchronized).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class ProcessorsFanOut implements Closeable {
+
+	private static final Logger log = Logger.getLogger(ProcessorsFanOut.class.getName());
+
+	/**
+	 * Default number of batches each processor may keep in its buffer
+	 */
+	public static final int DEFAULT_BUFFER_CAPACITY = 64;
+
+	/**
+	 * Default number of entries in each batch
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 512;
+
+	/**
+	 * Marks the end of the stream of entries
+	 */
+	private static final LedgerEntry[] END_OF_STREAM = new LedgerEntry[0];
+
+	private final int bufferCapacity;
+
+	private final int batchSize;
+
+	private final List<Worker> workers;
+
+	/**
+	 * The batch being filled by the producer
+	 */
+	private LedgerEntry[] currentBatch;
+
+	private int currentBatchSize;
+
+	private boolean started;
+
+	private boolean finished;
+
+	/**
+	 * Keeps the first error produced by any of the processors
+	 */
+	private final AtomicReference<Throwable> error;
+
+	public ProcessorsFanOut() {
+		this(DEFAULT_BUFFER_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+
+	public ProcessorsFanOut(int bufferCapacity, int batchSize) {
+		if (bufferCapacity<1 || batchSize<1)
+			throw new IllegalArgumentException("Buffer capacity and batch size must be positive");
+		this.bufferCapacity = bufferCapacity;
+		this.batchSize = batchSize;
+		this.workers = new ArrayList<>();
+		this.error = new AtomicReference<>();
+	}
+
+	/**
+	 * Registers one more processor. Must be called before {@link #start() start}.
+	 * @param name Name of this processor (used for naming the thread and for logging)
+	 * @param onEntry Procedure to be called for each entry (always called by the same thread)
+	 * @param onFinish Procedure to be called after the last entry (called by the same thread as 'onEntry')
+	 */
+	public void addProcessor(String name, Consumer<LedgerEntry> onEntry, Runnable onFinish) {
+		if (started)
+			throw new IllegalStateException("Can't add processors after start");
+		workers.add(new Worker(name, onEntry, onFinish));
+	}
+
+	/**
+	 * Starts all the threads, one for each processor.
+	 */
+	public void start() {
+		if (started)
+			return;
+		started = true;
+		currentBatch = new LedgerEntry[batchSize];
+		currentBatchSize = 0;
+		for (Worker worker: workers) {
+			worker.thread.start();
+		}
+	}
+
+	/**
+	 * Broadcasts one entry to all the processors. The entries are buffered locally until
+	 * a full batch is available.
+	 */
+	public void accept(LedgerEntry entry) {
+		if (!started)
+			throw new IllegalStateException("Should call 'start' first");
+		checkError();
+		currentBatch[currentBatchSize++] = entry;
+		if (currentBatchSize==batchSize) {
+			publish(currentBatch);
+			currentBatch = new LedgerEntry[batchSize];
+			currentBatchSize = 0;
+		}
+	}
+
+	/**
+	 * Should be called after all the entries. Waits for all the processors to finish their work
+	 * (including their 'onFinish' procedure) and rethrows the first error produced by any of
+	 * them, if any.
+	 */
+	public void finish() throws GeneralException {
+		if (!started || finished)
+			return;
+		finished = true;
+		if (currentBatchSize>0) {
+			LedgerEntry[] lastBatch = new LedgerEntry[currentBatchSize];
+			System.arraycopy(currentBatch, 0, lastBatch, 0, currentBatchSize);
+			publish(lastBatch);
+		}
+		currentBatch = null;
+		publish(END_OF_STREAM);
+		for (Worker worker: workers) {
+			try {
+				worker.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new GeneralException("Interrupted while waiting for processor "+worker.name, e);
+			}
+		}
+		checkError();
+	}
+
+	/**
+	 * Aborts all the processors that are still running (in case the producer failed)
+	 */
+	@Override
+	public void close() {
+		if (!started)
+			return;
+		for (Worker worker: workers) {
+			if (worker.thread.isAlive())
+				worker.thread.interrupt();
+		}
+	}
+
+	/**
+	 * Puts the batch in the buffer of every processor, blocking while the buffer is full
+	 */
+	private void publish(LedgerEntry[] batch) {
+		for (Worker worker: workers) {
+			try {
+				worker.buffer.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new GeneralException("Interrupted while feeding processor "+worker.name, e);
+			}
+		}
+	}
+
+	/**
+	 * Rethrows the first error produced by any of the processors
+	 */
+	private void checkError() {
+		Throwable ex = error.get();
+		if (ex!=null) {
+			if (ex instanceof RuntimeException)
+				throw (RuntimeException)ex;
+			throw new GeneralException(ex);
+		}
+	}
+
+	/**
+	 * Each processor runs in a separate thread, consuming batches from its own buffer
+	 */
+	private class Worker implements Runnable {
+
+		final String name;
+
+		final Consumer<LedgerEntry> onEntry;
+
+		final Runnable onFinish;
+
+		final BlockingQueue<LedgerEntry[]> buffer;
+
+		final Thread thread;
+
+		Worker(String name, Consumer<LedgerEntry> onEntry, Runnable onFinish) {
+			this.name = name;
+			this.onEntry = onEntry;
+			this.onFinish = onFinish;
+			this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+			this.thread = new Thread(this, "ETL-"+name);
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			boolean failed = false;
+			try {
+				while (true) {
+					LedgerEntry[] batch = buffer.take();
+					if (batch==END_OF_STREAM)
+						break;
+					if (failed)
+						continue; // keeps draining the buffer so that the producer won't block forever
+					try {
+						for (LedgerEntry entry: batch) {
+							onEntry.accept(entry);
+						}
+					}
+					catch (Throwable ex) {
+						failed = true;
+						log.log(Level.SEVERE, "Error in processor "+name, ex);
+						error.compareAndSet(null, ex);
+					}
+				}
+				if (!failed && onFinish!=null) {
+					onFinish.run();
+				}
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			catch (Throwable ex) {
+				log.log(Level.SEVERE, "Error finishing processor "+name, ex);
+				error.compareAndSet(null, ex);
+			}
+		}
+	}
+}
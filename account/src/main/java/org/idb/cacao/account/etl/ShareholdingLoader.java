@@ -159,6 +159,9 @@ public class ShareholdingLoader {
 			final int year = Periodicity.getYear(taxPeriodNumber);
 			final OffsetDateTime timestampForView = LocalDate.of(year, 12, 1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
 
+			// Keeps track of the declared shares in order to update the ownership graph
+			final OwnershipGraphProcessor ownershipGraph = new OwnershipGraphProcessor(context, lookupTaxpayers, year, timestampForView);
+
 			// Start the denormalization process
 			
 			boolean success = true;
@@ -225,9 +228,20 @@ public class ShareholdingLoader {
 					loader.add(new IndexRequest(INDEX_PUBLISHED_SHAREHOLDING)
 							.id(rowId_SH)
 							.source(normalizedRecord_SH));
+					
+					ownershipGraph.computeRecord(record);
 
 				});
 				
+				// After processing all the Shareholding, let's update the direct and indirect ownership of all the related taxpayers
+				try {
+					long countOwnership = ownershipGraph.finish();
+					countRecordsOverall.addAndGet(countOwnership);
+				}
+				catch (Exception ex) {
+					log.log(Level.SEVERE, "Error while updating the ownership graph regarding "+taxPayerId+" and period "+taxPeriodNumber, ex);
+				}
+				
 			}
 			finally {
 				data.close();
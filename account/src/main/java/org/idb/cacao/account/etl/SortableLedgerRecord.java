@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps one record of validated General Ledger together with its sorting keys (the Date and the Entry Id),
+ * so that the keys are computed only once per record while sorting the General Ledger with
+ * {@link org.idb.cacao.api.utils.ExternalSorter ExternalSorter}.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class SortableLedgerRecord implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Chronological order (by Date and then by Entry Id). Records with missing Date or Entry Id come last.
+	 */
+	public static final Comparator<SortableLedgerRecord> CHRONOLOGICAL =
+		Comparator.comparingLong(SortableLedgerRecord::getDateKey)
+		.thenComparing(SortableLedgerRecord::getEntryId, Comparator.nullsLast(Comparator.naturalOrder()));
+
+	/**
+	 * Date of book entry in epoch milliseconds (or Long.MAX_VALUE if missing)
+	 */
+	private final long dateKey;
+
+	private final String entryId;
+
+	private final HashMap<String, Object> record;
+
+	public SortableLedgerRecord(Map<String, Object> record, OffsetDateTime date, String entryId) {
+		this.record = (record instanceof HashMap) ? (HashMap<String, Object>)record : new HashMap<>(record);
+		this.dateKey = (date==null) ? Long.MAX_VALUE : date.toInstant().toEpochMilli();
+		this.entryId = entryId;
+	}
+
+	public long getDateKey() {
+		return dateKey;
+	}
+
+	public String getEntryId() {
+		return entryId;
+	}
+
+	public Map<String, Object> getRecord() {
+		return record;
+	}
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.etl;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.idb.cacao.account.elements.StatementComprehensiveIncome;
+import org.idb.cacao.account.etl.AccountingLoader.AccountingFieldNames;
+import org.idb.cacao.api.DomainLanguage;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.Periodicity;
+import org.idb.cacao.api.PublishedDataFieldNames;
+import org.idb.cacao.api.ValidationContext;
+import org.idb.cacao.api.ETLContext.LoadDataStrategy;
+import org.idb.cacao.api.templates.DomainEntry;
+import org.idb.cacao.api.utils.IndexNamesUtils;
+
+/**
+ * Compares the declared Statement of Income with the Statement of Income computed from the General Ledger of
+ * the same taxpayer and year, and stores the differences for each entry in the reconciliation index.<BR>
+ * This is called whenever one of the sides is published. The values of this side are informed by the caller and
+ * the values of the other side are read from its published index. Nothing is published while the other side is missing.<BR>
+ * The declared Statement of Income refers to the whole year. If the General Ledger is published for shorter periods (e.g.
+ * monthly), the computed values of all the periods of the year are summed, and the comparison is only published once these
+ * periods cover the whole year.<BR>
+ * There is one record in the reconciliation index for each taxpayer, year and Statement of Income entry. Each record
+ * is replaced every time one of the sides is published again. If the other side is missing (or does not cover the whole
+ * year anymore), the records are removed.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class StatementIncomeReconciliation {
+
+	private static final Logger log = Logger.getLogger(StatementIncomeReconciliation.class.getName());
+
+	/**
+	 * Index name for published data regarding the differences between declared and computed Statement of Income.<BR>
+	 * There is one record for each year and each Statement of Income entry (according to domain table).
+	 */
+	public static final String INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION = IndexNamesUtils.formatIndexNameForPublishedData("Accounting Statement Income Reconciliation");
+
+	/**
+	 * Ignores differences lesser than half of a cent
+	 */
+	private static final double EPSILON = 0.005;
+
+	/**
+	 * Field names for the reconciliation published data
+	 */
+	public static enum ReconciliationFieldNames {
+
+		/**
+		 * Value according to the declared Statement of Income
+		 */
+		DeclaredAmount,
+
+		/**
+		 * Value according to the Statement of Income computed from General Ledger
+		 */
+		ComputedAmount,
+
+		/**
+		 * Declared value minus computed value
+		 */
+		Difference,
+
+		/**
+		 * Absolute value of the difference
+		 */
+		AbsoluteDifference,
+
+		/**
+		 * Absolute value of the difference relative to the computed value (100 = 100%). Not informed if the computed value is zero.
+		 */
+		RelativeDifference,
+
+		/**
+		 * Indication whether the declared value differs from the computed value (ignoring differences lesser than half of a cent)
+		 */
+		Mismatch;
+
+		private final String fieldName;
+
+		ReconciliationFieldNames() {
+			this.fieldName = IndexNamesUtils.formatFieldName(name());
+		}
+
+		public String getFieldName() {
+			return fieldName;
+		}
+	}
+
+	/**
+	 * The field name for date/time of published data
+	 */
+	private static final String publishedTimestamp = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TIMESTAMP.name());
+
+	/**
+	 * The field name for taxpayer ID in published data
+	 */
+	private static final String publishedTaxpayerId = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TAXPAYER_ID.name());
+
+	/**
+	 * The field name for period number in published data
+	 */
+	private static final String publishedtaxPeriodNumber = IndexNamesUtils.formatFieldName(PublishedDataFieldNames.TAXPERIOD_NUMBER.name());
+
+	/**
+	 * The field name for indication of Year
+	 */
+	private static final String publishedYear = IndexNamesUtils.formatFieldName(AccountingFieldNames.Year.name());
+
+	/**
+	 * The field name for published data regarding 'Statement Entry Code'
+	 */
+	private static final String entryCode = IndexNamesUtils.formatFieldName("StatementEntryCode");
+
+	/**
+	 * The field name for published data regarding 'Statement Entry'
+	 */
+	private static final String statementEntry = IndexNamesUtils.formatFieldName("Statement");
+
+	/**
+	 * The field name for published data regarding 'Statement Order Number'
+	 */
+	private static final String statementNumber = IndexNamesUtils.formatFieldName("StatementNumber");
+
+	/**
+	 * The field name for published data regarding 'Statement Amount'
+	 */
+	private static final String amount = IndexNamesUtils.formatFieldName("Amount");
+
+	private final ETLContext.PublishedDataRepository publishedDataRepository;
+
+	private final LoadDataStrategy loader;
+
+	private final String taxPayerId;
+
+	private final Integer taxPeriodNumber;
+
+	private final OffsetDateTime timestamp;
+
+	private Optional<Map<String,Object>> declarantInformation;
+
+	private Map<StatementComprehensiveIncome, Map<DomainLanguage, DomainEntry>> mapDomainTexts;
+
+	public StatementIncomeReconciliation(final ETLContext context, final OffsetDateTime timestamp) {
+		this.publishedDataRepository = context.getPublishedDataRepository();
+		this.loader = context.getLoadDataStrategy();
+		this.taxPayerId = context.getDocumentUploaded().getTaxPayerId();
+		this.taxPeriodNumber = context.getDocumentUploaded().getTaxPeriodNumber();
+		this.timestamp = timestamp;
+		this.declarantInformation = Optional.empty();
+		this.mapDomainTexts = Collections.emptyMap();
+	}
+
+	public void setDeclarantInformation(Optional<Map<String, Object>> declarantInformation) {
+		this.declarantInformation = declarantInformation;
+	}
+
+	public void setMapDomainTexts(Map<StatementComprehensiveIncome, Map<DomainLanguage, DomainEntry>> mapDomainTexts) {
+		this.mapDomainTexts = mapDomainTexts;
+	}
+
+	/**
+	 * Publishes the reconciliation after publishing the declared Statement of Income. The computed Statement of Income
+	 * is read from its published index.
+	 * @param declared Values of the declared Statement of Income
+	 * @return Returns the number of records published in reconciliation index
+	 */
+	public long publishDeclared(int year, Map<StatementComprehensiveIncome, ? extends Number> declared) throws Exception {
+		Map<StatementComprehensiveIncome, Double> computed = getComputedValuesForYear(year, /*currentPeriod*/null, /*currentValues*/null);
+		if (computed==null)
+			return delete(year);
+		return publish(year, toDoubles(declared), computed);
+	}
+
+	/**
+	 * Publishes the reconciliation after publishing the Statement of Income computed from General Ledger. The declared
+	 * Statement of Income is read from its published index.
+	 * @param computed Values of the computed Statement of Income
+	 * @return Returns the number of records published in reconciliation index
+	 */
+	public long publishComputed(int year, Map<StatementComprehensiveIncome, ? extends Number> computed) throws Exception {
+		Map<Integer, Map<StatementComprehensiveIncome, Double>> declared = getPublishedValues(IncomeStatementLoader.INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME, year);
+		if (declared==null)
+			return delete(year);
+		Map<StatementComprehensiveIncome, Double> computedForYear = getComputedValuesForYear(year, taxPeriodNumber, toDoubles(computed));
+		if (computedForYear==null)
+			return delete(year);
+		return publish(year, sum(declared.values()), computedForYear);
+	}
+
+	/**
+	 * Returns the values computed from the General Ledgers of the taxpayer covering the whole year, or NULL if they do not cover the
+	 * whole year yet.
+	 * @param currentPeriod Period of the General Ledger being published (its values replace the published ones). May be NULL.
+	 * @param currentValues Values computed from the General Ledger being published. May be NULL.
+	 */
+	private Map<StatementComprehensiveIncome, Double> getComputedValuesForYear(int year, Integer currentPeriod,
+			Map<StatementComprehensiveIncome, Double> currentValues) throws Exception {
+		Map<Integer, Map<StatementComprehensiveIncome, Double>> valuesPerPeriod = getPublishedValues(AccountingLoader.INDEX_PUBLISHED_COMPUTED_STATEMENT_INCOME, year);
+		if (currentPeriod!=null && currentValues!=null) {
+			if (valuesPerPeriod==null) {
+				if (publishedDataRepository==null)
+					return null;
+				valuesPerPeriod = new TreeMap<>();
+			}
+			valuesPerPeriod.put(currentPeriod, currentValues);
+		}
+		if (valuesPerPeriod==null)
+			return null;
+
+		// A General Ledger covering the whole year prevails over the ones of shorter periods
+		for (Map.Entry<Integer, Map<StatementComprehensiveIncome, Double>> entry: valuesPerPeriod.entrySet()) {
+			if (Periodicity.getMinMonthNumber(entry.getKey(), null)==1 && Periodicity.getMaxMonthNumber(entry.getKey(), null)==12)
+				return entry.getValue();
+		}
+
+		// Otherwise the periods must cover all the months of the year, without overlapping
+		Set<Integer> months = new TreeSet<>();
+		for (Integer period: valuesPerPeriod.keySet()) {
+			int minMonth = Periodicity.getMinMonthNumber(period, null);
+			int maxMonth = Periodicity.getMaxMonthNumber(period, null);
+			for (int month=minMonth; month>0 && month<=maxMonth; month++) {
+				if (!months.add(month)) {
+					if (log.isLoggable(Level.FINE))
+						log.log(Level.FINE, "The General Ledgers of taxpayer "+taxPayerId+" year "+year+" have overlapping periods "+valuesPerPeriod.keySet()+". The reconciliation of Statement of Income was not updated.");
+					return null;
+				}
+			}
+		}
+		if (months.size()<12)
+			return null;
+		return sum(valuesPerPeriod.values());
+	}
+
+	/**
+	 * Returns the sum of the published values for each period and each Statement of Income entry of the taxpayer and year, or NULL if
+	 * there is no repository of published data or if there are no published values
+	 */
+	private Map<Integer, Map<StatementComprehensiveIncome, Double>> getPublishedValues(String indexName, int year) throws Exception {
+		if (publishedDataRepository==null) {
+			log.log(Level.WARNING, "Missing repository of published data. The reconciliation of Statement of Income was not updated for taxpayer "+taxPayerId+" period "+taxPeriodNumber);
+			return null;
+		}
+		Map<Integer, Map<StatementComprehensiveIncome, Double>> valuesPerPeriod = new TreeMap<>();
+		try (Stream<Map<String,Object>> published = publishedDataRepository.getPublishedData(indexName,
+				QueryBuilders.boolQuery()
+				.filter(QueryBuilders.termQuery(publishedTaxpayerId+".keyword", taxPayerId))
+				.filter(QueryBuilders.termQuery(publishedYear, year)));) {
+			published.forEach(record->{
+				String code = ValidationContext.toString(record.get(entryCode));
+				Number value = ValidationContext.toNumber(record.get(amount));
+				if (code==null || value==null)
+					return;
+				StatementComprehensiveIncome entry;
+				try {
+					entry = StatementComprehensiveIncome.valueOf(code);
+				}
+				catch (IllegalArgumentException e) {
+					return;
+				}
+				Number period = ValidationContext.toNumber(record.get(publishedtaxPeriodNumber));
+				valuesPerPeriod.computeIfAbsent((period==null) ? year : period.intValue(), p->new EnumMap<>(StatementComprehensiveIncome.class))
+					.merge(entry, value.doubleValue(), Double::sum);
+			});
+		}
+		if (valuesPerPeriod.isEmpty())
+			return null;
+		return valuesPerPeriod;
+	}
+
+	private static Map<StatementComprehensiveIncome, Double> sum(Collection<Map<StatementComprehensiveIncome, Double>> values) {
+		Map<StatementComprehensiveIncome, Double> sum = new EnumMap<>(StatementComprehensiveIncome.class);
+		for (Map<StatementComprehensiveIncome, Double> v: values) {
+			for (Map.Entry<StatementComprehensiveIncome, Double> entry: v.entrySet())
+				sum.merge(entry.getKey(), entry.getValue(), Double::sum);
+		}
+		return sum;
+	}
+
+	/**
+	 * Stores one record for each Statement of Income entry with both values (missing values are considered zero)
+	 */
+	private long publish(int year, Map<StatementComprehensiveIncome, Double> declared, Map<StatementComprehensiveIncome, Double> computed) {
+
+		final OffsetDateTime timestampForView = LocalDate.of(year, 12, 1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime();
+
+		long countRecords = 0;
+		for (StatementComprehensiveIncome t: StatementComprehensiveIncome.values()) {
+			final double declaredValue = declared.getOrDefault(t, 0.0);
+			final double computedValue = computed.getOrDefault(t, 0.0);
+			final double difference = declaredValue - computedValue;
+
+			Map<String,Object> record = new HashMap<>();
+			record.put(PublishedDataFieldNames.ETL_TIMESTAMP.getFieldName(), timestamp);
+			record.put(publishedTimestamp, timestampForView);
+			record.put(publishedTaxpayerId, taxPayerId);
+			record.put(publishedtaxPeriodNumber, taxPeriodNumber);
+			record.put(publishedYear, year);
+			record.put(entryCode, t.name());
+			record.put(ReconciliationFieldNames.DeclaredAmount.getFieldName(), declaredValue);
+			record.put(ReconciliationFieldNames.ComputedAmount.getFieldName(), computedValue);
+			record.put(ReconciliationFieldNames.Difference.getFieldName(), difference);
+			record.put(ReconciliationFieldNames.AbsoluteDifference.getFieldName(), Math.abs(difference));
+			if (computedValue!=0) {
+				record.put(ReconciliationFieldNames.RelativeDifference.getFieldName(), Math.abs(difference) * 100.0 / Math.abs(computedValue));
+			}
+			record.put(ReconciliationFieldNames.Mismatch.getFieldName(), Math.abs(difference)>EPSILON);
+			if (declarantInformation.isPresent())
+				record.putAll(declarantInformation.get());
+			record.put(statementNumber, String.format("%02d", t.ordinal()+1));
+			Map<DomainLanguage, DomainEntry> multiLanguageDomainEntry = mapDomainTexts.get(t);
+			if (multiLanguageDomainEntry!=null && !multiLanguageDomainEntry.isEmpty())
+				ETLContext.denormalizeDomainEntryNames(multiLanguageDomainEntry, statementEntry, record);
+
+			// The same Id regardless of which side was published, so that the previous record is replaced
+			loader.add(new IndexRequest(INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION)
+					.id(formatRowId(year, t))
+					.source(record));
+			countRecords++;
+		}
+
+		return countRecords;
+	}
+
+	/**
+	 * Removes the records previously published for the taxpayer and year, if any, since one of the sides is
+	 * missing now (e.g. the General Ledger was replaced by another one of a shorter period)
+	 * @return Returns the number of records published in reconciliation index (always zero)
+	 */
+	private long delete(int year) throws Exception {
+		if (loader==null)
+			return 0;
+		for (StatementComprehensiveIncome t: StatementComprehensiveIncome.values()) {
+			loader.deleteById(INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION, formatRowId(year, t));
+		}
+		return 0;
+	}
+
+	/**
+	 * The same Id regardless of which side was published
+	 */
+	private String formatRowId(int year, StatementComprehensiveIncome entry) {
+		return taxPayerId+"."+year+"."+entry.name();
+	}
+
+	private static Map<StatementComprehensiveIncome, Double> toDoubles(Map<StatementComprehensiveIncome, ? extends Number> values) {
+		Map<StatementComprehensiveIncome, Double> doubles = new EnumMap<>(StatementComprehensiveIncome.class);
+		for (Map.Entry<StatementComprehensiveIncome, ? extends Number> entry: values.entrySet()) {
+			if (entry.getValue()!=null)
+				doubles.put(entry.getKey(), entry.getValue().doubleValue());
+		}
+		return doubles;
+	}
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.validations;
+
+import static org.idb.cacao.account.archetypes.GeneralLedgerArchetype.FIELDS_NAMES.*;
+import static org.idb.cacao.api.ValidationContext.getParsedRequiredContent;
+import static org.idb.cacao.api.utils.ParserUtils.ISO_8601_DATE;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.idb.cacao.api.ValidationContext;
+
+/**
+ * Validates the records of a General Ledger one at a time, in the same order they were presented, keeping in memory
+ * only the information regarding the current day.<BR>
+ * For each record it performs in one pass: the carry-forward of missing dates, the conversion from 'Form #2' into 'Form #1'
+ * and the check of balances (debits and credits) for each day.<BR>
+ * The journal may be presented in one of two possible forms:<BR>
+ * 1) One column for 'Amount' containing debits/credits, and one column for indicating 'D' for debits and 'C' for credits.<BR>
+ * or<BR>
+ * 2) One column for 'AmountDebitOnly' containing only debits, and one column for 'AmountCreditOnly' containing only credits.<BR>
+ * The ETL is expecting only journal in form #1. So, if this is a 'form #2' journal, the record is changed in order to make it
+ * resemble the 'form #1'. A 'form #2' record with both debit and credit is split into two records (the debit first).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class GeneralLedgerStreamValidator {
+
+	/**
+	 * Ignores differences lesser than half of a cent
+	 */
+	private static final double EPSILON = 0.005;
+
+	private final ValidationContext context;
+
+	private final boolean hasForm1Fields;
+
+	private final boolean hasForm2Fields;
+
+	/**
+	 * Date of the last record with date (used for records without date)
+	 */
+	private Date previousDate;
+
+	/**
+	 * Date of the day being checked for balance
+	 */
+	private Date currentDay;
+
+	/**
+	 * Positive for debit, negative for credit
+	 */
+	private double currentBalance;
+
+	private double totalDebits;
+
+	private double totalCredits;
+
+	private boolean hasInvalidRecords;
+
+	private long countValidRecords;
+
+	private boolean failed;
+
+	public GeneralLedgerStreamValidator(ValidationContext context) {
+		this.context = context;
+
+		final boolean inputIsUnknown = context.getDocumentInput()==null || context.getDocumentInput().getFields()==null || context.getDocumentInput().getFields().isEmpty();
+
+		// Fields for form #1
+		final boolean hasAmountField = (inputIsUnknown) ? null!=context.getDocumentTemplate().getField(Amount.name())
+				: context.getDocumentInput().hasEnoughForFetchingData(context.getDocumentTemplate().getField(Amount.name()));
+		final boolean hasDebitCreditField = (inputIsUnknown) ? null!=context.getDocumentTemplate().getField(DebitCredit.name())
+				: context.getDocumentInput().hasEnoughForFetchingData(context.getDocumentTemplate().getField(DebitCredit.name()));
+		this.hasForm1Fields = hasAmountField && hasDebitCreditField;
+
+		// Fields form form #2
+		final boolean hasAmountDebitOnlyField = (inputIsUnknown) ? null!=context.getDocumentTemplate().getField(AmountDebitOnly.name())
+				: context.getDocumentInput().hasEnoughForFetchingData(context.getDocumentTemplate().getField(AmountDebitOnly.name()));
+		final boolean hasAmountCreditOnlyField = (inputIsUnknown) ? null!=context.getDocumentTemplate().getField(AmountCreditOnly.name())
+				: context.getDocumentInput().hasEnoughForFetchingData(context.getDocumentTemplate().getField(AmountCreditOnly.name()));
+		this.hasForm2Fields = hasAmountDebitOnlyField && hasAmountCreditOnlyField;
+	}
+
+	/**
+	 * Returns TRUE if the template and the input provides enough fields for one of the known forms of General Ledger.
+	 * Otherwise adds an alert and returns FALSE.
+	 */
+	public boolean checkKnownForm() {
+		if (!hasForm1Fields && !hasForm2Fields) {
+			context.addAlert("{account.error.journal.unknown.form}");
+			failed = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Validates the next record. Passes to 'output' the resulting records in 'form #1' (none if the record is invalid,
+	 * one record or two records in case of a 'form #2' record with debit and credit). The first output record is the
+	 * same object as the input record.
+	 * @return Returns FALSE if the General Ledger should be rejected (no more records should be informed)
+	 */
+	public boolean accept(Map<String, Object> record, Consumer<Map<String, Object>> output) {
+		if (failed)
+			return false;
+
+		Date date = getParsedRequiredContent(context, Date.class, record, Date.name());
+		if (date==null) {
+			if (previousDate==null) {
+				hasInvalidRecords = true;
+				return true;
+			}
+			else {
+				date = previousDate;
+			}
+		}
+		else {
+			previousDate = date;
+		}
+
+		Number amount = null;
+		String debitCredit = null;
+		boolean hasForm1Values = false;
+
+		Number amountDebit = null;
+		Number amountCredit = null;
+		boolean hasForm2Values = false;
+
+		// Best-effort: let's consider any possibility (form#1, form#2 or both)
+
+		if (hasForm1Fields) {
+			amount = getParsedRequiredContent(context, Number.class, record, Amount.name());
+			debitCredit = getParsedRequiredContent(context, String.class, record, DebitCredit.name());
+
+			hasForm1Values = (amount!=null && debitCredit!=null);
+		}
+
+		if (!hasForm1Values && hasForm2Fields) {
+			amountDebit = getParsedRequiredContent(context, Number.class, record, AmountDebitOnly.name());
+			amountCredit = getParsedRequiredContent(context, Number.class, record, AmountCreditOnly.name());
+
+			hasForm2Values = (amountDebit!=null || amountCredit!=null);
+		}
+
+		if (!hasForm1Values && !hasForm2Values) {
+			hasInvalidRecords = true;
+			return true;
+		}
+
+		if (currentDay==null) {
+			currentDay = date;
+		}
+
+		if (!currentDay.equals(date)) {
+
+			// changed the day, check the balance
+
+			if (!checkBalance())
+				return false;
+
+			// Reset counts
+			currentBalance = 0;
+			totalDebits = 0;
+			totalCredits = 0;
+			currentDay = date;
+
+		}
+
+		if (hasForm1Values) {
+			boolean is_debit = debitCredit.equalsIgnoreCase("D");
+			if (is_debit) {
+				currentBalance += Math.abs(amount.doubleValue());
+				totalDebits += Math.abs(amount.doubleValue());
+			}
+			else {
+				currentBalance -= Math.abs(amount.doubleValue());
+				totalCredits += Math.abs(amount.doubleValue());
+			}
+			output.accept(record);
+		}
+		else {
+			if (amountDebit!=null) {
+				currentBalance += Math.abs(amountDebit.doubleValue());
+				totalDebits += Math.abs(amountDebit.doubleValue());
+			}
+			if (amountCredit!=null) {
+				currentBalance -= Math.abs(amountCredit.doubleValue());
+				totalCredits += Math.abs(amountCredit.doubleValue());
+			}
+
+			// we have to convert this record into Form #1
+			record.remove(AmountDebitOnly.name());		// Remove the field of Form #2
+			record.remove(AmountCreditOnly.name());		// Remove the field of Form #2
+			if (amountDebit!=null && amountCredit!=null) {
+				Map<String,Object> creditRecord = new HashMap<>(record); // make a copy of the original record
+				record.put(Amount.name(), amountDebit);
+				record.put(DebitCredit.name(), "D");
+				creditRecord.put(Amount.name(), amountCredit);
+				creditRecord.put(DebitCredit.name(), "C");
+				output.accept(record);
+				output.accept(creditRecord);
+			}
+			else {
+				record.put(Amount.name(), (amountDebit!=null) ? amountDebit : amountCredit);
+				record.put(DebitCredit.name(), (amountDebit!=null) ? "D" : "C");
+				output.accept(record);
+			}
+		}
+
+		countValidRecords++;
+
+		return true;
+	}
+
+	/**
+	 * Should be called after the last record.
+	 * @return Returns TRUE if the document is OK and may be considered. Returns FALSE if the document should be rejected
+	 */
+	public boolean finish() {
+		if (failed)
+			return false;
+
+		// If we have only invalid records, lets abort
+		if (hasInvalidRecords && countValidRecords==0) {
+			return false;
+		}
+
+		if (currentDay!=null && !checkBalance()) {
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Check the balance of the current day
+	 */
+	private boolean checkBalance() {
+		if (Math.abs(currentBalance)>EPSILON) {
+			context.addAlert("{account.error.debits.credits.unbalanced("+totalDebits+","+totalCredits+","+ISO_8601_DATE.get().format(currentDay)+")}");
+			failed = true;
+			return false;
+		}
+		return true;
+	}
+}
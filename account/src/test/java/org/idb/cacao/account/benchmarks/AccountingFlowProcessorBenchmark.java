@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.benchmarks;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.idb.cacao.account.archetypes.GeneralLedgerArchetype;
+import org.idb.cacao.account.etl.AccountingFlowProcessor;
+import org.idb.cacao.account.etl.LedgerEntry;
+import org.idb.cacao.account.generator.AccountDataGenerator;
+import org.idb.cacao.api.templates.DocumentFormat;
+import org.idb.cacao.api.templates.DocumentTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark for {@link AccountingFlowProcessor AccountingFlowProcessor} considering General Ledgers
+ * with 'wide' book entries (i.e. book entries with many debits and many credits, such as payroll and
+ * closing entries).<BR>
+ * The General Ledger is generated by {@link AccountDataGenerator AccountDataGenerator}. In order to produce
+ * wide book entries, every 'width' consecutive records are merged into one book entry, with all the debits
+ * preceding all the credits.<BR>
+ * This is not a unit test. Run with the 'main' method (from the test classpath).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountingFlowProcessorBenchmark {
+
+	/**
+	 * Number of records generated for the General Ledger
+	 */
+	@Param({"20000"})
+	public int records;
+
+	/**
+	 * Number of records in each book entry
+	 */
+	@Param({"2", "16", "64", "256"})
+	public int width;
+
+	/**
+	 * The General Ledger entries in the order they are fed to the processor
+	 */
+	private List<LedgerEntry> entries;
+
+	@Setup
+	public void setup() throws Exception {
+
+		DocumentTemplate template = new DocumentTemplate();
+		template.setFields(new GeneralLedgerArchetype().getRequiredFields());
+		template.setArchetype(GeneralLedgerArchetype.NAME);
+		long seed = "BENCHMARK".hashCode();
+
+		List<LedgerEntry> generated = new ArrayList<>(records);
+		AccountDataGenerator gen = new AccountDataGenerator(template, DocumentFormat.XLS, seed, records);
+		gen.start();
+		try {
+			Map<String,Object> record;
+			while ((record=gen.nextRecord())!=null) {
+				LocalDate date = (LocalDate)record.get(GeneralLedgerArchetype.FIELDS_NAMES.Date.name());
+				generated.add(new LedgerEntry(
+					date.atStartOfDay().atOffset(ZoneOffset.UTC),
+					(String)record.get(GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name()),
+					(Number)record.get(GeneralLedgerArchetype.FIELDS_NAMES.Amount.name()),
+					"D".equals(record.get(GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name())),
+					/*customerSupplierId*/null, /*customerSupplierName*/null));
+			}
+		}
+		finally {
+			gen.close();
+		}
+
+		// Merge every 'width' records into one wide book entry (debits first, then credits, all of them at the same date)
+		entries = new ArrayList<>(generated.size());
+		for (int start=0; start<generated.size(); start+=width) {
+			List<LedgerEntry> group = generated.subList(start, Math.min(start+width, generated.size()));
+			OffsetDateTime date = group.get(0).getDate();
+			for (boolean debits: new boolean[] { true, false }) {
+				for (LedgerEntry entry: group) {
+					if (entry.isDebit()!=debits)
+						continue;
+					entries.add(new LedgerEntry(date, entry.getAccountCode(), entry.getAmount(), entry.isDebit(), null, null));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void computeAccountingFlows(Blackhole blackhole) {
+		AccountingFlowProcessor processor = new AccountingFlowProcessor();
+		processor.setCollectDailyAccountingFlows(blackhole::consume);
+		processor.setCollectWarnings(blackhole::consume);
+		for (LedgerEntry entry: entries) {
+			processor.computeEntry(entry.getDate(), entry.getAccountCode(), entry.getAmount(), entry.isDebit());
+		}
+		processor.finish();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+			.include(AccountingFlowProcessorBenchmark.class.getSimpleName())
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -38,6 +38,13 @@ import org.idb.cacao.account.elements.StatementComprehensiveIncome;
 import org.idb.cacao.account.etl.AccountingFlowProcessor;
 import org.idb.cacao.account.etl.AccountingLoader;
 import org.idb.cacao.account.etl.AccountingLoader.AccountingFieldNames;
+import org.idb.cacao.account.etl.CustomerSupplierReconciliation;
+import org.idb.cacao.account.etl.CustomerSupplierReconciliation.CustomerSupplierFieldNames;
+import org.idb.cacao.account.etl.IncomeStatementLoader;
+import org.idb.cacao.account.etl.LedgerEntry;
+import org.idb.cacao.account.etl.ProcessorsFanOut;
+import org.idb.cacao.account.etl.StatementIncomeReconciliation;
+import org.idb.cacao.account.etl.StatementIncomeReconciliation.ReconciliationFieldNames;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentUploaded;
 import org.idb.cacao.api.ETLContext;
@@ -52,6 +59,10 @@ import org.idb.cacao.api.templates.TemplateArchetypes;
 import org.idb.cacao.api.utils.IndexNamesUtils;
 import org.junit.jupiter.api.Test;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import static org.idb.cacao.account.elements.AccountCategory.*;
 import static org.idb.cacao.account.elements.AccountSubcategory.*;
 
@@ -392,6 +403,20 @@ public class AccountingLoaderTests {
 		InMemoryLoadDataStrategy inMemoryLoadStrategy = new InMemoryLoadDataStrategy();
 		etlContext.setLoadDataStrategy(inMemoryLoadStrategy);
 		
+		// The declared Statement of Income was published before
+		InMemoryPublishedDataRepository inMemoryPublishedDataRepository = new InMemoryPublishedDataRepository();
+		inMemoryPublishedDataRepository.addData(IncomeStatementLoader.INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME, 
+			"taxpayer_id", "1234",
+			"year", 2021,
+			"statement_entry_code", StatementComprehensiveIncome.REVENUE_NET.name(),
+			"amount", 450.0);
+		inMemoryPublishedDataRepository.addData(IncomeStatementLoader.INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME, 
+			"taxpayer_id", "1234",
+			"year", 2021,
+			"statement_entry_code", StatementComprehensiveIncome.EXPENSE_COST.name(),
+			"amount", 100.0);
+		etlContext.setPublishedDataRepository(inMemoryPublishedDataRepository);
+		
 		boolean result = AccountingLoader.performETL(etlContext);
 		assertTrue(result);
 		
@@ -414,6 +439,32 @@ public class AccountingLoaderTests {
 		assertNotNull(record_gross_profit, "Missing gross profit calculation!");
 		assertEquals(400.0, record_gross_profit.get("amount"), "The expected value should be the computation of REVENUE_NET - EXPENSE_COST");
 
+		// Verifies the published differences between declared and computed Statement of Income
+		
+		List<Map<String,Object>> reconciliation_records = inMemoryLoadStrategy.getRecords(StatementIncomeReconciliation.INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION);
+		assertEquals(StatementComprehensiveIncome.values().length, reconciliation_records.size(), 
+				"Missing differences for the Statement of Income");
+
+		Map<String,Object> reconciliation_revenue_net = reconciliation_records.stream().filter(record->StatementComprehensiveIncome.REVENUE_NET.name().equals(record.get("statement_entry_code"))).findAny().orElse(null);
+		assertNotNull(reconciliation_revenue_net, "Missing revenue net difference!");
+		assertEquals(450.0, reconciliation_revenue_net.get(ReconciliationFieldNames.DeclaredAmount.getFieldName()));
+		assertEquals(500.0, reconciliation_revenue_net.get(ReconciliationFieldNames.ComputedAmount.getFieldName()));
+		assertEquals(-50.0, reconciliation_revenue_net.get(ReconciliationFieldNames.Difference.getFieldName()));
+		assertEquals(50.0, reconciliation_revenue_net.get(ReconciliationFieldNames.AbsoluteDifference.getFieldName()));
+		assertEquals(10.0, reconciliation_revenue_net.get(ReconciliationFieldNames.RelativeDifference.getFieldName()));
+		assertEquals(true, reconciliation_revenue_net.get(ReconciliationFieldNames.Mismatch.getFieldName()));
+		assertEquals("JOHN SMITH LLC", reconciliation_revenue_net.get("taxpayer_name"));
+
+		Map<String,Object> reconciliation_expense_cost = reconciliation_records.stream().filter(record->StatementComprehensiveIncome.EXPENSE_COST.name().equals(record.get("statement_entry_code"))).findAny().orElse(null);
+		assertNotNull(reconciliation_expense_cost, "Missing expense cost difference!");
+		assertEquals(0.0, reconciliation_expense_cost.get(ReconciliationFieldNames.AbsoluteDifference.getFieldName()));
+		assertEquals(false, reconciliation_expense_cost.get(ReconciliationFieldNames.Mismatch.getFieldName()));
+
+		Map<String,Object> reconciliation_gross_profit = reconciliation_records.stream().filter(record->StatementComprehensiveIncome.GROSS_PROFIT.name().equals(record.get("statement_entry_code"))).findAny().orElse(null);
+		assertNotNull(reconciliation_gross_profit, "Missing gross profit difference!");
+		assertEquals(0.0, reconciliation_gross_profit.get(ReconciliationFieldNames.DeclaredAmount.getFieldName()), "Gross profit was not declared");
+		assertEquals(true, reconciliation_gross_profit.get(ReconciliationFieldNames.Mismatch.getFieldName()));
+
 		
 		// Verifies the published Daily Accounting Flows
 
@@ -454,6 +505,329 @@ public class AccountingLoaderTests {
 
 	}
 
+	/**
+	 * Test the differences between declared and computed Statement of Income when the General Ledgers are published
+	 * for periods shorter than one year
+	 */
+	@Test
+	public void testStatementIncomeReconciliationForSemesters() throws Exception {
+
+		ETLContext etlContext = new ETLContext();
+		DocumentUploaded gl = new DocumentUploaded();
+		gl.setTaxPayerId("1234");
+		gl.setTaxPeriodNumber(20212);
+		etlContext.setDocumentUploaded(gl);
+
+		InMemoryLoadDataStrategy inMemoryLoadStrategy = new InMemoryLoadDataStrategy();
+		etlContext.setLoadDataStrategy(inMemoryLoadStrategy);
+
+		InMemoryPublishedDataRepository inMemoryPublishedDataRepository = new InMemoryPublishedDataRepository();
+		etlContext.setPublishedDataRepository(inMemoryPublishedDataRepository);
+
+		OffsetDateTime timestamp = OffsetDateTime.of(2022, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+		Map<StatementComprehensiveIncome, Double> secondSemester = Collections.singletonMap(StatementComprehensiveIncome.REVENUE_NET, 250.0);
+
+		// Nothing was declared yet
+		assertEquals(0, new StatementIncomeReconciliation(etlContext, timestamp).publishComputed(2021, secondSemester));
+
+		inMemoryPublishedDataRepository.addData(IncomeStatementLoader.INDEX_PUBLISHED_DECLARED_STATEMENT_INCOME, 
+			"taxpayer_id", "1234",
+			"taxperiod_number", 2021,
+			"year", 2021,
+			"statement_entry_code", StatementComprehensiveIncome.REVENUE_NET.name(),
+			"amount", 450.0);
+
+		// The second semester alone does not cover the whole year
+		assertEquals(0, new StatementIncomeReconciliation(etlContext, timestamp).publishComputed(2021, secondSemester));
+		assertNull(inMemoryLoadStrategy.getRecords(StatementIncomeReconciliation.INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION));
+		// Any reconciliation previously published for the same year is removed
+		assertTrue(inMemoryLoadStrategy.getDeletedIds(StatementIncomeReconciliation.INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION)
+			.contains("1234.2021."+StatementComprehensiveIncome.REVENUE_NET.name()));
+
+		// Both semesters cover the whole year
+		inMemoryPublishedDataRepository.addData(AccountingLoader.INDEX_PUBLISHED_COMPUTED_STATEMENT_INCOME, 
+			"taxpayer_id", "1234",
+			"taxperiod_number", 20211,
+			"year", 2021,
+			"statement_entry_code", StatementComprehensiveIncome.REVENUE_NET.name(),
+			"amount", 200.0);
+		assertEquals(StatementComprehensiveIncome.values().length, new StatementIncomeReconciliation(etlContext, timestamp).publishComputed(2021, secondSemester));
+
+		List<Map<String,Object>> reconciliation_records = inMemoryLoadStrategy.getRecords(StatementIncomeReconciliation.INDEX_PUBLISHED_STATEMENT_INCOME_RECONCILIATION);
+		Map<String,Object> reconciliation_revenue_net = reconciliation_records.stream().filter(record->StatementComprehensiveIncome.REVENUE_NET.name().equals(record.get("statement_entry_code"))).findAny().orElse(null);
+		assertNotNull(reconciliation_revenue_net, "Missing revenue net difference!");
+		assertEquals(450.0, reconciliation_revenue_net.get(ReconciliationFieldNames.DeclaredAmount.getFieldName()));
+		assertEquals(450.0, reconciliation_revenue_net.get(ReconciliationFieldNames.ComputedAmount.getFieldName()));
+		assertEquals(false, reconciliation_revenue_net.get(ReconciliationFieldNames.Mismatch.getFieldName()));
+	}
+
+	/**
+	 * Test the monthly aggregations over customers
+	 */
+	@Test
+	public void testETLForCustomersAggregations() throws Exception {
+		
+		ETLContext etlContext = new ETLContext();
+		
+		InMemoryValidatedDataRepository inMemoryValidatedDataRepository = new InMemoryValidatedDataRepository();
+		inMemoryValidatedDataRepository.addTemplateFromArchetype(new ChartOfAccountsArchetype());
+		inMemoryValidatedDataRepository.addTemplateFromArchetype(new GeneralLedgerArchetype());
+		inMemoryValidatedDataRepository.addTemplateFromArchetype(new OpeningBalanceArchetype());
+		
+		InMemoryDomainTableRepository inMemoryDomainTableRepository = new InMemoryDomainTableRepository();
+		inMemoryDomainTableRepository.addBuiltIn();
+		etlContext.setDomainTableRepository(inMemoryDomainTableRepository);
+		
+		DocumentUploaded coa = inMemoryValidatedDataRepository.addUpload(/*templateName*/ChartOfAccountsArchetype.NAME,/*templateVersion*/"1.0", 
+				/*taxPayerId*/"1234", /*taxPeriodNumber*/2021, /*fileId*/UUID.randomUUID().toString());
+		inMemoryValidatedDataRepository.addData(coa, 
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountCode.name(), "1.00.00",
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountDescription.name(), "Cash and Cash Equivalents",
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountCategory.name(), ASSET.getIfrsNumber(),
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountSubcategory.name(), ASSET_CASH.getIfrsNumber(),
+			ChartOfAccountsArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			ChartOfAccountsArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), coa.getFileId());
+		inMemoryValidatedDataRepository.addData(coa, 
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountCode.name(), "4.00.00",
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountDescription.name(), "Revenue from Services",
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountCategory.name(), REVENUE.getIfrsNumber(),
+			ChartOfAccountsArchetype.FIELDS_NAMES.AccountSubcategory.name(), REVENUE_NET.getIfrsNumber(),
+			ChartOfAccountsArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			ChartOfAccountsArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), coa.getFileId());
+		
+		DocumentUploaded gl = inMemoryValidatedDataRepository.addUpload(/*templateName*/GeneralLedgerArchetype.NAME,/*templateVersion*/"1.0", 
+				/*taxPayerId*/"1234", /*taxPeriodNumber*/2021, /*fileId*/UUID.randomUUID().toString());
+		inMemoryValidatedDataRepository.addData(gl, 
+			GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name(), "1.00.00",
+			GeneralLedgerArchetype.FIELDS_NAMES.Date.name(), LocalDate.of(2021, 1, 1),
+			GeneralLedgerArchetype.FIELDS_NAMES.EntryId.name(), "L0001",
+			GeneralLedgerArchetype.FIELDS_NAMES.Amount.name(), 300.0,
+			GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name(), "D",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), gl.getFileId());
+		inMemoryValidatedDataRepository.addData(gl, 
+			GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name(), "4.00.00",
+			GeneralLedgerArchetype.FIELDS_NAMES.Date.name(), LocalDate.of(2021, 1, 1),
+			GeneralLedgerArchetype.FIELDS_NAMES.EntryId.name(), "L0001",
+			GeneralLedgerArchetype.FIELDS_NAMES.Amount.name(), 300.0,
+			GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name(), "C",
+			GeneralLedgerArchetype.FIELDS_NAMES.CustomerSupplierId.name(), "C001",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), gl.getFileId());
+		inMemoryValidatedDataRepository.addData(gl, 
+			GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name(), "1.00.00",
+			GeneralLedgerArchetype.FIELDS_NAMES.Date.name(), LocalDate.of(2021, 1, 1),
+			GeneralLedgerArchetype.FIELDS_NAMES.EntryId.name(), "L0002",
+			GeneralLedgerArchetype.FIELDS_NAMES.Amount.name(), 200.0,
+			GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name(), "D",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), gl.getFileId());
+		inMemoryValidatedDataRepository.addData(gl, 
+			GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name(), "4.00.00",
+			GeneralLedgerArchetype.FIELDS_NAMES.Date.name(), LocalDate.of(2021, 1, 1),
+			GeneralLedgerArchetype.FIELDS_NAMES.EntryId.name(), "L0002",
+			GeneralLedgerArchetype.FIELDS_NAMES.Amount.name(), 200.0,
+			GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name(), "C",
+			GeneralLedgerArchetype.FIELDS_NAMES.CustomerSupplierId.name(), "c001",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), gl.getFileId());
+		inMemoryValidatedDataRepository.addData(gl, 
+			GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name(), "1.00.00",
+			GeneralLedgerArchetype.FIELDS_NAMES.Date.name(), LocalDate.of(2021, 2, 1),
+			GeneralLedgerArchetype.FIELDS_NAMES.EntryId.name(), "L0003",
+			GeneralLedgerArchetype.FIELDS_NAMES.Amount.name(), 50.0,
+			GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name(), "D",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), gl.getFileId());
+		inMemoryValidatedDataRepository.addData(gl, 
+			GeneralLedgerArchetype.FIELDS_NAMES.AccountCode.name(), "4.00.00",
+			GeneralLedgerArchetype.FIELDS_NAMES.Date.name(), LocalDate.of(2021, 2, 1),
+			GeneralLedgerArchetype.FIELDS_NAMES.EntryId.name(), "L0003",
+			GeneralLedgerArchetype.FIELDS_NAMES.Amount.name(), 50.0,
+			GeneralLedgerArchetype.FIELDS_NAMES.DebitCredit.name(), "C",
+			GeneralLedgerArchetype.FIELDS_NAMES.CustomerSupplierId.name(), "C002",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			GeneralLedgerArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), gl.getFileId());
+		
+		DocumentUploaded ob = inMemoryValidatedDataRepository.addUpload(/*templateName*/OpeningBalanceArchetype.NAME,/*templateVersion*/"1.0", 
+				/*taxPayerId*/"1234", /*taxPeriodNumber*/2021, /*fileId*/UUID.randomUUID().toString());
+		inMemoryValidatedDataRepository.addData(ob, 
+			OpeningBalanceArchetype.FIELDS_NAMES.AccountCode.name(), "1.00.00",
+			OpeningBalanceArchetype.FIELDS_NAMES.InitialBalance.name(), 1_000.0,
+			OpeningBalanceArchetype.FIELDS_NAMES.DebitCredit.name(), "D",
+			OpeningBalanceArchetype.FIELDS_NAMES.TaxPayerId.name(), "1234",
+			OpeningBalanceArchetype.FIELDS_NAMES.TaxYear.name(), 2021,
+			ValidatedDataFieldNames.FILE_ID.name(), ob.getFileId());
+
+		etlContext.setDocumentTemplate(inMemoryValidatedDataRepository.getTemplate(GeneralLedgerArchetype.NAME));
+		etlContext.setDocumentUploaded(gl);
+		
+		InMemoryTaxpayerRepository inMemoryTaxpayerRepository = new InMemoryTaxpayerRepository();
+		inMemoryTaxpayerRepository.addTaxpayer(new Taxpayer()
+				.withTaxPayerId("1234")
+				.withName("JOHN SMITH LLC"));
+		inMemoryTaxpayerRepository.addTaxpayer(new Taxpayer()
+				.withTaxPayerId("C001")
+				.withName("ACME INC")
+				.withQualifier1("Retail"));
+		etlContext.setTaxpayerRepository(inMemoryTaxpayerRepository);
+		
+		etlContext.setValidatedDataRepository(inMemoryValidatedDataRepository);
+		
+		InMemoryLoadDataStrategy inMemoryLoadStrategy = new InMemoryLoadDataStrategy();
+		etlContext.setLoadDataStrategy(inMemoryLoadStrategy);
+		
+		// Other taxpayers reporting this taxpayer as supplier or as customer
+		InMemoryPublishedDataRepository inMemoryPublishedDataRepository = new InMemoryPublishedDataRepository();
+		inMemoryPublishedDataRepository.addData(AccountingLoader.INDEX_PUBLISHED_SUPPLIERS, 
+			"taxpayer_id", "C001",
+			"supplier_id", "1234",
+			"year", 2021,
+			"month_number", 1,
+			"amount", 480.0);
+		inMemoryPublishedDataRepository.addData(AccountingLoader.INDEX_PUBLISHED_CUSTOMERS, 
+			"taxpayer_id", "S001",
+			"customer_id", "1234",
+			"year", 2021,
+			"month_number", 2,
+			"amount", 70.0);
+		// Previous flow that is not reported anymore
+		inMemoryPublishedDataRepository.addData(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION, 
+			CustomerSupplierFieldNames.SellerId.getFieldName(), "1234",
+			CustomerSupplierFieldNames.BuyerId.getFieldName(), "C009",
+			"year", 2021,
+			"month_number", 3);
+		etlContext.setPublishedDataRepository(inMemoryPublishedDataRepository);
+		
+		boolean result = AccountingLoader.performETL(etlContext);
+		assertTrue(result);
+		
+		// Verifies the published Monthly Aggregations of Customers (the same customer informed with different cases
+		// should be aggregated together)
+		
+		List<Map<String,Object>> customers_records = inMemoryLoadStrategy.getRecords(AccountingLoader.INDEX_PUBLISHED_CUSTOMERS);
+		assertNotNull(customers_records);
+		assertEquals(2, customers_records.size());
+		
+		Map<String,Object> record = customers_records.get(0);
+		assertEquals("C001", record.get("customer_id"));
+		assertEquals(1, ((Number)record.get(IndexNamesUtils.formatFieldName(AccountingFieldNames.MonthNumber.name()))).intValue());
+		assertEquals(500.0, ((Number)record.get(IndexNamesUtils.formatFieldName(AccountingFieldNames.AmountCredits.name()))).doubleValue(), 0.001);
+		assertEquals(500.0, ((Number)record.get(IndexNamesUtils.formatFieldName(GeneralLedgerArchetype.FIELDS_NAMES.Amount.name()))).doubleValue(), 0.001);
+		assertEquals(2, ((Number)record.get(IndexNamesUtils.formatFieldName(AccountingFieldNames.BookEntries.name()))).intValue());
+		assertEquals("ACME INC", record.get("customer_name"));
+		assertEquals("Retail", record.get(IndexNamesUtils.formatFieldName("CustomerQualifier1")));
+		assertEquals("JOHN SMITH LLC", record.get("taxpayer_name"));
+		
+		record = customers_records.get(1);
+		assertEquals("C002", record.get("customer_id"));
+		assertEquals(2, ((Number)record.get(IndexNamesUtils.formatFieldName(AccountingFieldNames.MonthNumber.name()))).intValue());
+		assertEquals(50.0, ((Number)record.get(IndexNamesUtils.formatFieldName(GeneralLedgerArchetype.FIELDS_NAMES.Amount.name()))).doubleValue(), 0.001);
+		assertNull(record.get("customer_name"));
+		
+		// Verifies the flows between taxpayers as reported by both sides
+		
+		List<Map<String,Object>> pairs_records = inMemoryLoadStrategy.getRecords(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION);
+		assertNotNull(pairs_records);
+		assertEquals(3, pairs_records.size());
+		
+		record = pairs_records.stream().filter(r->"C001".equals(r.get(CustomerSupplierFieldNames.BuyerId.getFieldName()))).findAny().orElse(null);
+		assertNotNull(record, "Missing sales to C001");
+		assertEquals("1234", record.get(CustomerSupplierFieldNames.SellerId.getFieldName()));
+		assertEquals("JOHN SMITH LLC", record.get(CustomerSupplierFieldNames.SellerName.getFieldName()));
+		assertEquals("ACME INC", record.get(CustomerSupplierFieldNames.BuyerName.getFieldName()));
+		assertEquals(500.0, (Double)record.get(CustomerSupplierFieldNames.SalesAmount.getFieldName()), 0.001);
+		assertEquals(480.0, (Double)record.get(CustomerSupplierFieldNames.PurchasesAmount.getFieldName()), 0.001);
+		assertEquals(20.0, (Double)record.get(CustomerSupplierFieldNames.AbsoluteDifference.getFieldName()), 0.001);
+		assertEquals(true, record.get(CustomerSupplierFieldNames.Mismatch.getFieldName()));
+		assertEquals(true, record.get(CustomerSupplierFieldNames.ReportedByBuyer.getFieldName()));
+
+		record = pairs_records.stream().filter(r->"S001".equals(r.get(CustomerSupplierFieldNames.SellerId.getFieldName()))).findAny().orElse(null);
+		assertNotNull(record, "Missing purchases from S001");
+		assertEquals("1234", record.get(CustomerSupplierFieldNames.BuyerId.getFieldName()));
+		assertEquals(2, record.get(IndexNamesUtils.formatFieldName(AccountingFieldNames.MonthNumber.name())));
+		assertEquals(70.0, (Double)record.get(CustomerSupplierFieldNames.SalesAmount.getFieldName()), 0.001);
+		assertEquals(0.0, (Double)record.get(CustomerSupplierFieldNames.PurchasesAmount.getFieldName()), 0.001);
+		assertEquals(false, record.get(CustomerSupplierFieldNames.ReportedByBuyer.getFieldName()));
+		
+		assertEquals(Collections.singletonList(CustomerSupplierReconciliation.formatRowId("1234", "C009", 202103)), 
+				inMemoryLoadStrategy.getDeletedIds(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION));
+	}
+
+	/**
+	 * Test the reconciliation of customers and suppliers for a General Ledger of one month (the pairs of the
+	 * other months should not be replaced)
+	 */
+	@Test
+	public void testCustomersSuppliersReconciliationForOneMonth() throws Exception {
+
+		ETLContext etlContext = new ETLContext();
+		DocumentUploaded gl = new DocumentUploaded();
+		gl.setTaxPayerId("1234");
+		gl.setTaxPeriodNumber(202102);
+		etlContext.setDocumentUploaded(gl);
+
+		InMemoryLoadDataStrategy inMemoryLoadStrategy = new InMemoryLoadDataStrategy();
+		etlContext.setLoadDataStrategy(inMemoryLoadStrategy);
+
+		InMemoryPublishedDataRepository inMemoryPublishedDataRepository = new InMemoryPublishedDataRepository();
+		inMemoryPublishedDataRepository.addData(AccountingLoader.INDEX_PUBLISHED_SUPPLIERS, 
+			"taxpayer_id", "C001",
+			"supplier_id", "1234",
+			"year", 2021,
+			"month_number", 1,
+			"amount", 480.0);
+		inMemoryPublishedDataRepository.addData(AccountingLoader.INDEX_PUBLISHED_SUPPLIERS, 
+			"taxpayer_id", "C001",
+			"supplier_id", "1234",
+			"year", 2021,
+			"month_number", 2,
+			"amount", 90.0);
+		// Previous flows of other months and of the same month
+		inMemoryPublishedDataRepository.addData(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION, 
+			CustomerSupplierFieldNames.SellerId.getFieldName(), "1234",
+			CustomerSupplierFieldNames.BuyerId.getFieldName(), "C009",
+			"year", 2021,
+			"month_number", 1);
+		inMemoryPublishedDataRepository.addData(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION, 
+			CustomerSupplierFieldNames.SellerId.getFieldName(), "1234",
+			CustomerSupplierFieldNames.BuyerId.getFieldName(), "C009",
+			"year", 2021,
+			"month_number", 2);
+		etlContext.setPublishedDataRepository(inMemoryPublishedDataRepository);
+
+		LoadingCache<String, Optional<Map<String, Object>>> lookupTaxpayers = CacheBuilder.newBuilder()
+			.build(CacheLoader.from(id->Optional.empty()));
+
+		CustomerSupplierReconciliation reconciliation = new CustomerSupplierReconciliation(etlContext, lookupTaxpayers, 
+				OffsetDateTime.of(2021, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+		reconciliation.addPeriod(202102);
+		reconciliation.computeSales("C001", 202101, 500.0); // out of the period of the General Ledger
+		reconciliation.computeSales("C001", 202102, 100.0);
+		assertEquals(1, reconciliation.finish());
+
+		List<Map<String,Object>> pairs_records = inMemoryLoadStrategy.getRecords(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION);
+		assertNotNull(pairs_records);
+		assertEquals(1, pairs_records.size());
+		Map<String,Object> record = pairs_records.get(0);
+		assertEquals("C001", record.get(CustomerSupplierFieldNames.BuyerId.getFieldName()));
+		assertEquals(2, record.get(IndexNamesUtils.formatFieldName(AccountingFieldNames.MonthNumber.name())));
+		assertEquals(100.0, (Double)record.get(CustomerSupplierFieldNames.SalesAmount.getFieldName()), 0.001);
+		assertEquals(90.0, (Double)record.get(CustomerSupplierFieldNames.PurchasesAmount.getFieldName()), 0.001);
+		assertEquals(true, record.get(CustomerSupplierFieldNames.ReportedBySeller.getFieldName()));
+
+		assertEquals(Collections.singletonList(CustomerSupplierReconciliation.formatRowId("1234", "C009", 202102)), 
+				inMemoryLoadStrategy.getDeletedIds(CustomerSupplierReconciliation.INDEX_PUBLISHED_CUSTOMERS_SUPPLIERS_RECONCILIATION));
+	}
+
 	/**
 	 * Test the processing of accounting flows considering different combinations of debits and credits
 	 */
@@ -661,6 +1035,120 @@ public class AccountingLoaderTests {
 
 	}
 	
+	/**
+	 * Test the processing of accounting flows considering book entries with many debits and many credits
+	 */
+	@Test
+	public void testCombinationsForWideAccountFlows() throws Exception {
+		
+		AccountingFlowProcessor processor = new AccountingFlowProcessor();
+		List<DailyAccountingFlow> flows = new LinkedList<>();
+		processor.setCollectDailyAccountingFlows(flows::add);
+		
+		// Scenario 1: one debit for three credits and one credit for three debits, mixed with other entries
+		
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"01", /*amount*/600.10, /*isDebit*/true);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"02", /*amount*/50.0, /*isDebit*/true);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"03", /*amount*/70.0, /*isDebit*/true);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"04", /*amount*/80.0, /*isDebit*/true);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"05", /*amount*/100.05, /*isDebit*/false);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"06", /*amount*/200.05, /*isDebit*/false);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"07", /*amount*/300.0, /*isDebit*/false);
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"08", /*amount*/200.0, /*isDebit*/false);
+		processor.finish();
+
+		assertEquals(6, flows.size(), "Expected 6 accounting flows (three for each matching of one to three entries)");
+		flows.stream()
+			.filter(flow->flow.getAmount()==100.05 && "01".equals(flow.getDebitedAccountCode()) && "05".equals(flow.getCreditedAccountCode()))
+			.findAny().orElseThrow(()->new Exception("Missing expected flow!"));
+		flows.stream()
+			.filter(flow->flow.getAmount()==200.05 && "01".equals(flow.getDebitedAccountCode()) && "06".equals(flow.getCreditedAccountCode()))
+			.findAny().orElseThrow(()->new Exception("Missing expected flow!"));
+		flows.stream()
+			.filter(flow->flow.getAmount()==300.0 && "01".equals(flow.getDebitedAccountCode()) && "07".equals(flow.getCreditedAccountCode()))
+			.findAny().orElseThrow(()->new Exception("Missing expected flow!"));
+		flows.stream()
+			.filter(flow->flow.getAmount()==50.0 && "02".equals(flow.getDebitedAccountCode()) && "08".equals(flow.getCreditedAccountCode()))
+			.findAny().orElseThrow(()->new Exception("Missing expected flow!"));
+		flows.stream()
+			.filter(flow->flow.getAmount()==70.0 && "03".equals(flow.getDebitedAccountCode()) && "08".equals(flow.getCreditedAccountCode()))
+			.findAny().orElseThrow(()->new Exception("Missing expected flow!"));
+		flows.stream()
+			.filter(flow->flow.getAmount()==80.0 && "04".equals(flow.getDebitedAccountCode()) && "08".equals(flow.getCreditedAccountCode()))
+			.findAny().orElseThrow(()->new Exception("Missing expected flow!"));
+		
+		// Scenario 2: very wide book entry without any combination (should finish in reasonable time and report one 'many to many' flow)
+		
+		flows.clear();
+		processor.setMaxSearchSteps(1_000);
+		
+		// Debits end with 1 cent and credits end with 50 cents, so there is no combination of them
+		final int width = 2_000;
+		long total = 0;
+		for (int i=0; i<width; i++) {
+			long amount = 100_000 + i * 100 + 1;
+			total += amount;
+			processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"D"+i, amount / 100.0, /*isDebit*/true);
+		}
+		for (int i=0; i<width-1; i++) {
+			long amount = 100_000 + i * 100 + 50;
+			total -= amount;
+			processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"C"+i, amount / 100.0, /*isDebit*/false);
+		}
+		processor.computeEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), /*accountCode*/"C"+width, total / 100.0, /*isDebit*/false);
+		processor.finish();
+		
+		assertEquals(1, flows.size(), "Expected one accounting flow for 'many to many'");
+		assertEquals(DailyAccountingFlow.MANY_ACCOUNTS, flows.get(0).getDebitedAccountCode());
+		assertEquals(DailyAccountingFlow.MANY_ACCOUNTS, flows.get(0).getCreditedAccountCode());
+	}
+
+	/**
+	 * Test the broadcasting of General Ledger entries to multiple processors running in parallel
+	 */
+	@Test
+	public void testProcessorsFanOut() throws Exception {
+		
+		final int entries = 10_000;
+		
+		List<String> received1 = new LinkedList<>();
+		List<String> received2 = new LinkedList<>();
+		List<String> finished = Collections.synchronizedList(new LinkedList<>());
+		
+		// Small buffers and batches in order to force the producer to wait for the consumers
+		try (ProcessorsFanOut fanOut = new ProcessorsFanOut(/*bufferCapacity*/2, /*batchSize*/7);) {
+			fanOut.addProcessor("P1", entry->received1.add(entry.getAccountCode()), ()->finished.add("P1"));
+			fanOut.addProcessor("P2", entry->received2.add(entry.getAccountCode()), ()->finished.add("P2"));
+			fanOut.start();
+			for (int i=0; i<entries; i++) {
+				fanOut.accept(new LedgerEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), String.valueOf(i), 1.0, (i%2)==0, null, null));
+			}
+			fanOut.finish();
+		}
+		
+		assertEquals(entries, received1.size());
+		assertEquals(entries, received2.size());
+		for (int i=0; i<entries; i++) {
+			assertEquals(String.valueOf(i), received1.get(i), "Entries should be received in the same order they were produced");
+			assertEquals(String.valueOf(i), received2.get(i), "Entries should be received in the same order they were produced");
+		}
+		assertEquals(2, finished.size());
+		
+		// Errors in any processor should be reported to the producer
+		
+		try (ProcessorsFanOut fanOut = new ProcessorsFanOut(/*bufferCapacity*/2, /*batchSize*/7);) {
+			fanOut.addProcessor("OK", entry->{ }, null);
+			fanOut.addProcessor("FAIL", entry->{ throw new IllegalStateException("failed"); }, null);
+			fanOut.start();
+			assertThrows(IllegalStateException.class, ()->{
+				for (int i=0; i<entries; i++) {
+					fanOut.accept(new LedgerEntry(OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC), String.valueOf(i), 1.0, true, null, null));
+				}
+				fanOut.finish();
+			});
+		}
+	}
+	
 	/**
 	 * Simplified in-memory implementation of 'ETLContext.ValidatedDataRepository' for test cases
 	 * @author Gustavo Figueiredo
@@ -837,6 +1325,34 @@ public class AccountingLoaderTests {
 		}
 	}
 	
+	/**
+	 * Simplified in-memory implementation of 'ETLContext.PublishedDataRepository' for test cases.<BR>
+	 * Ignores the query and returns all the records of the index.
+	 * @author Gustavo Figueiredo
+	 *
+	 */
+	public static class InMemoryPublishedDataRepository implements ETLContext.PublishedDataRepository {
+		
+		private final Map<String,List<Map<String,Object>>> recordsPerIndex;
+		
+		public InMemoryPublishedDataRepository() {
+			recordsPerIndex = new HashMap<>();
+		}
+		
+		public void addData(String index, Object... values) {
+			Map<String,Object> record = new HashMap<>();
+			for (int i=0; i<values.length-1; i+=2) {
+				record.put((String)values[i], values[i+1]);
+			}
+			recordsPerIndex.computeIfAbsent(index, i->new LinkedList<>()).add(record);
+		}
+
+		@Override
+		public Stream<Map<String, Object>> getPublishedData(String indexName, QueryBuilder query) {
+			return recordsPerIndex.getOrDefault(indexName, Collections.emptyList()).stream();
+		}
+	}
+	
 	/**
 	 * Simplified in-memory implementation of 'ETLContext.LoadDataStrategy' for test cases
 	 * @author Gustavo Figueiredo
@@ -846,8 +1362,11 @@ public class AccountingLoaderTests {
 		
 		private final Map<String,List<Map<String,Object>>> recordsPerIndex;
 		
+		private final Map<String,List<String>> deletedIdsPerIndex;
+		
 		public InMemoryLoadDataStrategy() {
 			recordsPerIndex = new HashMap<>();
+			deletedIdsPerIndex = new HashMap<>();
 		}
 		
 		@Override
@@ -859,5 +1378,15 @@ public class AccountingLoaderTests {
 		public List<Map<String,Object>> getRecords(String index) {
 			return recordsPerIndex.get(index);
 		}
+		
+		@Override
+		public void deleteById(String index, String id) {
+			deletedIdsPerIndex.computeIfAbsent(index, i->new LinkedList<>())
+				.add(id);
+		}
+		
+		public List<String> getDeletedIds(String index) {
+			return deletedIdsPerIndex.get(index);
+		}
 	}
 }
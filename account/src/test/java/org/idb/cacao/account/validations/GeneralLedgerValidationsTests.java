@@ -7,6 +7,7 @@
 package org.idb.cacao.account.validations;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -132,6 +133,65 @@ public class GeneralLedgerValidationsTests {
 		assertEquals("{account.error.debits.credits.unbalanced(340.0,0.0,2021-03-01)}",context.getAlerts().get(0));
 	}
 
+	/**
+	 * Validates an arbitrary General Ledger presented with separate columns for debits and credits (form #2), possibly
+	 * mixed with records in form #1. The converted records should keep the original order.
+	 */
+	@Test
+	public void validateForm2Ledger() throws ParseException {
+		validateForm2Ledger(new LinkedList<>());
+		validateForm2Ledger(new ArrayList<>());
+	}
+	
+	/**
+	 * Validates the General Ledger of {@link #validateForm2Ledger() validateForm2Ledger} using a given implementation of list
+	 */
+	private void validateForm2Ledger(List<Map<String, Object>> records) throws ParseException {
+		
+		// Prepare the test case scenario
+		
+		ValidationContext context = new ValidationContext();
+		
+		DocumentTemplate template = new DocumentTemplate();
+		template.setFields(new GeneralLedgerArchetype().getRequiredFields());
+		context.setDocumentTemplate(template);
+		
+		records.add(newLedgerRecordForm2("2021-01-01", 100.0, null));
+		records.add(newLedgerRecord("2021-01-01", 20.0, DEBIT));
+		records.add(newLedgerRecordForm2(null, 30.0, 150.0));		// date carried forward, split into two records
+		records.add(newLedgerRecordForm2("2021-01-01", null, null));	// invalid record, should be removed
+		records.add(newLedgerRecordForm2("2021-02-01", null, 40.0));
+		records.add(newLedgerRecord("2021-02-01", 40.0, DEBIT));
+		
+		boolean result = GeneralLedgerValidations.validateDocumentUploaded(context, records);
+		assertTrue(result, "The result of validation of General Ledger should be OK! Alerts: "+context.getAlerts());
+		
+		assertEquals(6, records.size(), "Unexpected number of records in "+records.getClass().getSimpleName());
+		double[] expectedAmounts = { 100.0, 20.0, 30.0, 150.0, 40.0, 40.0 };
+		String[] expectedDebitCredit = { "D", "D", "D", "C", "C", "D" };
+		for (int i=0; i<expectedAmounts.length; i++) {
+			Map<String, Object> record = records.get(i);
+			assertEquals(expectedAmounts[i], ((Number)record.get(Amount.name())).doubleValue(), 0.001, "Unexpected amount at record "+i);
+			assertEquals(expectedDebitCredit[i], record.get(DebitCredit.name()), "Unexpected debit/credit indicator at record "+i);
+			assertFalse(record.containsKey(AmountDebitOnly.name()), "Field of form #2 should have been removed at record "+i);
+			assertFalse(record.containsKey(AmountCreditOnly.name()), "Field of form #2 should have been removed at record "+i);
+		}
+	}
+
+	/**
+	 * Utility method for this test case
+	 */
+	private static Map<String, Object> newLedgerRecordForm2(String date, Double amountDebit, Double amountCredit) throws ParseException {
+		Map<String, Object> record = new HashMap<>();
+		if (date!=null)
+			record.put(Date.name(), ISO_8601_DATE.get().parse(date));
+		if (amountDebit!=null)
+			record.put(AmountDebitOnly.name(), amountDebit);
+		if (amountCredit!=null)
+			record.put(AmountCreditOnly.name(), amountCredit);
+		return record;
+	}
+
 	/**
 	 * Utility method for this test case
 	 */
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.account.validations;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.idb.cacao.account.etl.OwnershipGraph;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the computation of direct and indirect ownership among taxpayers
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class OwnershipGraphTests {
+
+	/**
+	 * Test the effective ownership through a chain of shareholdings and through multiple paths
+	 */
+	@Test
+	public void testEffectiveOwnership() throws Exception {
+
+		OwnershipGraph graph = new OwnershipGraph();
+		graph.addShares("A", "B", 60.0);
+		graph.addShares("B", "C", 50.0);
+		graph.addShares("A", "C", 10.0);
+		graph.addShares("C", "D", 30.0);
+		graph.addShares("C", "D", 10.0); // another class of shares
+
+		int a = graph.findId("A");
+		int c = graph.findId("C");
+		int d = graph.findId("D");
+
+		Map<Integer, Double> effective = graph.getEffectiveOwnership(a);
+		assertEquals(3, effective.size());
+		assertEquals(60.0, effective.get(graph.findId("B")), 0.0001);
+		assertEquals(40.0, effective.get(c), 0.0001, "10% directly plus 60% of 50%");
+		assertEquals(16.0, effective.get(d), 0.0001, "40% of 40%");
+
+		assertEquals(10.0, graph.getDirectPercentage(a, c), 0.0001);
+		assertEquals(40.0, graph.getDirectPercentage(c, d), 0.0001);
+		assertEquals(0.0, graph.getDirectPercentage(a, d), 0.0001);
+	}
+
+	/**
+	 * Test the effective ownership in case of cross-holdings
+	 */
+	@Test
+	public void testCrossHoldings() throws Exception {
+
+		OwnershipGraph graph = new OwnershipGraph();
+		graph.addShares("A", "B", 50.0);
+		graph.addShares("B", "C", 50.0);
+		graph.addShares("C", "B", 20.0);
+
+		// A owns 50% of B directly, plus 50% x 50% x 20% = 5% indirectly through C, and so on (geometric series)
+		Map<Integer, Double> effective = graph.getEffectiveOwnership(graph.findId("A"));
+		assertEquals(50.0 / 0.9, effective.get(graph.findId("B")), 0.001);
+		assertEquals(25.0 / 0.9, effective.get(graph.findId("C")), 0.001);
+
+		// B does not own itself
+		assertFalse(graph.getEffectiveOwnership(graph.findId("B")).containsKey(graph.findId("B")));
+	}
+
+	/**
+	 * Test the groups of taxpayers according to control (more than 50% of shares)
+	 */
+	@Test
+	public void testGroups() throws Exception {
+
+		OwnershipGraph graph = new OwnershipGraph();
+		graph.addShares("A", "B", 60.0);
+		graph.addShares("B", "C", 51.0);
+		graph.addShares("X", "C", 49.0);
+		graph.addShares("X", "Y", 50.0);
+		graph.addShares("P", "Q", 80.0);
+		graph.addShares("Q", "P", 80.0);
+
+		int a = graph.findId("A");
+		int b = graph.findId("B");
+		int c = graph.findId("C");
+		int y = graph.findId("Y");
+
+		assertEquals(a, graph.getUltimateParent(a));
+		assertEquals(a, graph.getUltimateParent(b));
+		assertEquals(a, graph.getUltimateParent(c));
+		assertEquals(y, graph.getUltimateParent(y), "50% is not enough for control");
+		assertEquals(graph.findId("P"), graph.getUltimateParent(graph.findId("Q")), "Circular control should choose the lowest Id");
+
+		assertTrue(graph.isControlledBy(c, a));
+		assertTrue(graph.isControlledBy(c, b));
+		assertFalse(graph.isControlledBy(c, graph.findId("X")));
+		assertFalse(graph.isControlledBy(a, b));
+	}
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Message exchanged between the services through the KAFKA topics of the document pipeline (uploaded-files,
+ * validated-files and processed-files).<BR>
+ * <BR>
+ * Besides the {@link DocumentUploaded#getId() document ID}, it carries the information the next stage would otherwise
+ * fetch from database (template name and version, taxpayer, period, file path, size and digest and the situation of
+ * the document), so that the consumers may skip those lookups.<BR>
+ * <BR>
+ * The payload is a compact JSON object with short property names and a {@link #CURRENT_FORMAT format} number. Messages
+ * produced by older versions containing only the document ID are also accepted by {@link #parse(String) parse}. In this case
+ * {@link #isComplete() isComplete} returns FALSE and the consumer should look up the document as before.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@JsonInclude(Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DocumentEvent implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = Logger.getLogger(DocumentEvent.class.getName());
+
+	/**
+	 * Format of the messages produced by this version. Messages containing only the document ID are considered format 0.
+	 */
+	public static final int CURRENT_FORMAT = 1;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	@JsonProperty("v")
+	private int format;
+
+	@JsonProperty("id")
+	private String documentId;
+
+	@JsonProperty("tn")
+	private String templateName;
+
+	@JsonProperty("tv")
+	private String templateVersion;
+
+	@JsonProperty("tp")
+	private String taxPayerId;
+
+	@JsonProperty("pn")
+	private Integer taxPeriodNumber;
+
+	@JsonProperty("fp")
+	private String filePath;
+
+	@JsonProperty("sz")
+	private Long fileSize;
+
+	@JsonProperty("h")
+	private String hash;
+
+	@JsonProperty("s")
+	private DocumentSituation situation;
+
+	public DocumentEvent() { }
+
+	/**
+	 * Returns an event with only the document ID
+	 */
+	public static DocumentEvent of(String documentId) {
+		DocumentEvent event = new DocumentEvent();
+		event.format = CURRENT_FORMAT;
+		event.documentId = documentId;
+		return event;
+	}
+
+	/**
+	 * Returns an event with the current information about the document
+	 */
+	public static DocumentEvent of(DocumentUploaded doc) {
+		DocumentEvent event = of(doc.getId());
+		event.templateName = doc.getTemplateName();
+		event.templateVersion = doc.getTemplateVersion();
+		event.taxPayerId = doc.getTaxPayerId();
+		event.taxPeriodNumber = doc.getTaxPeriodNumber();
+		event.filePath = doc.getFileIdWithPath();
+		event.hash = doc.getHash();
+		event.situation = doc.getSituation();
+		return event;
+	}
+
+	/**
+	 * Parses the payload of a message. Accepts either the JSON format produced by {@link #toPayload() toPayload} or
+	 * a plain document ID (as produced by older versions).
+	 */
+	public static DocumentEvent parse(String payload) {
+		if (payload==null)
+			return null;
+		String trimmed = payload.trim();
+		if (!trimmed.startsWith("{")) {
+			DocumentEvent event = new DocumentEvent();
+			event.documentId = trimmed;
+			return event;
+		}
+		try {
+			return mapper.readValue(trimmed, DocumentEvent.class);
+		}
+		catch (JsonProcessingException ex) {
+			log.log(Level.WARNING, "Could not parse document event: "+payload, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the payload to be published
+	 */
+	public String toPayload() {
+		try {
+			return mapper.writeValueAsString(this);
+		}
+		catch (JsonProcessingException ex) {
+			// Should not happen with the fields we have. Fall back to the format all consumers understand.
+			log.log(Level.WARNING, "Could not serialize document event for "+documentId, ex);
+			return documentId;
+		}
+	}
+
+	/**
+	 * Returns TRUE if this event carries the information about the document (i.e. it's not an old message with
+	 * only the document ID)
+	 */
+	@JsonIgnore
+	public boolean isComplete() {
+		return format>=1 && templateName!=null && templateVersion!=null;
+	}
+
+	/**
+	 * Returns the key to be used for choosing the KAFKA partition of this message. It's the taxpayer ID, so that all
+	 * the documents of the same taxpayer are consumed in order by the same consumer. If the taxpayer is not known yet
+	 * (e.g. uploads before validation), it's the document ID.
+	 */
+	@JsonIgnore
+	public String getPartitionKey() {
+		if (taxPayerId!=null && taxPayerId.trim().length()>0)
+			return taxPayerId.trim();
+		return documentId;
+	}
+
+	/**
+	 * Returns the key to be used for choosing the KAFKA partition of a message given its payload (see {@link #getPartitionKey() getPartitionKey}).
+	 * The payload may be either a String or the byte array of its UTF-8 encoding (as it is after message conversion).
+	 */
+	public static String getPartitionKey(Object payload) {
+		final String text;
+		if (payload instanceof byte[])
+			text = new String((byte[])payload, StandardCharsets.UTF_8);
+		else if (payload!=null)
+			text = payload.toString();
+		else
+			return null;
+		DocumentEvent event = parse(text);
+		return (event==null) ? text : event.getPartitionKey();
+	}
+
+	/**
+	 * Returns the partition number for the partition key (see {@link #getPartitionKey() getPartitionKey}). It's always
+	 * the same for the same key, regardless of the service or the JVM.
+	 */
+	public static int selectPartition(Object key, int partitionCount) {
+		if (key==null || partitionCount<=1)
+			return 0;
+		return Math.floorMod(key.hashCode(), partitionCount);
+	}
+
+	public int getFormat() {
+		return format;
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public String getTemplateVersion() {
+		return templateVersion;
+	}
+
+	public String getTaxPayerId() {
+		return taxPayerId;
+	}
+
+	public Integer getTaxPeriodNumber() {
+		return taxPeriodNumber;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	public Long getFileSize() {
+		return fileSize;
+	}
+
+	public DocumentEvent withFileSize(Long fileSize) {
+		this.fileSize = fileSize;
+		return this;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public DocumentSituation getSituation() {
+		return situation;
+	}
+
+	public DocumentEvent withSituation(DocumentSituation situation) {
+		this.situation = situation;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return toPayload();
+	}
+}
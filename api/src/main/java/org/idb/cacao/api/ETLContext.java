@@ -7,6 +7,7 @@
 package org.idb.cacao.api;
 
 import java.io.Closeable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -15,6 +16,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -83,6 +85,16 @@ public class ETLContext {
 		public Stream<Map<String,Object>> getValidatedData(String templateName, String templateVersion, String fileId, Optional<String[]> sortBy,
 				final Optional<SortOrder> sortOrder) throws Exception;
 		
+		/**
+		 * Given the {@link DocumentUploaded#getTemplateName() templateName}, the {@link DocumentUploaded#getTemplateVersion() templateVersion},
+		 * and the {@link DocumentUploaded#getFileId() fileId}, returns the corresponding
+		 * pre-validated data stored in database in no particular order. The implementation may use up to 'parallelism' readers at once,
+		 * so the returned stream may be consumed by multiple threads. Should return empty stream if there is no data.
+		 */
+		default public Stream<Map<String,Object>> getValidatedDataUnsorted(String templateName, String templateVersion, String fileId, int parallelism) throws Exception {
+			return getValidatedData(templateName, templateVersion, fileId, /*sortBy*/Optional.empty(), /*sortOrder*/Optional.empty());
+		}
+		
 		/**
 		 * Given the {@link DocumentUploaded#getTemplateName() templateName}, the {@link DocumentUploaded#getTemplateVersion() templateVersion},
 		 * the {@link DocumentUploaded#getFileId() fileId} and one arbitrary query filter, returns the first occurrence of a record that match
@@ -127,6 +139,25 @@ public class ETLContext {
 		public List<DomainTable> findByName(String name);
 	}
 	
+	/**
+	 * This generic interface provides means for fetching data previously published by the ETL (i.e. denormalized
+	 * views stored by any {@link LoadDataStrategy LoadDataStrategy}), possibly regarding other taxpayers.<BR>
+	 * Data written by the current ETL may not be visible until it's committed.
+	 * 
+	 * @author Gustavo Figueiredo
+	 *
+	 */
+	public static interface PublishedDataRepository {
+		
+		/**
+		 * Returns all the published records stored in the given index that match the query, in no particular order.
+		 * Should return empty stream if there is no data or if the index does not exist. Should throw exception in
+		 * case of error while searching database.
+		 */
+		public Stream<Map<String,Object>> getPublishedData(String indexName, QueryBuilder query) throws Exception;
+		
+	}
+	
 	/**
 	 * This generic interface will be used by the ETL implementation for loading data with denormalized views.<BR>
 	 * There should be one instance for each processing. There should not be a shared instance among different
@@ -148,6 +179,12 @@ public class ETLContext {
 		 * The field name for taxPeriodNumber is '_tax_period_number' (according to method 'toString' of {@link PublishedDataFieldNames#TAXPERIOD_NUMBER TAXPERIOD_NUMBER}).<BR>
 		 */
 		default public void delete(String indexName, String taxPayerId, Integer taxPeriodNumber) throws Exception { }
+
+		/**
+		 * Deletes one previous published (denormalized) record stored in the given index with the given id. The
+		 * record may be deleted only after the next {@link #commit() commit}.
+		 */
+		default public void deleteById(String indexName, String id) throws Exception { }
 		
 		/**
 		 * Include data to be stored
@@ -166,6 +203,57 @@ public class ETLContext {
 		
 	}
 	
+	/**
+	 * Wraps a {@link LoadDataStrategy LoadDataStrategy} in order to allow its use by different threads in the
+	 * same ETL processing (e.g. multiple processors running in parallel). All the calls are serialized.
+	 * 
+	 * @author Gustavo Figueiredo
+	 *
+	 */
+	public static class SynchronizedLoadDataStrategy implements LoadDataStrategy {
+		
+		private final LoadDataStrategy delegate;
+		
+		public SynchronizedLoadDataStrategy(LoadDataStrategy delegate) {
+			this.delegate = delegate;
+		}
+		
+		public LoadDataStrategy getDelegate() {
+			return delegate;
+		}
+
+		@Override
+		public synchronized void start() {
+			delegate.start();
+		}
+
+		@Override
+		public synchronized void delete(String indexName, String taxPayerId, Integer taxPeriodNumber) throws Exception {
+			delegate.delete(indexName, taxPayerId, taxPeriodNumber);
+		}
+
+		@Override
+		public synchronized void deleteById(String indexName, String id) throws Exception {
+			delegate.deleteById(indexName, id);
+		}
+
+		@Override
+		public synchronized void add(IndexRequest request) {
+			delegate.add(request);
+		}
+
+		@Override
+		public synchronized void commit() throws Exception {
+			delegate.commit();
+		}
+
+		@Override
+		public synchronized void close() {
+			delegate.close();
+		}
+		
+	}
+	
 	/**
 	 * Reference to the incoming file that triggered this ETL operation
 	 */
@@ -194,6 +282,12 @@ public class ETLContext {
 	 */
 	private DomainTableRepository domainTableRepository;
 	
+	/**
+	 * The consumer of ETL service provides an implementation of this interface in order to allow
+	 * domain specific ETL operations reading data previously published.
+	 */
+	private PublishedDataRepository publishedDataRepository;
+	
 	/**
 	 * The consumer of ETL service provides an implementation of this interface in order to allow
 	 * loading data after processing.
@@ -223,7 +317,7 @@ public class ETLContext {
 	private final Map<DocumentUploaded, DocumentSituation> outcomeSituations;
 	
 	public ETLContext() {
-		outcomeSituations = new HashMap<>();
+		outcomeSituations = new ConcurrentHashMap<>();
 		alerts = new HashMap<>();
 	}
 
@@ -303,6 +397,22 @@ public class ETLContext {
 		this.domainTableRepository = domainTableRepository;
 	}
 
+	/**
+	 * The consumer of ETL service provides an implementation of this interface in order to allow
+	 * domain specific ETL operations reading data previously published.
+	 */
+	public PublishedDataRepository getPublishedDataRepository() {
+		return publishedDataRepository;
+	}
+
+	/**
+	 * The consumer of ETL service provides an implementation of this interface in order to allow
+	 * domain specific ETL operations reading data previously published.
+	 */
+	public void setPublishedDataRepository(PublishedDataRepository publishedDataRepository) {
+		this.publishedDataRepository = publishedDataRepository;
+	}
+
 	/**
 	 * Object used to resolve errors according to a specific language
 	 */
@@ -425,6 +535,13 @@ public class ETLContext {
 		this.loadDataStrategy = loadDataStrategy;
 	}
 		
+	/**
+	 * All the keys that may be returned by {@link #getTaxpayerBasicInformation(Taxpayer) getTaxpayerBasicInformation}
+	 */
+	public static final List<String> TAXPAYER_BASIC_INFORMATION_KEYS = Collections.unmodifiableList(Arrays.asList(
+		"TaxpayerName", "TaxpayerAddress", "TaxpayerZipCode",
+		"TaxpayerQualifier1", "TaxpayerQualifier2", "TaxpayerQualifier3", "TaxpayerQualifier4", "TaxpayerQualifier5"));
+
 	/**
 	 * Utility method for retrieving standard general purpose information about taxpayers. Useful
 	 * for denormalized views regarding taxpayers.
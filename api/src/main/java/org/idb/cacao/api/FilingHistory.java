@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import static org.springframework.data.elasticsearch.annotations.FieldType.Date;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Integer;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Keyword;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Text;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.BitSet;
+
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
+import org.springframework.data.elasticsearch.core.query.SeqNoPrimaryTerm;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Filing history of one taxpayer regarding one template.<BR>
+ * Keeps a bitmap of all the periods for which the taxpayer has filed a document, regardless of its situation. Each bit
+ * corresponds to one period, counting from the first period of {@link Periodicity#MIN_EXPECTED_YEAR MIN_EXPECTED_YEAR}
+ * according to the periodicity of the template (e.g. bit 0 for January of 2000, bit 12 for January of 2001 and so on
+ * for monthly periods).<BR>
+ * This is maintained incrementally by {@link FilingHistoryUpdater FilingHistoryUpdater} whenever an uploaded document is
+ * saved with its taxpayer and period, so that questions such as 'first period', 'missing before' and 'filed after' may
+ * be answered without aggregating over all the uploaded documents.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Document(indexName="cacao_filing_history")
+public class FilingHistory implements Serializable, Cloneable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The ID is derived from taxpayer ID and template name (see {@link #formatId(String, String) formatId})
+	 */
+	@Id
+	private String id;
+
+	@MultiField(
+		mainField = @Field(type=Text, fielddata=true),
+		otherFields = {
+			@InnerField(suffix = "keyword", type=Keyword)
+		}
+	)
+	private String taxPayerId;
+
+	@MultiField(
+		mainField = @Field(type=Text, fielddata=true),
+		otherFields = {
+			@InnerField(suffix = "keyword", type=Keyword)
+		}
+	)
+	private String templateName;
+
+	/**
+	 * Periodicity of the periods in bitmap. It's the periodicity of the first period filed.
+	 */
+	@Enumerated(EnumType.STRING)
+	@Field(type=Keyword)
+	private Periodicity periodicity;
+
+	/**
+	 * First period filed (redundant with bitmap, kept for queries)
+	 */
+	@Field(type=Integer)
+	private Integer firstPeriod;
+
+	/**
+	 * Last period filed (redundant with bitmap, kept for queries)
+	 */
+	@Field(type=Integer)
+	private Integer lastPeriod;
+
+	/**
+	 * Bitmap of periods filed, encoded in base64
+	 */
+	@Field(type=Keyword, index=false)
+	private String bitmap;
+
+	/**
+	 * Date/time of last modification or creation of any part of this object
+	 */
+	@Field(type=Date, store = true, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSSZZ")
+	private OffsetDateTime changedTime;
+
+	/**
+	 * Sequence number and primary term of this object as it was read, for optimistic concurrency control (not stored)
+	 */
+	@JsonIgnore
+	private SeqNoPrimaryTerm seqNoPrimaryTerm;
+
+	public static FilingHistory create(String taxPayerId, String templateName) {
+		FilingHistory history = new FilingHistory();
+		history.setId(formatId(taxPayerId, templateName));
+		history.setTaxPayerId(taxPayerId);
+		history.setTemplateName(templateName);
+		return history;
+	}
+
+	/**
+	 * Returns the ID for the filing history of a taxpayer regarding a template
+	 */
+	public static String formatId(String taxPayerId, String templateName) {
+		return taxPayerId + "|" + templateName;
+	}
+
+	/**
+	 * Returns the position in bitmap for a given period number. Returns negative number if the
+	 * period number is not valid.
+	 */
+	public static int toBitIndex(Number periodNumber, Periodicity periodicity) {
+		if (periodNumber==null || periodicity==null || Periodicity.UNKNOWN.equals(periodicity)
+				|| !Periodicity.isValidPeriod(periodNumber, periodicity))
+			return -1;
+		final int n = periodNumber.intValue();
+		switch (periodicity) {
+		case MONTHLY:
+			return (n/100 - Periodicity.MIN_EXPECTED_YEAR)*12 + (n%100) - 1;
+		case SEMIANNUALLY:
+			return (n/10 - Periodicity.MIN_EXPECTED_YEAR)*2 + (n%10) - 1;
+		case YEARLY:
+			return n - Periodicity.MIN_EXPECTED_YEAR;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the period number for a given position in bitmap (inverse of {@link #toBitIndex(Number, Periodicity) toBitIndex})
+	 */
+	public static Integer fromBitIndex(int bitIndex, Periodicity periodicity) {
+		if (bitIndex<0 || periodicity==null)
+			return null;
+		switch (periodicity) {
+		case MONTHLY:
+			return (Periodicity.MIN_EXPECTED_YEAR + bitIndex/12)*100 + (bitIndex%12) + 1;
+		case SEMIANNUALLY:
+			return (Periodicity.MIN_EXPECTED_YEAR + bitIndex/2)*10 + (bitIndex%2) + 1;
+		case YEARLY:
+			return Periodicity.MIN_EXPECTED_YEAR + bitIndex;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Marks the period as filed. Returns TRUE if the bitmap has changed. Returns FALSE if the period was already
+	 * marked or if it's not valid according to the periodicity of this history.
+	 */
+	public boolean setFiled(Number periodNumber) {
+		if (periodicity==null || Periodicity.UNKNOWN.equals(periodicity))
+			periodicity = Periodicity.getPeriodicity(periodNumber);
+		int bitIndex = toBitIndex(periodNumber, periodicity);
+		if (bitIndex<0)
+			return false;
+		BitSet bits = getBits();
+		if (bits.get(bitIndex))
+			return false;
+		bits.set(bitIndex);
+		setBits(bits);
+		return true;
+	}
+
+	/**
+	 * Returns TRUE if the period was filed
+	 */
+	public boolean isFiled(Number periodNumber) {
+		int bitIndex = toBitIndex(periodNumber, periodicity);
+		return bitIndex>=0 && getBits().get(bitIndex);
+	}
+
+	/**
+	 * Returns TRUE if this history may answer questions about the period number (i.e. it has the same periodicity)
+	 */
+	public boolean isCompatible(Number periodNumber) {
+		return toBitIndex(periodNumber, periodicity)>=0;
+	}
+
+	/**
+	 * Returns TRUE if any period was filed after the given period (or at the given period if 'includeLower' is TRUE)
+	 */
+	public boolean hasFiledAfter(Number periodNumber, boolean includeLower) {
+		int bitIndex = toBitIndex(periodNumber, periodicity);
+		if (bitIndex<0)
+			return false;
+		return getBits().nextSetBit(includeLower ? bitIndex : bitIndex+1)>=0;
+	}
+
+	/**
+	 * Considering the last period filed up to the given period (inclusive if 'includeUpper' is TRUE), returns the
+	 * period next to it if it's before the given period. Returns NULL otherwise.
+	 */
+	public Integer getMissingBefore(Number periodNumber, boolean includeUpper) {
+		int bitIndex = toBitIndex(periodNumber, periodicity);
+		if (bitIndex<0)
+			return null;
+		int prevFiled = (includeUpper) ? getBits().previousSetBit(bitIndex) : (bitIndex==0) ? -1 : getBits().previousSetBit(bitIndex-1);
+		if (prevFiled<0)
+			return null;
+		if (prevFiled+1>=bitIndex)
+			return null; // No missing period
+		return fromBitIndex(prevFiled+1, periodicity);
+	}
+
+	/**
+	 * Returns the bitmap of periods filed
+	 */
+	@JsonIgnore
+	public BitSet getBits() {
+		if (bitmap==null || bitmap.length()==0)
+			return new BitSet();
+		return BitSet.valueOf(Base64.getDecoder().decode(bitmap));
+	}
+
+	/**
+	 * Replaces the bitmap of periods filed, updating the first and last periods
+	 */
+	@JsonIgnore
+	public void setBits(BitSet bits) {
+		if (bits==null || bits.isEmpty()) {
+			bitmap = null;
+			firstPeriod = null;
+			lastPeriod = null;
+		}
+		else {
+			bitmap = Base64.getEncoder().encodeToString(bits.toByteArray());
+			firstPeriod = fromBitIndex(bits.nextSetBit(0), periodicity);
+			lastPeriod = fromBitIndex(bits.length()-1, periodicity);
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getTaxPayerId() {
+		return taxPayerId;
+	}
+
+	public void setTaxPayerId(String taxPayerId) {
+		this.taxPayerId = taxPayerId;
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public void setTemplateName(String templateName) {
+		this.templateName = templateName;
+	}
+
+	public Periodicity getPeriodicity() {
+		return periodicity;
+	}
+
+	public void setPeriodicity(Periodicity periodicity) {
+		this.periodicity = periodicity;
+	}
+
+	public Integer getFirstPeriod() {
+		return firstPeriod;
+	}
+
+	public void setFirstPeriod(Integer firstPeriod) {
+		this.firstPeriod = firstPeriod;
+	}
+
+	public Integer getLastPeriod() {
+		return lastPeriod;
+	}
+
+	public void setLastPeriod(Integer lastPeriod) {
+		this.lastPeriod = lastPeriod;
+	}
+
+	public String getBitmap() {
+		return bitmap;
+	}
+
+	public void setBitmap(String bitmap) {
+		this.bitmap = bitmap;
+	}
+
+	public OffsetDateTime getChangedTime() {
+		return changedTime;
+	}
+
+	public void setChangedTime(OffsetDateTime changedTime) {
+		this.changedTime = changedTime;
+	}
+
+	@JsonIgnore
+	public SeqNoPrimaryTerm getSeqNoPrimaryTerm() {
+		return seqNoPrimaryTerm;
+	}
+
+	@JsonIgnore
+	public void setSeqNoPrimaryTerm(SeqNoPrimaryTerm seqNoPrimaryTerm) {
+		this.seqNoPrimaryTerm = seqNoPrimaryTerm;
+	}
+
+	public FilingHistory clone() {
+		try {
+			return (FilingHistory)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FilingHistory [taxPayerId=" + taxPayerId + ", templateName=" + templateName + ", firstPeriod=" + firstPeriod + ", lastPeriod=" + lastPeriod + "]";
+	}
+}
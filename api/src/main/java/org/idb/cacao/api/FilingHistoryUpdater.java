@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.rest.RestStatus;
+import org.idb.cacao.api.utils.DateTimeUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.event.AfterSaveCallback;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+
+/**
+ * Keeps the {@link FilingHistory FilingHistory} of each taxpayer up to date.<BR>
+ * It's registered as a callback, so every {@link DocumentUploaded DocumentUploaded} saved with taxpayer ID, template name
+ * and period number marks the corresponding period as filed, regardless of its situation.<BR>
+ * The same filing history may be changed concurrently by different threads or different nodes. Each change is written
+ * conditionally to the sequence number and primary term of the version read (or only if the filing history does not exist yet),
+ * and is retried over a fresh copy in case of conflict.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class FilingHistoryUpdater implements AfterSaveCallback<DocumentUploaded> {
+
+	private static final Logger log = Logger.getLogger(FilingHistoryUpdater.class.getName());
+
+	/**
+	 * Maximum number of attempts to write a change in case of conflicts
+	 */
+	public static final int MAX_ATTEMPTS = 10;
+
+	private final ElasticsearchOperations operations;
+
+	public FilingHistoryUpdater(ElasticsearchOperations operations) {
+		this.operations = operations;
+	}
+
+	@Override
+	public DocumentUploaded onAfterSave(DocumentUploaded entity, IndexCoordinates index) {
+		if (entity.getTaxPayerId()!=null && entity.getTemplateName()!=null && entity.getTaxPeriodNumber()!=null) {
+			try {
+				markFiled(entity.getTaxPayerId(), entity.getTemplateName(), Collections.singleton(entity.getTaxPeriodNumber()));
+			}
+			catch (Exception ex) {
+				log.log(Level.SEVERE, "Could not update the filing history of taxpayer "+entity.getTaxPayerId()+" regarding template "+entity.getTemplateName(), ex);
+			}
+		}
+		return entity;
+	}
+
+	/**
+	 * Marks the periods as filed in the filing history of a taxpayer regarding a template. Returns TRUE if the
+	 * filing history has changed.
+	 */
+	public boolean markFiled(String taxPayerId, String templateName, Collection<? extends Number> periodNumbers) {
+		if (taxPayerId==null || templateName==null || periodNumbers==null || periodNumbers.isEmpty())
+			return false;
+		return update(taxPayerId, templateName, history->{
+			boolean changed = false;
+			for (Number periodNumber: periodNumbers) {
+				if (history.setFiled(periodNumber))
+					changed = true;
+				else if (!history.isCompatible(periodNumber))
+					log.log(Level.WARNING, "The period "+periodNumber+" does not conform to the periodicity "+history.getPeriodicity()+" of the filing history of taxpayer "+taxPayerId+" regarding template "+templateName);
+			}
+			return changed;
+		});
+	}
+
+	/**
+	 * Applies the change to the current filing history (or to a new one) and writes it, unless the change returns FALSE.
+	 * Repeats everything in case of conflict with some concurrent change.
+	 */
+	private boolean update(String taxPayerId, String templateName, Predicate<FilingHistory> change) {
+		final String id = FilingHistory.formatId(taxPayerId, templateName);
+		final IndexCoordinates index = operations.getIndexCoordinatesFor(FilingHistory.class);
+		for (int attempt=1; ; attempt++) {
+			FilingHistory history = operations.get(id, FilingHistory.class, index);
+			final boolean isNew = (history==null);
+			if (isNew)
+				history = FilingHistory.create(taxPayerId, templateName);
+			if (!change.test(history))
+				return false;
+			history.setChangedTime(DateTimeUtils.now());
+			IndexQueryBuilder query = new IndexQueryBuilder().withId(id).withObject(history);
+			if (isNew)
+				query = query.withOpType(IndexQuery.OpType.CREATE);
+			else if (history.getSeqNoPrimaryTerm()!=null)
+				query = query.withSeqNoPrimaryTerm(history.getSeqNoPrimaryTerm());
+			try {
+				operations.index(query.build(), index);
+				return true;
+			}
+			catch (RuntimeException ex) {
+				if (!isConflict(ex) || attempt>=MAX_ATTEMPTS)
+					throw ex;
+				if (log.isLoggable(Level.FINE))
+					log.log(Level.FINE, "Concurrent change in the filing history "+id+", attempt "+attempt);
+			}
+		}
+	}
+
+	/**
+	 * Returns TRUE if the error is due to some concurrent change of the same document
+	 */
+	public static boolean isConflict(Throwable ex) {
+		for (Throwable cause = ex; cause!=null; cause = (cause.getCause()==cause) ? null : cause.getCause()) {
+			if (cause instanceof OptimisticLockingFailureException
+				|| cause instanceof VersionConflictEngineException)
+				return true;
+			if (cause instanceof ElasticsearchStatusException
+				&& RestStatus.CONFLICT.equals(((ElasticsearchStatusException)cause).status()))
+				return true;
+		}
+		return false;
+	}
+}
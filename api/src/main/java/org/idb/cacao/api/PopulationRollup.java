@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.idb.cacao.api.errors.CommonErrors;
+import org.idb.cacao.api.utils.IndexNamesUtils;
+import org.idb.cacao.api.utils.QuantileSketch;
+
+/**
+ * Definition of a 'population rollup' over published data. The rollup keeps, for each period, for each taxpayer
+ * qualifier value and for each value of a 'group' field (e.g. each line of a financial statement), the number of
+ * records, the sum of some amount and a {@link QuantileSketch sketch} of some value, so that population statistics
+ * (percentiles, average, median absolute deviation) may be answered without reading the published data.<BR>
+ * <BR>
+ * The rollups are declared by the {@link org.idb.cacao.api.templates.TemplateArchetype#getPopulationRollups() archetypes}.
+ * The ETL {@link #markDirty(RestHighLevelClient, PopulationRollup, int) marks} the partition (published index and period)
+ * whenever it changes the published data and rebuilds the dirty partitions at background. The rollup of a partition should
+ * only be used while it's {@link #isFresh(Map) fresh}. Otherwise the published data should be used instead.<BR>
+ * Each mark increments the 'dirty generation' of the partition. Each build records the 'dirty generation' observed when it
+ * started, so the partition is fresh only if no change arrived after that (regardless of the clocks of the different nodes).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class PopulationRollup {
+
+	/**
+	 * Index name for the rollup entries
+	 */
+	public static final String INDEX_ROLLUP = "cacao_rollup_population";
+
+	/**
+	 * Index name for the state of each partition of rollup (one record for each published index and period)
+	 */
+	public static final String INDEX_ROLLUP_STATE = "cacao_rollup_population_state";
+
+	/*
+	 * Field names used in both indices
+	 */
+	public static final String FIELD_SOURCE_INDEX = "source_index";
+	public static final String FIELD_PERIOD = "period";
+
+	/*
+	 * Field names used in rollup entries
+	 */
+	public static final String FIELD_QUALIFIER = "qualifier";
+	public static final String FIELD_QUALIFIER_VALUE = "qualifier_value";
+	public static final String FIELD_GROUP = "group";
+	public static final String FIELD_LABELS = "labels";
+	public static final String FIELD_COUNT = "count";
+	public static final String FIELD_SUM = "sum";
+	public static final String FIELD_SKETCH = "sketch";
+	public static final String FIELD_BUILD = "build";
+
+	/*
+	 * Field names used in partition state
+	 */
+	public static final String FIELD_PERIOD_FIELD = "period_field";
+	public static final String FIELD_GROUP_FIELD = "group_field";
+	public static final String FIELD_LABEL_FIELD = "label_field";
+	public static final String FIELD_SUM_FIELD = "sum_field";
+	public static final String FIELD_VALUE_FIELD = "value_field";
+	public static final String FIELD_DIRTY_TIMESTAMP = "dirty_timestamp";
+	public static final String FIELD_BUILT_TIMESTAMP = "built_timestamp";
+	public static final String FIELD_DIRTY_GENERATION = "dirty_generation";
+	public static final String FIELD_BUILT_GENERATION = "built_generation";
+	public static final String FIELD_BUILD_NUMBER = "build_number";
+	public static final String FIELD_BUILDER = "builder";
+	public static final String FIELD_CLAIM_EXPIRES = "claim_expires";
+
+	/**
+	 * Number of taxpayers qualifiers denormalized by ETL (see {@link ETLContext#getTaxpayerBasicInformation(Taxpayer) getTaxpayerBasicInformation})
+	 */
+	public static final int QUALIFIERS = 5;
+
+	private static final String SCRIPT_MARK_DIRTY = "ctx._source." + FIELD_DIRTY_GENERATION + " = (ctx._source." + FIELD_DIRTY_GENERATION + " == null ? 0 : ctx._source." + FIELD_DIRTY_GENERATION + ") + 1; "
+			+ "ctx._source." + FIELD_DIRTY_TIMESTAMP + " = params.now; "
+			+ "if (params.definition != null) { ctx._source.putAll(params.definition); }";
+
+	private final String sourceIndex;
+
+	private final String periodField;
+
+	private final String groupField;
+
+	private final String labelField;
+
+	private final String sumField;
+
+	private final String valueField;
+
+	/**
+	 * @param sourceIndex Published data index
+	 * @param periodField Field name of published data used for partitioning the rollup (e.g. 'year')
+	 * @param groupField Field name of published data used for grouping the values (e.g. 'statement_number')
+	 * @param labelField Field name of published data with the description of each group. All the fields starting with the same name are
+	 * also kept (e.g. 'statement_name', 'statement_name_es', etc.)
+	 * @param sumField Field name of published data for computing the sum
+	 * @param valueField Field name of published data for computing the sketch
+	 */
+	public PopulationRollup(String sourceIndex, String periodField, String groupField, String labelField, String sumField, String valueField) {
+		this.sourceIndex = sourceIndex;
+		this.periodField = periodField;
+		this.groupField = groupField;
+		this.labelField = labelField;
+		this.sumField = sumField;
+		this.valueField = valueField;
+	}
+
+	public String getSourceIndex() {
+		return sourceIndex;
+	}
+
+	public String getPeriodField() {
+		return periodField;
+	}
+
+	public String getGroupField() {
+		return groupField;
+	}
+
+	public String getLabelField() {
+		return labelField;
+	}
+
+	public String getSumField() {
+		return sumField;
+	}
+
+	public String getValueField() {
+		return valueField;
+	}
+
+	/**
+	 * Returns the fields of published data holding the taxpayers qualifiers (e.g. 'taxpayer_qualifier_1')
+	 */
+	public static List<String> getQualifierFields() {
+		List<String> fields = new ArrayList<>(QUALIFIERS);
+		for (int i=1; i<=QUALIFIERS; i++) {
+			fields.add(IndexNamesUtils.formatFieldName("TaxpayerQualifier"+i));
+		}
+		return Collections.unmodifiableList(fields);
+	}
+
+	/**
+	 * Returns the ID of the state record of a partition
+	 */
+	public static String getPartitionId(String sourceIndex, int period) {
+		return sourceIndex + "." + period;
+	}
+
+	/**
+	 * Returns the ID of a rollup entry
+	 */
+	public static String getEntryId(String sourceIndex, int period, String qualifier, String qualifierValue, String group) {
+		String key = String.join("\u0000", sourceIndex, String.valueOf(period), qualifier, qualifierValue, group);
+		return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+	}
+
+	/**
+	 * Returns the definition stored together with the partition state
+	 */
+	public static PopulationRollup fromState(Map<String, Object> state) {
+		if (state==null || state.get(FIELD_SOURCE_INDEX)==null)
+			return null;
+		return new PopulationRollup(
+			(String)state.get(FIELD_SOURCE_INDEX),
+			(String)state.get(FIELD_PERIOD_FIELD),
+			(String)state.get(FIELD_GROUP_FIELD),
+			(String)state.get(FIELD_LABEL_FIELD),
+			(String)state.get(FIELD_SUM_FIELD),
+			(String)state.get(FIELD_VALUE_FIELD));
+	}
+
+	/**
+	 * Returns TRUE if the partition state indicates the rollup has been built after the last change in published data
+	 */
+	public static boolean isFresh(Map<String, Object> state) {
+		if (state==null)
+			return false;
+		Number built = (Number)state.get(FIELD_BUILT_GENERATION);
+		Number dirty = (Number)state.get(FIELD_DIRTY_GENERATION);
+		return built!=null && (dirty==null || built.longValue()>=dirty.longValue());
+	}
+
+	/**
+	 * Returns the 'dirty generation' of the partition state (the number of times it was marked as dirty)
+	 */
+	public static long getDirtyGeneration(Map<String, Object> state) {
+		Number dirty = (state==null) ? null : (Number)state.get(FIELD_DIRTY_GENERATION);
+		return (dirty==null) ? 0 : dirty.longValue();
+	}
+
+	/**
+	 * Returns TRUE if the rollup of the partition has been built after the last change in published data
+	 */
+	public static boolean isFresh(RestHighLevelClient client, String sourceIndex, int period) throws IOException {
+		try {
+			GetResponse response = client.get(new GetRequest(INDEX_ROLLUP_STATE, getPartitionId(sourceIndex, period)), RequestOptions.DEFAULT);
+			return response.isExists() && isFresh(response.getSourceAsMap());
+		}
+		catch (Exception ex) {
+			if (CommonErrors.isErrorNoIndexFound(ex))
+				return false;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Signals that the published data of a partition has changed, so its rollup must be built again
+	 */
+	public static void markDirty(RestHighLevelClient client, PopulationRollup rollup, int period) throws Exception {
+		final long now = System.currentTimeMillis();
+		Map<String, Object> definition = new HashMap<>();
+		definition.put(FIELD_SOURCE_INDEX, rollup.getSourceIndex());
+		definition.put(FIELD_PERIOD, period);
+		definition.put(FIELD_PERIOD_FIELD, rollup.getPeriodField());
+		definition.put(FIELD_GROUP_FIELD, rollup.getGroupField());
+		definition.put(FIELD_LABEL_FIELD, rollup.getLabelField());
+		definition.put(FIELD_SUM_FIELD, rollup.getSumField());
+		definition.put(FIELD_VALUE_FIELD, rollup.getValueField());
+		Map<String, Object> upsert = new HashMap<>(definition);
+		upsert.put(FIELD_DIRTY_GENERATION, 1L);
+		upsert.put(FIELD_DIRTY_TIMESTAMP, now);
+		Map<String, Object> params = new HashMap<>();
+		params.put("now", now);
+		params.put("definition", definition);
+		UpdateRequest request = new UpdateRequest(INDEX_ROLLUP_STATE, getPartitionId(rollup.getSourceIndex(), period))
+				.script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, SCRIPT_MARK_DIRTY, params))
+				.upsert(upsert)
+				.retryOnConflict(3);
+		CommonErrors.doESWriteOpWithRetries(()->client.update(request, RequestOptions.DEFAULT));
+	}
+
+	/**
+	 * Signals that the published data of all partitions has changed (e.g. the taxpayers qualifiers denormalized in published data
+	 * have changed), so all rollups must be built again
+	 */
+	public static void markAllDirty(RestHighLevelClient client) throws Exception {
+		UpdateByQueryRequest request = new UpdateByQueryRequest(INDEX_ROLLUP_STATE);
+		request.setQuery(QueryBuilders.matchAllQuery());
+		Map<String, Object> params = new HashMap<>();
+		params.put("now", System.currentTimeMillis());
+		params.put("definition", null);
+		request.setScript(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, SCRIPT_MARK_DIRTY, params));
+		request.setConflicts("proceed");
+		// Partitions skipped due to concurrent changes (e.g. claimed for building) must not miss the mark, so all of them are marked
+		// again (extra marks only cost one more build)
+		for (int attempt=1; ; attempt++) {
+			BulkByScrollResponse response;
+			try {
+				response = client.updateByQuery(request, RequestOptions.DEFAULT);
+			}
+			catch (Exception ex) {
+				if (CommonErrors.isErrorNoIndexFound(ex))
+					return;
+				throw ex;
+			}
+			if (response.getVersionConflicts()==0)
+				return;
+			if (attempt>=CommonErrors.DEFAULT_MAX_RETRIES)
+				throw new IOException("Could not mark "+response.getVersionConflicts()+" rollup partitions due to concurrent changes");
+		}
+	}
+}
@@ -11,6 +11,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
 
 /**
  * Some methods for identifying common errors regarding all modules.
@@ -109,6 +110,28 @@ public class CommonErrors {
 		return false;
 	}
 
+	/**
+	 * Returns TRUE if the error is something like 'version_conflict_engine_exception ...' (e.g.: HTTP/1.1 409 Conflict)
+	 */
+	public static boolean isErrorVersionConflict(Throwable ex) {
+		if (ex!=null && ex.getMessage()!=null && ex.getMessage().contains("version_conflict_engine_exception"))
+			return true;
+		if ((ex instanceof ElasticsearchStatusException) && RestStatus.CONFLICT.equals(((ElasticsearchStatusException)ex).status()))
+			return true;
+		if (ex!=null && ex.getCause()!=null && ex.getCause()!=ex)
+			return isErrorVersionConflict(ex.getCause());
+		if (ex instanceof ElasticsearchStatusException) {
+			Throwable[] suppressed = ((ElasticsearchStatusException)ex).getSuppressed();
+			if (suppressed!=null && suppressed.length>0) {
+				for (Throwable sup:suppressed) {
+					if (isErrorVersionConflict(sup))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Returns TRUE if the error is something like 'Connection refused'
 	 */
@@ -108,6 +108,23 @@ public class FileSystemStorageService implements IStorageService {
 		}
 	}
 
+	/**
+	 * Move file to storage. It's a simple rename if the source file is in the same file system.
+	 */
+	@Override
+	public String store(String originalFilename, Path source) throws IOException {
+		String subDir = getSubDir();
+		Path location = getLocation(subDir);
+		Path destinationFile = location.resolve(Paths.get(originalFilename)).normalize().toAbsolutePath();
+		
+		if (!destinationFile.getParent().equals(location.toAbsolutePath())) {
+			// This is a security check
+			throw new StorageException("Cannot store file outside current directory.");
+		}
+		Files.move(source, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+		return subDir;
+	}
+
 	/**
 	 * 
 	 * @return	Specific location for store a file
@@ -36,6 +36,18 @@ public interface IStorageService {
 	 */
 	String store(String originalFilename, InputStream inputStream, boolean closeInputStream);
 
+	/**
+	 * Moves a file into the storage. The source file is no longer available after this call.
+	 * @param originalFilename	The name of file to store
+	 * @param source			The file to be moved
+	 * @return	The subdirectory where the file has been stored
+	 */
+	default String store(String originalFilename, Path source) throws IOException {
+		String subDir = store(originalFilename, Files.newInputStream(source), /*closeInputStream*/true);
+		Files.delete(source);
+		return subDir;
+	}
+
 	/**
 	 * Look for a file with the given filename in the current file storage. Returns NULL if absent.
 	 * @param filename Filename including relative sub directories if any. 
@@ -11,6 +11,7 @@ import java.util.List;
 
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.PopulationRollup;
 import org.idb.cacao.api.ValidationContext;
 
 /**
@@ -108,6 +109,14 @@ public interface TemplateArchetype {
 		return Collections.emptyList();
 	}
 	
+	/**
+	 * Returns the population rollups over published data derived from this archetype. The ETL keeps these rollups
+	 * up to date whenever it changes the published data.
+	 */
+	default public List<PopulationRollup> getPopulationRollups() {
+		return Collections.emptyList();
+	}
+	
 	/**
 	 * Returns indication that this archetype has a custom implementation for the provided document template
 	 * and document format.
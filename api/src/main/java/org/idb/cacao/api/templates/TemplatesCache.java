@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api.templates;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.idb.cacao.api.ETLContext;
+
+/**
+ * In-memory cache of {@link DocumentTemplate DocumentTemplate} and {@link DomainTable DomainTable} objects, keyed by name and version.<BR>
+ * <BR>
+ * These objects change rarely, but are looked up several times for each document processed by the validator and by the ETL. Each
+ * service keeps one instance of this cache, loading objects from its own repositories on first use.<BR>
+ * <BR>
+ * Whenever a template or domain table is saved or deleted, the web application publishes a change message (see {@link #formatChangeMessage(ChangeKind, String, String) formatChangeMessage})
+ * to a KAFKA topic that is consumed by all the services, which call {@link #onChangeMessage(String) onChangeMessage} in order to discard the
+ * stale entries.<BR>
+ * <BR>
+ * Every invalidation increments a version number. An object loaded from repository concurrently with some invalidation is returned to the
+ * caller but is not kept in cache, so that a slow lookup does not bring back a stale object. Entries also expire after some time (see
+ * {@link #setTimeToLive(long, TimeUnit) setTimeToLive}) as a safeguard against lost change messages.<BR>
+ * <BR>
+ * The cached objects are shared. They must not be modified by the callers.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class TemplatesCache {
+
+	private static final Logger log = Logger.getLogger(TemplatesCache.class.getName());
+
+	/**
+	 * Separator of parts in change messages
+	 */
+	private static final char MESSAGE_SEPARATOR = '|';
+
+	/**
+	 * Default time to live of each entry in cache
+	 */
+	public static final long DEFAULT_TTL_MINUTES = 60;
+
+	/**
+	 * Kind of object referred to by a change message
+	 */
+	public static enum ChangeKind {
+		/**
+		 * Change in a {@link DocumentTemplate DocumentTemplate}
+		 */
+		TEMPLATE,
+		/**
+		 * Change in a {@link DomainTable DomainTable}
+		 */
+		DOMAIN_TABLE,
+		/**
+		 * Changes in any number of objects (e.g. bulk deletion or synchronization). Discards everything.
+		 */
+		ALL;
+	}
+
+	/**
+	 * Cached object with the time it was loaded
+	 */
+	private static class Entry<V> {
+		final V value;
+		final long loadedAt;
+		Entry(V value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final BiFunction<String, String, Optional<DocumentTemplate>> templateLoader;
+
+	private final Function<String, ? extends Collection<DocumentTemplate>> templatesByArchetypeLoader;
+
+	private final ETLContext.DomainTableRepository domainTableLoader;
+
+	private final ConcurrentMap<Pair<String,String>, Entry<Optional<DocumentTemplate>>> templates = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Entry<List<DocumentTemplate>>> templatesByArchetype = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Pair<String,String>, Entry<Optional<DomainTable>>> domainTables = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Entry<List<DomainTable>>> domainTablesByName = new ConcurrentHashMap<>();
+
+	/**
+	 * Incremented at each invalidation
+	 */
+	private volatile long version;
+
+	private volatile long ttlMillis = TimeUnit.MINUTES.toMillis(DEFAULT_TTL_MINUTES);
+
+	/**
+	 * A view of this cache as a repository of domain tables
+	 */
+	private final ETLContext.DomainTableRepository domainTableRepository = new ETLContext.DomainTableRepository() {
+
+		@Override
+		public Optional<DomainTable> findByNameAndVersion(String name, String version) {
+			return getDomainTable(name, version);
+		}
+
+		@Override
+		public List<DomainTable> findByName(String name) {
+			return getDomainTables(name);
+		}
+
+	};
+
+	/**
+	 * @param templateLoader Function for loading a template from repository given its name and version
+	 * @param templatesByArchetypeLoader Function for loading templates from repository given the archetype. May be NULL if the
+	 * service does not need {@link #getTemplatesByArchetype(String) getTemplatesByArchetype}. In this case that method only
+	 * considers the templates already kept in this cache.
+	 * @param domainTableLoader Repository of domain tables
+	 */
+	public TemplatesCache(BiFunction<String, String, Optional<DocumentTemplate>> templateLoader,
+			Function<String, ? extends Collection<DocumentTemplate>> templatesByArchetypeLoader,
+			ETLContext.DomainTableRepository domainTableLoader) {
+		this.templateLoader = templateLoader;
+		this.templatesByArchetypeLoader = templatesByArchetypeLoader;
+		this.domainTableLoader = domainTableLoader;
+	}
+
+	/**
+	 * Time to live of each entry in cache. Zero or negative means entries never expire (they are only discarded by change messages).
+	 */
+	public void setTimeToLive(long duration, TimeUnit unit) {
+		this.ttlMillis = unit.toMillis(duration);
+	}
+
+	/**
+	 * Returns the current version of this cache. It's incremented at each invalidation.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the {@link DocumentTemplate DocumentTemplate} given its name and version
+	 */
+	public Optional<DocumentTemplate> getTemplate(String name, String version) {
+		if (name==null || version==null)
+			return Optional.empty();
+		return lookup(templates, Pair.of(name, version), ()->templateLoader.apply(name, version));
+	}
+
+	/**
+	 * Returns all the {@link DocumentTemplate DocumentTemplate} objects that implement a given {@link DocumentTemplate#getArchetype() archetype}.<BR>
+	 * If this cache was created without a loader of templates by archetype, returns only the matching templates that are
+	 * currently kept in cache.
+	 */
+	public List<DocumentTemplate> getTemplatesByArchetype(String archetype) {
+		if (archetype==null)
+			return Collections.emptyList();
+		if (templatesByArchetypeLoader==null)
+			return getCachedTemplatesByArchetype(archetype);
+		return lookup(templatesByArchetype, archetype, ()->{
+			Collection<DocumentTemplate> loaded = templatesByArchetypeLoader.apply(archetype);
+			return (loaded==null) ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(loaded));
+		});
+	}
+
+	/**
+	 * Returns the matching templates among those currently kept in cache and not expired
+	 */
+	private List<DocumentTemplate> getCachedTemplatesByArchetype(String archetype) {
+		final long now = System.currentTimeMillis();
+		List<DocumentTemplate> matching = new ArrayList<>();
+		for (Entry<Optional<DocumentTemplate>> entry: templates.values()) {
+			if (ttlMillis>0 && now-entry.loadedAt>=ttlMillis)
+				continue;
+			if (entry.value.isPresent() && archetype.equalsIgnoreCase(entry.value.get().getArchetype()))
+				matching.add(entry.value.get());
+		}
+		return Collections.unmodifiableList(matching);
+	}
+
+	/**
+	 * Returns the {@link DomainTable DomainTable} given its name and version
+	 */
+	public Optional<DomainTable> getDomainTable(String name, String version) {
+		if (name==null || version==null)
+			return Optional.empty();
+		return lookup(domainTables, Pair.of(name, version), ()->domainTableLoader.findByNameAndVersion(name, version));
+	}
+
+	/**
+	 * Returns all the versions of {@link DomainTable DomainTable} given its name
+	 */
+	public List<DomainTable> getDomainTables(String name) {
+		if (name==null)
+			return Collections.emptyList();
+		return lookup(domainTablesByName, name, ()->{
+			List<DomainTable> loaded = domainTableLoader.findByName(name);
+			return (loaded==null) ? Collections.emptyList() : Collections.unmodifiableList(loaded);
+		});
+	}
+
+	/**
+	 * Returns a view of this cache as a repository of domain tables, to be provided to {@link ETLContext} or to validations
+	 */
+	public ETLContext.DomainTableRepository getDomainTableRepository() {
+		return domainTableRepository;
+	}
+
+	/**
+	 * Returns the cached value if it's present and not expired. Otherwise loads it and keeps it in cache, unless there was
+	 * some invalidation during the load.
+	 */
+	private <K,V> V lookup(ConcurrentMap<K, Entry<V>> map, K key, Supplier<V> loader) {
+		final long now = System.currentTimeMillis();
+		Entry<V> entry = map.get(key);
+		if (entry!=null && (ttlMillis<=0 || now-entry.loadedAt<ttlMillis))
+			return entry.value;
+		final long versionBeforeLoad = version;
+		V value = loader.get();
+		synchronized (this) {
+			if (version==versionBeforeLoad)
+				map.put(key, new Entry<>(value, now));
+		}
+		return value;
+	}
+
+	/**
+	 * Discards a {@link DocumentTemplate DocumentTemplate} from cache
+	 */
+	public synchronized void invalidateTemplate(String name, String version) {
+		this.version++;
+		if (name!=null && version!=null)
+			templates.remove(Pair.of(name, version));
+		else if (name!=null)
+			templates.keySet().removeIf(key->name.equals(key.getLeft()));
+		else
+			templates.clear();
+		// The archetype of a template may have changed, so we can't tell which lists are stale
+		templatesByArchetype.clear();
+	}
+
+	/**
+	 * Discards a {@link DomainTable DomainTable} from cache
+	 */
+	public synchronized void invalidateDomainTable(String name, String version) {
+		this.version++;
+		if (name!=null && version!=null)
+			domainTables.remove(Pair.of(name, version));
+		else if (name!=null)
+			domainTables.keySet().removeIf(key->name.equals(key.getLeft()));
+		else
+			domainTables.clear();
+		if (name!=null)
+			domainTablesByName.remove(name);
+		else
+			domainTablesByName.clear();
+	}
+
+	/**
+	 * Discards everything from cache
+	 */
+	public synchronized void invalidateAll() {
+		this.version++;
+		templates.clear();
+		templatesByArchetype.clear();
+		domainTables.clear();
+		domainTablesByName.clear();
+	}
+
+	/**
+	 * Returns the message to be published whenever some object has changed
+	 * @param kind Kind of object
+	 * @param name Name of object (may be NULL if kind is {@link ChangeKind#ALL ALL})
+	 * @param version Version of object (may be NULL if all versions should be discarded)
+	 */
+	public static String formatChangeMessage(ChangeKind kind, String name, String version) {
+		if (ChangeKind.ALL.equals(kind))
+			return kind.name();
+		return new StringBuilder(kind.name())
+			.append(MESSAGE_SEPARATOR).append(name==null?"":name)
+			.append(MESSAGE_SEPARATOR).append(version==null?"":version)
+			.toString();
+	}
+
+	/**
+	 * Discards the objects referred to by a change message (see {@link #formatChangeMessage(ChangeKind, String, String) formatChangeMessage}). Discards
+	 * everything if the message could not be parsed.
+	 */
+	public void onChangeMessage(String message) {
+		if (message==null || message.trim().length()==0)
+			return;
+		int firstSep = message.indexOf(MESSAGE_SEPARATOR);
+		int lastSep = message.lastIndexOf(MESSAGE_SEPARATOR);
+		ChangeKind kind;
+		try {
+			kind = ChangeKind.valueOf((firstSep<0) ? message.trim() : message.substring(0, firstSep));
+		}
+		catch (IllegalArgumentException ex) {
+			log.log(Level.WARNING, "Unknown change message: {0}", message);
+			invalidateAll();
+			return;
+		}
+		String name = (firstSep<0) ? null : (lastSep>firstSep) ? message.substring(firstSep+1, lastSep) : message.substring(firstSep+1);
+		String version = (lastSep>firstSep) ? message.substring(lastSep+1) : null;
+		if (name!=null && name.length()==0)
+			name = null;
+		if (version!=null && version.length()==0)
+			version = null;
+		switch (kind) {
+		case TEMPLATE:
+			invalidateTemplate(name, version);
+			break;
+		case DOMAIN_TABLE:
+			invalidateDomainTable(name, version);
+			break;
+		default:
+			invalidateAll();
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.idb.cacao.api.errors.GeneralException;
+
+/**
+ * Sorts an arbitrary number of records using bounded memory.<BR>
+ * The records are collected in fixed-size 'runs'. Each full run is sorted in memory and spilled to
+ * a local temporary file. At the end all the runs are merged (k-way merge) into one sorted stream.<BR>
+ * If all the records fit in one run, nothing is written to disk.<BR>
+ * The sort is stable: each record receives a sequence number when it's added, which is used for
+ * sorting records considered equal by the comparator. So they are returned in the same order they
+ * were added, regardless of the run they were written to.<BR>
+ * The method {@link #add(Serializable) add} may be called concurrently by multiple threads. The thread
+ * that fills a run sorts it and writes it to disk without holding the lock, so the other threads keep adding
+ * records to a new run in the meantime (at most one run per thread is kept in memory while spilling).
+ * The {@link #close() close} method removes all the temporary files.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class ExternalSorter<T extends Serializable> implements Closeable {
+
+	private static final Logger log = Logger.getLogger(ExternalSorter.class.getName());
+
+	/**
+	 * Default number of records kept in memory for each run
+	 */
+	public static final int DEFAULT_RUN_SIZE = 50_000;
+
+	/**
+	 * Resets the internal references of ObjectOutputStream after this number of records, so that
+	 * it won't keep references to all the records written to the same file
+	 */
+	private static final int RESET_STREAM_INTERVAL = 1_000;
+
+	/**
+	 * Sorting criteria, followed by the sequence number of each record
+	 */
+	private final Comparator<Sequenced<T>> comparator;
+
+	private final int runSize;
+
+	private final File tempDir;
+
+	private final List<File> runs;
+
+	private List<Sequenced<T>> currentRun;
+
+	private long count;
+
+	/**
+	 * Number of runs being written to disk right now
+	 */
+	private int spilling;
+
+	/**
+	 * Error writing some run to disk
+	 */
+	private Throwable spillFailure;
+
+	private boolean sorted;
+
+	private boolean closed;
+
+	public ExternalSorter(Comparator<? super T> comparator) {
+		this(comparator, DEFAULT_RUN_SIZE, /*tempDir*/null);
+	}
+
+	/**
+	 * @param comparator Sorting criteria
+	 * @param runSize Number of records kept in memory for each run
+	 * @param tempDir Directory for temporary files (if NULL, uses the default temporary directory)
+	 */
+	public ExternalSorter(Comparator<? super T> comparator, int runSize, File tempDir) {
+		if (runSize<1)
+			throw new IllegalArgumentException("Run size must be positive");
+		this.comparator = Comparator.<Sequenced<T>, T>comparing(s->s.record, comparator).thenComparingLong(s->s.sequence);
+		this.runSize = runSize;
+		this.tempDir = tempDir;
+		this.runs = new ArrayList<>();
+		this.currentRun = new ArrayList<>(Math.min(runSize, 1024));
+	}
+
+	/**
+	 * Includes one more record. Whenever a run is full, sorts it and writes to a temporary file.
+	 */
+	public void add(T record) {
+		List<Sequenced<T>> fullRun = null;
+		synchronized (this) {
+			if (sorted)
+				throw new IllegalStateException("Can't add records after 'sorted'");
+			currentRun.add(new Sequenced<>(count++, record));
+			if (currentRun.size()>=runSize) {
+				fullRun = currentRun;
+				currentRun = new ArrayList<>(Math.min(runSize, 1024));
+				spilling++;
+			}
+		}
+		if (fullRun!=null) {
+			spill(fullRun);
+		}
+	}
+
+	/**
+	 * Total number of records added
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Number of runs written to disk so far
+	 */
+	public synchronized int getSpilledRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Returns all the records in sorted order. Should be called only once, after all the records
+	 * were added. The returned stream must be consumed by one thread.
+	 */
+	public synchronized Stream<T> sorted() {
+		if (sorted)
+			throw new IllegalStateException("Records already sorted");
+		sorted = true;
+		// Waits for the runs still being written by other threads
+		try {
+			while (spilling>0)
+				wait();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new GeneralException("Interrupted while waiting for the temporary files", ex);
+		}
+		if (spillFailure!=null)
+			throw new GeneralException("Error writing temporary file", spillFailure);
+		currentRun.sort(comparator);
+		if (runs.isEmpty()) {
+			List<Sequenced<T>> onlyRun = currentRun;
+			currentRun = null;
+			return onlyRun.stream().map(s->s.record);
+		}
+		List<Iterator<Sequenced<T>>> iterators = new ArrayList<>(runs.size()+1);
+		for (File run: runs) {
+			iterators.add(new RunReader<Sequenced<T>>(run));
+		}
+		if (!currentRun.isEmpty()) {
+			iterators.add(currentRun.iterator());
+		}
+		currentRun = null;
+		MergeIterator<Sequenced<T>> merge = new MergeIterator<>(iterators, comparator);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED|Spliterator.NONNULL), false)
+				.onClose(merge::close)
+				.map(s->s.record);
+	}
+
+	/**
+	 * Removes all the temporary files
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (File run: runs) {
+			delete(run);
+		}
+		runs.clear();
+		currentRun = null;
+	}
+
+	/**
+	 * Sorts a full run and writes it to a new temporary file. Runs without the lock, so other threads
+	 * may keep adding records meanwhile.
+	 */
+	private void spill(List<Sequenced<T>> run) {
+		File file = null;
+		try {
+			run.sort(comparator);
+			file = File.createTempFile("cacao-sort-", ".run", tempDir);
+			try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())));) {
+				int written = 0;
+				for (Sequenced<T> record: run) {
+					out.writeObject(record);
+					if (++written%RESET_STREAM_INTERVAL==0)
+						out.reset();
+				}
+			}
+		}
+		catch (IOException | RuntimeException ex) {
+			if (file!=null)
+				delete(file);
+			synchronized (this) {
+				if (spillFailure==null)
+					spillFailure = ex;
+				spilling--;
+				notifyAll();
+			}
+			throw new GeneralException("Error writing temporary file "+((file==null)?"":file.getAbsolutePath()), ex);
+		}
+		synchronized (this) {
+			if (closed)
+				delete(file);
+			else
+				runs.add(file);
+			spilling--;
+			notifyAll();
+		}
+	}
+
+	private static void delete(File file) {
+		try {
+			Files.deleteIfExists(file.toPath());
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not delete temporary file "+file.getAbsolutePath(), ex);
+		}
+	}
+
+	/**
+	 * One record together with the sequence number it was given when added
+	 */
+	private static class Sequenced<T extends Serializable> implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final long sequence;
+
+		final T record;
+
+		Sequenced(long sequence, T record) {
+			this.sequence = sequence;
+			this.record = record;
+		}
+	}
+
+	/**
+	 * Reads the records of one run previously written to disk
+	 */
+	private static class RunReader<T> implements Iterator<T>, Closeable {
+
+		private final File file;
+
+		private ObjectInputStream in;
+
+		private T next;
+
+		private boolean finished;
+
+		RunReader(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next==null && !finished)
+				moveForward();
+			return next!=null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			T record = next;
+			next = null;
+			return record;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void moveForward() {
+			try {
+				if (in==null)
+					in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+				next = (T)in.readObject();
+			}
+			catch (EOFException ex) {
+				close();
+			}
+			catch (IOException | ClassNotFoundException ex) {
+				close();
+				throw new GeneralException("Error reading temporary file "+file.getAbsolutePath(), ex);
+			}
+		}
+
+		@Override
+		public void close() {
+			finished = true;
+			next = null;
+			if (in!=null) {
+				try {
+					in.close();
+				} catch (IOException ex) {
+					// ignore
+				}
+				in = null;
+			}
+		}
+	}
+
+	/**
+	 * Merges multiple sorted iterators. In case of ties, the record from the first
+	 * iterator comes first.
+	 */
+	private static class MergeIterator<T> implements Iterator<T>, Closeable {
+
+		private final List<Iterator<T>> iterators;
+
+		private final PriorityQueue<Head<T>> heads;
+
+		MergeIterator(List<Iterator<T>> iterators, Comparator<? super T> comparator) {
+			this.iterators = iterators;
+			this.heads = new PriorityQueue<>(Math.max(1, iterators.size()), (a,b)->{
+				int c = comparator.compare(a.record, b.record);
+				return (c!=0) ? c : Integer.compare(a.source, b.source);
+			});
+			for (int i=0; i<iterators.size(); i++) {
+				Iterator<T> it = iterators.get(i);
+				if (it.hasNext())
+					heads.add(new Head<>(it.next(), i));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			Head<T> head = heads.poll();
+			if (head==null)
+				throw new NoSuchElementException();
+			T record = head.record;
+			Iterator<T> it = iterators.get(head.source);
+			if (it.hasNext()) {
+				head.record = it.next();
+				heads.add(head);
+			}
+			return record;
+		}
+
+		@Override
+		public void close() {
+			heads.clear();
+			for (Iterator<T> it: iterators) {
+				if (it instanceof Closeable) {
+					try {
+						((Closeable)it).close();
+					} catch (IOException ex) {
+						// ignore
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The current record of one of the merged iterators
+	 */
+	private static class Head<T> {
+
+		T record;
+
+		final int source;
+
+		Head(T record, int source) {
+			this.record = record;
+			this.source = source;
+		}
+	}
+}
@@ -41,6 +41,12 @@ public class IndexNamesUtils {
 	 */
 	public static final String PUBLISHED_DATA_INDEX_PREFIX = "cacao_pub_";
 
+	/**
+	 * Index with the fingerprints of the inputs considered by the last ETL of each set of published data. They are
+	 * only meaningful while the corresponding published data is kept.
+	 */
+	public static final String ETL_FINGERPRINTS_INDEX = "cacao_etl_fingerprints";
+
 	/**
 	 * Returns a proper index name for using in ElasticSearch for validated documents related to a DocumentTemplate (output from validation)
 	 */
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Collection;
+
+import com.tdunning.math.stats.AVLTreeDigest;
+import com.tdunning.math.stats.Centroid;
+import com.tdunning.math.stats.TDigest;
+
+/**
+ * Mergeable summary of a population of numbers. Keeps the count and the sum of all values and
+ * a t-digest sketch for approximating quantiles (the same algorithm used by ElasticSearch for
+ * 'percentiles' and 'median absolute deviation' aggregations, so that the results are comparable).<BR>
+ * <BR>
+ * Sketches built over different parts of the population may be {@link #merge(QuantileSketch) merged}
+ * and may be stored in compact form (see {@link #toBase64() toBase64}).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class QuantileSketch {
+
+	/**
+	 * Same default compression used by ElasticSearch
+	 */
+	public static final double DEFAULT_COMPRESSION = 100.0;
+
+	/**
+	 * Version of the serialized form
+	 */
+	private static final byte FORMAT = 1;
+
+	private final TDigest digest;
+
+	private double sum;
+
+	public QuantileSketch() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	public QuantileSketch(double compression) {
+		this.digest = new AVLTreeDigest(compression);
+	}
+
+	/**
+	 * Includes one value in this population. Ignores NaN and infinite values.
+	 */
+	public void add(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return;
+		digest.add(value);
+		sum += value;
+	}
+
+	/**
+	 * Includes all the values summarized by another sketch
+	 */
+	public void merge(QuantileSketch other) {
+		if (other==null || other.getCount()==0)
+			return;
+		for (Centroid centroid: other.digest.centroids()) {
+			digest.add(centroid.mean(), centroid.count());
+		}
+		sum += other.sum;
+	}
+
+	/**
+	 * Number of values in this population
+	 */
+	public long getCount() {
+		return digest.size();
+	}
+
+	/**
+	 * Sum of all values in this population
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * Average of all values in this population. Returns NaN if there are no values.
+	 */
+	public double getAverage() {
+		long count = getCount();
+		return (count==0) ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * Returns the approximate quantile (e.g. 0.25 for the first quartile). Returns NaN if there are no values.
+	 */
+	public double quantile(double q) {
+		return (getCount()==0) ? Double.NaN : digest.quantile(q);
+	}
+
+	/**
+	 * Returns the approximate percentile (e.g. 25 for the first quartile). Returns NaN if there are no values.
+	 */
+	public double percentile(double percent) {
+		return quantile(percent / 100.0);
+	}
+
+	/**
+	 * Returns the approximate median absolute deviation, computed the same way ElasticSearch does (i.e.
+	 * considering the deviation of each centroid from the approximate median). Returns NaN if there are no values.
+	 */
+	public double getMedianAbsoluteDeviation() {
+		if (getCount()==0)
+			return Double.NaN;
+		final double median = digest.quantile(0.5);
+		TDigest deviations = new AVLTreeDigest(digest.compression());
+		for (Centroid centroid: digest.centroids()) {
+			deviations.add(Math.abs(median - centroid.mean()), centroid.count());
+		}
+		return deviations.quantile(0.5);
+	}
+
+	/**
+	 * Returns the compact form of this sketch, suitable for storing in a document field
+	 */
+	public String toBase64() {
+		Collection<Centroid> centroids = digest.centroids();
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 4 + centroids.size() * (8 + 4));
+		buffer.put(FORMAT);
+		buffer.putDouble(digest.compression());
+		buffer.putDouble(sum);
+		buffer.putInt(centroids.size());
+		for (Centroid centroid: centroids) {
+			buffer.putDouble(centroid.mean());
+			buffer.putInt(centroid.count());
+		}
+		return Base64.getEncoder().encodeToString(buffer.array());
+	}
+
+	/**
+	 * Restores a sketch given its compact form (see {@link #toBase64() toBase64}). Returns NULL if the
+	 * argument is NULL or empty.
+	 * @throws IllegalArgumentException if the argument is not a valid sketch
+	 */
+	public static QuantileSketch fromBase64(String encoded) {
+		if (encoded==null || encoded.length()==0)
+			return null;
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+			byte format = buffer.get();
+			if (format!=FORMAT)
+				throw new IllegalArgumentException("Unknown sketch format: "+format);
+			QuantileSketch sketch = new QuantileSketch(buffer.getDouble());
+			sketch.sum = buffer.getDouble();
+			int centroids = buffer.getInt();
+			for (int i=0; i<centroids; i++) {
+				double mean = buffer.getDouble();
+				int count = buffer.getInt();
+				sketch.digest.add(mean, count);
+			}
+			return sketch;
+		}
+		catch (RuntimeException ex) {
+			if (ex instanceof IllegalArgumentException)
+				throw ex;
+			throw new IllegalArgumentException("Invalid sketch", ex);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Performs some tests with the messages exchanged through the document pipeline
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class DocumentEventTests {
+
+	/**
+	 * Test the conversion of events to payload and back
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		DocumentUploaded doc = new DocumentUploaded();
+		doc.setId("DOC1");
+		doc.setTemplateName("General Ledger");
+		doc.setTemplateVersion("1.0");
+		doc.setTaxPayerId("123");
+		doc.setTaxPeriodNumber(202101);
+		doc.setFileId("FILE1");
+		doc.setSubDir("2021/01");
+		doc.setHash("abcdef");
+		doc.setSituation(DocumentSituation.VALID);
+
+		String payload = DocumentEvent.of(doc).withFileSize(1024L).toPayload();
+		assertTrue(payload.contains("\"v\":"+DocumentEvent.CURRENT_FORMAT));
+		assertFalse(payload.contains("templateName"), "Property names should be short");
+
+		DocumentEvent event = DocumentEvent.parse(payload);
+		assertTrue(event.isComplete());
+		assertEquals("DOC1", event.getDocumentId());
+		assertEquals("General Ledger", event.getTemplateName());
+		assertEquals("1.0", event.getTemplateVersion());
+		assertEquals("123", event.getTaxPayerId());
+		assertEquals(202101, event.getTaxPeriodNumber());
+		assertEquals(doc.getFileIdWithPath(), event.getFilePath());
+		assertEquals(1024L, event.getFileSize());
+		assertEquals("abcdef", event.getHash());
+		assertEquals(DocumentSituation.VALID, event.getSituation());
+
+		// Properties included by newer versions are ignored
+		event = DocumentEvent.parse("{\"v\":2,\"id\":\"DOC2\",\"tn\":\"T\",\"tv\":\"1\",\"new\":true}");
+		assertEquals("DOC2", event.getDocumentId());
+		assertTrue(event.isComplete());
+	}
+
+	/**
+	 * Test messages produced by older versions, containing only the document ID
+	 */
+	@Test
+	public void testIdOnly() throws Exception {
+
+		DocumentEvent event = DocumentEvent.parse("e7b1c2a0-5f1d-4a5e-9c1e-0123456789ab");
+		assertEquals("e7b1c2a0-5f1d-4a5e-9c1e-0123456789ab", event.getDocumentId());
+		assertEquals(0, event.getFormat());
+		assertFalse(event.isComplete());
+
+		event = DocumentEvent.parse(DocumentEvent.of("DOC3").toPayload());
+		assertEquals("DOC3", event.getDocumentId());
+		assertFalse(event.isComplete());
+	}
+
+	/**
+	 * Test the partition key chosen for messages
+	 */
+	@Test
+	public void testPartitionKey() throws Exception {
+
+		DocumentUploaded doc1 = new DocumentUploaded();
+		doc1.setId("DOC1");
+		doc1.setTaxPayerId("123");
+		DocumentUploaded doc2 = new DocumentUploaded();
+		doc2.setId("DOC2");
+		doc2.setTaxPayerId("123");
+
+		// Documents of the same taxpayer go to the same partition, whether the payload is converted to bytes or not
+		String payload1 = DocumentEvent.of(doc1).toPayload();
+		String payload2 = DocumentEvent.of(doc2).toPayload();
+		assertEquals("123", DocumentEvent.getPartitionKey(payload1));
+		assertEquals("123", DocumentEvent.getPartitionKey(payload2.getBytes(StandardCharsets.UTF_8)));
+
+		// Without taxpayer, use the document ID
+		assertEquals("DOC3", DocumentEvent.getPartitionKey(DocumentEvent.of("DOC3").toPayload()));
+		assertEquals("DOC4", DocumentEvent.getPartitionKey("DOC4"));
+
+		for (String key: new String[] { "123", "DOC3", "\u00e1\u00e9\u00ed", "polygenelubricants" }) {
+			int partition = DocumentEvent.selectPartition(key, 10);
+			assertTrue(partition>=0 && partition<10, "Partition out of range for "+key);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.idb.cacao.api.utils.ExternalSorter;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * Performs some tests with ExternalSorter
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class ExternalSorterTests {
+
+	/**
+	 * Test sorting records that fit in memory and records that are spilled to disk
+	 */
+	@Test
+	public void testSortWithSpilledRuns() throws Exception {
+
+		Random random = new Random(1);
+		List<int[]> records = IntStream.range(0, 10_000).mapToObj(i->new int[] { random.nextInt(100), i }).collect(Collectors.toList());
+
+		List<int[]> expected = new ArrayList<>(records);
+		expected.sort(Comparator.comparingInt(r->r[0])); // stable sort
+
+		for (int runSize: new int[] { 64, 1_000, 100_000 }) {
+
+			try (ExternalSorter<int[]> sorter = new ExternalSorter<>(Comparator.comparingInt(r->r[0]), runSize, /*tempDir*/null);) {
+
+				records.forEach(sorter::add);
+				assertEquals(records.size(), sorter.getCount());
+				assertEquals(records.size()/runSize, sorter.getSpilledRuns(), "Unexpected number of spilled runs for run size "+runSize);
+
+				try (Stream<int[]> sorted = sorter.sorted();) {
+					List<int[]> result = sorted.collect(Collectors.toList());
+					assertEquals(expected.size(), result.size());
+					for (int i=0; i<expected.size(); i++) {
+						assertArrayEquals(expected.get(i), result.get(i), "Unexpected record at position "+i+" for run size "+runSize);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test adding records concurrently
+	 */
+	@Test
+	public void testConcurrentAdd() throws Exception {
+
+		try (ExternalSorter<Integer> sorter = new ExternalSorter<>(Comparator.naturalOrder(), 500, /*tempDir*/null);) {
+
+			IntStream.range(0, 20_000).parallel().map(i->19_999-i).boxed().forEach(sorter::add);
+			assertEquals(20_000, sorter.getCount());
+			assertEquals(40, sorter.getSpilledRuns());
+
+			try (Stream<Integer> sorted = sorter.sorted();) {
+				int[] result = sorted.mapToInt(Integer::intValue).toArray();
+				assertArrayEquals(IntStream.range(0, 20_000).toArray(), result);
+			}
+		}
+	}
+
+	/**
+	 * Test that records considered equal keep the order they were added, even when added concurrently
+	 * and spread over different runs
+	 */
+	@Test
+	public void testStableConcurrentAdd() throws Exception {
+
+		final int threads = 8;
+		final int recordsPerThread = 5_000;
+
+		try (ExternalSorter<int[]> sorter = new ExternalSorter<>(Comparator.comparingInt(r->r[0]), 700, /*tempDir*/null);) {
+
+			// Each record is { key, thread, order of the record in the thread }
+			IntStream.range(0, threads).parallel().forEach(t->{
+				Random random = new Random(t);
+				for (int i=0; i<recordsPerThread; i++) {
+					sorter.add(new int[] { random.nextInt(10), t, i });
+				}
+			});
+			assertEquals(threads*recordsPerThread, sorter.getCount());
+
+			try (Stream<int[]> sorted = sorter.sorted();) {
+				List<int[]> result = sorted.collect(Collectors.toList());
+				assertEquals(threads*recordsPerThread, result.size());
+				int[] lastKey = new int[threads];
+				int[] lastOrder = new int[threads];
+				Arrays.fill(lastOrder, -1);
+				for (int[] record: result) {
+					int t = record[1];
+					assertTrue(record[0]>=lastKey[t], "Records out of order");
+					if (record[0]==lastKey[t])
+						assertTrue(record[2]>lastOrder[t], "Records with the same key out of the order they were added");
+					lastKey[t] = record[0];
+					lastOrder[t] = record[2];
+				}
+			}
+		}
+	}
+}
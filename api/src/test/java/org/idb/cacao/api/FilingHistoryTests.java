@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Performs some tests with the bitmap of periods kept in FilingHistory
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class FilingHistoryTests {
+
+	/**
+	 * Test the conversion between period numbers and positions in bitmap
+	 */
+	@Test
+	public void testBitIndex() throws Exception {
+
+		assertEquals(0, FilingHistory.toBitIndex(200001, Periodicity.MONTHLY));
+		assertEquals(12, FilingHistory.toBitIndex(200101, Periodicity.MONTHLY));
+		assertEquals(263, FilingHistory.toBitIndex(202112, Periodicity.MONTHLY));
+		assertEquals(43, FilingHistory.toBitIndex(20212, Periodicity.SEMIANNUALLY));
+		assertEquals(21, FilingHistory.toBitIndex(2021, Periodicity.YEARLY));
+		assertTrue(FilingHistory.toBitIndex(2021, Periodicity.MONTHLY)<0);
+		assertTrue(FilingHistory.toBitIndex(202113, Periodicity.MONTHLY)<0);
+
+		for (int period: new int[] { 200001, 202106, 202112, 203001 }) {
+			assertEquals(period, FilingHistory.fromBitIndex(FilingHistory.toBitIndex(period, Periodicity.MONTHLY), Periodicity.MONTHLY));
+		}
+		assertEquals(20212, FilingHistory.fromBitIndex(43, Periodicity.SEMIANNUALLY));
+		assertEquals(2021, FilingHistory.fromBitIndex(21, Periodicity.YEARLY));
+	}
+
+	/**
+	 * Test the questions answered by the bitmap of periods filed
+	 */
+	@Test
+	public void testFiledPeriods() throws Exception {
+
+		FilingHistory history = FilingHistory.create("1234", "General Ledger");
+		assertTrue(history.setFiled(202103));
+		assertTrue(history.setFiled(202101));
+		assertTrue(history.setFiled(202102));
+		assertTrue(history.setFiled(202106));
+		assertFalse(history.setFiled(202102), "Already filed");
+		assertFalse(history.setFiled(2021), "Different periodicity");
+
+		assertEquals(Periodicity.MONTHLY, history.getPeriodicity());
+		assertEquals(202101, history.getFirstPeriod());
+		assertEquals(202106, history.getLastPeriod());
+
+		// The bitmap survives the encoding
+		FilingHistory copy = FilingHistory.create("1234", "General Ledger");
+		copy.setPeriodicity(history.getPeriodicity());
+		copy.setBitmap(history.getBitmap());
+		assertEquals(history.getBits(), copy.getBits());
+
+		assertTrue(copy.isFiled(202101));
+		assertFalse(copy.isFiled(202104));
+		assertFalse(copy.isFiled(202012));
+
+		assertTrue(copy.hasFiledAfter(202106, true));
+		assertFalse(copy.hasFiledAfter(202106, false));
+		assertTrue(copy.hasFiledAfter(202012, false));
+
+		assertNull(copy.getMissingBefore(202104, false), "Last period filed before April is March");
+		assertEquals(202104, copy.getMissingBefore(202106, false));
+		assertNull(copy.getMissingBefore(202106, true));
+		assertEquals(202107, copy.getMissingBefore(202112, true));
+		assertNull(copy.getMissingBefore(202101, false), "Nothing filed before January");
+
+		assertFalse(copy.isCompatible(2021));
+		assertTrue(copy.isCompatible(202201));
+	}
+}
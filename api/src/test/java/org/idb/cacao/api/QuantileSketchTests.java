@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.idb.cacao.api.utils.QuantileSketch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Performs some tests with the sketches used by population rollups
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class QuantileSketchTests {
+
+	/**
+	 * Test the statistics of a known population
+	 */
+	@Test
+	public void testStatistics() throws Exception {
+
+		QuantileSketch sketch = new QuantileSketch();
+		assertEquals(0, sketch.getCount());
+		assertTrue(Double.isNaN(sketch.quantile(0.5)));
+		assertTrue(Double.isNaN(sketch.getAverage()));
+
+		for (int i=1; i<=1000; i++) {
+			sketch.add(i);
+		}
+		sketch.add(Double.NaN);
+		assertEquals(1000, sketch.getCount());
+		assertEquals(500_500.0, sketch.getSum(), 0.0001);
+		assertEquals(500.5, sketch.getAverage(), 0.0001);
+		assertEquals(250, sketch.percentile(25), 5);
+		assertEquals(500, sketch.percentile(50), 5);
+		assertEquals(750, sketch.percentile(75), 5);
+		assertEquals(250, sketch.getMedianAbsoluteDeviation(), 5);
+	}
+
+	/**
+	 * Test that the sketches of parts of the population may be stored and merged
+	 */
+	@Test
+	public void testMergeAndSerialization() throws Exception {
+
+		Random random = new Random(1);
+		QuantileSketch whole = new QuantileSketch();
+		QuantileSketch part1 = new QuantileSketch();
+		QuantileSketch part2 = new QuantileSketch();
+		for (int i=0; i<10_000; i++) {
+			double value = random.nextGaussian() * 10.0 + 50.0;
+			whole.add(value);
+			if (i%3==0)
+				part1.add(value);
+			else
+				part2.add(value);
+		}
+
+		QuantileSketch merged = QuantileSketch.fromBase64(part1.toBase64());
+		merged.merge(QuantileSketch.fromBase64(part2.toBase64()));
+
+		assertEquals(whole.getCount(), merged.getCount());
+		assertEquals(whole.getSum(), merged.getSum(), 0.0001);
+		for (double percent: new double[] { 1, 25, 50, 75, 99 }) {
+			assertEquals(whole.percentile(percent), merged.percentile(percent), 0.5, "Percentile "+percent);
+		}
+
+		assertNull(QuantileSketch.fromBase64(null));
+		assertThrows(IllegalArgumentException.class, ()->QuantileSketch.fromBase64("AAAA"));
+	}
+
+}
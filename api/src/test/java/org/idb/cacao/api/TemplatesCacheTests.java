@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.api;
+
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.idb.cacao.api.templates.DocumentTemplate;
+import org.idb.cacao.api.templates.DomainTable;
+import org.idb.cacao.api.templates.TemplatesCache;
+import org.idb.cacao.api.templates.TemplatesCache.ChangeKind;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Performs some tests with the in-memory cache of templates and domain tables
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class TemplatesCacheTests {
+
+	/**
+	 * Domain tables repository that counts the number of queries
+	 */
+	private static class CountingDomainTableRepository implements ETLContext.DomainTableRepository {
+
+		final AtomicInteger queries = new AtomicInteger();
+
+		final List<DomainTable> tables = Arrays.asList(new DomainTable("TABLE1", "1.0"), new DomainTable("TABLE1", "2.0"));
+
+		@Override
+		public Optional<DomainTable> findByNameAndVersion(String name, String version) {
+			queries.incrementAndGet();
+			return tables.stream().filter(t->t.getName().equals(name) && t.getVersion().equals(version)).findAny();
+		}
+
+		@Override
+		public List<DomainTable> findByName(String name) {
+			queries.incrementAndGet();
+			return tables.stream().filter(t->t.getName().equals(name)).collect(Collectors.toList());
+		}
+
+	}
+
+	/**
+	 * Test that repeated lookups are served from memory and that change messages discard the stale objects
+	 */
+	@Test
+	public void testCacheAndInvalidation() throws Exception {
+
+		AtomicInteger templateQueries = new AtomicInteger();
+		CountingDomainTableRepository domainTables = new CountingDomainTableRepository();
+
+		TemplatesCache cache = new TemplatesCache(
+			(name,version)->{
+				templateQueries.incrementAndGet();
+				DocumentTemplate template = new DocumentTemplate();
+				template.setName(name);
+				template.setVersion(version);
+				return Optional.of(template);
+			},
+			/*templatesByArchetypeLoader*/null,
+			domainTables);
+
+		for (int i=0; i<3; i++) {
+			assertEquals("1.0", cache.getTemplate("TEMPLATE1", "1.0").get().getVersion());
+			assertTrue(cache.getDomainTable("TABLE1", "2.0").isPresent());
+			assertFalse(cache.getDomainTable("TABLE1", "3.0").isPresent());
+			assertEquals(2, cache.getDomainTableRepository().findByName("TABLE1").size());
+		}
+		assertEquals(1, templateQueries.get());
+		assertEquals(3, domainTables.queries.get());
+
+		// Change in a domain table does not discard templates, nor other versions of the same domain table
+		long version = cache.getVersion();
+		cache.onChangeMessage(TemplatesCache.formatChangeMessage(ChangeKind.DOMAIN_TABLE, "TABLE1", "2.0"));
+		assertTrue(cache.getVersion()>version);
+		cache.getTemplate("TEMPLATE1", "1.0");
+		cache.getDomainTable("TABLE1", "2.0");
+		cache.getDomainTable("TABLE1", "3.0");
+		cache.getDomainTables("TABLE1");
+		assertEquals(1, templateQueries.get());
+		assertEquals(5, domainTables.queries.get());
+
+		// Change in a template
+		cache.onChangeMessage(TemplatesCache.formatChangeMessage(ChangeKind.TEMPLATE, "TEMPLATE1", "1.0"));
+		cache.getTemplate("TEMPLATE1", "1.0");
+		assertEquals(2, templateQueries.get());
+
+		// Names with separators
+		cache.getTemplate("A|B", "1.0");
+		assertEquals(3, templateQueries.get());
+		cache.onChangeMessage(TemplatesCache.formatChangeMessage(ChangeKind.TEMPLATE, "A|B", "1.0"));
+		cache.getTemplate("A|B", "1.0");
+		cache.getTemplate("TEMPLATE1", "1.0");
+		assertEquals(4, templateQueries.get());
+
+		// Discards everything
+		cache.onChangeMessage(TemplatesCache.formatChangeMessage(ChangeKind.ALL, null, null));
+		cache.getTemplate("TEMPLATE1", "1.0");
+		cache.getDomainTable("TABLE1", "2.0");
+		assertEquals(5, templateQueries.get());
+		assertEquals(6, domainTables.queries.get());
+	}
+
+	/**
+	 * Test that an object loaded concurrently with some invalidation is not kept in cache
+	 */
+	@Test
+	public void testInvalidationDuringLoad() throws Exception {
+
+		AtomicInteger templateQueries = new AtomicInteger();
+		final TemplatesCache[] cache = new TemplatesCache[1];
+
+		cache[0] = new TemplatesCache(
+			(name,version)->{
+				if (templateQueries.incrementAndGet()==1) {
+					// Some change arrives while we are still loading the first one
+					cache[0].invalidateTemplate(name, version);
+				}
+				DocumentTemplate template = new DocumentTemplate();
+				template.setName(name);
+				template.setVersion(version);
+				return Optional.of(template);
+			},
+			/*templatesByArchetypeLoader*/null,
+			new CountingDomainTableRepository());
+
+		cache[0].getTemplate("TEMPLATE1", "1.0");
+		cache[0].getTemplate("TEMPLATE1", "1.0");
+		cache[0].getTemplate("TEMPLATE1", "1.0");
+		assertEquals(2, templateQueries.get());
+	}
+
+	/**
+	 * Test that templates by archetype are looked up among the cached templates if there is no loader for them
+	 */
+	@Test
+	public void testTemplatesByArchetypeWithoutLoader() throws Exception {
+
+		TemplatesCache cache = new TemplatesCache(
+			(name,version)->{
+				DocumentTemplate template = new DocumentTemplate();
+				template.setName(name);
+				template.setVersion(version);
+				template.setArchetype(name.startsWith("GL") ? "GENERAL_LEDGER" : "OTHER");
+				return Optional.of(template);
+			},
+			/*templatesByArchetypeLoader*/null,
+			new CountingDomainTableRepository());
+
+		assertTrue(cache.getTemplatesByArchetype("GENERAL_LEDGER").isEmpty());
+		assertTrue(cache.getTemplatesByArchetype(null).isEmpty());
+
+		cache.getTemplate("GL1", "1.0");
+		cache.getTemplate("GL2", "1.0");
+		cache.getTemplate("BALANCE", "1.0");
+		assertEquals(2, cache.getTemplatesByArchetype("GENERAL_LEDGER").size());
+		assertEquals(1, cache.getTemplatesByArchetype("OTHER").size());
+
+		cache.onChangeMessage(TemplatesCache.formatChangeMessage(ChangeKind.TEMPLATE, "GL1", "1.0"));
+		assertEquals(1, cache.getTemplatesByArchetype("GENERAL_LEDGER").size());
+	}
+
+}
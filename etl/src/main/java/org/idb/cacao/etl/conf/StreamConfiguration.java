@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.etl.conf;
+
+import org.idb.cacao.api.DocumentEvent;
+import org.springframework.cloud.stream.binder.PartitionKeyExtractorStrategy;
+import org.springframework.cloud.stream.binder.PartitionSelectorStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration related to use of CloudStream
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@Configuration
+public class StreamConfiguration {
+
+	/**
+	 * Bean configured as application property 'spring.cloud.stream.bindings.<binding-name>.producer.partition-key-extractor-name' to
+	 * provide a key out of a produced message. It's the taxpayer ID informed in the payload (see {@link DocumentEvent#getPartitionKey() getPartitionKey}),
+	 * so that all the documents of the same taxpayer go to the same partition.
+	 */
+	@Bean("DocumentPartitioner")
+	public PartitionKeyExtractorStrategy partitionKeyExtractorStrategy() {
+		return message->DocumentEvent.getPartitionKey(message.getPayload());
+	}
+
+	/**
+	 * Bean configured as application property 'spring.cloud.stream.bindings.<binding-name>.producer.partition-selector-name' to provide
+	 * a partition number out of a key. Uses the same partition for the same key, like the other services do.
+	 */
+	@Bean("DocumentPartitionSelector")
+	public PartitionSelectorStrategy partitionSelectorStrategy() {
+		return DocumentEvent::selectPartition;
+	}
+}
@@ -6,6 +6,7 @@
  *******************************************************************************/
 package org.idb.cacao.etl.controllers.services;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
@@ -15,12 +16,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.elasticsearch.client.RestHighLevelClient;
+import org.idb.cacao.api.DocumentEvent;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentSituationHistory;
 import org.idb.cacao.api.DocumentUploaded;
@@ -34,13 +37,17 @@ import org.idb.cacao.api.storage.FileSystemStorageService;
 import org.idb.cacao.api.templates.DocumentTemplate;
 import org.idb.cacao.api.templates.TemplateArchetype;
 import org.idb.cacao.api.templates.TemplateArchetypes;
+import org.idb.cacao.api.templates.TemplatesCache;
+import org.idb.cacao.api.utils.DateTimeUtils;
+import org.idb.cacao.etl.entities.ETLFingerprint;
 import org.idb.cacao.etl.loader.GenericDataPublisher;
+import org.idb.cacao.etl.loader.InputsFingerprint;
 import org.idb.cacao.etl.loader.PublishedDataLoader;
 import org.idb.cacao.etl.repositories.DocumentSituationHistoryRepository;
-import org.idb.cacao.etl.repositories.DocumentTemplateRepository;
 import org.idb.cacao.etl.repositories.DocumentValidatedRepository;
-import org.idb.cacao.etl.repositories.DomainTableRepository;
+import org.idb.cacao.etl.repositories.ETLFingerprintRepository;
 import org.idb.cacao.etl.repositories.TaxpayerRepository;
+import org.idb.cacao.etl.repositories.PublishedDataRepository;
 import org.idb.cacao.etl.repositories.DocumentValidationErrorMessageRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -49,6 +56,8 @@ import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Service;
 
+import com.google.common.hash.Hashing;
+
 /**
  * 
  * @author leon
@@ -79,10 +88,7 @@ public class FileValidatedConsumerService {
 	private ValidatedDataRepository validatedDataRepository;
 
 	@Autowired
-	private DocumentTemplateRepository documentTemplateRepository;
-	
-	@Autowired
-	private DomainTableRepository domainTableRepository;
+	private TemplatesCache templatesCache;
 	
 	@Autowired
 	private RestHighLevelClient elasticsearchClient;
@@ -93,13 +99,33 @@ public class FileValidatedConsumerService {
 	@Autowired
 	private TaxpayerRepository taxpayerRepository;
 
+	@Autowired
+	private PublishedDataRepository publishedDataRepository;
+
 	@Autowired
 	private DocumentValidationErrorMessageRepository documentValidationErrorMessageRepository;
 
+	@Autowired
+	private ETLFingerprintRepository etlFingerprintRepository;
+
+	@Autowired
+	private PopulationRollupService populationRollupService;
+
+	/**
+	 * Skips the ETL if all of its inputs are the same as the ones considered by the last successful ETL of the same published data
+	 */
+	@Value("${etl.skip.unchanged.inputs:true}")
+	private boolean skipUnchangedInputs;
+
 	@Autowired
 	private final StreamBridge streamBridge;
 	
 	private static final ConcurrentHashMap<String, Long> processingDocument = new ConcurrentHashMap<>();
+	
+	/**
+	 * Key used in the fingerprint for the template of the document being processed
+	 */
+	private static final String QUERY_DOCUMENT_TEMPLATE = "document.template";
 
 	public FileValidatedConsumerService(StreamBridge streamBridge) {
 		this.streamBridge = streamBridge;
@@ -107,13 +133,18 @@ public class FileValidatedConsumerService {
 	
 	@Bean
 	public Consumer<String> receiveValidatedFile() {
-		return documentId -> {
-			Boolean result = processDocument(documentId);
+		return payload -> {
+			DocumentEvent event = DocumentEvent.parse(payload);
+			if (event==null || event.getDocumentId()==null) {
+				log.log(Level.WARNING, "Ignoring invalid message " + payload);
+				return;
+			}
+			Optional<DocumentEvent> result = processDocument(event);
 			
-			if (result) {
-				log.log(Level.INFO, "Sending a message to WEB with documentId " + documentId);
+			if (result.isPresent()) {
+				log.log(Level.INFO, "Sending a message to WEB with documentId " + event.getDocumentId());
 
-				streamBridge.send("receiveValidatedFile-out-0", documentId);
+				streamBridge.send("receiveValidatedFile-out-0", result.get().toPayload());
 			}
 		};
 	}
@@ -122,11 +153,13 @@ public class FileValidatedConsumerService {
 	/**
 	 * Try to ETL a given uploaded document
 	 * 
-	 * @param documentId	The ID of {@link DocumentUploaded} that needs to be validated
-	 * @return	DocumentId if the document has been validated. NULL if it doesn't.
+	 * @param event	The event received about the {@link DocumentUploaded} that needs to be processed
+	 * @return	The event to be published to the WEB if the document has been processed. Empty if it doesn't.
 	 */
-	private Boolean processDocument(String documentId) throws GeneralException, DocumentNotFoundException {
+	private Optional<DocumentEvent> processDocument(DocumentEvent event) throws GeneralException, DocumentNotFoundException {
 		
+		final String documentId = event.getDocumentId();
+
 		log.log(Level.INFO, "Received a message with documentId " + documentId);
 				
 		List<Runnable> rollbackProcedures = new LinkedList<>(); // hold rollback procedures only to be used in case of error
@@ -134,14 +167,15 @@ public class FileValidatedConsumerService {
 		ETLContext etlContext = new ETLContext();
 		etlContext.setMessageSource(messageSource);
 		etlContext.setValidatedDataRepository(validatedDataRepository);
-		etlContext.setDomainTableRepository(domainTableRepository);
+		etlContext.setDomainTableRepository(templatesCache.getDomainTableRepository());
 		etlContext.setTaxpayerRepository(taxpayerRepository);
+		etlContext.setPublishedDataRepository(publishedDataRepository);
 		
 		// Avoid redundant process by replay
 		Long mark = processingDocument.compute(documentId, (id,prev)->(prev==null)?System.currentTimeMillis() : -1);
 		if (mark<0) {
 			log.log(Level.INFO, "Ignoring this message because there is a concurrent process of the same document id");
-			return false;
+			return Optional.empty();
 		}
 		try {
 		
@@ -152,7 +186,7 @@ public class FileValidatedConsumerService {
 			
 			etlContext.setDocumentUploaded(doc);
 			
-			Optional<DocumentTemplate> template = documentTemplateRepository.findByNameAndVersion(doc.getTemplateName(),
+			Optional<DocumentTemplate> template = templatesCache.getTemplate(doc.getTemplateName(),
 					doc.getTemplateVersion());
 			if (!template.isPresent()) {
 				throw new TemplateNotFoundException("Template with name " + doc.getTemplateName() + " and version "
@@ -161,6 +195,30 @@ public class FileValidatedConsumerService {
 
 			etlContext.setDocumentTemplate(template.get());
 			
+			Optional<TemplateArchetype> archetype = (template.get().getArchetype() != null && template.get().getArchetype().trim().length() > 0)
+					? TemplateArchetypes.getArchetype(template.get().getArchetype()) : Optional.empty();
+			
+			// Avoid redundant process if nothing has changed since the last time we published the same data
+			final String fingerprintScope = getFingerprintScope(doc, archetype);
+			if (skipUnchangedInputs && hasSameInputs(fingerprintScope, template.get())) {
+				log.log(Level.INFO, "Skipping the ETL of "+documentId+" because its inputs have not changed since the last ETL of taxpayer "
+					+doc.getTaxPayerId()+" period "+doc.getTaxPeriodNumber());
+				etlContext.setOutcomeSituation(doc, DocumentSituation.PROCESSED);
+				ETLContext.markReplacedDocuments(doc, etlContext);
+				for (Map.Entry<DocumentUploaded, DocumentSituation> entry: etlContext.getOutcomeSituations().entrySet()) {
+					setSituation(entry.getKey(), entry.getValue());
+				}
+				return Optional.of(toOutgoingEvent(event, doc, etlContext));
+			}
+			
+			// Keeps track of all inputs considered by this ETL. Any previous fingerprint is no longer valid since we are
+			// going to replace the published data.
+			final InputsFingerprint inputs = new InputsFingerprint();
+			inputs.observe(QUERY_DOCUMENT_TEMPLATE, InputsFingerprint.describeTemplate(template.get()));
+			etlContext.setValidatedDataRepository(inputs.track(validatedDataRepository));
+			etlContext.setDomainTableRepository(inputs.track(templatesCache.getDomainTableRepository()));
+			deleteFingerprint(fingerprintScope);
+			
 			String fullPath = doc.getFileIdWithPath();
 			
 			Path filePath = fileSystemStorageService.find(fullPath);
@@ -179,7 +237,6 @@ public class FileValidatedConsumerService {
 			
 			// Check for domain-specific validations related to a built-in archetype
 			if (template.get().getArchetype() != null && template.get().getArchetype().trim().length() > 0) {
-				Optional<TemplateArchetype> archetype = TemplateArchetypes.getArchetype(template.get().getArchetype());
 				if (archetype.isPresent()) {
 					
 					should_perform_general_etl = false; // prevents 'two ETL's over the same document
@@ -242,9 +299,16 @@ public class FileValidatedConsumerService {
 				
 			}
 			
+			// The published data may have changed (even in case of error), so the related rollups must be built again
+			populationRollupService.markDirty(archetype.orElse(null), doc.getTaxYear());
+			
 			saveETLMessages(etlContext);
 			
-			return true;
+			if (isProcessed(doc, etlContext)) {
+				saveFingerprint(fingerprintScope, inputs, doc);
+			}
+			
+			return Optional.of(toOutgoingEvent(event, doc, etlContext));
 		
 		}
 		catch (GeneralException ex) {
@@ -257,6 +321,103 @@ public class FileValidatedConsumerService {
 		
 	}
 	
+	/**
+	 * Returns the identification of the published data produced by the ETL of this document. Every ETL that produces
+	 * the same published data (e.g. different documents of the same archetype) shares the same scope.
+	 */
+	private static String getFingerprintScope(DocumentUploaded doc, Optional<TemplateArchetype> archetype) {
+		final String period = (doc.getTaxPeriodNumber()==null) ? "" : doc.getTaxPeriodNumber().toString();
+		if (archetype.isPresent()) {
+			List<String> indices = archetype.get().getRelatedPublishedDataIndices();
+			if (indices!=null && !indices.isEmpty())
+				return InputsFingerprint.encode(doc.getTaxPayerId(), period, String.join(",", new TreeSet<>(indices)));
+			else
+				return InputsFingerprint.encode(doc.getTaxPayerId(), period, "archetype:"+archetype.get().getName());
+		}
+		return InputsFingerprint.encode(doc.getTaxPayerId(), period, "template:"+doc.getTemplateName(), doc.getTemplateVersion());
+	}
+	
+	/**
+	 * Returns the ID for storing the fingerprint related to the scope
+	 */
+	private static String getFingerprintId(String scope) {
+		return Hashing.sha256().hashString(scope, StandardCharsets.UTF_8).toString();
+	}
+	
+	/**
+	 * Returns TRUE if the last successful ETL of the same published data considered the same inputs we have now
+	 */
+	private boolean hasSameInputs(String scope, DocumentTemplate template) {
+		try {
+			Optional<ETLFingerprint> previous = etlFingerprintRepository.findById(getFingerprintId(scope));
+			if (!previous.isPresent() || previous.get().getQueries()==null || previous.get().getFingerprint()==null
+					|| !scope.equals(previous.get().getScope()))
+				return false;
+			InputsFingerprint current = InputsFingerprint.replay(previous.get().getQueries(), validatedDataRepository, templatesCache.getDomainTableRepository());
+			current.observe(QUERY_DOCUMENT_TEMPLATE, InputsFingerprint.describeTemplate(template));
+			return previous.get().getFingerprint().equals(current.getFingerprint());
+		}
+		catch (Exception ex) {
+			log.log(Level.WARNING, "Error checking the fingerprint of "+scope, ex);
+			return false;
+		}
+	}
+	
+	/**
+	 * Stores the fingerprint of the inputs considered by the ETL
+	 */
+	private void saveFingerprint(String scope, InputsFingerprint inputs, DocumentUploaded doc) {
+		try {
+			ETLFingerprint fingerprint = new ETLFingerprint();
+			fingerprint.setId(getFingerprintId(scope));
+			fingerprint.setScope(scope);
+			fingerprint.setFingerprint(inputs.getFingerprint());
+			fingerprint.setQueries(inputs.getQueries());
+			fingerprint.setDocumentId(doc.getId());
+			fingerprint.setTimestamp(DateTimeUtils.now());
+			etlFingerprintRepository.save(fingerprint);
+		}
+		catch (Exception ex) {
+			log.log(Level.WARNING, "Error storing the fingerprint of "+scope, ex);
+		}
+	}
+	
+	/**
+	 * Removes the fingerprint of previous ETL
+	 */
+	private void deleteFingerprint(String scope) {
+		try {
+			etlFingerprintRepository.deleteById(getFingerprintId(scope));
+		}
+		catch (Exception ex) {
+			log.log(Level.FINE, "Error deleting the fingerprint of "+scope, ex);
+		}
+	}
+	
+	/**
+	 * Returns the event to be published to the WEB, with the final situation of the document
+	 */
+	private static DocumentEvent toOutgoingEvent(DocumentEvent incoming, DocumentUploaded doc, ETLContext etlContext) {
+		DocumentSituation situation = doc.getSituation();
+		if (etlContext.hasOutcomeSituations()) {
+			for (Map.Entry<DocumentUploaded, DocumentSituation> entry: etlContext.getOutcomeSituations().entrySet()) {
+				if (doc.getId().equals(entry.getKey().getId()))
+					situation = entry.getValue();
+			}
+		}
+		return DocumentEvent.of(doc).withFileSize(incoming.getFileSize()).withSituation(situation);
+	}
+
+	/**
+	 * Returns TRUE if the ETL was successful for all the documents considered
+	 */
+	private static boolean isProcessed(DocumentUploaded doc, ETLContext etlContext) {
+		if (!etlContext.hasOutcomeSituations())
+			return DocumentSituation.PROCESSED.equals(doc.getSituation());
+		return etlContext.getOutcomeSituations().values().stream()
+			.allMatch(s->DocumentSituation.PROCESSED.equals(s) || DocumentSituation.REPLACED.equals(s));
+	}
+	
 	/**
 	 * Save ETL error/alert messages to database
 	 * 
@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.etl.controllers.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.idb.cacao.api.PopulationRollup;
+import org.idb.cacao.api.errors.CommonErrors;
+import org.idb.cacao.api.templates.TemplateArchetype;
+import org.idb.cacao.api.utils.QuantileSketch;
+import org.idb.cacao.api.utils.ScrollUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service for keeping the {@link PopulationRollup population rollups} up to date.<BR>
+ * <BR>
+ * The ETL {@link #markDirty(TemplateArchetype, Integer) marks} the partitions affected by each published document. A background
+ * thread looks for dirty partitions from time to time and builds their rollups again with one pass over the published
+ * data of the partition. Several documents published in a row for the same period cost only one rebuild.<BR>
+ * Before building a partition, the builder claims it with a conditional update of its state (according to the sequence number
+ * of the state read), so that only one replica builds the same partition at a time. The claim expires after some time, in case
+ * the builder dies.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class PopulationRollupService {
+
+	private static final Logger log = Logger.getLogger(PopulationRollupService.class.getName());
+
+	/**
+	 * Number of rollup entries to write at once
+	 */
+	private static final int BULK_SIZE = 1000;
+
+	/**
+	 * Number of published records to read at once
+	 */
+	private static final int SCROLL_SIZE = 1000;
+
+	private static final String MAPPING_ROLLUP = "{\"properties\":{"
+			+ "\"" + PopulationRollup.FIELD_SOURCE_INDEX + "\":{\"type\":\"keyword\"},"
+			+ "\"" + PopulationRollup.FIELD_PERIOD + "\":{\"type\":\"integer\"},"
+			+ "\"" + PopulationRollup.FIELD_QUALIFIER + "\":{\"type\":\"keyword\"},"
+			+ "\"" + PopulationRollup.FIELD_QUALIFIER_VALUE + "\":{\"type\":\"keyword\"},"
+			+ "\"" + PopulationRollup.FIELD_GROUP + "\":{\"type\":\"keyword\"},"
+			+ "\"" + PopulationRollup.FIELD_LABELS + "\":{\"type\":\"object\",\"enabled\":false},"
+			+ "\"" + PopulationRollup.FIELD_COUNT + "\":{\"type\":\"long\"},"
+			+ "\"" + PopulationRollup.FIELD_SUM + "\":{\"type\":\"double\"},"
+			+ "\"" + PopulationRollup.FIELD_SKETCH + "\":{\"type\":\"binary\"},"
+			+ "\"" + PopulationRollup.FIELD_BUILD + "\":{\"type\":\"long\"}"
+			+ "}}";
+
+	/**
+	 * Records the generation observed at the start of the build and releases the claim
+	 */
+	private static final String SCRIPT_BUILT = "if (ctx._source." + PopulationRollup.FIELD_BUILT_GENERATION + " == null || ctx._source." + PopulationRollup.FIELD_BUILT_GENERATION + " < params.generation) { "
+			+ "ctx._source." + PopulationRollup.FIELD_BUILT_GENERATION + " = params.generation; "
+			+ "ctx._source." + PopulationRollup.FIELD_BUILT_TIMESTAMP + " = params.timestamp; } "
+			+ "if (params.builder.equals(ctx._source." + PopulationRollup.FIELD_BUILDER + ")) { "
+			+ "ctx._source.remove('" + PopulationRollup.FIELD_BUILDER + "'); ctx._source.remove('" + PopulationRollup.FIELD_CLAIM_EXPIRES + "'); }";
+
+	@Autowired
+	private RestHighLevelClient elasticsearchClient;
+
+	@Value("${rollup.enabled:true}")
+	private boolean enabled;
+
+	/**
+	 * Delay in seconds between looking for dirty partitions
+	 */
+	@Value("${rollup.build.delay.seconds:60}")
+	private long delaySeconds;
+
+	/**
+	 * Time in seconds a builder keeps its claim over a partition
+	 */
+	@Value("${rollup.build.claim.seconds:3600}")
+	private long claimSeconds;
+
+	/**
+	 * Identifies this builder among all replicas
+	 */
+	private final String builderId = UUID.randomUUID().toString();
+
+	private ScheduledExecutorService service;
+
+	@PostConstruct
+	public void start() {
+		if (!enabled)
+			return;
+		service = new ScheduledThreadPoolExecutor(1, r->{
+			Thread thread = new Thread(r, "PopulationRollupThread");
+			thread.setDaemon(true);
+			return thread;
+		});
+		service.scheduleWithFixedDelay(this::buildDirtyPartitions, delaySeconds, delaySeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (service!=null)
+			service.shutdownNow();
+		service = null;
+	}
+
+	/**
+	 * Signals that the published data produced by some archetype for some period has changed
+	 */
+	public void markDirty(TemplateArchetype archetype, Integer period) {
+		if (!enabled || archetype==null || period==null)
+			return;
+		for (PopulationRollup rollup: archetype.getPopulationRollups()) {
+			try {
+				PopulationRollup.markDirty(elasticsearchClient, rollup, period);
+			}
+			catch (Exception ex) {
+				log.log(Level.WARNING, "Could not mark rollup of "+rollup.getSourceIndex()+" for period "+period, ex);
+			}
+		}
+	}
+
+	/**
+	 * Builds all the rollups whose published data have changed since the last build
+	 */
+	public void buildDirtyPartitions() {
+		List<Map<String, Object>> dirty;
+		try {
+			dirty = getDirtyPartitions();
+		}
+		catch (Exception ex) {
+			log.log(Level.WARNING, "Could not look for dirty rollup partitions", ex);
+			return;
+		}
+		for (Map<String, Object> state: dirty) {
+			PopulationRollup rollup = PopulationRollup.fromState(state);
+			Number period = (Number)state.get(PopulationRollup.FIELD_PERIOD);
+			if (rollup==null || period==null)
+				continue;
+			try {
+				Map<String, Object> claimed = claim(rollup, period.intValue());
+				if (claimed==null)
+					continue; // fresh or being built by another replica
+				build(rollup, period.intValue(), claimed);
+			}
+			catch (Exception ex) {
+				if (CommonErrors.isErrorThreadInterrupted(ex))
+					return;
+				log.log(Level.WARNING, "Could not build rollup of "+rollup.getSourceIndex()+" for period "+period, ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns the state of all partitions that are not {@link PopulationRollup#isFresh(Map) fresh}
+	 */
+	private List<Map<String, Object>> getDirtyPartitions() throws Exception {
+		SearchRequest request = new SearchRequest(PopulationRollup.INDEX_ROLLUP_STATE);
+		request.source(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery()).size(10_000));
+		SearchResponse response;
+		try {
+			response = elasticsearchClient.search(request, RequestOptions.DEFAULT);
+		}
+		catch (Exception ex) {
+			if (CommonErrors.isErrorNoIndexFound(ex))
+				return new ArrayList<>();
+			throw ex;
+		}
+		List<Map<String, Object>> dirty = new ArrayList<>();
+		for (SearchHit hit: response.getHits().getHits()) {
+			Map<String, Object> state = hit.getSourceAsMap();
+			if (!PopulationRollup.isFresh(state))
+				dirty.add(state);
+		}
+		return dirty;
+	}
+
+	/**
+	 * Claims the partition for building its rollup. Returns the state of the partition as claimed, or NULL if the partition is
+	 * fresh, is claimed by another builder or has changed concurrently (in this case it will be tried again later).
+	 */
+	private Map<String, Object> claim(PopulationRollup rollup, int period) throws Exception {
+		final String partitionId = PopulationRollup.getPartitionId(rollup.getSourceIndex(), period);
+		GetResponse response = elasticsearchClient.get(new GetRequest(PopulationRollup.INDEX_ROLLUP_STATE, partitionId), RequestOptions.DEFAULT);
+		if (!response.isExists())
+			return null;
+		Map<String, Object> state = response.getSourceAsMap();
+		if (PopulationRollup.isFresh(state))
+			return null;
+		final long now = System.currentTimeMillis();
+		String builder = (String)state.get(PopulationRollup.FIELD_BUILDER);
+		Number claimExpires = (Number)state.get(PopulationRollup.FIELD_CLAIM_EXPIRES);
+		if (builder!=null && !builderId.equals(builder) && claimExpires!=null && claimExpires.longValue()>now)
+			return null;
+		Number buildNumber = (Number)state.get(PopulationRollup.FIELD_BUILD_NUMBER);
+
+		Map<String, Object> claim = new HashMap<>();
+		claim.put(PopulationRollup.FIELD_BUILDER, builderId);
+		claim.put(PopulationRollup.FIELD_CLAIM_EXPIRES, now + TimeUnit.SECONDS.toMillis(claimSeconds));
+		claim.put(PopulationRollup.FIELD_BUILD_NUMBER, (buildNumber==null) ? 1L : buildNumber.longValue() + 1);
+		UpdateRequest update = new UpdateRequest(PopulationRollup.INDEX_ROLLUP_STATE, partitionId)
+				.doc(claim)
+				.setIfSeqNo(response.getSeqNo())
+				.setIfPrimaryTerm(response.getPrimaryTerm());
+		try {
+			elasticsearchClient.update(update, RequestOptions.DEFAULT);
+		}
+		catch (Exception ex) {
+			if (CommonErrors.isErrorVersionConflict(ex))
+				return null;
+			throw ex;
+		}
+		state.putAll(claim);
+		return state;
+	}
+
+	/**
+	 * Entry of rollup being built
+	 */
+	private static class Entry {
+		final String qualifier;
+		final String qualifierValue;
+		final String group;
+		final Map<String, Object> labels = new HashMap<>();
+		final QuantileSketch sketch = new QuantileSketch();
+		long count;
+		double sum;
+		Entry(String qualifier, String qualifierValue, String group) {
+			this.qualifier = qualifier;
+			this.qualifierValue = qualifierValue;
+			this.group = group;
+		}
+	}
+
+	/**
+	 * Builds the rollup of one partition with one pass over the published data
+	 * @param claimed State of the partition as {@link #claim(PopulationRollup, int) claimed} by this builder
+	 */
+	private void build(PopulationRollup rollup, int period, Map<String, Object> claimed) throws Exception {
+
+		final long buildTimestamp = System.currentTimeMillis();
+		// Changes marked after this point are not considered fresh by this build
+		final long generation = PopulationRollup.getDirtyGeneration(claimed);
+		final long buildNumber = ((Number)claimed.get(PopulationRollup.FIELD_BUILD_NUMBER)).longValue();
+		final List<String> qualifierFields = PopulationRollup.getQualifierFields();
+		final Map<String, Entry> entries = new LinkedHashMap<>();
+
+		List<String> fields = new ArrayList<>(qualifierFields);
+		fields.add(rollup.getGroupField());
+		fields.add(rollup.getLabelField() + "*");
+		fields.add(rollup.getSumField());
+		fields.add(rollup.getValueField());
+		final String[] includes = fields.toArray(new String[0]);
+
+		long records = 0;
+		try (Stream<Map<String, Object>> stream = ScrollUtils.findWithScroll(/*entity*/null, rollup.getSourceIndex(), elasticsearchClient,
+				searchSourceBuilder->{
+					searchSourceBuilder.query(new TermQueryBuilder(rollup.getPeriodField(), period));
+					searchSourceBuilder.fetchSource(includes, null);
+					searchSourceBuilder.size(SCROLL_SIZE);
+				})) {
+
+			for (Map<String, Object> record: (Iterable<Map<String, Object>>)stream::iterator) {
+				records++;
+				Object group = record.get(rollup.getGroupField());
+				if (group==null)
+					continue;
+				Number sum = toNumber(record.get(rollup.getSumField()));
+				Number value = toNumber(record.get(rollup.getValueField()));
+				for (String qualifier: qualifierFields) {
+					Object qualifierValue = record.get(qualifier);
+					if (qualifierValue==null || String.valueOf(qualifierValue).trim().length()==0)
+						continue;
+					String key = String.join("\u0000", qualifier, String.valueOf(qualifierValue), String.valueOf(group));
+					Entry entry = entries.get(key);
+					if (entry==null) {
+						entry = new Entry(qualifier, String.valueOf(qualifierValue), String.valueOf(group));
+						for (Map.Entry<String, Object> field: record.entrySet()) {
+							if (field.getKey().startsWith(rollup.getLabelField()))
+								entry.labels.put(field.getKey(), field.getValue());
+						}
+						entries.put(key, entry);
+					}
+					entry.count++;
+					if (sum!=null)
+						entry.sum += sum.doubleValue();
+					if (value!=null)
+						entry.sketch.add(value.doubleValue());
+				}
+			}
+		}
+
+		ensureRollupIndex();
+
+		BulkRequest bulk = new BulkRequest();
+		for (Entry entry: entries.values()) {
+			Map<String, Object> doc = new HashMap<>();
+			doc.put(PopulationRollup.FIELD_SOURCE_INDEX, rollup.getSourceIndex());
+			doc.put(PopulationRollup.FIELD_PERIOD, period);
+			doc.put(PopulationRollup.FIELD_QUALIFIER, entry.qualifier);
+			doc.put(PopulationRollup.FIELD_QUALIFIER_VALUE, entry.qualifierValue);
+			doc.put(PopulationRollup.FIELD_GROUP, entry.group);
+			doc.put(PopulationRollup.FIELD_LABELS, entry.labels);
+			doc.put(PopulationRollup.FIELD_COUNT, entry.count);
+			doc.put(PopulationRollup.FIELD_SUM, entry.sum);
+			doc.put(PopulationRollup.FIELD_SKETCH, entry.sketch.toBase64());
+			doc.put(PopulationRollup.FIELD_BUILD, buildNumber);
+			bulk.add(new IndexRequest(PopulationRollup.INDEX_ROLLUP)
+					.id(PopulationRollup.getEntryId(rollup.getSourceIndex(), period, entry.qualifier, entry.qualifierValue, entry.group))
+					.source(doc));
+			if (bulk.numberOfActions()>=BULK_SIZE) {
+				writeBulk(bulk);
+				bulk = new BulkRequest();
+			}
+		}
+		if (bulk.numberOfActions()>0)
+			writeBulk(bulk);
+
+		// Removes the entries that are no longer present in published data
+		BoolQueryBuilder obsolete = QueryBuilders.boolQuery()
+				.filter(new TermQueryBuilder(PopulationRollup.FIELD_SOURCE_INDEX, rollup.getSourceIndex()))
+				.filter(new TermQueryBuilder(PopulationRollup.FIELD_PERIOD, period))
+				.mustNot(new TermQueryBuilder(PopulationRollup.FIELD_BUILD, buildNumber));
+		DeleteByQueryRequest delete = new DeleteByQueryRequest(PopulationRollup.INDEX_ROLLUP)
+				.setQuery(obsolete)
+				.setRefresh(true);
+		CommonErrors.doESWriteOpWithRetries(()->elasticsearchClient.deleteByQuery(delete, RequestOptions.DEFAULT));
+
+		// Changes that arrived after the start of this build keep the partition dirty
+		Map<String, Object> params = new HashMap<>();
+		params.put("generation", generation);
+		params.put("timestamp", buildTimestamp);
+		params.put("builder", builderId);
+		UpdateRequest update = new UpdateRequest(PopulationRollup.INDEX_ROLLUP_STATE, PopulationRollup.getPartitionId(rollup.getSourceIndex(), period))
+				.script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, SCRIPT_BUILT, params))
+				.retryOnConflict(3)
+				.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+		CommonErrors.doESWriteOpWithRetries(()->elasticsearchClient.update(update, RequestOptions.DEFAULT));
+
+		if (log.isLoggable(Level.INFO))
+			log.log(Level.INFO, "Built rollup of "+rollup.getSourceIndex()+" for period "+period+" with "+entries.size()+" entries from "+records+" records in "
+					+(System.currentTimeMillis()-buildTimestamp)+" ms");
+	}
+
+	private void writeBulk(BulkRequest bulk) throws Exception {
+		bulk.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+		CommonErrors.doESWriteOpWithRetries(()->elasticsearchClient.bulk(bulk, RequestOptions.DEFAULT));
+	}
+
+	/**
+	 * Creates the index for rollup entries, if it does not exist yet
+	 */
+	private void ensureRollupIndex() throws Exception {
+		if (elasticsearchClient.indices().exists(new GetIndexRequest(PopulationRollup.INDEX_ROLLUP), RequestOptions.DEFAULT))
+			return;
+		try {
+			elasticsearchClient.indices().create(new CreateIndexRequest(PopulationRollup.INDEX_ROLLUP).mapping(MAPPING_ROLLUP, XContentType.JSON),
+					RequestOptions.DEFAULT);
+		}
+		catch (Exception ex) {
+			// Maybe it has been created concurrently by another replica
+			if (!elasticsearchClient.indices().exists(new GetIndexRequest(PopulationRollup.INDEX_ROLLUP), RequestOptions.DEFAULT))
+				throw ex;
+		}
+	}
+
+	private static Number toNumber(Object value) {
+		if (value instanceof Number)
+			return (Number)value;
+		if (value instanceof String) {
+			try {
+				return Double.valueOf((String)value);
+			}
+			catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+		return null;
+	}
+}
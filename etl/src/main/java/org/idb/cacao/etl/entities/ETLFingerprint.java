@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.etl.entities;
+
+import static org.springframework.data.elasticsearch.annotations.FieldType.Date;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Keyword;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import org.idb.cacao.api.utils.IndexNamesUtils;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+
+/**
+ * Fingerprint of all the inputs considered by the last successful ETL regarding one set of published data
+ * (i.e. the published data of one taxpayer and one period produced by one archetype or by one template).<BR>
+ * Keeps the queries performed by the ETL over the inputs (uploads, templates and domain tables), so that
+ * they can be replayed later in order to check whether the same ETL would see the same inputs.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@Document(indexName=IndexNamesUtils.ETL_FINGERPRINTS_INDEX)
+public class ETLFingerprint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The ID is derived from the 'scope'
+	 */
+	@Id
+	private String id;
+
+	/**
+	 * Identifies the published data (taxpayer, period and published indices)
+	 */
+	@Field(type=Keyword)
+	private String scope;
+
+	/**
+	 * The digest of all queries and their results
+	 */
+	@Field(type=Keyword)
+	private String fingerprint;
+
+	/**
+	 * All the queries performed by the ETL over its inputs
+	 */
+	@Field(type=Keyword, index=false)
+	private List<String> queries;
+
+	/**
+	 * The document that triggered the ETL
+	 */
+	@Field(type=Keyword)
+	private String documentId;
+
+	/**
+	 * Date/time of the ETL
+	 */
+	@Field(type=Date, store = true, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSSZZ")
+	private OffsetDateTime timestamp;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getScope() {
+		return scope;
+	}
+
+	public void setScope(String scope) {
+		this.scope = scope;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	public List<String> getQueries() {
+		return queries;
+	}
+
+	public void setQueries(List<String> queries) {
+		this.queries = queries;
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	public void setDocumentId(String documentId) {
+		this.documentId = documentId;
+	}
+
+	public OffsetDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(OffsetDateTime timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public String toString() {
+		return scope+": "+fingerprint;
+	}
+}
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.etl.loader;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.idb.cacao.api.DocumentSituation;
+import org.idb.cacao.api.DocumentUploaded;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.errors.GeneralException;
+import org.idb.cacao.api.templates.DocumentTemplate;
+import org.idb.cacao.api.templates.DomainTable;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computes a fingerprint of all the inputs considered by one ETL.<BR>
+ * The repositories given to the ETL are wrapped by this object, so that all the queries over uploads, templates and
+ * domain tables are recorded together with a description of their results. For uploads, the description includes
+ * the content digests ('hash') of the files, the template versions and whether the ETL would consider them. For templates
+ * and domain tables, the description includes their versions and their last modification time.<BR>
+ * The validated data itself is not described, since it's immutable for the same file and template, which are already
+ * part of the fingerprint.<BR>
+ * The recorded queries may be {@link #replay(Collection, ETLContext.ValidatedDataRepository, ETLContext.DomainTableRepository) replayed}
+ * later, producing a new fingerprint. If both fingerprints are the same, the same ETL would see the same inputs.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class InputsFingerprint {
+
+	private static final Logger log = Logger.getLogger(InputsFingerprint.class.getName());
+
+	private static final String QUERY_TEMPLATES = "templates";
+
+	private static final String QUERY_UPLOADS = "uploads";
+
+	private static final String QUERY_VALIDATION = "validation";
+
+	private static final String QUERY_DOMAIN_TABLE = "domain";
+
+	private static final String QUERY_DOMAIN_TABLES = "domains";
+
+	private static final String SEPARATOR = "|";
+
+	/**
+	 * Recorded queries (keys) and the description of their results (values), sorted by queries
+	 */
+	private final Map<String, String> observed;
+
+	public InputsFingerprint() {
+		this.observed = new ConcurrentSkipListMap<>();
+	}
+
+	/**
+	 * Includes one input that is not queried through the repositories (e.g. the template of the document being processed)
+	 */
+	public void observe(String query, String result) {
+		observed.put(query, (result==null) ? "" : result);
+	}
+
+	/**
+	 * Returns all the recorded queries
+	 */
+	public List<String> getQueries() {
+		return new ArrayList<>(observed.keySet());
+	}
+
+	/**
+	 * Returns the digest of all recorded queries and their results
+	 */
+	public String getFingerprint() {
+		Hasher hasher = Hashing.sha256().newHasher();
+		for (Map.Entry<String, String> entry: observed.entrySet()) {
+			hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+			hasher.putChar('\n');
+			hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+			hasher.putChar('\n');
+		}
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * Runs again the queries previously recorded and returns the corresponding fingerprint. Queries over templates
+	 * of documents being processed are not replayed here (they should be {@link #observe(String, String) observed} again).
+	 */
+	public static InputsFingerprint replay(Collection<String> queries,
+			ETLContext.ValidatedDataRepository validatedDataRepository,
+			ETLContext.DomainTableRepository domainTableRepository) throws Exception {
+		InputsFingerprint replay = new InputsFingerprint();
+		ETLContext.ValidatedDataRepository trackedValidatedData = replay.track(validatedDataRepository);
+		ETLContext.DomainTableRepository trackedDomainTables = replay.track(domainTableRepository);
+		for (String query: queries) {
+			String[] parts = decode(query);
+			switch (parts[0]) {
+			case QUERY_TEMPLATES:
+				trackedValidatedData.getTemplates(parts[1]);
+				break;
+			case QUERY_UPLOADS:
+				trackedValidatedData.getUploads(parts[1], parts[2], parts[3], (parts[4].length()==0) ? null : Integer.valueOf(parts[4]));
+				break;
+			case QUERY_VALIDATION:
+				trackedValidatedData.hasValidation(parts[1], parts[2], parts[3]);
+				break;
+			case QUERY_DOMAIN_TABLE:
+				trackedDomainTables.findByNameAndVersion(parts[1], parts[2]);
+				break;
+			case QUERY_DOMAIN_TABLES:
+				trackedDomainTables.findByName(parts[1]);
+				break;
+			default:
+				// Other inputs are not replayed here. Keep this in the fingerprint with an empty result, so
+				// that it won't match unless the caller observes it again.
+				replay.observe(query, null);
+			}
+		}
+		return replay;
+	}
+
+	/**
+	 * Wraps the repository so that the queries over uploads and templates are recorded
+	 */
+	public ETLContext.ValidatedDataRepository track(final ETLContext.ValidatedDataRepository repository) {
+		return new ETLContext.ValidatedDataRepository() {
+
+			@Override
+			public Collection<DocumentTemplate> getTemplates(String archetype) throws GeneralException {
+				Collection<DocumentTemplate> templates = repository.getTemplates(archetype);
+				observe(encode(QUERY_TEMPLATES, archetype), describeTemplates(templates));
+				return templates;
+			}
+
+			@Override
+			public Collection<DocumentUploaded> getUploads(String templateName, String templateVersion, String taxPayerId,
+					Integer taxPeriodNumber) throws GeneralException {
+				Collection<DocumentUploaded> uploads = repository.getUploads(templateName, templateVersion, taxPayerId, taxPeriodNumber);
+				observe(encode(QUERY_UPLOADS, templateName, templateVersion, taxPayerId, (taxPeriodNumber==null) ? "" : taxPeriodNumber.toString()),
+						describeUploads(uploads));
+				return uploads;
+			}
+
+			@Override
+			public boolean hasValidation(String templateName, String templateVersion, String fileId) throws Exception {
+				boolean has_validation = repository.hasValidation(templateName, templateVersion, fileId);
+				observe(encode(QUERY_VALIDATION, templateName, templateVersion, fileId), String.valueOf(has_validation));
+				return has_validation;
+			}
+
+			@Override
+			public Stream<Map<String, Object>> getValidatedData(String templateName, String templateVersion,
+					String fileId, Optional<String[]> sortBy, Optional<SortOrder> sortOrder) throws Exception {
+				return repository.getValidatedData(templateName, templateVersion, fileId, sortBy, sortOrder);
+			}
+
+			@Override
+			public Stream<Map<String, Object>> getValidatedDataUnsorted(String templateName, String templateVersion,
+					String fileId, int parallelism) throws Exception {
+				return repository.getValidatedDataUnsorted(templateName, templateVersion, fileId, parallelism);
+			}
+
+			@Override
+			public Optional<Map<String, Object>> getValidatedData(String templateName, String templateVersion,
+					String fileId, QueryBuilder query) throws Exception {
+				return repository.getValidatedData(templateName, templateVersion, fileId, query);
+			}
+
+		};
+	}
+
+	/**
+	 * Wraps the repository so that the queries over domain tables are recorded
+	 */
+	public ETLContext.DomainTableRepository track(final ETLContext.DomainTableRepository repository) {
+		return new ETLContext.DomainTableRepository() {
+
+			@Override
+			public Optional<DomainTable> findByNameAndVersion(String name, String version) {
+				Optional<DomainTable> table = repository.findByNameAndVersion(name, version);
+				observe(encode(QUERY_DOMAIN_TABLE, name, version), table.map(InputsFingerprint::describeDomainTable).orElse(null));
+				return table;
+			}
+
+			@Override
+			public List<DomainTable> findByName(String name) {
+				List<DomainTable> tables = repository.findByName(name);
+				observe(encode(QUERY_DOMAIN_TABLES, name), (tables==null) ? null
+					: tables.stream().map(InputsFingerprint::describeDomainTable).sorted().collect(Collectors.joining(SEPARATOR)));
+				return tables;
+			}
+
+		};
+	}
+
+	/**
+	 * Describes the template considering its name, version and last modification time
+	 */
+	public static String describeTemplate(DocumentTemplate template) {
+		return encode(template.getName(), template.getVersion(), template.getArchetype(),
+				(template.getChangedTime()==null) ? null : template.getChangedTime().toInstant().toString());
+	}
+
+	/**
+	 * Describes the templates considering their names, versions and last modification times
+	 */
+	public static String describeTemplates(Collection<DocumentTemplate> templates) {
+		if (templates==null)
+			return null;
+		return templates.stream().map(InputsFingerprint::describeTemplate).sorted().collect(Collectors.joining(SEPARATOR));
+	}
+
+	/**
+	 * Describes the uploads considering their distinct contents. Multiple uploads of the same file are considered
+	 * only once. The situation is reduced to the indication whether the upload would be considered by the ETL.<BR>
+	 * The most recent upload considered by the ETL (the one that prevails over the others) is also described by its
+	 * contents and template version, so that uploading again an older content (e.g. A, then B, then A again) changes the
+	 * description, even though the distinct contents are the same. Uploading again the same contents as the prevailing
+	 * upload does not change the description.
+	 */
+	public static String describeUploads(Collection<DocumentUploaded> uploads) {
+		if (uploads==null)
+			return null;
+		TreeSet<String> distinct = new TreeSet<>();
+		DocumentUploaded prevailing = null;
+		for (DocumentUploaded upload: uploads) {
+			boolean considered = isConsideredByETL(upload.getSituation());
+			distinct.add(encode(describeContent(upload), upload.getTemplateVersion(), considered ? "Y" : "N"));
+			if (considered && isMoreRecent(upload, prevailing))
+				prevailing = upload;
+		}
+		StringBuilder description = new StringBuilder(String.join(SEPARATOR, distinct));
+		if (prevailing!=null) {
+			description.append(SEPARATOR).append(encode("prevailing", describeContent(prevailing), prevailing.getTemplateVersion()));
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Describes the contents of the upload by its hash (or by its file ID if the hash is unknown)
+	 */
+	private static String describeContent(DocumentUploaded upload) {
+		return (upload.getHash()!=null && upload.getHash().length()>0) ? upload.getHash() : "file:"+upload.getFileId();
+	}
+
+	/**
+	 * Returns TRUE if the upload is more recent than the other one (or if the other one is NULL). Uploads with the same
+	 * timestamp are ordered by their file ID, so that the result does not depend on the order of the query results.
+	 */
+	private static boolean isMoreRecent(DocumentUploaded upload, DocumentUploaded other) {
+		if (other==null)
+			return true;
+		if (upload.getTimestamp()!=null && other.getTimestamp()!=null && !upload.getTimestamp().isEqual(other.getTimestamp()))
+			return upload.getTimestamp().isAfter(other.getTimestamp());
+		if (upload.getTimestamp()==null && other.getTimestamp()!=null)
+			return false;
+		if (upload.getTimestamp()!=null && other.getTimestamp()==null)
+			return true;
+		return String.valueOf(upload.getFileId()).compareTo(String.valueOf(other.getFileId()))>0;
+	}
+
+	/**
+	 * Describes the domain table considering its name, version and last modification time
+	 */
+	public static String describeDomainTable(DomainTable table) {
+		return encode(table.getName(), table.getVersion(),
+				(table.getChangedTime()==null) ? null : table.getChangedTime().toInstant().toString());
+	}
+
+	/**
+	 * Returns TRUE if a document in this situation may be considered by the ETL as a source of data. The ETL itself changes
+	 * situations among these (e.g. from VALID to PROCESSED or to REPLACED), so they are not distinguished.
+	 */
+	private static boolean isConsideredByETL(DocumentSituation situation) {
+		return DocumentSituation.VALID.equals(situation)
+			|| DocumentSituation.PROCESSED.equals(situation)
+			|| DocumentSituation.PENDING.equals(situation)
+			|| DocumentSituation.REPLACED.equals(situation);
+	}
+
+	/**
+	 * Encodes multiple parts into one String
+	 */
+	public static String encode(String... parts) {
+		StringBuilder sb = new StringBuilder();
+		for (String part: parts) {
+			if (sb.length()>0)
+				sb.append(SEPARATOR);
+			if (part!=null) {
+				try {
+					sb.append(URLEncoder.encode(part, StandardCharsets.UTF_8.name()));
+				} catch (UnsupportedEncodingException ex) {
+					log.log(Level.SEVERE, "Error encoding "+part, ex);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decodes the parts previously encoded with {@link #encode(String...) encode}
+	 */
+	public static String[] decode(String encoded) {
+		String[] parts = encoded.split("\\"+SEPARATOR, -1);
+		for (int i=0; i<parts.length; i++) {
+			try {
+				parts[i] = URLDecoder.decode(parts[i], StandardCharsets.UTF_8.name());
+			} catch (UnsupportedEncodingException ex) {
+				log.log(Level.SEVERE, "Error decoding "+parts[i], ex);
+			}
+		}
+		return parts;
+	}
+}
@@ -7,6 +7,7 @@
 package org.idb.cacao.etl.loader;
 
 import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.client.RequestOptions;
@@ -73,6 +74,15 @@ public class PublishedDataLoader implements ETLContext.LoadDataStrategy {
 		});
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.idb.cacao.api.ETLContext.LoadDataStrategy#deleteById(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void deleteById(String indexName, String id) {
+		request.add(new DeleteRequest(indexName, id));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.idb.cacao.api.ETLContext.LoadDataStrategy#start()
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.etl.repositories;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.utils.ScrollUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Implementation of a repository for published data for usage of ETL
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@Repository
+public class PublishedDataRepository implements ETLContext.PublishedDataRepository {
+
+	@Autowired
+	private RestHighLevelClient elasticsearchClient;
+
+	/**
+	 * Default 'batch size' for reading data from index (scroll read)
+	 */
+	private static final int DEFAULT_BATCH_SIZE = 10_000;
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.idb.cacao.api.ETLContext.PublishedDataRepository#getPublishedData(java.lang.String, org.elasticsearch.index.query.QueryBuilder)
+	 */
+	@Override
+	public Stream<Map<String, Object>> getPublishedData(String indexName, QueryBuilder query) {
+		return ScrollUtils.findWithScroll(/*entity*/null, indexName, elasticsearchClient, 
+			/*customizeSearch*/searchSourceBuilder->{
+				searchSourceBuilder.query(query);
+				searchSourceBuilder.sort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+				searchSourceBuilder.size(DEFAULT_BATCH_SIZE); // batch size
+			});
+	}
+
+}
@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.elasticsearch.action.search.SearchRequest;
@@ -23,6 +24,8 @@ import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.idb.cacao.api.DocumentUploaded;
@@ -31,6 +34,7 @@ import org.idb.cacao.api.ValidatedDataFieldNames;
 import org.idb.cacao.api.errors.CommonErrors;
 import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.templates.DocumentTemplate;
+import org.idb.cacao.api.templates.TemplatesCache;
 import org.idb.cacao.api.utils.IndexNamesUtils;
 import org.idb.cacao.api.utils.ScrollUtils;
 import org.idb.cacao.api.utils.Utils;
@@ -55,7 +59,7 @@ public class ValidatedDataRepository implements ETLContext.ValidatedDataReposito
 	private DocumentUploadedRepository documentUploadedRepository;
 	
 	@Autowired
-	private DocumentTemplateRepository documentTemplateRepository;
+	private TemplatesCache templatesCache;
 
 	/**
 	 * Default 'batch size' for reading data from index (scroll read)
@@ -68,7 +72,7 @@ public class ValidatedDataRepository implements ETLContext.ValidatedDataReposito
 	 */
 	@Override
 	public Collection<DocumentTemplate> getTemplates(String archetype) throws GeneralException {
-		return documentTemplateRepository.findByArchetype(archetype);
+		return templatesCache.getTemplatesByArchetype(archetype);
 	}
 
 	/*
@@ -136,6 +140,28 @@ public class ValidatedDataRepository implements ETLContext.ValidatedDataReposito
 			});
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.idb.cacao.api.ETLContext.ValidatedDataRepository#getValidatedDataUnsorted(java.lang.String, java.lang.String, java.lang.String, int)
+	 */
+	@Override
+	public Stream<Map<String, Object>> getValidatedDataUnsorted(String templateName, String templateVersion, String fileId,
+			int parallelism) throws GeneralException {
+		final String indexName = IndexNamesUtils.formatIndexNameForValidatedData(templateName, templateVersion);
+		final int slices = Math.max(1, parallelism);
+		
+		// Each slice is read by a different scroll (in index order, which is the cheapest for the cluster)
+		return IntStream.range(0, slices).parallel().boxed()
+			.flatMap(slice->ScrollUtils.<Map<String, Object>>findWithScroll(/*entity*/null, indexName, elasticsearchClient, 
+				/*customizeSearch*/searchSourceBuilder->{
+					searchSourceBuilder.query(QueryBuilders.termQuery(ValidatedDataFieldNames.FILE_ID.name()+".keyword", fileId));
+					searchSourceBuilder.sort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+					if (slices>1)
+						searchSourceBuilder.slice(new SliceBuilder(slice, slices));
+					searchSourceBuilder.size(DEFAULT_BATCH_SIZE); // batch size
+				}));
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.idb.cacao.api.ETLContext.ValidatedDataRepository#getValidatedData(java.lang.String, java.lang.String, java.lang.String, org.elasticsearch.index.query.QueryBuilder)
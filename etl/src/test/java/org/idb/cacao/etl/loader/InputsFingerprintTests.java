@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.etl.loader;
+
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.idb.cacao.api.DocumentSituation;
+import org.idb.cacao.api.DocumentUploaded;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.templates.DocumentTemplate;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Performs some tests with the fingerprint of the inputs considered by the ETL
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+public class InputsFingerprintTests {
+
+	/**
+	 * Repository of uploads kept in memory
+	 */
+	private static class InMemoryUploads implements ETLContext.ValidatedDataRepository {
+
+		final List<DocumentUploaded> uploads = new ArrayList<>();
+
+		@Override
+		public Collection<DocumentTemplate> getTemplates(String archetype) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Collection<DocumentUploaded> getUploads(String templateName, String templateVersion, String taxPayerId,
+				Integer taxPeriodNumber) {
+			return uploads.stream()
+				.filter(u->templateName.equals(u.getTemplateName()) && taxPayerId.equals(u.getTaxPayerId()) && taxPeriodNumber.equals(u.getTaxPeriodNumber()))
+				.collect(Collectors.toList());
+		}
+
+		@Override
+		public boolean hasValidation(String templateName, String templateVersion, String fileId) {
+			return true;
+		}
+
+		@Override
+		public Stream<Map<String, Object>> getValidatedData(String templateName, String templateVersion, String fileId,
+				Optional<String[]> sortBy, Optional<SortOrder> sortOrder) {
+			return Stream.empty();
+		}
+
+		@Override
+		public Optional<Map<String, Object>> getValidatedData(String templateName, String templateVersion, String fileId,
+				QueryBuilder query) {
+			return Optional.empty();
+		}
+
+		/**
+		 * Uploads a new file with the given contents. Previous uploads that were processed are replaced.
+		 */
+		void upload(String fileId, String hash, OffsetDateTime timestamp) {
+			for (DocumentUploaded previous: uploads) {
+				if (DocumentSituation.PROCESSED.equals(previous.getSituation()))
+					previous.setSituation(DocumentSituation.REPLACED);
+			}
+			DocumentUploaded upload = new DocumentUploaded();
+			upload.setFileId(fileId);
+			upload.setHash(hash);
+			upload.setTimestamp(timestamp);
+			upload.setTemplateName("TEMPLATE");
+			upload.setTemplateVersion("1.0");
+			upload.setTaxPayerId("123");
+			upload.setTaxPeriodNumber(202101);
+			upload.setSituation(DocumentSituation.PROCESSED);
+			uploads.add(upload);
+		}
+
+	}
+
+	/**
+	 * Runs the same query the ETL would run and returns the fingerprint
+	 */
+	private static InputsFingerprint runQueries(ETLContext.ValidatedDataRepository repository) throws Exception {
+		InputsFingerprint fingerprint = new InputsFingerprint();
+		fingerprint.track(repository).getUploads("TEMPLATE", "1.0", "123", 202101);
+		return fingerprint;
+	}
+
+	/**
+	 * Test that the fingerprint does not change if nothing was uploaded, and that it changes if some older contents
+	 * were uploaded again (A, then B, then A again)
+	 */
+	@Test
+	public void testUploadAgainOlderContents() throws Exception {
+
+		InMemoryUploads repository = new InMemoryUploads();
+		OffsetDateTime start = OffsetDateTime.parse("2021-01-10T10:00:00Z");
+
+		repository.upload("file1", "A", start);
+		String fingerprintA = runQueries(repository).getFingerprint();
+
+		repository.upload("file2", "B", start.plusHours(1));
+		InputsFingerprint afterB = runQueries(repository);
+		String fingerprintB = afterB.getFingerprint();
+		assertNotEquals(fingerprintA, fingerprintB);
+
+		// Nothing changed
+		assertEquals(fingerprintB, InputsFingerprint.replay(afterB.getQueries(), repository, null).getFingerprint());
+
+		// Same contents as the first one, so the distinct contents are still A and B, but A prevails now
+		repository.upload("file3", "A", start.plusHours(2));
+		String fingerprintABA = InputsFingerprint.replay(afterB.getQueries(), repository, null).getFingerprint();
+		assertNotEquals(fingerprintB, fingerprintABA);
+		assertNotEquals(fingerprintA, fingerprintABA);
+	}
+
+	/**
+	 * Test that uploading again the same contents as the prevailing upload does not change the fingerprint
+	 */
+	@Test
+	public void testUploadAgainSameContents() throws Exception {
+
+		InMemoryUploads repository = new InMemoryUploads();
+		OffsetDateTime start = OffsetDateTime.parse("2021-01-10T10:00:00Z");
+
+		repository.upload("file1", "A", start);
+		repository.upload("file2", "B", start.plusHours(1));
+		InputsFingerprint afterB = runQueries(repository);
+
+		repository.upload("file3", "B", start.plusHours(2));
+		assertEquals(afterB.getFingerprint(), InputsFingerprint.replay(afterB.getQueries(), repository, null).getFingerprint());
+	}
+
+	/**
+	 * Test that the description of uploads does not depend on the order of the query results
+	 */
+	@Test
+	public void testDescriptionIndependentOfOrder() throws Exception {
+
+		InMemoryUploads repository = new InMemoryUploads();
+		OffsetDateTime start = OffsetDateTime.parse("2021-01-10T10:00:00Z");
+		repository.upload("file1", "A", start);
+		repository.upload("file2", "B", start);
+		repository.upload("file3", "C", start.minusHours(1));
+
+		String description = InputsFingerprint.describeUploads(repository.uploads);
+		List<DocumentUploaded> reversed = new ArrayList<>(repository.uploads);
+		Collections.reverse(reversed);
+		assertEquals(description, InputsFingerprint.describeUploads(reversed));
+	}
+
+}
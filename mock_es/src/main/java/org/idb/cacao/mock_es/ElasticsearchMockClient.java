@@ -22,6 +22,7 @@ import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -30,6 +31,9 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * This is a 'mocked' ElasticSearch client. It may be used for unit testing
@@ -118,7 +122,7 @@ public class ElasticsearchMockClient {
 				.respond(toHttpResponse(new JSONObject(map("took", 10, "errors", false, "items", new JSONArray()))));
 		
 		// Update a document
-		this.mockServer.when(HttpRequest.request().withPath(".*/_doc/.+").withMethod("PUT")).respond(putDocument());		
+		this.mockServer.when(HttpRequest.request().withPath(".*/(_doc|_create)/.+").withMethod("PUT")).respond(putDocument());		
 
 		// Create index
 		this.mockServer.when(HttpRequest.request().withMethod("PUT")).respond(createIndex());
@@ -205,8 +209,9 @@ public class ElasticsearchMockClient {
 						Map<String,Object> indexRequest = (Map<String, Object>) requestBody.get("index");
 						if (indexRequest!=null) {
 							String indexName = (String)indexRequest.get("_index");
+							String id = (String)indexRequest.get("_id");
 							nextOperation = (record)->{
-								JSONObject response = newDocument(indexName, record);	
+								JSONObject response = newDocument(indexName, id, record);	
 								responseBody.add(map("index",response));
 							};
 						}
@@ -214,8 +219,9 @@ public class ElasticsearchMockClient {
 						Map<String,Object> createRequest = (Map<String, Object>) requestBody.get("create");
 						if (createRequest!=null) {
 							String indexName = (String)createRequest.get("_index");
+							String id = (String)createRequest.get("_id");
 							nextOperation = (record)->{
-								JSONObject response = newDocument(indexName, record);	
+								JSONObject response = newDocument(indexName, id, record);	
 								responseBody.add(map("create",response));
 							};
 						}
@@ -270,13 +276,21 @@ public class ElasticsearchMockClient {
 	}
 	
 	public JSONObject newDocument(String index_name, Map<String, Object> fields) {
+		return newDocument(index_name, /*id*/null, fields);
+	}
+
+	/**
+	 * Put into the index a document with the provided ID (replacing any previous one with the same ID), or with
+	 * a new ID if NULL
+	 */
+	public JSONObject newDocument(String index_name, String provided_id, Map<String, Object> fields) {
 		MockedIndex mocked_index = map_indices.get(index_name);
 		if (mocked_index == null) {
 			mocked_index = new MockedIndex();
 			mocked_index.setName(index_name);
 			map_indices.put(index_name, mocked_index);
 		}
-		String id = UUID.randomUUID().toString();
+		String id = (provided_id == null) ? UUID.randomUUID().toString() : provided_id;
 		fields.put("_id", id);
 		fields.put("_index", index_name);
 		fields.put("_version", 1);
@@ -620,6 +634,8 @@ public class ElasticsearchMockClient {
 				String json = mapper.writeValueAsString(query_properties);
 				throw new UnsupportedOperationException("Missing 'fields' at query properties: " + json);
 			}
+			// Something like '"a" "b"' (any of the quoted values) is what Spring Data generates for 'In' queries
+			final List<String> any_of_values = parseQuotedValues(query);
 			return new Predicate<Map<?, ?>>() {
 				@Override
 				public boolean test(Map<?, ?> doc) {
@@ -631,6 +647,10 @@ public class ElasticsearchMockClient {
 						if (s_value != null && s_value.equalsIgnoreCase(query)) {
 							return true;
 						}
+						if (s_value != null && any_of_values != null 
+								&& any_of_values.stream().anyMatch(s_value::equalsIgnoreCase)) {
+							return true;
+						}
 					}
 					return false;
 				}
@@ -638,6 +658,10 @@ public class ElasticsearchMockClient {
 		} 
 		else {
 			
+			if (query_properties.get("bool") != null) {
+				return parseQuery(query_properties);
+			}
+
 			Object match_query = query_properties.get("match");
 			if (match_query != null) {
 				if (!(match_query instanceof Map))
@@ -680,12 +704,50 @@ public class ElasticsearchMockClient {
 				};
 			}
 
+			Object terms_query = query_properties.get("terms");
+			if (terms_query != null) {
+				if (!(terms_query instanceof Map))
+					throw new UnsupportedOperationException(
+						"Unexpected value type for 'terms' query: "
+									+ terms_query.getClass().getName());
+				Map.Entry<?,?> terms_query_entry = ((Map<?,?>)terms_query).entrySet().stream()
+						.filter(e->!"boost".equals(e.getKey())).findFirst().orElse(null);
+				if (terms_query_entry == null || !(terms_query_entry.getValue() instanceof List))
+					throw new UnsupportedOperationException(
+						"Missing list of values for 'terms' query");
+				String field_name_to_match = (String)terms_query_entry.getKey();
+				final List<String> values_to_match = ((List<?>)terms_query_entry.getValue()).stream()
+						.map(ElasticsearchMockClient::toStringValue).collect(Collectors.toList());
+				return new Predicate<Map<?, ?>>() {
+					@Override
+					public boolean test(Map<?, ?> doc) {
+						String value = toStringValue( doc.get(treatFieldName(field_name_to_match)) );
+						return value != null && values_to_match.stream().anyMatch(value::equalsIgnoreCase);
+					}
+				};
+			}
+
 			ObjectMapper mapper = new ObjectMapper();
 			String json = mapper.writeValueAsString(query_properties);
 			throw new UnsupportedOperationException("Unexpected query properties: " + json);
 		}
 	}
 
+	/**
+	 * Returns the values of a query string made only of quoted values separated by spaces (e.g. '"a" "b"'), or
+	 * NULL if the query string has any other form
+	 */
+	public static List<String> parseQuotedValues(String query) {
+		Matcher m = Pattern.compile("\\G\\s*\"((?:[^\"\\\\]|\\\\.)*)\"\\s*").matcher(query);
+		List<String> values = new ArrayList<>();
+		int end = 0;
+		while (m.find()) {
+			values.add(m.group(1).replaceAll("\\\\(.)", "$1"));
+			end = m.end();
+		}
+		return (values.isEmpty() || end != query.length()) ? null : values;
+	}
+
 	/**
 	 * Do some minor treatments over field names for this simple test cases
 	 * (discards unused and unsupported features like 'fuzzyness')
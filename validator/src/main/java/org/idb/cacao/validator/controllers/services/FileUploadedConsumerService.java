@@ -34,6 +34,7 @@ import java.util.stream.Collectors;
 
 import javax.validation.ValidationException;
 
+import org.idb.cacao.api.DocumentEvent;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentSituationHistory;
 import org.idb.cacao.api.DocumentUploaded;
@@ -53,16 +54,15 @@ import org.idb.cacao.api.templates.DocumentTemplate;
 import org.idb.cacao.api.templates.FieldMapping;
 import org.idb.cacao.api.templates.TemplateArchetype;
 import org.idb.cacao.api.templates.TemplateArchetypes;
+import org.idb.cacao.api.templates.TemplatesCache;
 import org.idb.cacao.api.utils.DateTimeUtils;
 import org.idb.cacao.validator.fileformats.FileFormat;
 import org.idb.cacao.validator.fileformats.FileFormatFactory;
 import org.idb.cacao.validator.parsers.DataIterator;
 import org.idb.cacao.validator.parsers.FileParser;
 import org.idb.cacao.validator.repositories.DocumentSituationHistoryRepository;
-import org.idb.cacao.validator.repositories.DocumentTemplateRepository;
 import org.idb.cacao.validator.repositories.DocumentUploadedRepository;
 import org.idb.cacao.validator.repositories.DocumentValidationErrorMessageRepository;
-import org.idb.cacao.validator.repositories.DomainTableRepository;
 import org.idb.cacao.validator.validations.Validations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -89,7 +89,7 @@ public class FileUploadedConsumerService {
 	private DocumentUploadedRepository documentsUploadedRepository;
 
 	@Autowired
-	private DocumentTemplateRepository documentTemplateRepository;
+	private TemplatesCache templatesCache;
 
 	@Autowired
 	private DocumentSituationHistoryRepository documentsSituationHistoryRepository;
@@ -103,9 +103,6 @@ public class FileUploadedConsumerService {
 	@Autowired
 	private ValidatedDataStorageService validatedDataStorageService;
 
-	@Autowired
-	private DomainTableRepository domainTableRepository;
-	
 	@Autowired
 	private UsersTaxpayersService usersTaxpayersService;
 
@@ -123,16 +120,22 @@ public class FileUploadedConsumerService {
 
 	@Bean
 	public Consumer<String> receiveAndValidateFile() {
-		return documentId -> {
+		return payload -> {
+			DocumentEvent event = DocumentEvent.parse(payload);
+			if (event==null || event.getDocumentId()==null) {
+				log.log(Level.WARNING, "Ignoring invalid message {0}", payload);
+				return;
+			}
+			final String documentId = event.getDocumentId();
 			log.log(Level.INFO, "Received message with documentId {0}", documentId);
 
 			try {
-				Boolean validated = validateDocument(documentId);
+				Optional<DocumentEvent> validated = validateDocument(event);
 
-				if (validated.booleanValue()) {
+				if (validated.isPresent()) {
 					log.log(Level.INFO, "Sending a message to ETL with documentId {0}", documentId);
 
-					streamBridge.send("receiveAndValidateFile-out-0", documentId);
+					streamBridge.send("receiveAndValidateFile-out-0", validated.get().toPayload());
 				}
 
 			} catch (MissingConfigurationException e) {
@@ -148,9 +151,22 @@ public class FileUploadedConsumerService {
 	 *
 	 * @param documentId The ID of {@link DocumentUploaded} that needs to be
 	 *                   validated
-	 * @return DocumentId if the document has been validated. NULL if it doesn't.
+	 * @return TRUE if the document has been validated. FALSE if it doesn't.
 	 */
 	public Boolean validateDocument(String documentId) throws GeneralException, DocumentNotFoundException {
+		return validateDocument(DocumentEvent.of(documentId)).isPresent();
+	}
+
+	/**
+	 * Try to validate a given uploaded document
+	 *
+	 * @param event The event received about the {@link DocumentUploaded} that needs to be
+	 *                   validated
+	 * @return The event to be published to the ETL if the document has been validated. Empty if it doesn't.
+	 */
+	public Optional<DocumentEvent> validateDocument(DocumentEvent event) throws GeneralException, DocumentNotFoundException {
+
+		final String documentId = event.getDocumentId();
 
 		log.log(Level.INFO, "Received a message with documentId {0}", documentId);
 
@@ -163,7 +179,7 @@ public class FileUploadedConsumerService {
 		Long mark = processingDocument.compute(documentId, (id,prev)->(prev==null)?System.currentTimeMillis() : -1);
 		if (mark<0) {
 			log.log(Level.INFO, "Ignoring this message because there is a concurrent process of the same document id");
-			return false;
+			return Optional.empty();
 		}
 		try {
 			// Recovering the document from the database
@@ -176,9 +192,9 @@ public class FileUploadedConsumerService {
 			// Sets the document to validation context
 			validationContext.setDocumentUploaded(doc);
 			
-			Validations validations = new Validations(validationContext, domainTableRepository);
+			Validations validations = new Validations(validationContext, templatesCache.getDomainTableRepository());
 
-			Optional<DocumentTemplate> opTemplate = documentTemplateRepository.findByNameAndVersion(doc.getTemplateName(),
+			Optional<DocumentTemplate> opTemplate = templatesCache.getTemplate(doc.getTemplateName(),
 					doc.getTemplateVersion());
 			if (!opTemplate.isPresent()) {
 				doc = setSituation(doc, DocumentSituation.INVALID);
@@ -572,7 +588,8 @@ public class FileUploadedConsumerService {
 			doc = setSituation(doc, DocumentSituation.VALID);
 			validationContext.setDocumentUploaded(doc);
 
-			return true;
+			// The taxpayer and period are known only now, after validation
+			return Optional.of(DocumentEvent.of(doc).withFileSize(event.getFileSize()));
 
 		} catch (GeneralException ex) {
 			callRollbackProcedures(rollbackProcedures);
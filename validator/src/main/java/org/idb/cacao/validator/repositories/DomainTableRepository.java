@@ -9,6 +9,7 @@ package org.idb.cacao.validator.repositories;
 import java.util.List;
 import java.util.Optional;
 
+import org.idb.cacao.api.ETLContext;
 import org.idb.cacao.api.templates.DomainTable;
 import org.idb.cacao.api.utils.DateTimeUtils;
 import org.springframework.data.elasticsearch.annotations.Query;
@@ -22,7 +23,7 @@ import org.springframework.stereotype.Repository;
  *
  */
 @Repository
-public interface DomainTableRepository extends ElasticsearchRepository<DomainTable, String> {
+public interface DomainTableRepository extends ElasticsearchRepository<DomainTable, String>, ETLContext.DomainTableRepository {
 
 	@Query("{\"match\": {\"name.keyword\": {\"query\": \"?0\"}}}")
 	public List<DomainTable> findByName(String name);
@@ -44,6 +44,7 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.idb.cacao.api.DocumentUploaded;
+import org.idb.cacao.api.ETLContext.DomainTableRepository;
 import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.templates.DocumentField;
 import org.idb.cacao.api.templates.DocumentTemplate;
@@ -53,7 +54,6 @@ import org.idb.cacao.api.templates.FieldMapping;
 import org.idb.cacao.api.templates.FieldType;
 import org.idb.cacao.api.utils.DateTimeUtils;
 import org.idb.cacao.api.utils.ParserUtils;
-import org.idb.cacao.validator.repositories.DomainTableRepository;
 
 /**
  * A set of utilities methods for file content validation purpose. <br>
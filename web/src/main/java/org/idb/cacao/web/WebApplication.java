@@ -15,7 +15,9 @@ import javax.annotation.PostConstruct;
 import org.idb.cacao.api.CommonApplication;
 import org.idb.cacao.api.storage.FileSystemStorageService;
 import org.idb.cacao.web.controllers.rest.SyncAPIController;
+import org.idb.cacao.web.controllers.services.ApiTokenService;
 import org.idb.cacao.web.controllers.services.ConfigSyncService;
+import org.idb.cacao.web.controllers.services.DocumentStoreService;
 import org.idb.cacao.web.controllers.services.DomainTableService;
 import org.idb.cacao.web.controllers.services.KeyStoreService;
 import org.idb.cacao.web.controllers.services.KibanaSpacesService;
@@ -23,6 +25,7 @@ import org.idb.cacao.web.controllers.services.ResourceMonitorService;
 import org.idb.cacao.web.controllers.services.SanitizationService;
 import org.idb.cacao.web.controllers.services.SyncAPIService;
 import org.idb.cacao.web.controllers.services.UserService;
+import org.idb.cacao.web.controllers.services.ZipUploadService;
 import org.idb.cacao.web.controllers.ui.AdminUIController;
 import org.idb.cacao.web.entities.ConfigSync;
 import org.idb.cacao.web.entities.SyncPeriodicity;
@@ -79,6 +82,15 @@ public class WebApplication extends CommonApplication {
 	@Autowired
 	private FileSystemStorageService fileSystemStorageService;
 
+	@Autowired
+	private ApiTokenService apiTokenService;
+
+	@Autowired
+	private DocumentStoreService documentStoreService;
+
+	@Autowired
+	private ZipUploadService zipUploadService;
+
 	/**
 	 * This is the entrypoint for the entire web application
 	 */
@@ -129,6 +141,13 @@ public class WebApplication extends CommonApplication {
 	@Override
 	public void startupCode() {
 		userService.assertInitialSetup();		
+
+		try {
+			apiTokenService.computeMissingDigests();
+		}
+		catch (Exception ex) {
+			log.log(Level.SEVERE, "Error while computing the digest of API tokens", ex);
+		}
 		
 		try {
 			log.log(Level.INFO, "Root directory for incoming files: "+fileSystemStorageService.getRootLocation().toFile().getAbsolutePath());
@@ -175,6 +194,22 @@ public class WebApplication extends CommonApplication {
 			log.log(Level.SEVERE, "Error during initialization", ex);
 		}
 
+		try {
+			zipUploadService.removeOrphans();
+		}
+		catch (Exception ex) {
+			log.log(Level.SEVERE, "Error while removing files left behind by interrupted ZIP uploads", ex);
+		}
+
+		try {
+			if (!ControllerUtils.isJUnitTest() && !ControllerUtils.hasMockES()) {
+				documentStoreService.backfillFilingHistory();
+			}
+		}
+		catch (Exception ex) {
+			log.log(Level.SEVERE, "Error while backfilling the filing history", ex);
+		}
+
 		try {
 			ConfigSync configSync = configSyncService.getActiveConfig();
 			if (configSync!=null && !SyncPeriodicity.NONE.equals(configSync.getPeriodicity())) {
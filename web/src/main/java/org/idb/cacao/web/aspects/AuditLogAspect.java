@@ -26,14 +26,12 @@ import org.idb.cacao.api.AuditTrail;
 import org.idb.cacao.api.AuthenticationMethod;
 import org.idb.cacao.api.ValidationContext;
 import org.idb.cacao.api.utils.IndexNamesUtils;
+import org.idb.cacao.web.controllers.services.AuditTrailService;
 import org.idb.cacao.web.entities.User;
-import org.idb.cacao.web.repositories.AuditTrailRepository;
 import org.idb.cacao.web.sec.ApiKeyAuthenticationToken;
 import org.idb.cacao.web.utils.ControllerUtils;
 import org.idb.cacao.web.utils.UserUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.core.task.TaskExecutor;
 import org.springframework.data.annotation.Id;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -68,14 +66,10 @@ public class AuditLogAspect {
 	private final Map<Class<?>, AuditTrailParameterCollector> mapAuditTrailParametersCollectors;
 
 	/**
-	 * Repository for storing all audit trail entries
+	 * Service for storing all audit trail entries (buffered and written in bulk)
 	 */
 	@Autowired
-	private AuditTrailRepository auditRepo;
-	
-	@Autowired
-	@Qualifier("AuditTrailTaskExecutor")
-	private TaskExecutor taskExecutor;
+	private AuditTrailService auditTrailService;
 
 	//@Pointcut("execution(* org.idb.cacao.web.controllers.rest.*.*(..))")
 	//public void pointCutForRestControllerMethods() {};
@@ -109,14 +103,7 @@ public class AuditLogAspect {
 		if (auditTrailEntry==null)
 			return;
 		
-		taskExecutor.execute(()->{
-			try {
-				auditRepo.saveWithTimestamp(auditTrailEntry);
-			}
-			catch (Exception ex) {
-				// Ignores errors storing this information
-			}
-		});
+		auditTrailService.add(auditTrailEntry);
 		
 		//Object returnValue = joinPoint.proceed();
 		//return returnValue;
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.conf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.idb.cacao.web.utils.BoundedCache;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.AbstractCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Configuration of the caches used with Spring 'Cacheable' annotations.<BR>
+ * <BR>
+ * Every cache is a {@link BoundedCache BoundedCache} with limited size and time to live. The limits may be configured
+ * for each cache with the properties 'cache.&lt;name&gt;.max.weight' and 'cache.&lt;name&gt;.ttl.minutes', otherwise
+ * the 'cache.default.*' properties are used.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Configuration
+public class CacheConfiguration {
+
+	/**
+	 * Caches created at startup. Other caches are created on first use.
+	 */
+	public static final String[] KNOWN_CACHES = { "accounts", "qualifierValues", "years" };
+
+	public static final long DEFAULT_MAX_WEIGHT = 100_000;
+
+	public static final long DEFAULT_TTL_MINUTES = 60;
+
+	@Bean
+	public CacheManager cacheManager(Environment env) {
+		return new AbstractCacheManager() {
+
+			@Override
+			protected Collection<? extends Cache> loadCaches() {
+				List<Cache> caches = new ArrayList<>(KNOWN_CACHES.length);
+				Arrays.stream(KNOWN_CACHES).map(name->newCache(env, name)).forEach(caches::add);
+				return caches;
+			}
+
+			@Override
+			protected Cache getMissingCache(String name) {
+				return newCache(env, name);
+			}
+
+		};
+	}
+
+	/**
+	 * Creates a new cache according to the configuration
+	 */
+	private static BoundedCache newCache(Environment env, String name) {
+		long defaultMaxWeight = env.getProperty("cache.default.max.weight", Long.class, DEFAULT_MAX_WEIGHT);
+		long defaultTtlMinutes = env.getProperty("cache.default.ttl.minutes", Long.class, DEFAULT_TTL_MINUTES);
+		return new BoundedCache(name,
+				env.getProperty("cache."+name+".max.weight", Long.class, defaultMaxWeight),
+				env.getProperty("cache."+name+".ttl.minutes", Long.class, defaultTtlMinutes));
+	}
+}
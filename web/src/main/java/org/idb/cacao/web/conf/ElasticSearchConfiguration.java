@@ -7,13 +7,16 @@
 package org.idb.cacao.web.conf;
 
 import org.elasticsearch.client.RestHighLevelClient;
+import org.idb.cacao.api.FilingHistoryUpdater;
 import org.idb.cacao.api.utils.ElasticClientFactory;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.Environment;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
 import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
 
@@ -41,5 +44,13 @@ public class ElasticSearchConfiguration {
     public ElasticsearchRestTemplate elasticsearchTemplate(RestHighLevelClient client) {
         return new ElasticsearchRestTemplate(client);
     }
+
+    /**
+     * Keeps the filing history of taxpayers up to date whenever an uploaded document is saved with its taxpayer and period
+     */
+    @Bean
+    public FilingHistoryUpdater filingHistoryUpdater(@Lazy ElasticsearchOperations operations) {
+    	return new FilingHistoryUpdater(operations);
+    }
 	
 }
@@ -7,9 +7,13 @@
 package org.idb.cacao.web.conf;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Date;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -20,19 +24,25 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.ssl.SSLContexts;
 import org.apache.http.ssl.TrustStrategy;
+import org.apache.http.util.EntityUtils;
 import org.idb.cacao.api.utils.ElasticClientFactory;
 import org.idb.cacao.web.controllers.services.ElasticSearchService;
 import org.idb.cacao.web.controllers.services.UserService;
 import org.idb.cacao.web.entities.User;
 import org.idb.cacao.web.utils.ControllerUtils;
+import org.idb.cacao.web.utils.KeepAliveStrategy;
 import org.springframework.beans.BeansException;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.EnvironmentAware;
@@ -44,6 +54,9 @@ import org.springframework.core.env.Environment;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Configuration of a PROXY to the Kibana User Interface through CACAO web application<BR>
  * <BR>
@@ -80,9 +93,47 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 	public static final Pattern BLOCK_LIST = Pattern.compile("(?>/tutorial|/ingest_manager|/api/sample_data)", Pattern.CASE_INSENSITIVE);
 	
 	/**
-	 * Small time elapsed in milliseconds. Prevent checking again user profiles repeatedly.
+	 * Pattern for URI's of versioned static assets of Kibana (e.g. '/kibana/40150/bundles/...'). The build number or hash
+	 * is part of the path, so the contents of these URI's never change.
+	 */
+	public static final Pattern VERSIONED_STATIC_ASSETS = Pattern.compile("^/(?:\\d+|[0-9a-f]{8,})/bundles/", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Default time to live (in minutes) of user access checks, unless otherwise configured with 'kibana.proxy.access.ttl.minutes'.
+	 * The checks are also performed again whenever the user changes.
+	 */
+	public static final long DEFAULT_ACCESS_CHECK_TTL_MINUTES = 30;
+
+	/**
+	 * Default maximum number of connections to Kibana, unless otherwise configured with 'kibana.proxy.max.connections'
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+	/**
+	 * Default time (in milliseconds) an idle connection to Kibana is kept alive, unless Kibana tells otherwise
 	 */
-	public static final long SMALL_TIME_ELAPSED_AVOID_REDUNDANT_CHECK_USER_PROFILE = 2000;
+	public static final long DEFAULT_KEEP_ALIVE_TIMEOUT_MS = 60_000;
+
+	/**
+	 * Default maximum total size of static assets kept in memory, unless otherwise configured with 'kibana.proxy.cache.max.bytes'
+	 */
+	public static final long DEFAULT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * Default maximum size of each static asset kept in memory, unless otherwise configured with 'kibana.proxy.cache.max.asset.bytes'
+	 */
+	public static final long DEFAULT_CACHE_MAX_ASSET_BYTES = 8L * 1024 * 1024;
+
+	/**
+	 * Default time to live (in minutes) of static assets kept in memory, unless otherwise configured with 'kibana.proxy.cache.ttl.minutes'
+	 */
+	public static final long DEFAULT_CACHE_TTL_MINUTES = 24 * 60;
+
+	/**
+	 * Response headers kept together with the static assets
+	 */
+	private static final String[] CACHED_HEADERS = { HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_ENCODING, HttpHeaders.ETAG,
+			HttpHeaders.LAST_MODIFIED, HttpHeaders.CACHE_CONTROL, HttpHeaders.VARY };
 
 	private Environment propertyResolver;
 	
@@ -105,6 +156,8 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 				"/kibana/*");
 		servletRegistrationBean.addInitParameter("targetUri", (isSSL()?"https":"http")+"://"+getKibanaHost()+":"+getKibanaPort()+getKibanaEndpoint());
 		servletRegistrationBean.addInitParameter("log", "false");
+		servletRegistrationBean.addInitParameter(org.mitre.dsmiley.httpproxy.ProxyServlet.P_MAXCONNECTIONS, 
+				propertyResolver.getProperty("kibana.proxy.max.connections", String.valueOf(DEFAULT_MAX_CONNECTIONS)));
 		return servletRegistrationBean;
 	}
 
@@ -160,10 +213,26 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 		private static char[] espass;
 		private final Map<String, CheckedUserStatus> checkedUserStatusMap;
 		private final boolean presentationMode;
+		private final long accessCheckTtlMillis;
+		private final long maxAssetBytes;
+		private final Cache<String, StaticAsset> staticAssets;
 
 		public KibanaProxy(Environment propertyResolver, ApplicationContext app) {
 			this.checkedUserStatusMap = new ConcurrentHashMap<>();
 			this.presentationMode = "true".equalsIgnoreCase(propertyResolver.getProperty("presentation.mode"));
+			this.accessCheckTtlMillis = TimeUnit.MINUTES.toMillis(propertyResolver.getProperty("kibana.proxy.access.ttl.minutes", Long.class, DEFAULT_ACCESS_CHECK_TTL_MINUTES));
+			long cacheMaxBytes = propertyResolver.getProperty("kibana.proxy.cache.max.bytes", Long.class, DEFAULT_CACHE_MAX_BYTES);
+			this.maxAssetBytes = Math.min(cacheMaxBytes, propertyResolver.getProperty("kibana.proxy.cache.max.asset.bytes", Long.class, DEFAULT_CACHE_MAX_ASSET_BYTES));
+			if (cacheMaxBytes>0) {
+				this.staticAssets = CacheBuilder.newBuilder()
+						.maximumWeight(cacheMaxBytes)
+						.weigher((String key, StaticAsset asset)->asset.body.length)
+						.expireAfterWrite(propertyResolver.getProperty("kibana.proxy.cache.ttl.minutes", Long.class, DEFAULT_CACHE_TTL_MINUTES), TimeUnit.MINUTES)
+						.build();
+			}
+			else {
+				this.staticAssets = null;
+			}
 			if (!presentationMode) {
 				KibanaProxy.sslVerifyHost = !"false".equalsIgnoreCase(propertyResolver.getProperty("es.ssl.verifyhost"));
 				KibanaProxy.userService = app.getBean(UserService.class);
@@ -200,7 +269,11 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 
 		@Override
 		protected HttpClientBuilder getHttpClientBuilder() {
-			HttpClientBuilder builder = super.getHttpClientBuilder();
+			// Keeps a pool of persistent connections to Kibana (the pool size is given by 'maxConnections' init parameter)
+			HttpClientBuilder builder = super.getHttpClientBuilder()
+					.setKeepAliveStrategy(new KeepAliveStrategy(DEFAULT_KEEP_ALIVE_TIMEOUT_MS))
+					.evictExpiredConnections()
+					.evictIdleConnections(DEFAULT_KEEP_ALIVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
 			if (!sslVerifyHost) {
 				try {
 					TrustStrategy acceptingTrustStrategy = (cert, authType) -> true;
@@ -237,6 +310,20 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 				servletResponse.getWriter().write("Not authenticated");                    
 				return;
 			}
+			
+			// Versioned static assets are the same for all users. If we already have it, there is no need to check the user
+			// account or to forward the request.
+			final String staticAssetKey = getStaticAssetKey(servletRequest);
+			if (staticAssetKey!=null) {
+				StaticAsset asset = staticAssets.getIfPresent(staticAssetKey);
+				if (asset!=null) {
+					asset.writeTo(servletRequest, servletResponse);
+					return;
+				}
+				// Pass information to be consumed in 'copyResponseEntity'
+				servletRequest.setAttribute("kibana.proxy.assetkey", staticAssetKey);
+			}
+			
 			User user = userService.getUser(auth);
 			if (user==null) {
 				servletResponse.setStatus(HttpStatus.SC_UNAUTHORIZED); // 401
@@ -277,17 +364,19 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 		 * @param user User object account. Must be the same object persisted in database
 		 */
 		protected CheckedUserStatus checkUserAccountForKibanaAccess(User user) throws IOException {
-			// Before we verify user account, let's check when we performed these same checks for this user last time
+			// Before we verify user account, let's check if we already performed these same checks for this user
+			// and if the user has not changed since then
+			final int userFingerprint = getUserFingerprint(user);
 			CheckedUserStatus checkedUserStatus = checkedUserStatusMap.get(user.getId());
-			if (checkedUserStatus!=null && (System.currentTimeMillis()-checkedUserStatus.timestamp)<SMALL_TIME_ELAPSED_AVOID_REDUNDANT_CHECK_USER_PROFILE) {
-				// Avoid too much redundant validations at a short period of time 
+			if (isStillValid(checkedUserStatus, userFingerprint)) {
+				// Avoid redundant validations for each resource
 				return checkedUserStatus;
 			}
 			synchronized (SYNC_OBJECT_PER_LOGIN.computeIfAbsent(user.getLogin(),k->new Object())) {
-				// Repeat the same temporal check again (due to possible concurrent requests from the same user)
+				// Repeat the same check again (due to possible concurrent requests from the same user)
 				checkedUserStatus = checkedUserStatusMap.get(user.getId());
-				if (checkedUserStatus!=null && (System.currentTimeMillis()-checkedUserStatus.timestamp)<SMALL_TIME_ELAPSED_AVOID_REDUNDANT_CHECK_USER_PROFILE) {
-					// Avoid too much redundant validations at a short period of time 
+				if (isStillValid(checkedUserStatus, userFingerprint)) {
+					// Avoid redundant validations for each resource
 					return checkedUserStatus;
 				}
 				
@@ -338,14 +427,68 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 
 				}
 				
-				// Prevent multiple successive checks like the ones above for multiple resources accessed in a short period of time
-				// from the same user
+				// Prevent multiple successive checks like the ones above for multiple resources accessed by the same user
+				// while the user does not change. Note that the user object may have been changed by the checks above, so
+				// we keep the fingerprint taken before the checks. This will trigger one more check at the next request.
 				checkedUserStatus.timestamp = System.currentTimeMillis();
+				checkedUserStatus.userFingerprint = userFingerprint;
 				checkedUserStatusMap.put(user.getId(), checkedUserStatus);
 				
 				return checkedUserStatus;
 			}
 		}
+		
+		/**
+		 * Returns a number that changes whenever any information about the user that is relevant to the access checks changes
+		 */
+		private static int getUserFingerprint(User user) {
+			return Objects.hash(user.getLogin(), user.getProfile(), user.getKibanaSpace(), user.getKibanaToken(), user.isActive());
+		}
+		
+		/**
+		 * Returns TRUE if the previous access checks may be used for the user with the given fingerprint
+		 */
+		private boolean isStillValid(CheckedUserStatus checkedUserStatus, int userFingerprint) {
+			return checkedUserStatus!=null 
+					&& checkedUserStatus.userFingerprint==userFingerprint
+					&& (System.currentTimeMillis()-checkedUserStatus.timestamp)<accessCheckTtlMillis;
+		}
+		
+		/**
+		 * Returns the key for keeping in cache the response to the request if it's related to a versioned static asset of Kibana.
+		 * Returns NULL otherwise.
+		 */
+		private String getStaticAssetKey(HttpServletRequest servletRequest) {
+			if (staticAssets==null || !"GET".equalsIgnoreCase(servletRequest.getMethod()))
+				return null;
+			String path = servletRequest.getPathInfo();
+			if (path==null || !VERSIONED_STATIC_ASSETS.matcher(path).find())
+				return null;
+			// The response content may be compressed according to the encodings accepted by the client
+			String query = servletRequest.getQueryString();
+			String acceptEncoding = servletRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+			return String.join("|", path, (query==null) ? "" : query, (acceptEncoding==null) ? "" : acceptEncoding);
+		}
+		
+		@Override
+		protected void copyResponseEntity(HttpResponse proxyResponse, HttpServletResponse servletResponse,
+				HttpRequest proxyRequest, HttpServletRequest servletRequest) throws IOException {
+			String staticAssetKey = (String)servletRequest.getAttribute("kibana.proxy.assetkey");
+			HttpEntity entity = proxyResponse.getEntity();
+			if (staticAssetKey==null
+					|| entity==null
+					|| proxyResponse.getStatusLine().getStatusCode()!=HttpStatus.SC_OK
+					|| entity.getContentLength()<0 
+					|| entity.getContentLength()>maxAssetBytes
+					|| proxyResponse.containsHeader("Set-Cookie")
+					|| !StaticAsset.isCacheable(proxyResponse.getFirstHeader(HttpHeaders.CACHE_CONTROL))) {
+				super.copyResponseEntity(proxyResponse, servletResponse, proxyRequest, servletRequest);
+				return;
+			}
+			StaticAsset asset = new StaticAsset(proxyResponse, EntityUtils.toByteArray(entity));
+			staticAssets.put(staticAssetKey, asset);
+			servletResponse.getOutputStream().write(asset.body);
+		}
 	
 		@Override
 		protected void copyRequestHeaders(HttpServletRequest servletRequest, HttpRequest proxyRequest) {
@@ -362,13 +505,106 @@ public class KibanaProxyServletConfiguration implements EnvironmentAware, Applic
 		}
 		
 		/**
-		 * This object holds information checked about some user account. It's preserved for a short time in memory.
+		 * This object holds information checked about some user account. It's preserved in memory while the user does not change.
 		 */
 		private static class CheckedUserStatus {
 			long timestamp;
+			int userFingerprint;
 			String username;
 			String usertoken;
 		}
+		
+		/**
+		 * This object holds the contents of a static asset of Kibana, together with the response headers needed
+		 * for conditional requests (ETag and Last-Modified)
+		 */
+		private static class StaticAsset {
+			final Header[] headers;
+			final String etag;
+			final long lastModified;
+			final byte[] body;
+			
+			StaticAsset(HttpResponse response, byte[] body) {
+				this.headers = Arrays.stream(CACHED_HEADERS)
+						.map(response::getFirstHeader)
+						.filter(Objects::nonNull)
+						.toArray(Header[]::new);
+				Header etagHeader = response.getFirstHeader(HttpHeaders.ETAG);
+				this.etag = (etagHeader==null) ? null : etagHeader.getValue();
+				Header lastModifiedHeader = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+				Date lastModifiedDate = (lastModifiedHeader==null) ? null : DateUtils.parseDate(lastModifiedHeader.getValue());
+				this.lastModified = (lastModifiedDate==null) ? -1 : lastModifiedDate.getTime();
+				this.body = body;
+			}
+			
+			/**
+			 * Returns TRUE if the 'Cache-Control' header of the response allows keeping the response in a shared cache. Revalidation
+			 * ('no-cache') is answered with ETag and Last-Modified of the cached copy, since versioned assets never change.
+			 */
+			static boolean isCacheable(Header cacheControl) {
+				if (cacheControl==null)
+					return true;
+				String value = cacheControl.getValue().toLowerCase();
+				return !value.contains("no-store") && !value.contains("private");
+			}
+			
+			/**
+			 * Returns TRUE if the header describes the content (not sent with 'Not Modified' status)
+			 */
+			static boolean isContentHeader(Header header) {
+				return HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(header.getName())
+						|| HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(header.getName());
+			}
+			
+			/**
+			 * Returns TRUE if the conditional headers of the request tell the client already has this same content
+			 */
+			boolean isNotModified(HttpServletRequest servletRequest) {
+				String ifNoneMatch = servletRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+				if (ifNoneMatch!=null) {
+					if (etag==null)
+						return false;
+					for (String candidate: ifNoneMatch.split(",")) {
+						candidate = candidate.trim();
+						if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/"+etag) || etag.equals("W/"+candidate))
+							return true;
+					}
+					return false;
+				}
+				if (lastModified<0)
+					return false;
+				try {
+					long ifModifiedSince = servletRequest.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+					// HTTP dates have a resolution of one second
+					return ifModifiedSince>=0 && lastModified/1000 <= ifModifiedSince/1000;
+				}
+				catch (IllegalArgumentException ex) {
+					return false;
+				}
+			}
+			
+			/**
+			 * Writes this asset as the response to the request (or an empty response with 'Not Modified' status, according to
+			 * the conditional headers of the request)
+			 */
+			void writeTo(HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+				if (isNotModified(servletRequest)) {
+					servletResponse.setStatus(HttpStatus.SC_NOT_MODIFIED); // 304
+					for (Header header: headers) {
+						if (!isContentHeader(header))
+							servletResponse.setHeader(header.getName(), header.getValue());
+					}
+					servletResponse.setContentLength(0);
+					return;
+				}
+				servletResponse.setStatus(HttpStatus.SC_OK); // 200
+				for (Header header: headers) {
+					servletResponse.setHeader(header.getName(), header.getValue());
+				}
+				servletResponse.setContentLength(body.length);
+				servletResponse.getOutputStream().write(body);
+			}
+		}
 	}
 
 }
@@ -6,6 +6,7 @@
  *******************************************************************************/
 package org.idb.cacao.web.conf;
 
+import org.idb.cacao.api.DocumentEvent;
 import org.springframework.cloud.stream.binder.PartitionKeyExtractorStrategy;
 import org.springframework.cloud.stream.binder.PartitionSelectorStrategy;
 import org.springframework.context.annotation.Bean;
@@ -47,13 +48,14 @@ public class StreamConfiguration {
 	 * Bean configured as application property 'spring.cloud.stream.bindings.<binding-name>.producer.partition-key-extractor-name' to
 	 * provide a key out of a produced message. This key will be used later for determining the partition.
 	 */
-	@Bean("UploadedFilePartitioner")
+	@Bean("DocumentPartitioner")
 	public PartitionKeyExtractorStrategy partitionKeyExtractorStrategy() {
 		return new PartitionKeyExtractorStrategy() {
 
 			/**
 			 * If the message includes the header 'partitionId', use this number for determining the exact partition. Otherwise
-			 * use the payload as 'key' (if it's a String or a Number) or the hashcode (if it's not). 
+			 * use the taxpayer ID informed in the payload (see {@link DocumentEvent#getPartitionKey() getPartitionKey}), so that
+			 * all the documents of the same taxpayer go to the same partition. 
 			 */
 			@Override
 			public Object extractKey(Message<?> message) {
@@ -61,11 +63,7 @@ public class StreamConfiguration {
 				if (partition!=null)
 					return new Partition(partition);
 				
-				Object payload = message.getPayload();
-				if ((payload instanceof String) || (payload instanceof Number)) {
-					return payload;
-				}
-				return payload.hashCode();
+				return DocumentEvent.getPartitionKey(message.getPayload());
 				
 			}
 			
@@ -76,24 +74,22 @@ public class StreamConfiguration {
 	 * Bean configured as application property 'spring.cloud.stream.bindings.<binding-name>.producer.partition-selector-name' to provide
 	 * a partition number out of a key.
 	 */
-	@Bean("UploadedFileSelector")
+	@Bean("DocumentPartitionSelector")
 	public PartitionSelectorStrategy partitionSelectorStrategy() {
 		return new PartitionSelectorStrategy() {
 
 			/**
 			 * If the key is an instance of 'Partition', use this information as the partition to be returned (capped to the
-			 * maximum configured as application property 'spring.cloud.stream.bindings.<binding-name>.producer.partition-count')
+			 * maximum configured as application property 'spring.cloud.stream.bindings.<binding-name>.producer.partition-count').
+			 * Otherwise use the same partition for the same key, like the other services do.
 			 */
 			@Override
 			public int selectPartition(Object key, int partitionCount) {
 				if (key instanceof Partition)
 					return ((Partition)key).partition % partitionCount;
 
-				else if (key==null)
-					return 0;
-				
 				else
-					return key.hashCode() % partitionCount;
+					return DocumentEvent.selectPartition(key, partitionCount);
 			}
 			
 		};
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.conf;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.idb.cacao.api.templates.DocumentTemplate;
+import org.idb.cacao.api.templates.DomainTable;
+import org.idb.cacao.api.templates.TemplatesCache;
+import org.idb.cacao.web.controllers.services.TemplateChangeNotifier;
+import org.idb.cacao.web.repositories.DocumentTemplateRepository;
+import org.idb.cacao.web.repositories.DomainTableRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.elasticsearch.core.event.AfterSaveCallback;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+
+/**
+ * Configuration of the in-memory cache of templates and domain tables.<BR>
+ * Every save of a template or domain table, whatever the path (UI, REST API, built-in tables, SYNC), publishes
+ * a change message to KAFKA. Every service (including this one) consumes these messages for invalidating its cache.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@Configuration
+public class TemplatesCacheConfiguration {
+
+	private static final Logger log = Logger.getLogger(TemplatesCacheConfiguration.class.getName());
+
+	@Value("${templates.cache.ttl.minutes:60}")
+	private long ttlMinutes;
+
+	@Bean
+	public TemplatesCache templatesCache(DocumentTemplateRepository templateRepository, DomainTableRepository domainTableRepository) {
+		TemplatesCache cache = new TemplatesCache(templateRepository::findByNameAndVersion, /*templatesByArchetypeLoader*/null, domainTableRepository);
+		cache.setTimeToLive(ttlMinutes, TimeUnit.MINUTES);
+		return cache;
+	}
+
+	/**
+	 * Receives change messages related to templates and domain tables
+	 */
+	@Bean
+	public Consumer<String> receiveTemplateChange(TemplatesCache templatesCache) {
+		return message -> {
+			log.log(Level.FINE, "Received template change message {0}", message);
+			templatesCache.onChangeMessage(message);
+		};
+	}
+
+	/**
+	 * Publishes change message after each template saved
+	 */
+	@Bean
+	public AfterSaveCallback<DocumentTemplate> templateSavedCallback(TemplateChangeNotifier notifier) {
+		return new AfterSaveCallback<DocumentTemplate>() {
+			@Override
+			public DocumentTemplate onAfterSave(DocumentTemplate entity, IndexCoordinates index) {
+				notifier.templateChanged(entity);
+				return entity;
+			}
+		};
+	}
+
+	/**
+	 * Publishes change message after each domain table saved
+	 */
+	@Bean
+	public AfterSaveCallback<DomainTable> domainTableSavedCallback(TemplateChangeNotifier notifier) {
+		return new AfterSaveCallback<DomainTable>() {
+			@Override
+			public DomainTable onAfterSave(DomainTable entity, IndexCoordinates index) {
+				notifier.domainTableChanged(entity);
+				return entity;
+			}
+		};
+	}
+}
@@ -6,6 +6,9 @@
  *******************************************************************************/
 package org.idb.cacao.web.conf;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.TaskExecutor;
@@ -49,16 +52,69 @@ public class ThreadConfig {
 		return executor;
 	}
 
+	/**
+	 * Runs the background thread that writes audit trail entries in bulk (see AuditTrailService)
+	 */
 	@Bean(name = "AuditTrailTaskExecutor")
 	public TaskExecutor auditTrailTaskExecutor() {
 		
 		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-		executor.setCorePoolSize(5);
-		executor.setMaxPoolSize(10);
+		executor.setCorePoolSize(1);
+		executor.setMaxPoolSize(1);
 		executor.setThreadNamePrefix("AuditTrailTaskExecutor");
 		executor.setDaemon(true);
 		executor.initialize();
 		
 		return executor;
 	}
+
+	@Bean(name = "RegistryImportTaskExecutor")
+	public TaskExecutor registryImportTaskExecutor() {
+		
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(1);
+		executor.setMaxPoolSize(1);
+		executor.setThreadNamePrefix("RegistryImportTaskExecutor");
+		executor.setDaemon(true);
+		executor.initialize();
+		
+		return executor;
+	}
+
+	/**
+	 * Runs the uploaded ZIP files at background (see ZipUploadService). The entries of all ZIP files are extracted by
+	 * the threads of 'ZipEntryTaskExecutor'.
+	 */
+	@Bean(name = "ZipUploadTaskExecutor")
+	public TaskExecutor zipUploadTaskExecutor() {
+		
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(2);
+		executor.setMaxPoolSize(2);
+		executor.setThreadNamePrefix("ZipUploadTaskExecutor");
+		executor.setDaemon(true);
+		executor.initialize();
+		
+		return executor;
+	}
+
+	/**
+	 * Extracts the entries of the uploaded ZIP files (see ZipUploadService). The same threads are shared by all the
+	 * ZIP files being processed, and each ZIP file keeps at most 'upload.zip.parallelism' entries waiting for them.
+	 * If the queue is full anyway, the entry is extracted by the thread that submitted it.
+	 */
+	@Bean(name = "ZipEntryTaskExecutor")
+	public TaskExecutor zipEntryTaskExecutor(@Value("${upload.zip.parallelism:4}") int parallelism) {
+		
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(Math.max(1, parallelism));
+		executor.setMaxPoolSize(Math.max(1, parallelism));
+		executor.setQueueCapacity(Math.max(1, parallelism) * 2);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.setThreadNamePrefix("ZipEntryTaskExecutor");
+		executor.setDaemon(true);
+		executor.initialize();
+		
+		return executor;
+	}
 }
@@ -473,7 +473,7 @@ public class AnalysisAPIController {
 			@ApiParam(name = "Type of search", allowEmptyValue = false, allowMultiple = false, example = "1", required = true, type = "String", 
 					allowableValues = "1 - SHAREHOLDINGS, 2 - SHAREHOLDERS, 3 - REVENUE_NET_AND_GROSS_PROFIT_DECLARED, " + 
 						"4 - REVENUE_NET_AND_GROSS_PROFIT_COMPUTED, 5 - TAX_PROVISION, 6 - ANALYTICS_ACCOUNTS, " + 
-						"7 - CUSTOMERS, 8 - SUPPLIERS")
+						"7 - CUSTOMERS, 8 - SUPPLIERS, 9 - OWNERSHIP_GROUP")
 			@RequestParam("searchType") int searchType,
 			@ApiParam(name = "Taxpayer ID", allowEmptyValue = false, allowMultiple = false, example = "1234567890", required = true, type = "String")
 			@RequestParam("taxpayerId") String taxpayerId,
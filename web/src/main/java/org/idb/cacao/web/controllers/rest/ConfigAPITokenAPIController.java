@@ -8,15 +8,14 @@ package org.idb.cacao.web.controllers.rest;
 
 import java.util.Collections;
 import java.util.Map;
-import java.util.UUID;
 
 import org.idb.cacao.web.GenericResponse;
+import org.idb.cacao.web.controllers.services.ApiTokenService;
 import org.idb.cacao.web.controllers.services.KeyStoreService;
 import org.idb.cacao.web.controllers.services.UserService;
 import org.idb.cacao.web.entities.User;
 import org.idb.cacao.web.errors.InsufficientPrivilege;
 import org.idb.cacao.web.errors.UserNotFoundException;
-import org.idb.cacao.web.repositories.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -52,7 +51,7 @@ public class ConfigAPITokenAPIController {
 	private UserService userService;
 
 	@Autowired
-	private UserRepository userRepository;
+	private ApiTokenService apiTokenService;
 
 	/**
 	 * Return the user's API token
@@ -90,8 +89,7 @@ public class ConfigAPITokenAPIController {
     	if (user==null)
     		throw new UserNotFoundException();
     	
-		user.setApiToken(null);
-		userRepository.saveWithTimestamp(user);
+		apiTokenService.deleteToken(user);
     	
     	return new GenericResponse("OK");
 	}
@@ -111,11 +109,7 @@ public class ConfigAPITokenAPIController {
     	if (user==null)
     		throw new UserNotFoundException();
     	
-    	String apiToken;
-		apiToken = UUID.randomUUID().toString();
-		String encryptedApiToken = keystoreService.encrypt(KeyStoreService.PREFIX_MAIL, apiToken);
-		user.setApiToken(encryptedApiToken);
-		userRepository.saveWithTimestamp(user);
+    	String apiToken = apiTokenService.createToken(user);
     	
     	return ResponseEntity.ok().body(Collections.singletonMap("token",apiToken));
 	}
@@ -6,10 +6,12 @@
  *******************************************************************************/
 package org.idb.cacao.web.controllers.rest;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.Normalizer;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
@@ -29,7 +31,6 @@ import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.zip.ZipInputStream;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -61,11 +62,15 @@ import org.idb.cacao.web.controllers.AdvancedSearch;
 import org.idb.cacao.web.controllers.services.DocumentTemplateService;
 import org.idb.cacao.web.controllers.services.FileUploadedProducer;
 import org.idb.cacao.web.controllers.services.MessagesService;
+import org.idb.cacao.web.controllers.services.ResumableUploadService;
 import org.idb.cacao.web.controllers.services.UserService;
+import org.idb.cacao.web.controllers.services.ZipUploadService;
 import org.idb.cacao.web.dto.FileUploadedEvent;
 import org.idb.cacao.web.dto.PaginationData;
+import org.idb.cacao.web.dto.ResumableUpload;
 import org.idb.cacao.web.entities.User;
 import org.idb.cacao.web.entities.UserProfile;
+import org.idb.cacao.web.entities.ZipUploadBatch;
 import org.idb.cacao.web.errors.InsufficientPrivilege;
 import org.idb.cacao.web.errors.MissingParameter;
 import org.idb.cacao.web.errors.PresentationDisabledFeature;
@@ -76,7 +81,6 @@ import org.idb.cacao.web.repositories.DocumentUploadedRepository;
 import org.idb.cacao.web.utils.ErrorUtils;
 import org.idb.cacao.web.utils.SearchUtils;
 import org.idb.cacao.web.utils.UserUtils;
-import org.idb.cacao.web.utils.ZipConsumer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
@@ -92,9 +96,12 @@ import org.springframework.security.access.annotation.Secured;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -109,6 +116,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingInputStream;
+import com.google.common.io.CountingInputStream;
 
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -144,6 +152,17 @@ public class DocumentStoreAPIController {
 	public static final String FIELD_DOC_RECTIFIED = "rectified";
 
 	public static final int MAX_RESULTS_PER_REQUEST = 10_000;
+	
+	/**
+	 * Request header with the SHA-256 of each chunk sent to {@link #uploadChunk(String, int, String, HttpServletRequest) uploadChunk}
+	 */
+	public static final String HEADER_CHUNK_CHECKSUM = "X-Checksum-SHA256";
+
+	/**
+	 * Name of field with the ID returned for a ZIP file, which files are stored at background. The progress may be
+	 * queried with {@link #getZipUploadBatch(String) getZipUploadBatch}
+	 */
+	public static final String FIELD_BATCH_ID = "batch_id";
 
 	@Autowired
 	private MessageSource messageSource;
@@ -175,11 +194,11 @@ public class DocumentStoreAPIController {
 	@Autowired
 	private MessagesService messagesService;
 	
-	/**
-	 * Maximum number of entries it expects to find in incoming ZIP file
-	 */
-	@Value("${max.entries.per.uploaded.zip}")
-	private int maxEntriesPerUploadedZip;
+	@Autowired
+	private ResumableUploadService resumableUploadService;
+
+	@Autowired
+	private ZipUploadService zipUploadService;
 	
 	@Value("${presentation.mode}")
 	private Boolean presentationMode;
@@ -223,6 +242,315 @@ public class DocumentStoreAPIController {
 					messageSource.getMessage("upload.failed.empty.file", null, LocaleContextHolder.getLocale())));
 		}
 
+		ResponseEntity<Map<String, String>> invalidParameters = checkUploadParameters(templateName, templateVersion, inputName);
+		if (invalidParameters != null)
+			return invalidParameters;
+
+		final String remoteIpAddr = (request != null && request.getRemoteAddr() != null
+				&& request.getRemoteAddr().trim().length() > 0) ? request.getRemoteAddr() : null;
+
+		List<Map<String, String>> results = new LinkedList<>();		
+		
+		final String originalFileName = fileinput.getOriginalFilename();
+		
+		try {
+		
+			//Upload a file(s) within zip file (at background)
+			if ( isZip(originalFileName) ) {
+				
+				File zipFile = zipUploadService.createZipFile();
+				try {
+					fileinput.transferTo(zipFile);
+				}
+				catch (IOException ex) {
+					if (!zipFile.delete())
+						zipFile.deleteOnExit();
+					throw ex;
+				}
+				return startZipUpload(zipFile, originalFileName, templateName, templateVersion, inputName, remoteIpAddr, user);
+				
+			}
+			//Upload a single file
+			else {
+				results.add(uploadFile(originalFileName, fileinput.getInputStream(), /* closeInputStream */true, 
+							templateName, templateVersion, inputName, remoteIpAddr, user));
+			}
+			
+		}
+		catch (GeneralException ex) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body(Collections.singletonMap("error", ex.getMessage()));
+		}
+		catch (IOException ex) {
+			log.log(Level.SEVERE, String.format("Failed upload %s", fileinput.getOriginalFilename()), ex);
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body(Collections.singletonMap("error", messageSource.getMessage("upload.failed.file",
+							new Object[] { fileinput.getOriginalFilename() }, LocaleContextHolder.getLocale())));
+		}
+		
+		return ResponseEntity.ok(results.get(0));
+	}
+
+	/**
+	 * Endpoint for starting the upload of a large document in chunks. The chunks are sent afterwards to {@link #uploadChunk(String, int, String, HttpServletRequest) uploadChunk}.
+	 * The same upload may be resumed later (e.g. after a network failure) by querying which chunks were already received 
+	 * with {@link #getResumableUpload(String) getResumableUpload}.
+	 */
+	@Secured({"ROLE_TAX_DECLARATION_WRITE"})
+	@PostMapping(value = "/doc/resumable", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation("Endpoint for starting the upload of a large document in chunks")
+	public ResponseEntity<Object> startResumableUpload(
+			@ApiParam(name = "Name of file being uploaded", required = true, type = "String")
+			@RequestParam("filename") String filename,
+			@ApiParam(name = "Size in bytes of file being uploaded", required = true, type = "long")
+			@RequestParam("fileSize") long fileSize,
+			@ApiParam(name = "SHA-256 of file being uploaded (hexadecimal)", required = true, type = "String")
+			@RequestParam("sha256") String sha256,
+			@ApiParam(name = "Size in bytes of each chunk (the last one may be smaller)", required = false, type = "int")
+			@RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+			@ApiParam(name = "Template name for file being uploaded", allowEmptyValue = false, allowMultiple = false, example = "Chart of Accunts", required = true, type = "String")
+			@RequestParam("templateName") String templateName, 
+			@ApiParam(name = "Template version for file being uploaded", allowEmptyValue = false, allowMultiple = false, example = "1.0", required = true, type = "String")
+			@RequestParam("templateVersion") String templateVersion,
+			@ApiParam(name = "Input name for file being uploaded", allowEmptyValue = false, allowMultiple = false, example = "CSV", required = true, type = "String")
+			@RequestParam("inputName") String inputName) {
+		
+		if (Boolean.TRUE.equals(presentationMode)) {
+			throw new PresentationDisabledFeature();
+		}
+
+		User user = getUploadingUser();
+
+		ResponseEntity<Map<String, String>> invalidParameters = checkUploadParameters(templateName, templateVersion, inputName);
+		if (invalidParameters != null)
+			return ResponseEntity.status(invalidParameters.getStatusCode()).body(invalidParameters.getBody());
+		
+		try {
+			return ResponseEntity.ok(resumableUploadService.start(user, templateName, templateVersion, inputName, filename, fileSize, sha256, chunkSize));
+		}
+		catch (GeneralException ex) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body(Collections.singletonMap("error", ex.getMessage()));
+		}
+		catch (IOException ex) {
+			log.log(Level.SEVERE, String.format("Failed upload %s", filename), ex);
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(Collections.singletonMap("error", messageSource.getMessage("upload.failed.file",
+							new Object[] { filename }, LocaleContextHolder.getLocale())));
+		}
+	}
+
+	/**
+	 * Endpoint for querying the state of a document being uploaded in chunks (e.g. which chunks have already been received)
+	 */
+	@Secured({"ROLE_TAX_DECLARATION_WRITE"})
+	@GetMapping(value = "/doc/resumable/{uploadId}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation("Endpoint for querying the state of a document being uploaded in chunks")
+	public ResponseEntity<Object> getResumableUpload(
+			@ApiParam(name = "Upload identification", required = true, type = "String")
+			@PathVariable("uploadId") String uploadId) {
+		
+		User user = getUploadingUser();
+		
+		Optional<ResumableUpload> upload = resumableUploadService.getUpload(uploadId, user);
+		if (!upload.isPresent())
+			return resumableUploadNotFound(uploadId);
+		
+		return ResponseEntity.ok(upload.get());
+	}
+
+	/**
+	 * Endpoint for sending one chunk of a document being uploaded in chunks. The chunk contents are expected in the request
+	 * body (not as multipart form data) and are written directly to the storage area. The same chunk may be sent again
+	 * if it failed. 
+	 */
+	@Secured({"ROLE_TAX_DECLARATION_WRITE"})
+	@PutMapping(value = "/doc/resumable/{uploadId}/{chunk}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation("Endpoint for sending one chunk of a document being uploaded in chunks")
+	public ResponseEntity<Object> uploadChunk(
+			@ApiParam(name = "Upload identification", required = true, type = "String")
+			@PathVariable("uploadId") String uploadId,
+			@ApiParam(name = "Chunk index (starting at 0)", required = true, type = "int")
+			@PathVariable("chunk") int chunk,
+			@ApiParam(name = "SHA-256 of chunk contents (hexadecimal)", required = true, type = "String")
+			@RequestHeader(HEADER_CHUNK_CHECKSUM) String sha256,
+			HttpServletRequest request) {
+
+		User user = getUploadingUser();
+		
+		Optional<ResumableUpload> upload = resumableUploadService.getUpload(uploadId, user);
+		if (!upload.isPresent())
+			return resumableUploadNotFound(uploadId);
+
+		try (InputStream input = request.getInputStream()) {
+			return ResponseEntity.ok(resumableUploadService.writeChunk(upload.get(), chunk, sha256, input));
+		}
+		catch (GeneralException ex) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body(Collections.singletonMap("error", ex.getMessage()));
+		}
+		catch (IOException ex) {
+			log.log(Level.WARNING, String.format("Failed receiving chunk %d of upload %s", chunk, uploadId), ex);
+			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+					.body(Collections.singletonMap("error", messageSource.getMessage("upload.failed.file",
+							new Object[] { upload.get().getFilename() }, LocaleContextHolder.getLocale())));
+		}
+	}
+
+	/**
+	 * Endpoint for finishing the upload of a document in chunks. Verifies the whole file contents and publishes the
+	 * file for processing (each file inside it in case of ZIP file, at background).
+	 */
+	@Secured({"ROLE_TAX_DECLARATION_WRITE"})
+	@PostMapping(value = "/doc/resumable/{uploadId}/complete", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation("Endpoint for finishing the upload of a document in chunks")
+	public ResponseEntity<Object> completeResumableUpload(
+			@ApiParam(name = "Upload identification", required = true, type = "String")
+			@PathVariable("uploadId") String uploadId,
+			HttpServletRequest request) {
+
+		User user = getUploadingUser();
+		
+		Optional<ResumableUpload> found = resumableUploadService.getUpload(uploadId, user);
+		if (!found.isPresent())
+			return resumableUploadNotFound(uploadId);
+		final ResumableUpload upload = found.get();
+
+		final String remoteIpAddr = (request != null && request.getRemoteAddr() != null
+				&& request.getRemoteAddr().trim().length() > 0) ? request.getRemoteAddr() : null;
+
+		List<Map<String, String>> results = new LinkedList<>();		
+
+		try {
+			Path file = resumableUploadService.complete(upload);
+			try {
+				//Upload a file(s) within zip file (at background, after moving it to the work directory of ZIP files,
+				//where it's cleaned up after the upload)
+				if ( isZip(upload.getFilename()) ) {
+					File zipFile = zipUploadService.createZipFile();
+					try {
+						Files.move(file, zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					}
+					catch (IOException ex) {
+						if (!zipFile.delete())
+							zipFile.deleteOnExit();
+						throw ex;
+					}
+					ResponseEntity<Map<String, String>> accepted = startZipUpload(zipFile, upload.getFilename(),
+							upload.getTemplateName(), upload.getTemplateVersion(), upload.getInputName(), remoteIpAddr, user);
+					return ResponseEntity.status(accepted.getStatusCode()).body(accepted.getBody());
+				}
+				//Upload a single file (moves the file, there is no need to copy it)
+				else {
+					if (log.isLoggable(Level.INFO)) {
+						log.log(Level.INFO, String.format("User %s uploading file %s for template %s from %s",
+								user.getLogin(), upload.getFilename(), upload.getTemplateName(), remoteIpAddr));
+					}
+					String fileId = UUID.randomUUID().toString();
+					String subDir = storageService.store(fileId, file);
+					results.add(registerUploadedFile(fileId, subDir, upload.getFilename(), upload.getHash(), upload.getFileSize(),
+							upload.getTemplateName(), upload.getTemplateVersion(), upload.getInputName(), remoteIpAddr, user));
+				}
+			}
+			finally {
+				// The upload can't be resumed after this point, regardless of the outcome, since some of its contents
+				// may have already been published
+				resumableUploadService.finish(upload);
+			}
+		}
+		catch (GeneralException ex) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body(Collections.singletonMap("error", ex.getMessage()));
+		}
+		catch (IOException ex) {
+			log.log(Level.SEVERE, String.format("Failed upload %s", upload.getFilename()), ex);
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+					.body(Collections.singletonMap("error", messageSource.getMessage("upload.failed.file",
+							new Object[] { upload.getFilename() }, LocaleContextHolder.getLocale())));
+		}
+	
+		if (results.isEmpty()) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error",
+					messageSource.getMessage("upload.failed.empty.file", null, LocaleContextHolder.getLocale())));
+		}
+
+		return ResponseEntity.ok(results.get(0));
+	}
+
+	/**
+	 * Endpoint for discarding a document being uploaded in chunks
+	 */
+	@Secured({"ROLE_TAX_DECLARATION_WRITE"})
+	@DeleteMapping(value = "/doc/resumable/{uploadId}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation("Endpoint for discarding a document being uploaded in chunks")
+	public ResponseEntity<Object> abortResumableUpload(
+			@ApiParam(name = "Upload identification", required = true, type = "String")
+			@PathVariable("uploadId") String uploadId) {
+
+		User user = getUploadingUser();
+		
+		Optional<ResumableUpload> upload = resumableUploadService.getUpload(uploadId, user);
+		if (!upload.isPresent())
+			return resumableUploadNotFound(uploadId);
+		
+		resumableUploadService.finish(upload.get());
+		
+		return ResponseEntity.ok(Collections.singletonMap("result", "ok"));
+	}
+
+	/**
+	 * Endpoint for querying the progress of the files within an uploaded ZIP file, which are stored at background
+	 */
+	@Secured({"ROLE_TAX_DECLARATION_WRITE"})
+	@GetMapping(value = "/doc/batch/{batchId}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation(value = "Endpoint for querying the progress of the files within an uploaded ZIP file", response = ZipUploadBatch.class)
+	public ResponseEntity<Object> getZipUploadBatch(
+			@ApiParam(name = "Batch identification returned by the upload of the ZIP file", required = true, type = "String")
+			@PathVariable("batchId") String batchId) {
+
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		User user = getUploadingUser();
+
+		Optional<ZipUploadBatch> batch = zipUploadService.getBatch(batchId);
+		// Only the user who uploaded the ZIP file or some user who can read all documents may see the progress
+		if (!batch.isPresent() || !(user.getLogin().equalsIgnoreCase(batch.get().getUser()) || canReadAll(auth))) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error",
+					messageSource.getMessage("upload.batch.not.found", new Object[] { batchId }, LocaleContextHolder.getLocale())));
+		}
+
+		return ResponseEntity.ok(batch.get());
+	}
+
+	/**
+	 * Returns the user object related to the current request
+	 */
+	private User getUploadingUser() {
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		if (auth == null)
+			throw new UserNotFoundException();
+
+		User user = userService.getUser(auth);
+		if (user == null)
+			throw new UserNotFoundException();
+		
+		return user;
+	}
+
+	/**
+	 * Response for an unknown upload
+	 */
+	private ResponseEntity<Object> resumableUploadNotFound(String uploadId) {
+		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Collections.singletonMap("error",
+				messageSource.getMessage("upload.resumable.not.found", new Object[] { uploadId }, LocaleContextHolder.getLocale())));
+	}
+
+	/**
+	 * Validates the template, template version and input name informed for a file upload. Returns the error response
+	 * if any of them is invalid. Returns NULL otherwise.
+	 */
+	@ApiIgnore
+	private ResponseEntity<Map<String, String>> checkUploadParameters(String templateName, String templateVersion, String inputName) {
+		
 		if (templateName == null || templateName.isEmpty()) {
 			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error",
 					messageSource.getMessage("upload.failed.missing.template", null, LocaleContextHolder.getLocale())));
@@ -288,53 +616,40 @@ public class DocumentStoreAPIController {
 			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error", messageSource
 					.getMessage("upload.failed.missing.input.name", null, LocaleContextHolder.getLocale())));
 		}
+		
+		return null;
+	}
 
-		final String remoteIpAddr = (request != null && request.getRemoteAddr() != null
-				&& request.getRemoteAddr().trim().length() > 0) ? request.getRemoteAddr() : null;
+	/**
+	 * Returns TRUE if the file name indicates a ZIP file (which entries are uploaded as separated files)
+	 */
+	private static boolean isZip(String originalFileName) {
+		return originalFileName != null && FilenameUtils.isExtension(originalFileName.toLowerCase(), "zip");
+	}
 
-		List<Map<String, String>> results = new LinkedList<>();		
-		
-		final String originalFileName = fileinput.getOriginalFilename();
-		
-		try {
+	/**
+	 * Starts storing each file within a ZIP file at background
+	 * @param zipFile			ZIP file (deleted after all of its files are stored)
+	 * @param originalFilename	Name of the ZIP file
+	 * @return					An indication if the ZIP file was accepted, including the batch ID for querying the progress
+	 * 							(see {@link #getZipUploadBatch(String) getZipUploadBatch})
+	 */
+	@ApiIgnore
+	private ResponseEntity<Map<String, String>> startZipUpload(final File zipFile, final String originalFilename, final String templateName, 
+			final String templateVersion, final String inputName, final String remoteIpAddr, final User user) throws IOException, GeneralException {
+
+		ZipUploadBatch batch = zipUploadService.start(zipFile, originalFilename, 
+				newDocumentUploaded(templateName, templateVersion, inputName, remoteIpAddr, user));
 		
-			//Upload a file(s) within zip file
-			if ( originalFileName != null && FilenameUtils.isExtension(originalFileName.toLowerCase(), "zip") ) {
-				
-				//Need to reopen stream				
-				try (ZipInputStream zipStream = new ZipInputStream(fileinput.getInputStream())) {
-					
-					ZipConsumer.ConsumeContents consumeZipContents = (ze, input)->
-						results.add(uploadFile(ze.getName(), zipStream, /* closeInputStream */false, 
-								templateName, templateVersion, inputName, remoteIpAddr, user));
-	
-					ZipConsumer zipConsumer = new ZipConsumer(zipStream::getNextEntry, zipStream, consumeZipContents)
-							.threadholdEntries(maxEntriesPerUploadedZip);
-					
-					zipConsumer.run();
-	
-				}
-				
-			}
-			//Upload a single file
-			else {
-				results.add(uploadFile(originalFileName, fileinput.getInputStream(), /* closeInputStream */true, 
-							templateName, templateVersion, inputName, remoteIpAddr, user));
-			}
-			
-		}
-		catch (GeneralException ex) {
-			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-					.body(Collections.singletonMap("error", ex.getMessage()));
-		}
-		catch (IOException ex) {
-			log.log(Level.SEVERE, String.format("Failed upload %s", fileinput.getOriginalFilename()), ex);
-			return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-					.body(Collections.singletonMap("error", messageSource.getMessage("upload.failed.file",
-							new Object[] { fileinput.getOriginalFilename() }, LocaleContextHolder.getLocale())));
+		if (batch.getTotalFiles() == 0) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("error",
+					messageSource.getMessage("upload.failed.empty.file", null, LocaleContextHolder.getLocale())));
 		}
-		
-		return ResponseEntity.ok(results.get(0));
+
+		Map<String, String> result = new HashMap<>();
+		result.put("result", "ok");
+		result.put(FIELD_BATCH_ID, batch.getBatchId());
+		return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
 	}
 
 	/**
@@ -354,40 +669,52 @@ public class DocumentStoreAPIController {
 	private Map<String, String> uploadFile(final String originalFilename, final InputStream fileStream,
 			final boolean closeInputStream, final String template, final String templateVersion,
 			final String inputName, final String remoteIpAddr, final User user) throws GeneralException {
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, String.format("User %s uploading file %s for template %s from %s",
+					user.getLogin(), originalFilename, template, remoteIpAddr));
+		}
+
+		String fileId = UUID.randomUUID().toString();
+
+		CountingInputStream cis = new CountingInputStream(fileStream);
+		HashingInputStream his = new HashingInputStream(Hashing.sha256(), cis);
+		String subDir = storageService.store(fileId, his, closeInputStream);
+		
+		return registerUploadedFile(fileId, subDir, originalFilename, his.hash().toString(), cis.getCount(),
+				template, templateVersion, inputName, remoteIpAddr, user);
+	}
+
+	/**
+	 * Keeps the information about a file already saved in storage and publishes it for processing
+	 * @param fileId			File identification in storage
+	 * @param subDir			Subdirectory of storage where the file has been saved
+	 * @param originalFilename	File name
+	 * @param hash				SHA-256 of file contents
+	 * @param fileSize			File size in bytes
+	 * @param template			Template name
+	 * @param templateVersion	Template version
+	 * @param inputName			Input mapping name
+	 * @param remoteIpAddr		Remote ip address (who uploaded file)
+	 * @param user				User name who upload file
+	 * @return					An indication if file was saved correctly
+	 * @throws GeneralException
+	 */
+	@ApiIgnore
+	private Map<String, String> registerUploadedFile(final String fileId, final String subDir, final String originalFilename,
+			final String hash, final long fileSize, final String template, final String templateVersion,
+			final String inputName, final String remoteIpAddr, final User user) throws GeneralException {
 		// Hold rollback procedures only to be used in case of error
 		List<Runnable> rollbackProcedures = new LinkedList<>(); 
 		try {
-			if (log.isLoggable(Level.INFO)) {
-				log.log(Level.INFO, String.format("User %s uploading file %s for template %s from %s",
-						user.getLogin(), originalFilename, template, remoteIpAddr));
-			}
-
-			String fileId = UUID.randomUUID().toString();
-
 			final OffsetDateTime timestamp = DateTimeUtils.now();
-			HashingInputStream his = new HashingInputStream(Hashing.sha256(), fileStream);
-			String subDir = storageService.store(fileId, his, closeInputStream);
 
 			// Keep this information in history of all uploads
-			DocumentUploaded regUpload = new DocumentUploaded();
-			regUpload.setTemplateName(template);
-			regUpload.setTemplateVersion(templateVersion);
-			regUpload.setInputName(inputName);
+			DocumentUploaded regUpload = newDocumentUploaded(template, templateVersion, inputName, remoteIpAddr, user);
 			regUpload.setFileId(fileId);
 			regUpload.setFilename(originalFilename);
 			regUpload.setSubDir(subDir);
 			regUpload.setTimestamp(timestamp);
-			regUpload.setIpAddress(remoteIpAddr);
-			regUpload.setHash(his.hash().toString());
-			regUpload.setSituation(DocumentSituation.RECEIVED);
-			Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-			if (auth != null) {
-				regUpload.setUser(String.valueOf(auth.getName()));
-			}
-			if (user != null) {
-				regUpload.setUserLogin(user.getLogin());
-				regUpload.setTaxPayerId(user.getTaxpayerId());
-			}
+			regUpload.setHash(hash);
 			DocumentUploaded savedInfo = documentsUploadedRepository.saveWithTimestamp(regUpload);
 
 			DocumentSituationHistory situationHistory = new DocumentSituationHistory();
@@ -409,7 +736,8 @@ public class DocumentStoreAPIController {
 			result.put(FIELD_DOC_ID, fileId);
 
 			FileUploadedEvent event = new FileUploadedEvent();
-			event.setFileId(savedInfo.getId());
+			event.setDocument(savedInfo);
+			event.setFileSize(fileSize);
 			fileUploadedProducer.fileUploaded(event);
 
 			return result;
@@ -419,6 +747,34 @@ public class DocumentStoreAPIController {
 		}
 	}
 
+	/**
+	 * Returns a new object with the information about a file being uploaded that does not depend on the file itself
+	 * @param template			Template name
+	 * @param templateVersion	Template version
+	 * @param inputName			Input mapping name
+	 * @param remoteIpAddr		Remote ip address (who uploaded file)
+	 * @param user				User name who upload file
+	 */
+	@ApiIgnore
+	private static DocumentUploaded newDocumentUploaded(final String template, final String templateVersion,
+			final String inputName, final String remoteIpAddr, final User user) {
+		DocumentUploaded regUpload = new DocumentUploaded();
+		regUpload.setTemplateName(template);
+		regUpload.setTemplateVersion(templateVersion);
+		regUpload.setInputName(inputName);
+		regUpload.setIpAddress(remoteIpAddr);
+		regUpload.setSituation(DocumentSituation.RECEIVED);
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		if (auth != null) {
+			regUpload.setUser(String.valueOf(auth.getName()));
+		}
+		if (user != null) {
+			regUpload.setUserLogin(user.getLogin());
+			regUpload.setTaxPayerId(user.getTaxpayerId());
+		}
+		return regUpload;
+	}
+
 	public static void callRollbackProcedures(Collection<Runnable> rollbackProcedures) {
 		if (rollbackProcedures == null || rollbackProcedures.isEmpty())
 			return;
@@ -8,6 +8,7 @@ package org.idb.cacao.web.controllers.rest;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,6 +23,7 @@ import org.idb.cacao.api.templates.DocumentTemplate;
 import org.idb.cacao.api.utils.ScrollUtils;
 import org.idb.cacao.web.controllers.AdvancedSearch;
 import org.idb.cacao.web.controllers.services.DocumentTemplateService;
+import org.idb.cacao.web.controllers.services.TemplateChangeNotifier;
 import org.idb.cacao.web.dto.DocumentTemplateDto;
 import org.idb.cacao.web.dto.PaginationData;
 import org.idb.cacao.web.entities.User;
@@ -70,6 +72,9 @@ public class DocumentTemplateAPIController {
 	
 	@Autowired
 	private DocumentTemplateService templateService;
+
+	@Autowired
+	private TemplateChangeNotifier templateChangeNotifier;
 	
 	@Autowired
 	private RestHighLevelClient elasticsearchClient;
@@ -149,10 +154,16 @@ public class DocumentTemplateAPIController {
         	return ResponseEntity.notFound().build();
 
 		DocumentTemplate entity = existing.get();
+		final String previousName = entity.getName();
+		final String previousVersion = entity.getVersion();
 		template.setInputs(entity.getInputs());
 		template.updateEntity(entity);
 		templateService.compatibilizeTemplateFieldsMappings(entity);
         templateRepository.saveWithTimestamp(entity);
+        if (!Objects.equals(previousName, entity.getName()) || !Objects.equals(previousVersion, entity.getVersion())) {
+        	// The new name and version are notified after save, but the services may still keep the template under the previous ones
+        	templateChangeNotifier.templateChanged(previousName, previousVersion);
+        }
         return ResponseEntity.ok().body(new DocumentTemplateDto(entity));
     }
 
@@ -195,7 +206,10 @@ public class DocumentTemplateAPIController {
     		@ApiParam(name = "Document ID", allowEmptyValue = false, allowMultiple = false, example = "1234567890", required = true, type = "String")
     		@PathVariable("id") String id) {
         try {
+        	Optional<DocumentTemplate> template = templateRepository.findById(id);
         	templateRepository.deleteById(id);
+        	if (template.isPresent())
+        		templateChangeNotifier.templateChanged(template.get());
         } catch(Exception e) {
         	return ControllerUtils.returnBadRequest("template.not.exists", messageSource);
         }
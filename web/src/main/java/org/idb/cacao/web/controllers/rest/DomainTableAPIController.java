@@ -9,6 +9,7 @@ package org.idb.cacao.web.controllers.rest;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
@@ -23,6 +24,7 @@ import org.idb.cacao.api.Views;
 import org.idb.cacao.api.templates.DomainTable;
 import org.idb.cacao.web.controllers.AdvancedSearch;
 import org.idb.cacao.web.controllers.services.DomainTableService;
+import org.idb.cacao.web.controllers.services.TemplateChangeNotifier;
 import org.idb.cacao.web.dto.DomainTableDto;
 import org.idb.cacao.web.dto.PaginationData;
 import org.idb.cacao.web.entities.User;
@@ -73,6 +75,9 @@ public class DomainTableAPIController {
 
 	@Autowired
 	private DomainTableRepository domainTableRepository;
+
+	@Autowired
+	private TemplateChangeNotifier templateChangeNotifier;
 	
 	@Autowired
 	private DomainTableService domainTableService;
@@ -172,6 +177,7 @@ public class DomainTableAPIController {
         // Removes Domain Table object itself
 
         domainTableRepository.delete(table);
+        templateChangeNotifier.domainTableChanged(table);
         return ResponseEntity.ok().body(new DomainTableDto(table));
     }
 
@@ -191,8 +197,14 @@ public class DomainTableAPIController {
         	log.log(Level.INFO, String.format("Changing domain table #%s | %s", table.getId(), table.getName()));
         }
 
+        final String previousName = entity.getName();
+        final String previousVersion = entity.getVersion();
         table.updateEntity(entity);
         domainTableRepository.saveWithTimestamp(entity);
+        if (!Objects.equals(previousName, entity.getName()) || !Objects.equals(previousVersion, entity.getVersion())) {
+        	// The new name and version are notified after save, but the services may still keep the domain table under the previous ones
+        	templateChangeNotifier.domainTableChanged(previousName, previousVersion);
+        }
         
         return ResponseEntity.ok().body(table);
     }
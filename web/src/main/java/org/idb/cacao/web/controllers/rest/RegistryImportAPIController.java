@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.rest;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.idb.cacao.web.controllers.services.RegistryImportService;
+import org.idb.cacao.web.controllers.services.RegistryImportService.ImportType;
+import org.idb.cacao.web.dto.RegistryImportProgress;
+import org.idb.cacao.web.errors.UserNotFoundException;
+import org.idb.cacao.web.utils.ControllerUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+/**
+ * Controller class for all endpoints related to bulk import of taxpayers, users and interpersonal relationships
+ * from CSV or PARQUET files
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RestController
+@RequestMapping("/api")
+@Tag(name="registry-import-api-controller", description="Controller class for all endpoints related to bulk import of taxpayers, users and interpersonal relationships.")
+public class RegistryImportAPIController {
+
+	private static final Logger log = Logger.getLogger(RegistryImportAPIController.class.getName());
+
+	@Autowired
+	private MessageSource messageSource;
+
+	@Autowired
+	private RegistryImportService registryImportService;
+
+	@Secured({"ROLE_TAXPAYER_WRITE","ROLE_USER_WRITE","ROLE_INTERPERSONAL_WRITE"})
+	@PostMapping(value="/registry/import", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation(value="Bulk import of taxpayers, users or interpersonal relationships from a CSV or PARQUET file sent as the request body. "
+			+ "The file is imported at background. Returns the import progress, which may be followed with GET /api/registry/import/{id}.",response=RegistryImportProgress.class)
+	public ResponseEntity<Object> importFile(
+			@ApiParam(name = "Type of records in file", allowEmptyValue = false, allowMultiple = false, example = "TAXPAYERS", required = true, type = "String")
+			@RequestParam("type") String type,
+			@ApiParam(name = "Name of file being uploaded (the extension tells the file format, CSV is assumed otherwise)", required = false, example = "taxpayers.csv", type = "String")
+			@RequestParam(value="filename", required=false) String filename,
+			HttpServletRequest request) {
+
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		if (auth==null)
+			throw new UserNotFoundException();
+
+		ImportType importType = ImportType.parse(type);
+		if (importType==null) {
+			return ControllerUtils.returnBadRequest("registry.import.unknown.type", messageSource, type,
+					Arrays.stream(ImportType.values()).map(ImportType::name).collect(Collectors.joining(", ")));
+		}
+
+		String requiredRole;
+		switch (importType) {
+		case TAXPAYERS:
+			requiredRole = "ROLE_TAXPAYER_WRITE";
+			break;
+		case USERS:
+			requiredRole = "ROLE_USER_WRITE";
+			break;
+		default:
+			requiredRole = "ROLE_INTERPERSONAL_WRITE";
+		}
+		if (auth.getAuthorities().stream().noneMatch(ga->requiredRole.equalsIgnoreCase(ga.getAuthority()))) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).body(messageSource.getMessage("error.accessDenied", null, LocaleContextHolder.getLocale()));
+		}
+
+		if (request.getContentLengthLong()==0) {
+			return ControllerUtils.returnBadRequest("upload.failed.empty.file", messageSource);
+		}
+
+		// The request body is copied to a temporary file, never kept whole in memory, and imported at background
+		RegistryImportProgress progress;
+		try {
+			progress = registryImportService.importStream(importType, request.getInputStream(), filename,
+				auth.getName(), ControllerUtils.isSystemAdmin());
+		}
+		catch (Exception ex) {
+			log.log(Level.SEVERE, "Failed to receive file for registry import", ex);
+			return ResponseEntity.badRequest().body(messageSource.getMessage("op.failed", null, LocaleContextHolder.getLocale()));
+		}
+
+		return ResponseEntity.status(HttpStatus.ACCEPTED).body(progress);
+	}
+
+	@Secured({"ROLE_TAXPAYER_WRITE","ROLE_USER_WRITE","ROLE_INTERPERSONAL_WRITE"})
+	@GetMapping(value="/registry/import/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation(value="Returns the progress of a bulk import, including the rows that could not be imported",response=RegistryImportProgress.class)
+	public ResponseEntity<Object> getImportProgress(
+			@ApiParam(name = "Import ID", allowEmptyValue = false, allowMultiple = false, required = true, type = "String")
+			@PathVariable("id") String id) {
+
+		Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+		if (auth==null)
+			throw new UserNotFoundException();
+
+		Optional<RegistryImportProgress> progress = registryImportService.getProgress(id);
+		if (!progress.isPresent())
+			return ResponseEntity.notFound().build();
+
+		// Only the user who started the import or some system administrator may see the report
+		if (!auth.getName().equalsIgnoreCase(progress.get().getUser()) && !ControllerUtils.isSystemAdmin()) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).body(messageSource.getMessage("error.accessDenied", null, LocaleContextHolder.getLocale()));
+		}
+
+		return ResponseEntity.ok().body(progress.get());
+	}
+}
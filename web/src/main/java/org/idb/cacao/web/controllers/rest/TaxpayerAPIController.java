@@ -23,9 +23,11 @@ import javax.validation.Valid;
 
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.search.sort.SortOrder;
+import org.idb.cacao.api.ETLContext;
 import org.idb.cacao.api.Taxpayer;
 import org.idb.cacao.api.Views;
 import org.idb.cacao.web.controllers.AdvancedSearch;
+import org.idb.cacao.web.controllers.services.PublishedDataService;
 import org.idb.cacao.web.dto.NameId;
 import org.idb.cacao.web.dto.PaginationData;
 import org.idb.cacao.web.dto.SearchResult;
@@ -90,6 +92,9 @@ public class TaxpayerAPIController {
 	
 	@Autowired
 	private RestHighLevelClient elasticsearchClient;
+
+	@Autowired
+	private PublishedDataService publishedDataService;
 	
 	@Secured({"ROLE_TAXPAYER_READ"})
 	@JsonView(Views.Declarant.class)
@@ -179,7 +184,7 @@ public class TaxpayerAPIController {
 	@Secured({"ROLE_TAXPAYER_WRITE"})
     @PostMapping(value="/taxpayer", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
 	@ApiOperation(value="Add a new taxpayer",response=TaxpayerDto.class)
-	@CacheEvict(value={"qualifierValues"})
+	@CacheEvict(value={"qualifierValues"}, allEntries=true)
     public ResponseEntity<Object> addTaxpayer(@Valid @RequestBody TaxpayerDto taxpayer, BindingResult result) {
         if (result.hasErrors()) {
         	return ControllerUtils.returnErrors(result, messageSource);
@@ -211,7 +216,7 @@ public class TaxpayerAPIController {
 	@Secured({"ROLE_TAXPAYER_WRITE"})
 	@PutMapping(value="/taxpayer/{id}", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
 	@ApiOperation(value="Updates an existing taxpayer",response=TaxpayerDto.class)
-	@CacheEvict(value={"qualifierValues"})
+	@CacheEvict(value={"qualifierValues"}, allEntries=true)
     public ResponseEntity<Object> updateTaxpayer(@PathVariable("id") String id, @Valid @RequestBody TaxpayerDto taxpayer, BindingResult result) {
         if (result.hasErrors()) {
         	return ControllerUtils.returnErrors(result, messageSource);
@@ -228,16 +233,22 @@ public class TaxpayerAPIController {
         }
 
         Taxpayer entity = existent.get();
+        Map<String,Object> previousData = ETLContext.getTaxpayerBasicInformation(entity);
         taxpayer.updateEntity(entity, false);
         taxpayerRepository.saveWithTimestamp(entity);
         
+        // The ETL denormalizes some of the taxpayer information in published data
+        if (PublishedDataService.hasChangedPublishedTaxpayerData(previousData, ETLContext.getTaxpayerBasicInformation(entity))) {
+        	publishedDataService.updatePublishedTaxpayerData(entity);
+        }
+        
         return ResponseEntity.ok().body(taxpayer);
     }
     
 	@Secured({"ROLE_TAXPAYER_WRITE"})
 	@DeleteMapping(value="/taxpayer/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
 	@ApiOperation(value="Deletes an existing taxpayer",response=TaxpayerDto.class)
-	@CacheEvict(value={"qualifierValues"})
+	@CacheEvict(value={"qualifierValues"}, allEntries=true)
     public ResponseEntity<Object> deleteTaxpayer(@PathVariable("id") String id) {
     	Optional<Taxpayer> existent = taxpayerRepository.findById(id);
         if (!existent.isPresent())
@@ -320,7 +331,7 @@ public class TaxpayerAPIController {
 	@Secured({"ROLE_TAXPAYER_WRITE"})
     @PostMapping(value="/taxpayers", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
 	@ApiOperation(value="Add multiple taxpayer",response=TaxpayerDto.class)
-	@CacheEvict(value={"qualifierValues"})
+	@CacheEvict(value={"qualifierValues"}, allEntries=true)
     public ResponseEntity<Object> addTaxpayers(@Valid @RequestBody TaxpayerDto[] taxpayers, BindingResult result) {
         if (result.hasErrors()) {
         	return ControllerUtils.returnErrors(result, messageSource);
@@ -337,6 +348,8 @@ public class TaxpayerAPIController {
         List<Taxpayer> existents = taxpayerRepository.findByTaxPayerIdIn(taxpayerIds);
         Map<String, Taxpayer> existentsMap = existents.stream()
         	.collect(Collectors.toMap(Taxpayer::getTaxPayerId, Function.identity()));
+        Map<String, Map<String,Object>> previousData = existents.stream()
+        	.collect(Collectors.toMap(Taxpayer::getTaxPayerId, ETLContext::getTaxpayerBasicInformation, (a,b)->a));
         List<Taxpayer> updated = Arrays.stream(taxpayers)
         	.map(t -> addOrUpdateTaxpayer( existentsMap.getOrDefault(t.getTaxPayerId(), new Taxpayer()), t, null))
         	.collect(Collectors.toList());
@@ -348,6 +361,18 @@ public class TaxpayerAPIController {
         	log.log(Level.SEVERE,"Create taxpayer failed", ex);
         	return ResponseEntity.badRequest().body(messageSource.getMessage(ERROR_OP_FAILED, null, LocaleContextHolder.getLocale()));
         }
+        
+        // The ETL denormalizes some of the taxpayer information in published data
+        List<Taxpayer> changed = updated.stream()
+        	.filter(t -> previousData.containsKey(t.getTaxPayerId())
+        		&& PublishedDataService.hasChangedPublishedTaxpayerData(previousData.get(t.getTaxPayerId()), ETLContext.getTaxpayerBasicInformation(t)))
+        	.collect(Collectors.toList());
+        try {
+        	publishedDataService.updatePublishedTaxpayerData(changed, /*waitForCompletion*/false);
+        }
+        catch (Exception ex) {
+        	log.log(Level.WARNING, "Could not update "+changed.size()+" taxpayers in published data", ex);
+        }
         return ResponseEntity.ok().body(updated);
     }
 }
@@ -21,6 +21,7 @@ import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.search.sort.SortOrder;
 import org.idb.cacao.api.Views;
 import org.idb.cacao.web.controllers.AdvancedSearch;
+import org.idb.cacao.web.controllers.services.ApiTokenService;
 import org.idb.cacao.web.controllers.services.UserService;
 import org.idb.cacao.web.dto.PaginationData;
 import org.idb.cacao.web.dto.UserDto;
@@ -84,6 +85,9 @@ public class UserAPIController {
 	
 	@Autowired
 	private UserService userService;
+
+	@Autowired
+	private ApiTokenService apiTokenService;
 	
 	@Autowired
 	private RestHighLevelClient elasticsearchClient;
@@ -289,6 +293,7 @@ public class UserAPIController {
         user.setActive(false);
         try {
         	userRepository.saveWithTimestamp(user);
+        	apiTokenService.evict(user.getId());
         }
         catch (Exception ex) {
         	log.log(Level.SEVERE,"Delete user failed", ex);
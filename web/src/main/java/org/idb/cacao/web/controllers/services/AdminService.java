@@ -30,13 +30,13 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -77,6 +77,8 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentSituationHistory;
 import org.idb.cacao.api.DocumentUploaded;
@@ -108,9 +110,11 @@ import org.idb.cacao.web.repositories.DocumentTemplateRepository;
 import org.idb.cacao.web.repositories.DocumentUploadedRepository;
 import org.idb.cacao.web.repositories.DocumentValidationErrorMessageRepository;
 import org.idb.cacao.web.repositories.DomainTableRepository;
+import org.idb.cacao.web.repositories.FilingHistoryRepository;
 import org.idb.cacao.web.repositories.SyncCommitHistoryRepository;
 import org.idb.cacao.web.repositories.SyncCommitMilestoneRepository;
 import org.idb.cacao.web.repositories.TaxpayerRepository;
+import org.idb.cacao.web.utils.BoundedCache;
 import org.idb.cacao.web.utils.CreateDocumentTemplatesSamples;
 import org.idb.cacao.web.utils.ESUtils;
 import org.idb.cacao.web.utils.ErrorUtils;
@@ -123,6 +127,8 @@ import org.idb.cacao.web.utils.generators.SampleLegalEntities;
 import org.idb.cacao.web.utils.generators.SampleTaxRegimes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.MessageSource;
 import org.springframework.core.env.Environment;
 import org.springframework.data.domain.PageRequest;
@@ -134,6 +140,7 @@ import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
@@ -174,11 +181,23 @@ public class AdminService {
 	@Autowired
 	private DocumentSituationHistoryRepository documentSituationHistoryRepository;
 	
+	@Autowired
+	private FilingHistoryRepository filingHistoryRepository;
+	
 	@Autowired
 	private DocumentValidationErrorMessageRepository documentValidationErrorMessageRepository;
 
 	@Autowired
 	private DomainTableService domainTableService;
+
+	@Autowired
+	private TemplateChangeNotifier templateChangeNotifier;
+
+	@Autowired
+	private AuditTrailService auditTrailService;
+
+	@Autowired
+	private CacheManager cacheManager;
 	
 	@Autowired
 	private FileSystemStorageService fileSystemStorageService;
@@ -222,6 +241,13 @@ public class AdminService {
 			new Option("c", "cmd", true, "Returns information about the provided command option")
 			),
 
+		AUDIT(AdminService::audit,
+			"Returns information about the audit trail writer (entries waiting in buffer, written, discarded and failed)"),
+
+		CACHE(AdminService::cache,
+			"Returns statistics about the caches of analysis results (size, hit ratio, evictions)",
+			new Option("c","clear",false,"Discards all entries of all caches")),
+
 		COPY_CONFIG(AdminService::copyConfig,
 			"Copy Kibana configurations from one SPACE to another, including index pattern definitions",
 			new Option("s","source",true, "The identifier of the SPACE to copy from (source)"),
@@ -251,7 +277,7 @@ public class AdminService {
 				new Option("dt","domain_table",true, "Deletes the domain table with the name provided as argument. If there is more than one version for the same domain table, you may inform a specific version separated from the table name by a colon. Otherwise, it will delete all versions of the same domain table.  If provided the argument 'all', it will delete all domain tables. Recreates built-in domain tables automatically."),
 				new Option("u","uploads",false, "Deletes all upload records and uploaded files."),
 				new Option("v","validated",false, "Deletes all validated records."),
-				new Option("p","published",false, "Deletes all published (denormalized) views."),
+				new Option("p","published",false, "Deletes all published (denormalized) views (and the fingerprints of previous ETL's, so that the ETL runs again for the same inputs)."),
 				new Option("s","sync",false, "Deletes all history of SYNC operations."),
 				new Option("txp","taxpayers",false, "Deletes all taxpayers (their names and other information in registry)."),
 				new Option("kp","kibana_patterns",false, "Deletes all index patterns related to CACAO from all spaces of Kibana."),
@@ -292,7 +318,8 @@ public class AdminService {
 			"Redo some operation",
 			new Option("val","validation",true, "Redo the validation phase for one or more documents. Inform 'all' as parameter for this option in order to redo the validation for all previously uploaded documents. "
 					+ "Inform 'unprocessed' as parameter for this option in order to redo only those documents that are not in PROCESSED state."
-					+ "Inform 'processed' or 'pending' or 'received' or 'invalid' or 'valid' as parameter for this option in order to redo only those documents that are in the corresponding state.")),
+					+ "Inform 'processed' or 'pending' or 'received' or 'invalid' or 'valid' as parameter for this option in order to redo only those documents that are in the corresponding state. "
+					+ "The fingerprints of previous ETL's are deleted, so that the ETL runs again even if the inputs have not changed.")),
 
 		SAMPLES(AdminService::samples,
 			"Add to database sample data and other configurations",
@@ -624,6 +651,63 @@ public class AdminService {
 		return log;
 	}
 		
+	/**
+	 * Returns information about the audit trail writer
+	 */
+	public static Object audit(AdminService service, CommandLine cmdLine) {
+
+		AuditTrailService audit = service.auditTrailService;
+
+		StringBuilder report = new StringBuilder();
+		report.append("Entries in buffer: ").append(audit.getQueueDepth()).append(" of ").append(audit.getCapacity()).append("\n");
+		report.append("Entries written: ").append(audit.getWrittenCount()).append("\n");
+		report.append("Entries discarded (buffer full): ").append(audit.getDroppedCount()).append("\n");
+		report.append("Entries failed: ").append(audit.getFailedCount()).append("\n");
+		report.append("Bulk requests: ").append(audit.getBulkRequestsCount()).append("\n");
+		report.append("Last bulk request: ").append(audit.getLastFlush()==null ? "none" : audit.getLastFlush().toString()).append("\n");
+		report.append("Overflow policy: ").append(audit.getOverflowPolicy()).append("\n");
+
+		return report.toString();
+	}
+
+	/**
+	 * Return statistics about the caches
+	 */
+	public static Object cache(AdminService service, CommandLine cmdLine) {
+
+		CacheManager cacheManager = service.cacheManager;
+
+		StringBuilder report = new StringBuilder();
+		for (String cacheName: new TreeSet<>(cacheManager.getCacheNames())) {
+			Cache cache = cacheManager.getCache(cacheName);
+			if (cache==null)
+				continue;
+			if (cmdLine.hasOption("c")) {
+				cache.clear();
+			}
+			report.append("Cache: ").append(cacheName).append("\n");
+			if (!(cache instanceof BoundedCache)) {
+				report.append("\tNo statistics available\n");
+				continue;
+			}
+			BoundedCache bounded = (BoundedCache)cache;
+			CacheStats stats = bounded.getStats();
+			report.append("\tEntries: ").append(bounded.size()).append("\n");
+			report.append("\tMaximum weight: ").append(bounded.getMaximumWeight()).append("\n");
+			report.append("\tTime to live (minutes): ").append(bounded.getTtlMinutes()).append("\n");
+			report.append("\tHits: ").append(stats.hitCount()).append("\n");
+			report.append("\tMisses: ").append(stats.missCount()).append("\n");
+			report.append("\tHit ratio: ").append(String.format("%.2f%%", stats.hitRate()*100.0)).append("\n");
+			report.append("\tEvictions (size or time limit): ").append(stats.evictionCount()).append("\n");
+			report.append("\tAverage load time (ms): ").append(String.format("%.1f", stats.averageLoadPenalty()/1_000_000.0)).append("\n");
+		}
+		if (cmdLine.hasOption("c")) {
+			report.append("All caches have been cleared\n");
+		}
+
+		return report.toString();
+	}
+
 	/**
 	 * Return information about the directory for LOG files
 	 */
@@ -1113,7 +1197,7 @@ public class AdminService {
 					// Generates an event at KAFKA in order to start the validation phase over this file
 	
 					FileUploadedEvent event = new FileUploadedEvent();
-					event.setFileId(savedInfo.getId());
+					event.setDocument(savedInfo);
 					fileUploadedProducer.fileUploaded(event, partition);
 					
 					return null;
@@ -1450,6 +1534,9 @@ public class AdminService {
 				}
 			}
 			report.append("Deleted ").append(deletedIndices).append(" indices containing ").append(deletedDocuments).append(" published (denormalized) data.\n");
+			
+			// Without the published data, the ETL should not be skipped anymore for the same inputs
+			deleteETLFingerprints(service, report);
 		}
 
 		if (cmdLine.hasOption("v") || cmdLine.hasOption("a")) {
@@ -1553,6 +1640,11 @@ public class AdminService {
 			}
 		}
 
+		if (cmdLine.hasOption("t") || cmdLine.hasOption("dt") || cmdLine.hasOption("a")) {
+			// Deletions do not pass through entity callbacks, so we need to tell other services about them
+			service.templateChangeNotifier.allChanged();
+		}
+
 		if (cmdLine.hasOption("txp") || cmdLine.hasOption("a")) {
 			// Deletes all taxpayers. Recreates domain tables automatically.
 			long countTaxpayers = service.taxPayerRepository.count();
@@ -1565,6 +1657,7 @@ public class AdminService {
 			long countUploads = service.documentUploadedRepository.count();
 			service.documentUploadedRepository.deleteAll();
 			service.documentSituationHistoryRepository.deleteAll();
+			service.filingHistoryRepository.deleteAll();
 			service.documentValidationErrorMessageRepository.deleteAll();
 			report.append("Deleted ").append(countUploads).append(" upload records from database.\n");
 			int deletedFiles = service.fileSystemStorageService.deleteAll();
@@ -1745,6 +1838,24 @@ public class AdminService {
 		return report.toString();
 	}
 
+	/**
+	 * Deletes the fingerprints of the inputs considered by previous ETL's, so that the next ETL of each document
+	 * builds again its published data
+	 */
+	private static void deleteETLFingerprints(AdminService service, StringBuilder report) throws Exception {
+		try {
+			BulkByScrollResponse response = service.elasticsearchClient.deleteByQuery(
+				new DeleteByQueryRequest(IndexNamesUtils.ETL_FINGERPRINTS_INDEX).setQuery(QueryBuilders.matchAllQuery()), 
+				RequestOptions.DEFAULT);
+			report.append("Deleted ").append(response.getDeleted()).append(" fingerprints of previous ETL's.\n");
+		}
+		catch (Exception ex) {
+			if (!CommonErrors.isErrorNoIndexFound(ex)) {
+				throw ex;
+			}
+		}
+	}
+
 	/**
 	 * Redo some operation
 	 */
@@ -1795,15 +1906,17 @@ public class AdminService {
 				stream = null;
 			}
 			if (stream!=null) {
+				// Otherwise the ETL would be skipped for the documents whose inputs have not changed
+				deleteETLFingerprints(service, report);
 				LongAdder countDocs = new LongAdder();
 				try {
-					AtomicInteger partition = new AtomicInteger(0);
 					stream.forEach(doc->{
 						// Generates an event at KAFKA in order to start the validation phase over this file
+						// The partition is chosen by taxpayer, so that documents of the same taxpayer are validated in order
 						
 						FileUploadedEvent event = new FileUploadedEvent();
-						event.setFileId(doc.getId());
-						service.fileUploadedProducer.fileUploaded(event, partition.getAndIncrement());
+						event.setDocument(doc);
+						service.fileUploadedProducer.fileUploaded(event);
 						countDocs.increment();
 
 					});
@@ -25,11 +25,16 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.math3.util.Precision;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.index.query.TermQueryBuilder;
@@ -39,18 +44,22 @@ import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.PipelineAggregatorBuilders;
 import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms.Bucket;
 import org.elasticsearch.search.aggregations.metrics.Avg;
 import org.elasticsearch.search.aggregations.metrics.MedianAbsoluteDeviation;
 import org.elasticsearch.search.aggregations.metrics.Percentiles;
 import org.elasticsearch.search.aggregations.metrics.Sum;
 import org.elasticsearch.search.aggregations.pipeline.BucketSortPipelineAggregationBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.idb.cacao.api.DomainLanguage;
+import org.idb.cacao.api.PopulationRollup;
 import org.idb.cacao.api.utils.IndexNamesUtils;
 import org.idb.cacao.api.utils.ParserUtils;
+import org.idb.cacao.api.utils.QuantileSketch;
 import org.idb.cacao.api.utils.Utils;
 import org.idb.cacao.web.dto.Account;
 import org.idb.cacao.web.dto.AggregatedAccountingFlow;
@@ -59,19 +68,24 @@ import org.idb.cacao.web.dto.AnalysisItem;
 import org.idb.cacao.web.dto.BalanceSheet;
 import org.idb.cacao.web.dto.CustomerVsSupplier;
 import org.idb.cacao.web.dto.Outlier;
+import org.idb.cacao.web.dto.Ownership;
 import org.idb.cacao.web.dto.Shareholding;
 import org.idb.cacao.web.dto.StatementIncomeItem;
 import org.idb.cacao.web.utils.ErrorUtils;
 import org.idb.cacao.web.utils.FormatUtils;
+import org.idb.cacao.web.utils.PublishedDataCacheKey;
 import org.idb.cacao.web.utils.Script;
 import org.idb.cacao.web.utils.SearchUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
+
 /**
  * Service methods to get values for analysis over taxpayers informations 
  * 
@@ -88,8 +102,20 @@ public class AnalysisService {
 	
 	private static final String KEYWORD = ".keyword";
 	private static final String AMOUNT = "amount";
+	private static final String DECLARED_AMOUNT = "declared_amount";
+	private static final String COMPUTED_AMOUNT = "computed_amount";
 	private static final String TAXPAYER_ID_KEYWORD = "taxpayer_id.keyword";
 
+	/**
+	 * Maximum number of searches submitted together in one multi-search request
+	 */
+	private static final int MAX_REQUESTS_PER_MULTI_SEARCH = 100;
+
+	/**
+	 * Maximum number of accounts returned by each search of balance sheets
+	 */
+	private static final int ACCOUNTS_PAGE_SIZE = 1_000;
+
 	@Autowired
 	private RestHighLevelClient elasticsearchClient;
 	
@@ -99,17 +125,29 @@ public class AnalysisService {
 	@Autowired
 	private MessageSource messageSource;
 
+	/**
+	 * Use the population statistics computed by ETL whenever they are up to date with published data
+	 */
+	@Value("${analysis.rollup.enabled:true}")
+	private boolean useRollup;
+
 	private final String BALANCE_SHEET_INDEX = IndexNamesUtils.formatIndexNameForPublishedData("Balance Sheet Monthly");
 	private final String COMPUTED_STATEMENT_INCOME_INDEX = IndexNamesUtils
 			.formatIndexNameForPublishedData("Accounting Computed Statement Income");
 	private final String DECLARED_STATEMENT_INCOME_INDEX = IndexNamesUtils
 			.formatIndexNameForPublishedData("Accounting Declared Statement Income");
+	private final String STATEMENT_INCOME_RECONCILIATION_INDEX = IndexNamesUtils
+			.formatIndexNameForPublishedData("Accounting Statement Income Reconciliation");
 	private final String SHAREHOLDING_INDEX = IndexNamesUtils
 			.formatIndexNameForPublishedData("Accounting Shareholding");
 	public static final String CUSTOMERS_INDEX = IndexNamesUtils
 			.formatIndexNameForPublishedData("Accounting Customers");
 	public static final String SUPPLIERS_INDEX = IndexNamesUtils
 			.formatIndexNameForPublishedData("Accounting Suppliers");
+	public static final String CUSTOMERS_SUPPLIERS_RECONCILIATION_INDEX = IndexNamesUtils
+			.formatIndexNameForPublishedData("Accounting Customers Suppliers Reconciliation");
+	public static final String OWNERSHIP_INDEX = IndexNamesUtils
+			.formatIndexNameForPublishedData("Accounting Ownership");
 	private static final String TAXPAYER_INDEX = "cacao_taxpayers";
 
 	private static final int SOURCE_JOURNAL = 1;
@@ -131,6 +169,12 @@ public class AnalysisService {
 	public static final int ANALYTICS_ACCOUNTS = 6;
 	public static final int CUSTOMERS = 7;
 	public static final int SUPPLIERS = 8;
+	public static final int OWNERSHIP_GROUP = 9;
+
+	/**
+	 * Maximum number of ownership relations returned for one economic group
+	 */
+	private static final int OWNERSHIP_GROUP_MAX_SIZE = 10_000;
 
 	/**
 	 * Retrieves and return a balance sheet for a given taxpayer and period (month
@@ -162,9 +206,11 @@ public class AnalysisService {
 	 * @param period     A period to filter for
 	 * @param groupBy	 Fields do group by
 	 * @param metric	 Field to sum value
+	 * @param afterKey	 Position of the page of accounts to return (NULL for the first page)
 	 * @return A {@link SearchRequest} with all parameters and filters
 	 */
-	private SearchRequest searchBalance(final String taxpayerId, YearMonth period, String[] groupBy, AggregationBuilder metric) {
+	private SearchRequest searchBalance(final String taxpayerId, YearMonth period, String[] groupBy, AggregationBuilder metric,
+			Map<String, Object> afterKey) {
 
 		// Index over 'balance sheet monthly' objects
 		SearchRequest searchRequest = new SearchRequest(BALANCE_SHEET_INDEX);
@@ -179,8 +225,8 @@ public class AnalysisService {
 		// Filter for Month
 		query = query.must(new TermQueryBuilder("month_number", period.getMonthValue()));
 		
-		// Configure the aggregations		
-		AbstractAggregationBuilder<?> aggregationBuilder = SearchUtils.aggregationBuilder(groupBy, metric);
+		// Configure the aggregations (one page of accounts at a time)
+		AbstractAggregationBuilder<?> aggregationBuilder = SearchUtils.compositeAggregationBuilder(groupBy, ACCOUNTS_PAGE_SIZE, afterKey, metric);
 		buildSearchSourceBuilder(query, aggregationBuilder, searchRequest);
 		return searchRequest;
 	}
@@ -197,25 +243,104 @@ public class AnalysisService {
 	 * 
 	 * @return A {@link List} of {@link Account}
 	 */
-	@Cacheable(value = "accounts")
+	@Cacheable(value = "accounts", key = "#root.target.getAccountsCacheKey(#p0, #p1, #p2)")
 	public List<Account> getAccounts(final String taxpayerId, YearMonth period, boolean fetchZeroBalance) {
 
-		String[] groupBy = {"account_category.keyword", translate("account_category_name") + KEYWORD,
-				"account_subcategory.keyword", translate("account_subcategory_name") + KEYWORD, 
-				"account_code.keyword", "account_name.keyword"};
-		
-		AggregationBuilder metric = AggregationBuilders.sum("finalBalance").field("final_balance_with_sign");
-		
-		// Create a search request
-		SearchRequest searchRequest = searchBalance(taxpayerId, period, groupBy, metric);
-
-		// Execute a search
-		SearchResponse sresp = doSearch(searchRequest);
-		if (sresp == null) {
+		List<Account> accounts = getAccounts(taxpayerId, Collections.singletonList(period)).get(0);
+		if (accounts.isEmpty()) {
 			log.log(Level.INFO, () -> "No accounts found for taxPayer " + taxpayerId + " for period " + period.toString());
 			return Collections.emptyList(); // No balance sheet found
 		}
 		
+		return accounts;
+	}
+
+	/**
+	 * Returns the cache key of {@link #getAccounts(String, YearMonth, boolean) getAccounts}. The result depends on the balance sheet of the taxpayer.
+	 */
+	public PublishedDataCacheKey getAccountsCacheKey(String taxpayerId, YearMonth period, boolean fetchZeroBalance) {
+		return PublishedDataCacheKey.of(taxpayerId, Collections.singletonList(BALANCE_SHEET_INDEX), period, fetchZeroBalance);
+	}
+
+	/**
+	 * Retrieve and return the accounts of a taxpayer for several periods. The accounts are retrieved in pages of
+	 * {@link #ACCOUNTS_PAGE_SIZE ACCOUNTS_PAGE_SIZE} for all the periods at once, so the number of round trips depends
+	 * on the size of the largest chart of accounts, not on the number of periods.
+	 * 
+	 * @param taxpayerId       A taxpayer to filter for
+	 * @param periods          Periods to filter for
+	 * @return A {@link List} of {@link Account} for each period, in the same order as the periods
+	 */
+	private List<List<Account>> getAccounts(final String taxpayerId, List<YearMonth> periods) {
+
+		String[] groupBy = getAccountsGroupBy();
+
+		List<List<Account>> accounts = new ArrayList<>(periods.size());
+		List<Map<String, Object>> afterKeys = new ArrayList<>(periods.size());
+		List<Integer> pending = new ArrayList<>(periods.size());
+		for (int i = 0; i < periods.size(); i++) {
+			accounts.add(new ArrayList<>());
+			afterKeys.add(null);
+			pending.add(i);
+		}
+
+		while (!pending.isEmpty()) {
+			
+			// Request the next page for all periods that still have accounts to return
+			List<SearchRequest> requests = new ArrayList<>(pending.size());
+			for (int i : pending) {
+				requests.add(searchBalance(taxpayerId, periods.get(i), groupBy, getAccountsMetric(), afterKeys.get(i)));
+			}
+			List<SearchResponse> responses = doMultiSearch(requests);
+			
+			List<Integer> nextPending = new ArrayList<>(pending.size());
+			for (int r = 0; r < responses.size(); r++) {
+				SearchResponse sresp = responses.get(r);
+				if (sresp == null)
+					continue;
+				int i = pending.get(r);
+				Map<String, Object> afterKey = collectAccounts(sresp, groupBy, accounts.get(i));
+				if (afterKey != null) {
+					afterKeys.set(i, afterKey);
+					nextPending.add(i);
+				}
+			}
+			pending = nextPending;
+		}
+
+		for (List<Account> periodAccounts : accounts) {
+			if (!periodAccounts.isEmpty()) {
+				addCategorySubcategoryData(periodAccounts);
+				periodAccounts.sort(null);
+			}
+		}
+		return accounts;
+	}
+
+	/**
+	 * Fields to group by when searching accounts of balance sheets
+	 */
+	private String[] getAccountsGroupBy() {
+		return new String[] {"account_category.keyword", translate("account_category_name") + KEYWORD,
+				"account_subcategory.keyword", translate("account_subcategory_name") + KEYWORD, 
+				"account_code.keyword", "account_name.keyword"};
+	}
+
+	/**
+	 * Metric to collect when searching accounts of balance sheets
+	 */
+	private AggregationBuilder getAccountsMetric() {
+		return AggregationBuilders.sum("finalBalance").field("final_balance_with_sign");
+	}
+
+	/**
+	 * Collects one page of accounts from the result of a search built by {@link #searchBalance(String, YearMonth, String[], AggregationBuilder, Map) searchBalance}
+	 * with {@link #getAccountsGroupBy() getAccountsGroupBy} and {@link #getAccountsMetric() getAccountsMetric}
+	 * 
+	 * @return The position of the next page or NULL if this is the last page
+	 */
+	private Map<String, Object> collectAccounts(SearchResponse sresp, String[] groupBy, List<Account> accounts) {
+
 		BiFunction<Aggregations, String[], Account> function = (agg, values) -> {
 			Sum sum = agg.get("finalBalance");
 			Account account = new Account(values, sum.getValue());
@@ -223,10 +348,7 @@ public class AnalysisService {
 			return account;
 		};		
 			
-		List<Account> accounts = SearchUtils.collectAggregations(sresp.getAggregations(), groupBy, function);
-		addCategorySubcategoryData(accounts);
-		accounts.sort(null);
-		return accounts;
+		return SearchUtils.collectCompositeAggregation(sresp.getAggregations(), groupBy, ACCOUNTS_PAGE_SIZE, function, accounts);
 	}
 
 	/**
@@ -319,6 +441,20 @@ public class AnalysisService {
 
 	}
 
+	/**
+	 * Returns a balance sheet given its accounts
+	 * 
+	 * @param taxpayerId Taxpayer of the balance sheet
+	 * @param accounts   Accounts of the balance sheet
+	 * @return A balance sheet with it's accounts
+	 */
+	private BalanceSheet toBalance(String taxpayerId, List<Account> accounts) {
+		BalanceSheet balance = new BalanceSheet();
+		balance.setTaxPayerId(taxpayerId);
+		balance.setAccounts(accounts);
+		return balance;
+	}
+
 	/**
 	 * Search and return a {@link Map} of accounts for a specific taxpayerid and
 	 * period.
@@ -334,8 +470,14 @@ public class AnalysisService {
 	public List<Map<String, Object>> getMapOfAccounts(String taxpayerId, YearMonth period, boolean fetchZeroBalance,
 			List<YearMonth> additionalPeriods) {
 
+		// Get balances for the initial period and for all the additional periods at once
+		List<YearMonth> periods = new ArrayList<>(1 + additionalPeriods.size());
+		periods.add(period);
+		periods.addAll(additionalPeriods);
+		List<List<Account>> accountsPerPeriod = getAccounts(taxpayerId, periods);
+
 		// Get balance for initial period
-		BalanceSheet balanceP0 = getBalance(taxpayerId, period, fetchZeroBalance);
+		BalanceSheet balanceP0 = toBalance(taxpayerId, accountsPerPeriod.get(0));
 
 		// If there is no accounts for the initial period, there is nothing to return
 		if (balanceP0 == null || balanceP0.getAccounts() == null || balanceP0.getAccounts().isEmpty())
@@ -354,10 +496,10 @@ public class AnalysisService {
 
 		int i = 1;
 		// For each additional period
-		for (YearMonth p : additionalPeriods) {
+		for (int periodIndex = 1; periodIndex < accountsPerPeriod.size(); periodIndex++) {
 
 			// Get balance for period
-			BalanceSheet balance = getBalance(taxpayerId, p, fetchZeroBalance);
+			BalanceSheet balance = toBalance(taxpayerId, accountsPerPeriod.get(periodIndex));
 
 			// If there is no data for this period, go next
 			if (balance == null || balance.getAccounts() == null || balance.getAccounts().isEmpty())
@@ -400,7 +542,7 @@ public class AnalysisService {
 	/**
 	 * Build the query object used by {@link #getAccounts(String, int, String)}
 	 * 
-	 * @param taxpayerIds A {@link List} of taxpayers to tilter for
+	 * @param taxpayersFilter A filter for the taxpayers (see {@link #getQualifierFilter(String, String) getQualifierFilter})
 	 * @param sourceData  An indication of source data (index) to use
 	 * 		Valid values for sourceData are:
 	 * 		1 - SOURCE_JOURNAL
@@ -409,7 +551,7 @@ public class AnalysisService {
 	 * 
 	 * @return A {@link SearchRequest} with all parameters and filters
 	 */
-	private SearchRequest searchComputedStatementIncome(final List<String> taxpayerIds, int sourceData, int year, 
+	private SearchRequest searchComputedStatementIncome(final QueryBuilder taxpayersFilter, int sourceData, int year, 
 			String[] groupBy, AggregationBuilder[] metrics) {
 
 		// Index over 'Accounting Computed Statement Income' objects
@@ -418,13 +560,8 @@ public class AnalysisService {
 
 		BoolQueryBuilder query = QueryBuilders.boolQuery();
 
-		// Filter by taxpayer id
-		BoolQueryBuilder subquery = QueryBuilders.boolQuery();
-		for (String argument : taxpayerIds) {
-			subquery = subquery.should(new TermQueryBuilder(TAXPAYER_ID_KEYWORD, argument));
-		}
-		subquery = subquery.minimumShouldMatch(1);
-		query = query.must(subquery);
+		// Filter by taxpayers qualifier (denormalized by ETL)
+		query = query.filter(taxpayersFilter);
 
 		// Filter for year
 		query = query.must(new TermQueryBuilder("year", year));
@@ -460,44 +597,55 @@ public class AnalysisService {
 			return null;
 		}
 
-		List<String> taxpayerIds = getTaxPayersId(qualifier, qualifierValue);
+		QueryBuilder taxpayersFilter = getQualifierFilter(qualifier, qualifierValue);
+		if (taxpayersFilter == null) {
+			log.log(Level.WARNING, () -> "Unknown qualifier " + qualifier);
+			return null;
+		}
+
+		long totalTaxpayers = countTaxpayers(qualifier, qualifierValue);
 
-		if (taxpayerIds == null || taxpayerIds.isEmpty()) {
+		if (totalTaxpayers == 0) {
 			log.log(Level.INFO, () -> "No taxpayers found for qualifier " + qualifier + " for year " + year);
 			return null; // No data found
 		}
 		
-		//String[] groupBy = {"byNumber", "byName"};
-		String[] groupBy = {"statement_number.keyword",translate("statement_name") + KEYWORD};
-		AggregationBuilder[] metrics = {
-			AggregationBuilders.sum("sum").field(AMOUNT),
-			AggregationBuilders.percentiles(AMOUNT).field("amount_relative"),
-			AggregationBuilders.avg("average").field("amount_relative"),
-			AggregationBuilders.medianAbsoluteDeviation("deviation").field("amount_relative")
-		};		
-
-		// Create a search request
-		SearchRequest searchRequest = searchComputedStatementIncome(taxpayerIds, sourceData, year, groupBy, metrics);
+		// Population statistics are taken from the rollup maintained by ETL, as long as it's up to date
+		List<AnalysisItem> items = (useRollup) ? getGeneralAnalysisItemsFromRollup(qualifier, qualifierValue, sourceData, year) : null;
 
-		// Execute a search
-		SearchResponse sresp = doSearch(searchRequest);
-		if (sresp == null) {
-			log.log(Level.INFO, () -> "No data found for qualifier " + qualifier + " for year " + year);
-			return null; // No data found
+		if (items == null) {
+			
+			//String[] groupBy = {"byNumber", "byName"};
+			String[] groupBy = {"statement_number.keyword",translate("statement_name") + KEYWORD};
+			AggregationBuilder[] metrics = {
+				AggregationBuilders.sum("sum").field(AMOUNT),
+				AggregationBuilders.percentiles(AMOUNT).field("amount_relative"),
+				AggregationBuilders.avg("average").field("amount_relative"),
+				AggregationBuilders.medianAbsoluteDeviation("deviation").field("amount_relative")
+			};		
+	
+			// Create a search request
+			SearchRequest searchRequest = searchComputedStatementIncome(taxpayersFilter, sourceData, year, groupBy, metrics);
+	
+			// Execute a search
+			SearchResponse sresp = doSearch(searchRequest);
+			if (sresp == null) {
+				log.log(Level.INFO, () -> "No data found for qualifier " + qualifier + " for year " + year);
+				return null; // No data found
+			}
+	
+			// Let's fill the resulting list with values
+			items = fillGeneralAnalysisItems(sresp, groupBy);
+			
 		}
 
-		// Let's fill the resulting list with values
-		List<AnalysisItem> items = fillGeneralAnalysisItems(sresp, groupBy);
-
-		// Add outliers
-		for (AnalysisItem item : items) {
-			addOutliers(item, sourceData, year, taxpayerIds);
-		}
+		// Add outliers (always from published data, since we need the individual taxpayers)
+		addOutliers(items, sourceData, year, taxpayersFilter);
 
 		AnalysisData data = new AnalysisData();
 		data.setItems(items);
 		updateScale(data);
-		data.setTotalTaxpayers(FormatUtils.getQuantityFormat().format(taxpayerIds.size()));
+		data.setTotalTaxpayers(FormatUtils.getQuantityFormat().format(totalTaxpayers));
 
 		return data;
 
@@ -544,6 +692,79 @@ public class AnalysisService {
 		
 	}
 
+	/**
+	 * Returns the population statistics for each statement entry taken from the {@link PopulationRollup rollup} maintained by ETL.
+	 * 
+	 * @param qualifier      Name of the qualifier (e.g. 'qualifier1')
+	 * @param qualifierValue Value of the qualifier
+	 * @param sourceData     An indication of source data (index) to use
+	 * @param year           Year of analysis
+	 * @return A {@link List} of {@link AnalysisItem} or NULL if the rollup is not available or is not up to date with published data
+	 */
+	private List<AnalysisItem> getGeneralAnalysisItemsFromRollup(String qualifier, String qualifierValue, int sourceData, int year) {
+		
+		final String index = SOURCE_JOURNAL == sourceData ? COMPUTED_STATEMENT_INCOME_INDEX : DECLARED_STATEMENT_INCOME_INDEX;
+		final String qualifierField = PublishedDataService.getPublishedFieldForQualifier(qualifier);
+		if (qualifierField == null)
+			return null;
+		
+		try {
+			if (!PopulationRollup.isFresh(elasticsearchClient, index, year))
+				return null;
+		} catch (Exception ex) {
+			log.log(Level.WARNING, "Could not check the rollup of " + index + " for year " + year, ex);
+			return null;
+		}
+		
+		SearchRequest searchRequest = new SearchRequest(PopulationRollup.INDEX_ROLLUP);
+		BoolQueryBuilder query = QueryBuilders.boolQuery()
+				.filter(new TermQueryBuilder(PopulationRollup.FIELD_SOURCE_INDEX, index))
+				.filter(new TermQueryBuilder(PopulationRollup.FIELD_PERIOD, year))
+				.filter(new TermQueryBuilder(PopulationRollup.FIELD_QUALIFIER, qualifierField))
+				.filter(new TermQueryBuilder(PopulationRollup.FIELD_QUALIFIER_VALUE, qualifierValue));
+		searchRequest.source(new SearchSourceBuilder().query(query).size(10_000)
+				.sort(PopulationRollup.FIELD_GROUP, SortOrder.ASC));
+		
+		SearchResponse sresp = doSearch(searchRequest);
+		if (sresp == null)
+			return null;
+		
+		final String labelField = translate("statement_name");
+		List<AnalysisItem> items = new ArrayList<>();
+		for (SearchHit hit : sresp.getHits()) {
+			Map<String, Object> entry = hit.getSourceAsMap();
+			QuantileSketch sketch;
+			try {
+				sketch = QuantileSketch.fromBase64((String) entry.get(PopulationRollup.FIELD_SKETCH));
+			} catch (IllegalArgumentException ex) {
+				log.log(Level.WARNING, "Invalid rollup entry " + hit.getId(), ex);
+				return null;
+			}
+			if (sketch == null || sketch.getCount() == 0)
+				continue;
+			
+			@SuppressWarnings("unchecked")
+			Map<String, Object> labels = (Map<String, Object>) entry.get(PopulationRollup.FIELD_LABELS);
+			Object label = (labels == null) ? null : labels.getOrDefault(labelField, labels.get("statement_name"));
+			String[] values = { (String) entry.get(PopulationRollup.FIELD_GROUP), (label == null) ? "" : label.toString() };
+			
+			Number sum = (Number) entry.get(PopulationRollup.FIELD_SUM);
+			double sumValue = sum == null ? 0d 
+					: Precision.round(sum.doubleValue(), 2, RoundingMode.HALF_DOWN.ordinal());
+			double averegaValue = Precision.round(sketch.getAverage(), 2, RoundingMode.HALF_DOWN.ordinal());
+			double deviationValue = Precision.round(sketch.getMedianAbsoluteDeviation(), 2, RoundingMode.HALF_DOWN.ordinal());
+			
+			AnalysisItem analysisItem = new AnalysisItem(values, sumValue, averegaValue, deviationValue, 
+					sketch.percentile(25), sketch.percentile(50), sketch.percentile(75));
+			
+			if (!Double.isNaN(analysisItem.getQ1()) && !Double.isNaN(analysisItem.getQ3())
+					&& analysisItem.getQ1() != 0 && analysisItem.getQ3() != 0) {
+				items.add(analysisItem);
+			}
+		}
+		return items;
+	}
+
 	/**
 	 * Calculate and store a scale in with graph will be displayed
 	 * 
@@ -621,40 +842,48 @@ public class AnalysisService {
 	}
 
 	/**
-	 * Add outliers to analysis data
+	 * Add outliers to analysis data. All the searches (minimal and maximal values for each item) are
+	 * executed at once.
 	 * 
-	 * @param item        Analysis item
+	 * @param items       Analysis items
 	 * @param sourceData  An indication of source data (index) to use
 	 * @param year        Year of analysis
-	 * @param taxpayerIds A {@link List} of taxpayers to filter for
+	 * @param taxpayersFilter A filter for the taxpayers (see {@link #getQualifierFilter(String, String) getQualifierFilter})
 	 */
-	private void addOutliers(AnalysisItem item, int sourceData, int year, List<String> taxpayerIds) {
+	private void addOutliers(List<AnalysisItem> items, int sourceData, int year, QueryBuilder taxpayersFilter) {
 
-		if (item.getStatementName() == null)
-			return;
-		
 		// Define group by fields
 		String[] groupBy = { TAXPAYER_ID_KEYWORD, "taxpayer_name.keyword" };		
 
-		// Add outliers for minimal value
-		SearchRequest searchRequest = getRequestForOutliers(true /* min */, item.getStatementOrder(), item.getMin(),
-				sourceData, year, taxpayerIds, groupBy);
-		
-		// Execute a search
-		SearchResponse sresp = doSearch(searchRequest);
-		if (sresp != null) {
-			fillOutliers(sresp,item,groupBy);
+		List<AnalysisItem> itemsToSearch = new ArrayList<>(items.size());
+		List<SearchRequest> requests = new ArrayList<>(items.size() * 2);
+		for (AnalysisItem item : items) {
+			if (item.getStatementName() == null)
+				continue;
+			itemsToSearch.add(item);
+			
+			// Add outliers for minimal value
+			requests.add(getRequestForOutliers(true /* min */, item.getStatementOrder(), item.getMin(),
+					sourceData, year, taxpayersFilter, groupBy));
+			
+			// Add outliers for maximal value
+			requests.add(getRequestForOutliers(false /* min */, item.getStatementOrder(), item.getMax(), sourceData,
+					year, taxpayersFilter, groupBy));
 		}
-
-		// Add outliers for maximal value
-		searchRequest = getRequestForOutliers(false /* min */, item.getStatementOrder(), item.getMax(), sourceData,
-				year, taxpayerIds, groupBy);
-
-		// Execute a search
-		sresp = doSearch(searchRequest);
-
-		if (sresp != null) {			
-			fillOutliers(sresp,item,groupBy);
+		
+		// Execute all searches
+		List<SearchResponse> responses = doMultiSearch(requests);
+
+		for (int i = 0; i < itemsToSearch.size(); i++) {
+			AnalysisItem item = itemsToSearch.get(i);
+			SearchResponse srespMin = responses.get(i * 2);
+			if (srespMin != null) {
+				fillOutliers(srespMin,item,groupBy);
+			}
+			SearchResponse srespMax = responses.get(i * 2 + 1);
+			if (srespMax != null) {			
+				fillOutliers(srespMax,item,groupBy);
+			}
 		}
 
 	}
@@ -687,11 +916,11 @@ public class AnalysisService {
 	 * @param value       A value to compare
 	 * @param sourceData  An indication of source data (index) to use
 	 * @param year        A year to filter for
-	 * @param taxpayerIds A list of taxpayers to filter for
+	 * @param taxpayersFilter A filter for the taxpayers (see {@link #getQualifierFilter(String, String) getQualifierFilter})
 	 * @return A {@link SearchRequest} with all configurations
 	 */
 	private SearchRequest getRequestForOutliers(boolean min, String statement, double value, int sourceData, int year,
-			List<String> taxpayerIds, String[] groupBy ) {
+			QueryBuilder taxpayersFilter, String[] groupBy ) {
 		
 		if ( Double.isNaN(value) )
 			value = 0d;
@@ -704,13 +933,8 @@ public class AnalysisService {
 		BoolQueryBuilder query = QueryBuilders.boolQuery();
 		query = query.must(new TermQueryBuilder("statement_number.keyword", statement));
 
-		// Filter by taxpayer id
-		BoolQueryBuilder subquery = QueryBuilders.boolQuery();
-		for (String argument : taxpayerIds) {
-			subquery = subquery.should(new TermQueryBuilder(TAXPAYER_ID_KEYWORD, argument));
-		}
-		subquery = subquery.minimumShouldMatch(1);
-		query = query.must(subquery);
+		// Filter by taxpayers qualifier (denormalized by ETL)
+		query = query.filter(taxpayersFilter);
 
 		// Filter by year
 		query = query.must(new TermQueryBuilder("year", year));
@@ -729,37 +953,42 @@ public class AnalysisService {
 	}
 
 	/**
-	 * Search and return a list of taxpayers for a a qualifier and qualifier value
+	 * Returns the filter for published data of taxpayers with a given qualifier value. The ETL denormalizes the
+	 * taxpayers qualifiers into the published data, so there is no need to look up the taxpayers beforehand.
 	 * 
-	 * @param qualifier
-	 * @param qualifierValue
-	 * @return A {@link List} of taxpayers
+	 * @param qualifier      Name of the qualifier (e.g. 'qualifier1')
+	 * @param qualifierValue Value of the qualifier
+	 * @return The filter or NULL if the qualifier name is unknown
 	 */
-	private List<String> getTaxPayersId(String qualifier, String qualifierValue) {
-
-		// Index over 'taxpayer' objects
-		SearchRequest searchRequest = new SearchRequest(TAXPAYER_INDEX);
+	private QueryBuilder getQualifierFilter(String qualifier, String qualifierValue) {
+		String field = PublishedDataService.getPublishedFieldForQualifier(qualifier);
+		if (field == null)
+			return null;
+		return new TermQueryBuilder(field + KEYWORD, qualifierValue);
+	}
 
-		// Filter by qualifier
-		BoolQueryBuilder query = QueryBuilders.boolQuery();
-		query = query.should(new TermQueryBuilder(qualifier + KEYWORD, qualifierValue));
+	/**
+	 * Returns the number of taxpayers for a qualifier and qualifier value
+	 * 
+	 * @param qualifier		Name of the qualifier (e.g. 'qualifier1')
+	 * @param qualifierValue	Value of the qualifier
+	 * @return Number of taxpayers
+	 */
+	private long countTaxpayers(String qualifier, String qualifierValue) {
 
-		String[] groupBy = {"taxPayerId.keyword"};
-		
-		// Configure the aggregations
-		AbstractAggregationBuilder<?> aggregationBuilder = SearchUtils.aggregationBuilder(groupBy);
+		// Index over 'taxpayer' objects
+		CountRequest countRequest = new CountRequest(TAXPAYER_INDEX);
+		countRequest.query(new TermQueryBuilder(qualifier + KEYWORD, qualifierValue));
 
-		// Execute a search
-		SearchResponse sresp = doSearch(query, aggregationBuilder, searchRequest);
-		if (sresp == null) {
-			log.log(Level.INFO, () -> "No data found for qualifier " + qualifier + " with value " + qualifierValue);
-			return Collections.emptyList(); // No data found
+		try {
+			CountResponse cresp = elasticsearchClient.count(countRequest, RequestOptions.DEFAULT);
+			return cresp.getCount();
+		} catch (Exception ex) {
+			if (!ErrorUtils.isErrorNoIndexFound(ex) && !ErrorUtils.isErrorNoMappingFoundForColumn(ex)
+					&& !ErrorUtils.isErrorNotFound(ex))
+				log.log(Level.SEVERE, ex.getMessage(), ex);
+			return 0;
 		}
-		
-		BiFunction<Aggregations, String[], String> function = (agg, values) -> values[0];
-
-		// Update outlier information for this taxpayer
-		return SearchUtils.collectAggregations(sresp.getAggregations(), groupBy, function);
 	}
 
 	/**
@@ -809,7 +1038,7 @@ public class AnalysisService {
 	 * 
 	 * @return A list of years present in Accounting Statement Income indexes
 	 */
-	@Cacheable(value = "years")
+	@Cacheable(value = "years", key = "#root.target.getYearsCacheKey(#p0)")
 	public List<Integer> getYears(int sourceData) {
 
 		if (sourceData == SOURCE_BOOTH_INCOME_STATEMENT) {
@@ -835,21 +1064,7 @@ public class AnalysisService {
 	 */
 	private List<Integer> getYearsByIndex(int sourceData) {
 		// Index over 'Accounting Computed Statement Income' objects
-		String index = null;
-		switch (sourceData) {
-		case SOURCE_JOURNAL:
-			index = COMPUTED_STATEMENT_INCOME_INDEX;
-			break;
-		case SOURCE_DECLARED_INCOME_STATEMENT:
-			index = DECLARED_STATEMENT_INCOME_INDEX;
-			break;
-		case SOURCE_SHAREHOLDERS:
-			index = SHAREHOLDING_INDEX;
-			break;
-		default:
-			index = COMPUTED_STATEMENT_INCOME_INDEX;
-			break;
-		}
+		String index = getYearsIndex(sourceData);
 		SearchRequest searchRequest = new SearchRequest(index);
 		
 		String[] groupBy = {"year"};
@@ -870,6 +1085,36 @@ public class AnalysisService {
 		return years.stream().filter(Objects::nonNull).sorted().collect(Collectors.toList());
 	}
 
+	/**
+	 * @param sourceData An indication of source data (index) to use (one of SOURCE_JOURNAL, SOURCE_DECLARED_INCOME_STATEMENT or SOURCE_SHAREHOLDERS)
+	 * @return The published data index to search for years
+	 */
+	private String getYearsIndex(int sourceData) {
+		switch (sourceData) {
+		case SOURCE_DECLARED_INCOME_STATEMENT:
+			return DECLARED_STATEMENT_INCOME_INDEX;
+		case SOURCE_SHAREHOLDERS:
+			return SHAREHOLDING_INDEX;
+		case SOURCE_JOURNAL:
+		default:
+			return COMPUTED_STATEMENT_INCOME_INDEX;
+		}
+	}
+
+	/**
+	 * Returns the cache key of {@link #getYears(int) getYears}. The result depends on the published data of all taxpayers.
+	 */
+	public PublishedDataCacheKey getYearsCacheKey(int sourceData) {
+		final List<String> indices;
+		if (sourceData == SOURCE_BOOTH_INCOME_STATEMENT)
+			indices = Arrays.asList(getYearsIndex(SOURCE_JOURNAL), getYearsIndex(SOURCE_DECLARED_INCOME_STATEMENT));
+		else if (sourceData == SOURCE_BOOTH_INCOME_STATEMENT_AND_SHAREHOLDERS)
+			indices = Arrays.asList(getYearsIndex(SOURCE_JOURNAL), getYearsIndex(SOURCE_DECLARED_INCOME_STATEMENT), getYearsIndex(SOURCE_SHAREHOLDERS));
+		else
+			indices = Collections.singletonList(getYearsIndex(sourceData));
+		return PublishedDataCacheKey.ofAllTaxpayers(indices, sourceData);
+	}
+
 	/**
 	 * 
 	 * @param taxpayerId
@@ -1003,15 +1248,68 @@ public class AnalysisService {
 			return Collections.emptyList(); // No data found
 		}
 
-		// Search statement income values
+		// Search statement income values already compared at ETL
 		Map<String, StatementIncomeItem> items = new HashMap<>();
-		getStatementIncomeValues(taxpayerId, year, SOURCE_JOURNAL, items);
-		getStatementIncomeValues(taxpayerId, year, SOURCE_DECLARED_INCOME_STATEMENT, items);
+		getStatementIncomeReconciliation(taxpayerId, year, items);
+		if (items.isEmpty()) {
+			// Data published before the reconciliation index, compare here
+			getStatementIncomeValues(taxpayerId, year, SOURCE_JOURNAL, items);
+			getStatementIncomeValues(taxpayerId, year, SOURCE_DECLARED_INCOME_STATEMENT, items);
+		}
 		List<StatementIncomeItem> values = new ArrayList<>(items.values());
 		values.sort(null);
 		return values;
 	}
 
+	/**
+	 * Search and store values for Stated Income calculated and declared, according
+	 * to the differences computed at ETL
+	 * 
+	 * @param taxpayerId A taxpayer to filter for
+	 * @param year       A year to filter for
+	 * @param items      A {@link Map} to store values
+	 */
+	private void getStatementIncomeReconciliation(String taxpayerId, int year, Map<String, StatementIncomeItem> items) {
+		
+		String[] groupBy = {"statement_number.keyword", translate("statement_name") + KEYWORD};		
+		AggregationBuilder declared = AggregationBuilders.sum(DECLARED_AMOUNT).field(DECLARED_AMOUNT);
+		AggregationBuilder computed = AggregationBuilders.sum(COMPUTED_AMOUNT).field(COMPUTED_AMOUNT);
+
+		// Index over 'Accounting Statement Income Reconciliation' objects
+		SearchRequest searchRequest = new SearchRequest(STATEMENT_INCOME_RECONCILIATION_INDEX);
+
+		BoolQueryBuilder query = QueryBuilders.boolQuery();
+		query = query.must(new TermQueryBuilder(TAXPAYER_ID_KEYWORD, taxpayerId));
+		query = query.must(new TermQueryBuilder("year", year));
+
+		AbstractAggregationBuilder<?> aggregationBuilder = SearchUtils.aggregationBuilder(groupBy, declared, computed); 
+		buildSearchSourceBuilder(query, aggregationBuilder, searchRequest);
+
+		// Execute a search
+		SearchResponse sresp = doSearch(searchRequest);
+		if (sresp == null) {
+			log.log(Level.FINE, "No reconciliation found");
+			return;
+		} 
+
+		// Retrieve information from result
+		BiFunction<Aggregations, String[], StatementIncomeItem> function = (agg, values) -> {
+			Sum declaredValue = agg.get(DECLARED_AMOUNT);
+			Sum computedValue = agg.get(COMPUTED_AMOUNT);
+			if (declaredValue != null && computedValue != null) {
+				StatementIncomeItem item = new StatementIncomeItem(values);
+				item.setDeclaredValue(declaredValue.getValue());
+				item.setCalculatedValue(computedValue.getValue());
+				item.setDifference(item.getDeclaredValue() - item.getCalculatedValue());
+				items.put(values[0], item);
+			}
+			return null;
+		};
+
+		SearchUtils.collectAggregations(sresp.getAggregations(), groupBy, function);
+
+	}
+
 	/**
 	 * Search and store values for Stated Income calculated or declared, according
 	 * with received parameters
@@ -1072,6 +1370,7 @@ public class AnalysisService {
 	 * 		6 - ANALYTICS_ACCOUNTS
 	 * 		7 - CUSTOMERS
 	 * 		8 - SUPPLIERS
+	 * 		9 - OWNERSHIP_GROUP
 	 * 
 	 * @return Data about a specified taxpayer for a specific year according with
 	 *         specified search type.
@@ -1095,6 +1394,8 @@ public class AnalysisService {
 			return getCustomers(taxpayerId, year);
 		case SUPPLIERS:
 			return getSuppliers(taxpayerId, year);
+		case OWNERSHIP_GROUP:
+			return getOwnershipGroup(taxpayerId, year);
 		default:
 			break;
 		}
@@ -1547,6 +1848,48 @@ public class AnalysisService {
 		return sresp;
 	}	
 
+	/**
+	 * Do several searches on ES database with as few round trips as possible (see {@link #MAX_REQUESTS_PER_MULTI_SEARCH MAX_REQUESTS_PER_MULTI_SEARCH}).
+	 * @param searchRequests	Search parameters
+	 * @return	A {@link List} of {@link SearchResponse} objects, in the same order as the requests. An element is NULL
+	 * if the corresponding search failed or did not find anything (same as {@link #doSearch(SearchRequest) doSearch}).
+	 */
+	private List<SearchResponse> doMultiSearch(List<SearchRequest> searchRequests) {
+		List<SearchResponse> responses = new ArrayList<>(searchRequests.size());
+		for (List<SearchRequest> chunk : Lists.partition(searchRequests, MAX_REQUESTS_PER_MULTI_SEARCH)) {
+			if (chunk.size() == 1) {
+				responses.add(doSearch(chunk.get(0)));
+				continue;
+			}
+			MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+			chunk.forEach(multiSearchRequest::add);
+			MultiSearchResponse mresp;
+			try {
+				mresp = elasticsearchClient.msearch(multiSearchRequest, RequestOptions.DEFAULT);
+			} catch (Exception ex) {
+				log.log(Level.SEVERE, ex.getMessage(), ex);
+				chunk.forEach(r -> responses.add(null));
+				continue;
+			}
+			for (MultiSearchResponse.Item item : mresp.getResponses()) {
+				if (item.isFailure()) {
+					Exception ex = item.getFailure();
+					if (!ErrorUtils.isErrorNoIndexFound(ex) && !ErrorUtils.isErrorNoMappingFoundForColumn(ex)
+							&& !ErrorUtils.isErrorNotFound(ex))
+						log.log(Level.SEVERE, ex.getMessage(), ex);
+					responses.add(null);
+				}
+				else if (item.getResponse() == null || Utils.getTotalHits(item.getResponse()) == 0) {
+					responses.add(null);
+				}
+				else {
+					responses.add(item.getResponse());
+				}
+			}
+		}
+		return responses;
+	}
+
 	/**
 	 * Search and return major customers for a specified taxpayer and year
 	 * 
@@ -1695,6 +2038,13 @@ public class AnalysisService {
 	 */
 	public List<CustomerVsSupplier> getCustomersVsSuppliers(String taxpayerId, int year) {
 		
+		// Flows already compared at ETL
+		List<CustomerVsSupplier> reconciled = getCustomersVsSuppliersReconciliation(taxpayerId, year);
+		if (!reconciled.isEmpty())
+			return reconciled;
+		
+		// Data published before the reconciliation index, compare here
+		
 		String[] groupByCustomers = { "year", "month_number", "customer_id.keyword", "customer_name.keyword" };
 		
 		List<Map<String, Object>> customers = getCustomersVsSuppliersValues(taxpayerId, year, CUSTOMERS_INDEX, groupByCustomers);
@@ -1729,6 +2079,98 @@ public class AnalysisService {
 		return instances.values().stream().sorted().collect(Collectors.toList());
 	}
 
+	/**
+	 * Get the sales of a taxpayer to each customer compared to the purchases reported by the customer, according to
+	 * the flows between taxpayers compared at ETL
+	 * @param taxpayerId	A taxpayer to filter for (the seller)
+	 * @param year			A year to filter for
+	 * @return	A @{@link List} of {@link CustomerVsSupplier}, or an empty list if there is no data
+	 */
+	private List<CustomerVsSupplier> getCustomersVsSuppliersReconciliation(String taxpayerId, int year) {
+
+		SearchRequest searchRequest = new SearchRequest(CUSTOMERS_SUPPLIERS_RECONCILIATION_INDEX);
+
+		BoolQueryBuilder query = QueryBuilders.boolQuery();
+		query = query.must(new TermQueryBuilder("seller_id.keyword", taxpayerId));
+		query = query.must(new TermQueryBuilder("year", year));
+
+		String[] groupBy = { "year", "month_number", "buyer_id.keyword" };
+		AggregationBuilder sales = AggregationBuilders.sum("sales_amount").field("sales_amount");
+		AggregationBuilder purchases = AggregationBuilders.sum("purchases_amount").field("purchases_amount");
+		AggregationBuilder buyerName = AggregationBuilders.terms("buyer_name").field("buyer_name.keyword").size(1);
+		AbstractAggregationBuilder<?> aggregationBuilder = SearchUtils.aggregationBuilder(groupBy, sales, purchases, buyerName);
+
+		SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder().query(query)
+				.aggregation(aggregationBuilder);
+
+		// We are not interested on individual documents
+		searchSourceBuilder.size(0);
+		searchRequest.source(searchSourceBuilder);
+
+		SearchResponse sresp = doSearch(searchRequest);
+		if (sresp == null) {
+			return Collections.emptyList(); // No data found
+		}
+
+		BiFunction<Aggregations, String[], CustomerVsSupplier> function = (agg, values) -> {
+			Sum salesAmount = agg.get("sales_amount");
+			Sum purchasesAmount = agg.get("purchases_amount");
+			Terms names = agg.get("buyer_name");
+			String name = (names == null || names.getBuckets().isEmpty()) ? "" : names.getBuckets().get(0).getKeyAsString();
+			return new CustomerVsSupplier(values[0], values[1], values[2], name, salesAmount.getValue(),
+					purchasesAmount.getValue(), salesAmount.getValue() - purchasesAmount.getValue());
+		};
+
+		return SearchUtils.collectAggregations(sresp.getAggregations(), groupBy, function).stream().sorted()
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Search the economic group of a taxpayer (i.e. all the taxpayers sharing the same ultimate parent) and return
+	 * the direct and indirect ownership between its members, according to the ownership graph computed at ETL
+	 * 
+	 * @param taxpayerId Taxpayer to search for (may be any member of the group)
+	 * @param year       A year to search for
+	 * 
+	 * @return A {@link List} of {@link Ownership} with one item for each pair of owner and owned taxpayer of the
+	 *         group, or an empty list if the taxpayer does not belong to any group
+	 */
+	public List<Ownership> getOwnershipGroup(String taxpayerId, int year) {
+
+		// First find out the ultimate parent of this taxpayer
+		BoolQueryBuilder query = QueryBuilders.boolQuery()
+				.should(new TermQueryBuilder("owner_id.keyword", taxpayerId))
+				.should(new TermQueryBuilder("owned_id.keyword", taxpayerId))
+				.minimumShouldMatch(1)
+				.filter(new TermQueryBuilder("year", year));
+		SearchRequest searchRequest = new SearchRequest(OWNERSHIP_INDEX)
+				.source(new SearchSourceBuilder().query(query).size(1));
+		SearchResponse sresp = doSearch(searchRequest);
+		if (sresp == null) {
+			log.log(Level.INFO, () -> "No ownership information found for taxPayer " + taxpayerId + " for period " + year);
+			return Collections.emptyList(); // No group found
+		}
+		Map<String, Object> relation = sresp.getHits().getAt(0).getSourceAsMap();
+		Object groupId = (taxpayerId.equals(relation.get("owned_id"))) ? relation.get("owned_group_id")
+				: relation.get("owner_group_id");
+		if (groupId == null)
+			return Collections.emptyList();
+
+		// Then collect all the relations inside the same group
+		query = QueryBuilders.boolQuery()
+				.filter(new TermQueryBuilder("owner_group_id.keyword", groupId.toString()))
+				.filter(new TermQueryBuilder("year", year));
+		searchRequest = new SearchRequest(OWNERSHIP_INDEX)
+				.source(new SearchSourceBuilder().query(query).size(OWNERSHIP_GROUP_MAX_SIZE));
+		sresp = doSearch(searchRequest);
+		if (sresp == null) {
+			return Collections.emptyList();
+		}
+
+		return Arrays.stream(sresp.getHits().getHits()).map(hit -> new Ownership(hit.getSourceAsMap())).sorted()
+				.collect(Collectors.toList());
+	}
+
 	/**
 	 * Get values for customers os suppliers for a specified taxpayer and period
 	 * @param taxpayerId	A taxpayer to filter for
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.services;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.idb.cacao.web.entities.User;
+import org.idb.cacao.web.repositories.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.core.event.AfterSaveCallback;
+import org.springframework.data.elasticsearch.core.event.BeforeConvertCallback;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Service for creating API tokens and for authenticating users given their API tokens.<BR>
+ * <BR>
+ * The API token is stored encrypted with the keystore (so that it may be shown again to its owner), together with a
+ * keyed digest of it (see {@link KeyStoreService#digest(String, String) digest}). The authentication looks up the
+ * user given the digest of the informed token, with a single exact query.<BR>
+ * <BR>
+ * Recently verified tokens are kept in memory for a short time, since API clients (e.g. SYNC) usually make lots of
+ * requests in a row. The cached entries of a user are discarded whenever this user is saved, so any change in the token,
+ * in the profile or in the 'active' flag is seen by the next request.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class ApiTokenService implements BeforeConvertCallback<User>, AfterSaveCallback<User> {
+
+	private static final Logger log = Logger.getLogger(ApiTokenService.class.getName());
+
+	/**
+	 * Number of users to update at a time when computing missing digests
+	 */
+	private static final int MIGRATION_PAGE_SIZE = 100;
+
+	/**
+	 * Lazy reference, since this service is also an entity callback, which is instantiated together with
+	 * the Elasticsearch template (before the repositories)
+	 */
+	@Lazy
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private KeyStoreService keystoreService;
+
+	/**
+	 * Recently verified tokens. Keyed by the digest of the token.
+	 */
+	private final Cache<String, User> verifiedTokens;
+
+	/**
+	 * Tells whether the digests of tokens created by previous versions have already been computed (see {@link #computeMissingDigests() computeMissingDigests})
+	 */
+	private volatile boolean missingDigestsComputed;
+
+	/**
+	 * Only one thread computes the missing digests. The other ones do not wait for it.
+	 */
+	private final ReentrantLock missingDigestsLock = new ReentrantLock();
+
+	public ApiTokenService(
+			@Value("${api.token.cache.seconds:60}") long cacheSeconds,
+			@Value("${api.token.cache.size:1000}") long cacheSize) {
+		verifiedTokens = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(cacheSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Creates a new API token for the user, replacing any previous one. Returns the new token.
+	 */
+	public String createToken(User user) {
+		String apiToken = UUID.randomUUID().toString();
+		user.setApiToken(keystoreService.encrypt(KeyStoreService.PREFIX_MAIL, apiToken));
+		user.setApiTokenDigest(keystoreService.digest(KeyStoreService.PREFIX_MAIL, apiToken));
+		userRepository.saveWithTimestamp(user);
+		return apiToken;
+	}
+
+	/**
+	 * Deletes the API token of the user
+	 */
+	public void deleteToken(User user) {
+		user.setApiToken(null);
+		user.setApiTokenDigest(null);
+		userRepository.saveWithTimestamp(user);
+	}
+
+	/**
+	 * Returns the user given the API token
+	 */
+	public Optional<User> getUserGivenToken(String apiKey) {
+		if (apiKey==null || apiKey.trim().length()==0)
+			return Optional.empty();
+
+		String digest = keystoreService.digest(KeyStoreService.PREFIX_MAIL, apiKey);
+		User cached = verifiedTokens.getIfPresent(digest);
+		if (cached!=null)
+			return Optional.of(cached);
+
+		Optional<User> user = findUserGivenToken(apiKey, digest);
+		if (!user.isPresent() && !missingDigestsComputed) {
+			// Maybe the token was created by a previous version (without digest) and the digests were not computed
+			// at startup yet. This is done only once, regardless of how many unknown tokens are presented.
+			if (computeMissingDigests()>0)
+				user = findUserGivenToken(apiKey, digest);
+		}
+
+		if (user.isPresent())
+			verifiedTokens.put(digest, user.get());
+		return user;
+	}
+
+	/**
+	 * Look up the user given the digest of the API token. Also compares the stored token in order to rule out
+	 * any digest collision.
+	 */
+	private Optional<User> findUserGivenToken(String apiKey, String digest) {
+		List<User> candidates = userRepository.findByApiTokenDigest(digest);
+		if (candidates==null)
+			return Optional.empty();
+		for (User user: candidates) {
+			if (user.getApiToken()==null || user.getApiToken().trim().length()==0)
+				continue;
+			String decrypted = keystoreService.decrypt(KeyStoreService.PREFIX_MAIL, user.getApiToken());
+			if (apiKey.equals(decrypted))
+				return Optional.of(user);
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Computes the digest of the API tokens stored without it. Returns the number of users updated.<BR>
+	 * This is done at startup. Once it succeeds, it's not done again (any user saved afterwards gets its digest
+	 * computed at {@link #onBeforeConvert(User, IndexCoordinates) onBeforeConvert}). If some other thread is already
+	 * computing the digests, returns 0 immediately.
+	 */
+	public int computeMissingDigests() {
+		if (missingDigestsComputed || !missingDigestsLock.tryLock())
+			return 0;
+		try {
+			if (missingDigestsComputed)
+				return 0;
+			Page<User> page = userRepository.findByApiTokenWithoutDigest(PageRequest.of(0, MIGRATION_PAGE_SIZE));
+			int count = 0;
+			if (page!=null && page.hasContent()) {
+				final long total = page.getTotalElements();
+				while (page!=null && page.hasContent() && count<total) {
+					for (User user: page.getContent()) {
+						// The digest is computed by 'onBeforeConvert'
+						userRepository.save(user);
+						count++;
+					}
+					page = userRepository.findByApiTokenWithoutDigest(PageRequest.of(0, MIGRATION_PAGE_SIZE));
+				}
+				log.log(Level.INFO, "Computed the digest of API tokens of "+count+" users");
+			}
+			missingDigestsComputed = true;
+			return count;
+		}
+		finally {
+			missingDigestsLock.unlock();
+		}
+	}
+
+	/**
+	 * Discards from memory all the verified tokens
+	 */
+	public void clearCache() {
+		verifiedTokens.invalidateAll();
+	}
+
+	/**
+	 * Fills the digest of the API token if it's missing (e.g. users synchronized from another replica or imported)
+	 */
+	@Override
+	public User onBeforeConvert(User entity, IndexCoordinates index) {
+		if (entity.getApiToken()==null || entity.getApiToken().trim().length()==0) {
+			entity.setApiToken(null);
+			entity.setApiTokenDigest(null);
+		}
+		else if (entity.getApiTokenDigest()==null) {
+			String decrypted = keystoreService.decrypt(KeyStoreService.PREFIX_MAIL, entity.getApiToken());
+			entity.setApiTokenDigest(keystoreService.digest(KeyStoreService.PREFIX_MAIL, decrypted));
+		}
+		return entity;
+	}
+
+	/**
+	 * Discards the verified tokens of a user (e.g. the user has been deleted)
+	 */
+	public void evict(String userId) {
+		if (userId!=null)
+			verifiedTokens.asMap().values().removeIf(cached->userId.equals(cached.getId()));
+	}
+
+	/**
+	 * Discards the verified tokens of the saved user
+	 */
+	@Override
+	public User onAfterSave(User entity, IndexCoordinates index) {
+		evict(entity.getId());
+		return entity;
+	}
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.services;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.idb.cacao.api.AuditTrail;
+import org.idb.cacao.api.utils.DateTimeUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service for storing {@link AuditTrail AuditTrail} entries.<BR>
+ * <BR>
+ * Entries are kept in a bounded buffer and written to ElasticSearch in bulk requests by a single background thread,
+ * whenever the buffer holds {@link #bulkSize bulkSize} entries or after {@link #flushIntervalMs flushIntervalMs} milliseconds,
+ * whichever comes first. This way the auditing does not issue one write request for each user request.<BR>
+ * <BR>
+ * When the buffer is full (e.g. ElasticSearch is slow or unavailable) the {@link OverflowPolicy OverflowPolicy} tells
+ * what to do with the new entry. The counters exposed by this service (see {@link #getQueueDepth() getQueueDepth},
+ * {@link #getDroppedCount() getDroppedCount}, etc.) are reported by the 'audit' admin command.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class AuditTrailService {
+
+	private static final Logger log = Logger.getLogger(AuditTrailService.class.getName());
+
+	/**
+	 * What to do with new entries while the buffer is full
+	 */
+	public static enum OverflowPolicy {
+		/**
+		 * Discards the new entry
+		 */
+		DISCARD_NEWEST,
+		/**
+		 * Discards the oldest entry in buffer in order to keep the new one
+		 */
+		DISCARD_OLDEST,
+		/**
+		 * Blocks the caller until there is room in buffer, up to the configured timeout. Discards the new entry after the timeout.
+		 */
+		BLOCK;
+	}
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	@Qualifier("AuditTrailTaskExecutor")
+	private TaskExecutor taskExecutor;
+
+	/**
+	 * Maximum number of entries in each bulk request
+	 */
+	@Value("${audit.bulk.size:500}")
+	private int bulkSize;
+
+	/**
+	 * Maximum time an entry waits in buffer before being written
+	 */
+	@Value("${audit.flush.interval.ms:2000}")
+	private long flushIntervalMs;
+
+	@Value("${audit.overflow.policy:DISCARD_NEWEST}")
+	private OverflowPolicy overflowPolicy;
+
+	/**
+	 * Maximum time a caller waits for room in buffer with {@link OverflowPolicy#BLOCK BLOCK} policy
+	 */
+	@Value("${audit.overflow.block.ms:100}")
+	private long blockTimeoutMs;
+
+	private final BlockingQueue<AuditTrail> buffer;
+
+	private final int capacity;
+
+	private volatile boolean running;
+
+	private final AtomicLong writtenCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong bulkRequestsCount = new AtomicLong();
+
+	private volatile OffsetDateTime lastFlush;
+
+	public AuditTrailService(@Value("${audit.buffer.capacity:10000}") int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.buffer = new ArrayBlockingQueue<>(this.capacity);
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		taskExecutor.execute(this::flushLoop);
+	}
+
+	/**
+	 * Stops the background thread and writes whatever is left in buffer
+	 */
+	@PreDestroy
+	public void stop() {
+		running = false;
+		List<AuditTrail> remaining = new ArrayList<>();
+		buffer.drainTo(remaining);
+		if (!remaining.isEmpty())
+			write(remaining);
+	}
+
+	/**
+	 * Includes an entry to be written. Never throws exception and returns promptly (except for {@link OverflowPolicy#BLOCK BLOCK} policy).
+	 * @return Returns FALSE if the entry has been discarded because the buffer is full
+	 */
+	public boolean add(AuditTrail entry) {
+		if (entry==null)
+			return false;
+		entry.setTimestamp(DateTimeUtils.now());
+		if (buffer.offer(entry))
+			return true;
+		switch (overflowPolicy) {
+		case DISCARD_OLDEST:
+			while (!buffer.offer(entry)) {
+				if (buffer.poll()!=null)
+					droppedCount.incrementAndGet();
+			}
+			return true;
+		case BLOCK:
+			try {
+				if (buffer.offer(entry, blockTimeoutMs, TimeUnit.MILLISECONDS))
+					return true;
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			droppedCount.incrementAndGet();
+			return false;
+		default:
+			droppedCount.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Background loop collecting entries from buffer and writing them in bulk
+	 */
+	private void flushLoop() {
+		final List<AuditTrail> batch = new ArrayList<>(bulkSize);
+		while (running) {
+			try {
+				AuditTrail first = buffer.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+				if (first==null)
+					continue;
+				batch.add(first);
+				final long deadline = System.currentTimeMillis() + flushIntervalMs;
+				while (batch.size()<bulkSize) {
+					buffer.drainTo(batch, bulkSize-batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.size()>=bulkSize || wait<=0)
+						break;
+					AuditTrail next = buffer.poll(wait, TimeUnit.MILLISECONDS);
+					if (next==null)
+						break;
+					batch.add(next);
+				}
+				write(batch);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch (Throwable ex) {
+				log.log(Level.WARNING, "Error in audit trail writer", ex);
+			}
+			finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Writes entries in one bulk request
+	 */
+	private void write(List<AuditTrail> entries) {
+		try {
+			elasticsearchOperations.save(entries, elasticsearchOperations.getIndexCoordinatesFor(AuditTrail.class));
+			writtenCount.addAndGet(entries.size());
+		}
+		catch (Exception ex) {
+			// Ignores errors storing this information, just keep track of them
+			failedCount.addAndGet(entries.size());
+			log.log(Level.FINE, "Could not store "+entries.size()+" audit trail entries", ex);
+		}
+		bulkRequestsCount.incrementAndGet();
+		lastFlush = DateTimeUtils.now();
+	}
+
+	/**
+	 * Number of entries waiting in buffer
+	 */
+	public int getQueueDepth() {
+		return buffer.size();
+	}
+
+	/**
+	 * Maximum number of entries in buffer
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Number of entries written since start
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * Number of entries discarded because the buffer was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Number of entries that could not be written because of errors
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Number of bulk requests issued since start
+	 */
+	public long getBulkRequestsCount() {
+		return bulkRequestsCount.get();
+	}
+
+	/**
+	 * Date/time of the last bulk request
+	 */
+	public OffsetDateTime getLastFlush() {
+		return lastFlush;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+}
@@ -7,12 +7,16 @@
 package org.idb.cacao.web.controllers.services;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,21 +36,30 @@ import org.elasticsearch.search.aggregations.metrics.Max;
 import org.elasticsearch.search.aggregations.metrics.Min;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.idb.cacao.api.DocumentUploaded;
+import org.idb.cacao.api.FilingHistory;
+import org.idb.cacao.api.FilingHistoryUpdater;
 import org.idb.cacao.api.Periodicity;
 import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.utils.IndexNamesUtils;
+import org.idb.cacao.api.utils.ScrollUtils;
 import org.idb.cacao.api.utils.Utils;
+import org.idb.cacao.web.repositories.FilingHistoryRepository;
 import org.idb.cacao.web.utils.ErrorUtils;
+import org.idb.cacao.web.utils.SearchUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
- * Service for retrieving information about uploaded documents
+ * Service for retrieving information about uploaded documents.<BR>
+ * Questions about the periods filed by taxpayers are answered by the filing history ({@link FilingHistory}) once it has been
+ * {@link #backfillFilingHistory() backfilled} from the uploaded documents, falling back to aggregations over the uploaded
+ * documents before that or when there is no filing history.
  * 
  * @author Gustavo Figueiredo
  *
@@ -67,9 +80,27 @@ public class DocumentStoreService {
 	@Autowired
 	private MessageSource messageSource;
 
+	@Autowired
+	private FilingHistoryRepository filingHistoryRepository;
+
+	@Autowired
+	private FilingHistoryUpdater filingHistoryUpdater;
+
 	@Value("${presentation.mode}")
 	private Boolean presentationMode;
 
+	/**
+	 * Number of combinations of taxpayer, template and period queried at once by {@link #backfillFilingHistory() backfillFilingHistory}
+	 */
+	@Value("${filing.history.backfill.page.size:1000}")
+	private int backfillPageSize;
+
+	/**
+	 * Indicates the filing history includes all the uploaded documents (i.e. {@link #backfillFilingHistory() backfillFilingHistory}
+	 * has finished)
+	 */
+	private volatile boolean filingHistoryComplete;
+
 	/**
 	 * Queries ElasticSearch for structured information collected and stored for an uploaded file.
 	 */
@@ -120,6 +151,10 @@ public class DocumentStoreService {
 			final Integer filter_period_min,
 			final boolean includeLower) {
 		
+		FilingHistory history = getFilingHistory(filter_taxpayer_id, filter_template, filter_period_min);
+		if (history!=null)
+			return history.hasFiledAfter(filter_period_min, includeLower);
+		
     	// Index over 'DocumentUploaded' objects
     	SearchRequest searchRequest = new SearchRequest("cacao_docs_uploaded");
     	
@@ -168,6 +203,10 @@ public class DocumentStoreService {
 			final String filter_template,
 			final Integer filter_period) {
 		
+		FilingHistory history = getFilingHistory(filter_taxpayer_id, filter_template, filter_period);
+		if (history!=null)
+			return history.isFiled(filter_period);
+		
     	// Index over 'DocumentUploaded' objects
     	SearchRequest searchRequest = new SearchRequest("cacao_docs_uploaded");
     	
@@ -217,6 +256,10 @@ public class DocumentStoreService {
 			final Integer filter_period_max,
 			final boolean includeUpper) {
 		
+		FilingHistory history = getFilingHistory(filter_taxpayer_id, filter_template, filter_period_max);
+		if (history!=null)
+			return history.getMissingBefore(filter_period_max, includeUpper);
+		
     	// Index over 'DocumentUploaded' objects
     	SearchRequest searchRequest = new SearchRequest("cacao_docs_uploaded");
     	
@@ -289,6 +332,10 @@ public class DocumentStoreService {
 			final Set<String> filterTaxpayersIds, 
 			final Optional<String> filterTemplate) {
 		
+		Map<String,Map<String,Integer>> fromFilingHistory = getMapTaxpayersFirstPeriodFromFilingHistory(filterTaxpayersIds, filterTemplate);
+		if (fromFilingHistory!=null)
+			return fromFilingHistory;
+		
 		SearchRequest searchRequest = searchTaxpayersDeclarationsFirstPeriods(
 				filterTaxpayersIds,
 				filterTemplate,
@@ -360,6 +407,123 @@ public class DocumentStoreService {
 
 	
 	
+	/**
+	 * Marks in the filing history all the periods filed according to the uploaded documents, including the documents uploaded before
+	 * the filing history was introduced or while it could not be updated. Periods already marked are kept, so this may run concurrently
+	 * with new uploads and in more than one node.<BR>
+	 * Until this has finished, questions about the periods filed are answered by aggregations over the uploaded documents.
+	 */
+	public void backfillFilingHistory() throws IOException {
+		final String[] fields = { "taxPayerId.keyword", "templateName.keyword", "taxPeriodNumber" };
+		final long timestamp = System.currentTimeMillis();
+		Map<String, Object> afterKey = null;
+		String currentTaxpayerId = null;
+		String currentTemplateName = null;
+		List<Integer> currentPeriods = new ArrayList<>();
+		long countChanged = 0;
+		long countHistories = 0;
+		do {
+			SearchRequest searchRequest = new SearchRequest("cacao_docs_uploaded");
+			searchRequest.source(new SearchSourceBuilder()
+					.size(0)
+					.aggregation(SearchUtils.compositeAggregationBuilder(fields, backfillPageSize, afterKey)));
+			SearchResponse sresp;
+			try {
+				sresp = elasticsearchClient.search(searchRequest, RequestOptions.DEFAULT);
+			}
+			catch (Exception ex) {
+				if (ErrorUtils.isErrorNoIndexFound(ex) || ErrorUtils.isErrorNoMappingFoundForColumn(ex))
+					break; // nothing uploaded yet
+				throw ex;
+			}
+			List<String[]> combinations = new ArrayList<>(backfillPageSize);
+			afterKey = SearchUtils.collectCompositeAggregation(sresp.getAggregations(), fields, backfillPageSize, (aggs,values)->values, combinations);
+			for (String[] values: combinations) {
+				// Combinations are sorted by taxpayer and template, so all the periods of the same filing history are contiguous
+				if (!values[0].equals(currentTaxpayerId) || !values[1].equals(currentTemplateName)) {
+					if (filingHistoryUpdater.markFiled(currentTaxpayerId, currentTemplateName, currentPeriods))
+						countChanged++;
+					currentTaxpayerId = values[0];
+					currentTemplateName = values[1];
+					currentPeriods.clear();
+					countHistories++;
+				}
+				try {
+					currentPeriods.add(new BigDecimal(values[2]).intValue());
+				}
+				catch (NumberFormatException ex) {
+					// ignores invalid period numbers
+				}
+			}
+		} while (afterKey!=null);
+		if (filingHistoryUpdater.markFiled(currentTaxpayerId, currentTemplateName, currentPeriods))
+			countChanged++;
+		filingHistoryComplete = true;
+		log.log(Level.INFO, "Finished backfilling the filing history of "+countHistories+" combinations of taxpayer and template in "
+				+(System.currentTimeMillis()-timestamp)+" ms. Number of changed filing histories: "+countChanged);
+	}
+
+	/**
+	 * Returns the filing history of a taxpayer regarding a template, if it's compatible with the given period number. Returns NULL
+	 * if the filing history has not been backfilled yet, if there is no filing history or if the period number does not conform to
+	 * the periodicity of the filing history. In these cases the caller should query the uploaded documents.
+	 */
+	private FilingHistory getFilingHistory(final String taxpayerId, final String templateName, final Integer periodNumber) {
+		if (!filingHistoryComplete || taxpayerId==null || templateName==null || periodNumber==null)
+			return null;
+		try {
+			FilingHistory history = filingHistoryRepository.findById(FilingHistory.formatId(taxpayerId, templateName)).orElse(null);
+			if (history==null || !history.isCompatible(periodNumber))
+				return null;
+			return history;
+		}
+		catch (Exception ex) {
+			if (!ErrorUtils.isErrorNoIndexFound(ex))
+				log.log(Level.WARNING, "Error while fetching filing history of taxpayer "+taxpayerId+" regarding template "+templateName, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the first period of declaration aggregated by taxpayer and by declaration template according to the filing history.
+	 * Returns NULL if the filing history has not been backfilled yet or is not available. See {@link #getMapTaxpayersFirstPeriod(Set, Optional) getMapTaxpayersFirstPeriod}
+	 */
+	private Map<String,Map<String,Integer>> getMapTaxpayersFirstPeriodFromFilingHistory(
+			final Set<String> filterTaxpayersIds, 
+			final Optional<String> filterTemplate) {
+
+		if (!filingHistoryComplete)
+			return null;
+
+		BoolQueryBuilder query = QueryBuilders.boolQuery();
+		if (filterTaxpayersIds!=null) {
+			if (filterTaxpayersIds.isEmpty())
+				return Collections.emptyMap();
+			query = query.filter(QueryBuilders.termsQuery("taxPayerId.keyword", filterTaxpayersIds));
+		}
+		if (filterTemplate.isPresent()) {
+			query = query.filter(new TermQueryBuilder("templateName.keyword", filterTemplate.get()));
+		}
+		final BoolQueryBuilder filter = query;
+
+		Map<String,Map<String,Integer>> statistics = new TreeMap<>();
+		String indexName = FilingHistory.class.getAnnotation(Document.class).indexName();
+		try (Stream<FilingHistory> stream = ScrollUtils.findWithScroll(FilingHistory.class, indexName, elasticsearchClient, 
+				searchSourceBuilder->searchSourceBuilder.query(filter));) {
+			stream.forEach(history->{
+				if (history.getTaxPayerId()==null || history.getTemplateName()==null || history.getFirstPeriod()==null)
+					return;
+				statistics.computeIfAbsent(history.getTaxPayerId(), k->new TreeMap<>()).put(history.getTemplateName(), history.getFirstPeriod());
+			});
+		}
+		catch (Exception ex) {
+			if (!ErrorUtils.isErrorNoIndexFound(ex) && !ErrorUtils.isErrorNoMappingFoundForColumn(ex))
+				log.log(Level.WARNING, "Error while fetching filing history", ex);
+			return null;
+		}
+		return statistics;
+	}
+	
 	/**
 	 * Build the query object used by {@link #getMapTaxpayersFirstPeriod(Set, Optional) getMapTaxpayersFirstPeriod}
 	 */
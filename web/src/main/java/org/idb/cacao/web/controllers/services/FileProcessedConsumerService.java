@@ -7,20 +7,28 @@
 package org.idb.cacao.web.controllers.services;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.idb.cacao.api.DocumentEvent;
 import org.idb.cacao.api.DocumentSituation;
 import org.idb.cacao.api.DocumentUploaded;
 import org.idb.cacao.api.errors.DocumentNotFoundException;
 import org.idb.cacao.api.errors.TemplateNotFoundException;
 import org.idb.cacao.api.templates.DocumentTemplate;
+import org.idb.cacao.api.templates.TemplateArchetype;
+import org.idb.cacao.api.templates.TemplateArchetypes;
+import org.idb.cacao.api.templates.TemplatesCache;
 import org.idb.cacao.api.utils.IndexNamesUtils;
-import org.idb.cacao.web.repositories.DocumentTemplateRepository;
 import org.idb.cacao.web.repositories.DocumentUploadedRepository;
+import org.idb.cacao.web.utils.BoundedCache;
+import org.idb.cacao.web.utils.PublishedDataCacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Service;
@@ -39,7 +47,7 @@ public class FileProcessedConsumerService {
 	private DocumentUploadedRepository documentUploadedRepository;
 	
 	@Autowired
-	private DocumentTemplateRepository documentTemplateRepository;
+	private TemplatesCache templatesCache;
 	
 	@Autowired
 	private KibanaSpacesService kibanaSpacesService;
@@ -49,10 +57,14 @@ public class FileProcessedConsumerService {
 	
 	@Bean	
 	public Consumer<String> receiveProcessedFile() {
-		return documentId -> {
-			log.log(Level.INFO, "Received a message with documentId " + documentId);
-			clearCache();
-			etlFinished(documentId);			
+		return payload -> {
+			DocumentEvent event = DocumentEvent.parse(payload);
+			if (event==null || event.getDocumentId()==null) {
+				log.log(Level.WARNING, "Ignoring invalid message " + payload);
+				return;
+			}
+			log.log(Level.INFO, "Received a message with documentId " + event.getDocumentId());
+			etlFinished(event);			
 		};
 	}
 	
@@ -63,34 +75,90 @@ public class FileProcessedConsumerService {
 		cacheManager.getCacheNames().stream().forEach(cacheName -> cacheManager.getCache(cacheName).clear());
 	}
 
+	/**
+	 * Evicts the cached results that depend on the published data of a given taxpayer written to any of the given
+	 * indices (see {@link PublishedDataCacheKey}). Results computed over all taxpayers are also evicted if they
+	 * depend on any of these indices. Other cached results are kept.
+	 * 
+	 * @param taxpayerId	Taxpayer ID. NULL means any taxpayer.
+	 * @param indices		Published data indices that have been changed. NULL means any index.
+	 */
+	public void evictCache(String taxpayerId, Collection<String> indices) {
+		int evicted = 0;
+		for (String cacheName: cacheManager.getCacheNames()) {
+			Cache cache = cacheManager.getCache(cacheName);
+			if (cache instanceof BoundedCache) {
+				evicted += ((BoundedCache)cache).evictIf(key->(key instanceof PublishedDataCacheKey)
+						&& ((PublishedDataCacheKey)key).dependsOn(taxpayerId, indices));
+			}
+			else if (cache!=null) {
+				// Can't tell which entries are affected
+				cache.clear();
+			}
+		}
+		if (evicted>0 && log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Evicted "+evicted+" cached entries related to taxpayer "+taxpayerId+" and indices "+indices);
+		}
+	}
+
 	/**
 	 * Do some final check-ups after the ETL has completed processing file
 	 * 
-	 * @param documentId	The ID of {@link DocumentUploaded} that finished processing
+	 * @param event	The event about the {@link DocumentUploaded} that finished processing
 	 */
-	//@CacheEvict(beforeInvocation = true, cacheNames = {"years","accounts","qualifierValues"}, allEntries = true)
-	private void etlFinished(String documentId) {
+	private void etlFinished(DocumentEvent event) {
+		
+		final String documentId = event.getDocumentId();
+		boolean evicted = false;
 		
 		try {
 			
-			DocumentUploaded doc = documentUploadedRepository.findById(documentId).orElse(null);
-			if (doc==null)
-				throw new DocumentNotFoundException("Document with id " + documentId + " wasn't found in database.");
-			
-			// If the document did not finish in PROCESSED state, let's ignore this
-			if (!DocumentSituation.PROCESSED.equals(doc.getSituation())) {
-				log.log(Level.FINE, "Document with id " + documentId + " finished in "+doc.getSituation()+" situation");
-				return;
+			final DocumentSituation situation;
+			final String templateName;
+			final String templateVersion;
+			final String taxpayerId;
+			if (event.isComplete() && event.getSituation()!=null) {
+				// The message already tells everything we need
+				situation = event.getSituation();
+				templateName = event.getTemplateName();
+				templateVersion = event.getTemplateVersion();
+				taxpayerId = event.getTaxPayerId();
+			}
+			else {
+				// Message produced by older version, with only the document ID
+				DocumentUploaded doc = documentUploadedRepository.findById(documentId).orElse(null);
+				if (doc==null)
+					throw new DocumentNotFoundException("Document with id " + documentId + " wasn't found in database.");
+				situation = doc.getSituation();
+				templateName = doc.getTemplateName();
+				templateVersion = doc.getTemplateVersion();
+				taxpayerId = doc.getTaxPayerId();
 			}
 			
-			Optional<DocumentTemplate> template = documentTemplateRepository.findByNameAndVersion(doc.getTemplateName(),
-					doc.getTemplateVersion());
+			Optional<DocumentTemplate> template = templatesCache.getTemplate(templateName, templateVersion);
 			if (!template.isPresent()) {
-				throw new TemplateNotFoundException("Template with name " + doc.getTemplateName() + " and version "
-						+ doc.getTemplateVersion() + " wasn't found in database.");
+				throw new TemplateNotFoundException("Template with name " + templateName + " and version "
+						+ templateVersion + " wasn't found in database.");
 			}
 			
 			String archetype = template.get().getArchetype();
+
+			// Evicts the cached results depending on the published data of the same taxpayer and template. The ETL may
+			// have changed the published data even if the document did not finish in PROCESSED state (e.g. replaced document)
+			final List<String> indices;
+			if (archetype==null || archetype.trim().length()==0)
+				indices = Collections.singletonList(IndexNamesUtils.formatIndexNameForPublishedData(template.get().getName()));
+			else
+				indices = TemplateArchetypes.getArchetype(archetype).map(TemplateArchetype::getRelatedPublishedDataIndices).orElse(/*any index*/null);
+			evictCache(taxpayerId, indices);
+			evicted = true;
+
+			// If the document did not finish in PROCESSED state, let's ignore this
+			if (!DocumentSituation.PROCESSED.equals(situation)) {
+				log.log(Level.FINE, "Document with id " + documentId + " finished in "+situation+" situation");
+				return;
+			}
+			
 			if (archetype!=null && archetype.trim().length()>0) {
 
 				try {
@@ -123,6 +191,10 @@ public class FileProcessedConsumerService {
 		}
 		catch (Exception ex) {
 			log.log(Level.SEVERE, "Error checking status about the processed document with id "+documentId, ex);
+			if (!evicted) {
+				// Can't tell which cached results are affected
+				clearCache();
+			}
 		}
 
 	}
@@ -43,10 +43,10 @@ public class FileUploadedProducer {
 		log.log(Level.INFO, "Sending a message with documentId " + fileEvent.getFileId());
 		
 		if (partition==null) {
-	        streamBridge.send("fileUploaded-out-0", fileEvent.getFileId());			
+	        streamBridge.send("fileUploaded-out-0", fileEvent.toPayload());			
 		}
 		else {
-			Message<?> msg = MessageBuilder.withPayload(fileEvent.getFileId()).setHeader(StreamConfiguration.HEADER_PARTITION, partition).build();
+			Message<?> msg = MessageBuilder.withPayload(fileEvent.toPayload()).setHeader(StreamConfiguration.HEADER_PARTITION, partition).build();
 	        streamBridge.send("fileUploaded-out-0", msg);
 		}
     }
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
@@ -46,6 +47,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
 /**
  * Basic functionality with local internal application keystore
  * 
@@ -59,6 +63,11 @@ public class KeyStoreService {
 
 	private KeyStore keystore;
 
+	/**
+	 * Function used for computing digests of tokens (lazily initialized from the private key)
+	 */
+	private volatile HashFunction digestFunction;
+
 	@Autowired
 	private Environment env;
 	
@@ -204,6 +213,28 @@ public class KeyStoreService {
 		}
 	}
 
+	/**
+	 * Returns a keyed digest (HMAC-SHA256) of the token, in hexadecimal form. The key is derived from the private key
+	 * of the keystore, so the digest may be stored and indexed for looking up some token without decrypting
+	 * the stored ones, without revealing the token itself. If there is no keystore, returns a plain SHA-256 digest.
+	 */
+	public String digest(String prefix,String token) {
+		if (token==null || token.length()==0)
+			return null;
+		HashFunction function = digestFunction;
+		if (function==null) {
+			PrivateKey key = getPrivateKey(prefix);
+			if (key==null || key.getEncoded()==null) {
+				function = Hashing.sha256();
+			}
+			else {
+				function = Hashing.hmacSha256(Hashing.sha256().hashBytes(key.getEncoded()).asBytes());
+				digestFunction = function;
+			}
+		}
+		return function.hashString(token, StandardCharsets.UTF_8).toString();
+	}
+
 	/**
 	 * Verifies existence of the KeyStore to be used for SSL. Creates a self-signed
 	 * certificate if the provided filename does not exist.
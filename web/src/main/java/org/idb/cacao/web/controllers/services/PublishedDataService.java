@@ -7,17 +7,41 @@
 package org.idb.cacao.web.controllers.services;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.index.query.TermsQueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.PopulationRollup;
+import org.idb.cacao.api.Taxpayer;
 import org.idb.cacao.api.utils.IndexNamesUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Iterables;
+
 /**
  * Service regarding the published (denormalized) data that was produced by ETL
  * 
@@ -27,6 +51,26 @@ import org.springframework.stereotype.Service;
 @Service
 public class PublishedDataService {
 
+	private static final Logger log = Logger.getLogger(PublishedDataService.class.getName());
+
+	/**
+	 * Script for replacing the taxpayer information denormalized by ETL. The parameter 'taxpayers' maps each
+	 * taxpayer ID to the fields to replace ('data') and to the fields to remove ('removed'). Records that already
+	 * hold the current information are not written again.
+	 */
+	private static final String SCRIPT_UPDATE_TAXPAYER_DATA =
+			"def t = params.taxpayers.get(ctx._source.taxpayer_id); boolean changed = false; "
+			+ "if (t != null) { "
+			+ "for (def entry : t.data.entrySet()) { if (ctx._source[entry.getKey()] != entry.getValue()) { ctx._source[entry.getKey()] = entry.getValue(); changed = true; } } "
+			+ "for (def field : t.removed) { if (ctx._source.containsKey(field)) { ctx._source.remove(field); changed = true; } } "
+			+ "} "
+			+ "if (!changed) { ctx.op = 'noop'; }";
+
+	/**
+	 * Maximum number of taxpayers updated with one update-by-query request
+	 */
+	public static final int MAX_TAXPAYERS_PER_UPDATE = 1000;
+
 	@Autowired
 	private RestHighLevelClient elasticsearchClient;
 
@@ -40,4 +84,122 @@ public class PublishedDataService {
 		String[] indices = response.getIndices();
 		return Arrays.asList(indices);
 	}
+
+	/**
+	 * Given the qualifier name as stored in {@link Taxpayer} (e.g. 'qualifier1'), returns the name of the field
+	 * holding the same information in published (denormalized) data (e.g. 'taxpayer_qualifier_1'). Returns NULL
+	 * if it's not a qualifier name.
+	 */
+	public static String getPublishedFieldForQualifier(String qualifier) {
+		if (qualifier==null || !qualifier.matches("(?i)qualifier[1-5]"))
+			return null;
+		return IndexNamesUtils.formatFieldName("Taxpayer"+StringUtils.capitalize(qualifier.toLowerCase()));
+	}
+
+	/**
+	 * Returns TRUE if the changes in a taxpayer affect the information that ETL denormalizes in published data
+	 * @param before Information before changes (see {@link ETLContext#getTaxpayerBasicInformation(Taxpayer) getTaxpayerBasicInformation})
+	 * @param after Information after changes (see {@link ETLContext#getTaxpayerBasicInformation(Taxpayer) getTaxpayerBasicInformation})
+	 */
+	public static boolean hasChangedPublishedTaxpayerData(Map<String,Object> before, Map<String,Object> after) {
+		for (String key: ETLContext.TAXPAYER_BASIC_INFORMATION_KEYS) {
+			if (!Objects.equals(before.get(key), after.get(key)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the taxpayer information denormalized in all published data (name, address and qualifiers) with the
+	 * current information. Runs at background.
+	 */
+	public void updatePublishedTaxpayerData(Taxpayer taxpayer) {
+		if (taxpayer==null)
+			return;
+		try {
+			updatePublishedTaxpayerData(Collections.singleton(taxpayer), /*waitForCompletion*/false);
+		}
+		catch (IOException ex) {
+			log.log(Level.WARNING, "Could not update taxpayer "+taxpayer.getTaxPayerId()+" in published data", ex);
+		}
+	}
+
+	/**
+	 * Replaces the information of several taxpayers denormalized in all published data (name, address and qualifiers) with
+	 * the current information. Issues one update-by-query request for each {@link #MAX_TAXPAYERS_PER_UPDATE} taxpayers.
+	 * @param waitForCompletion If TRUE, returns only after the published data has been updated. Otherwise runs at background.
+	 */
+	public void updatePublishedTaxpayerData(Collection<Taxpayer> taxpayers, boolean waitForCompletion) throws IOException {
+		if (taxpayers==null || taxpayers.isEmpty())
+			return;
+
+		Map<String,Object> paramsPerTaxpayer = new HashMap<>();
+		for (Taxpayer taxpayer: taxpayers) {
+			if (taxpayer==null || taxpayer.getTaxPayerId()==null || taxpayer.getTaxPayerId().trim().length()==0)
+				continue;
+			Map<String,Object> data = IndexNamesUtils.normalizeAllKeysForES(ETLContext.getTaxpayerBasicInformation(taxpayer));
+			List<String> removed = new ArrayList<>();
+			for (String key: ETLContext.TAXPAYER_BASIC_INFORMATION_KEYS) {
+				String field = IndexNamesUtils.formatFieldName(key);
+				if (data==null || !data.containsKey(field))
+					removed.add(field);
+			}
+			Map<String,Object> params = new HashMap<>();
+			params.put("data", data==null ? new HashMap<>() : new HashMap<>(data));
+			params.put("removed", removed);
+			paramsPerTaxpayer.put(taxpayer.getTaxPayerId(), params);
+		}
+		if (paramsPerTaxpayer.isEmpty())
+			return;
+
+		// The population rollups are grouped by qualifiers, so they must be built again (before and after
+		// the published data is updated, so that no rollup built in between is taken as up to date)
+		markRollupsDirty();
+
+		for (List<String> taxpayersIds: Iterables.partition(new ArrayList<>(paramsPerTaxpayer.keySet()), MAX_TAXPAYERS_PER_UPDATE)) {
+			Map<String,Object> params = new HashMap<>();
+			params.put("taxpayers", taxpayersIds.stream().collect(Collectors.toMap(Function.identity(), paramsPerTaxpayer::get)));
+
+			UpdateByQueryRequest request = new UpdateByQueryRequest(IndexNamesUtils.PUBLISHED_DATA_INDEX_PREFIX+"*");
+			request.setQuery(new TermsQueryBuilder("taxpayer_id.keyword", taxpayersIds));
+			request.setScript(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, SCRIPT_UPDATE_TAXPAYER_DATA, params));
+			request.setConflicts("proceed");
+			request.setIndicesOptions(IndicesOptions.lenientExpandOpen());
+
+			if (waitForCompletion) {
+				BulkByScrollResponse response = elasticsearchClient.updateByQuery(request, RequestOptions.DEFAULT);
+				if (log.isLoggable(Level.FINE))
+					log.log(Level.FINE, "Updated "+taxpayersIds.size()+" taxpayers in "+response.getUpdated()+" published records");
+				continue;
+			}
+
+			elasticsearchClient.updateByQueryAsync(request, RequestOptions.DEFAULT, new ActionListener<BulkByScrollResponse>() {
+				@Override
+				public void onResponse(BulkByScrollResponse response) {
+					if (log.isLoggable(Level.FINE))
+						log.log(Level.FINE, "Updated "+taxpayersIds.size()+" taxpayers in "+response.getUpdated()+" published records");
+					ForkJoinPool.commonPool().execute(PublishedDataService.this::markRollupsDirty);
+				}
+				@Override
+				public void onFailure(Exception ex) {
+					log.log(Level.WARNING, "Could not update "+taxpayersIds.size()+" taxpayers in published data (first one: "+taxpayersIds.get(0)+")", ex);
+				}
+			});
+		}
+
+		if (waitForCompletion)
+			markRollupsDirty();
+	}
+
+	/**
+	 * Signals that all the {@link PopulationRollup population rollups} must be built again
+	 */
+	private void markRollupsDirty() {
+		try {
+			PopulationRollup.markAllDirty(elasticsearchClient);
+		}
+		catch (Exception ex) {
+			log.log(Level.WARNING, "Could not mark the population rollups for rebuilding", ex);
+		}
+	}
 }
@@ -0,0 +1,824 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.services;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.apache.commons.io.input.BOMInputStream;
+import org.idb.cacao.api.ETLContext;
+import org.idb.cacao.api.Taxpayer;
+import org.idb.cacao.api.utils.DateTimeUtils;
+import org.idb.cacao.web.dto.InterpersonalDto;
+import org.idb.cacao.web.dto.RegistryImportProgress;
+import org.idb.cacao.web.dto.TaxpayerDto;
+import org.idb.cacao.web.dto.UserDto;
+import org.idb.cacao.web.entities.Interpersonal;
+import org.idb.cacao.web.entities.RelationshipType;
+import org.idb.cacao.web.entities.User;
+import org.idb.cacao.web.entities.UserProfile;
+import org.idb.cacao.web.repositories.InterpersonalRepository;
+import org.idb.cacao.web.repositories.TaxpayerRepository;
+import org.idb.cacao.web.repositories.UserRepository;
+import org.idb.cacao.web.utils.LoadFromParquet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/**
+ * Service for bulk import of taxpayers, users and interpersonal relationships from CSV or PARQUET files.<BR>
+ * <BR>
+ * The file is streamed row by row. Each row is validated with the same constraints as the corresponding REST endpoints
+ * and the valid rows are grouped in batches. Each batch is checked against existing records by their natural keys
+ * (the taxpayer ID for taxpayers, the login for users, the pair of persons and the relationship type for relationships),
+ * and is written with one bulk request while the next batch is being read.<BR>
+ * <BR>
+ * New records receive an ID derived from their natural key, so importing the same file again (or a file with
+ * repeated rows) updates the same records instead of creating duplicates.<BR>
+ * <BR>
+ * The first row of a CSV file must contain the column names. Column names are matched ignoring case, spaces and
+ * punctuation (e.g. 'Taxpayer ID', 'taxPayerId' and 'TAXPAYER_ID' are the same column).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class RegistryImportService {
+
+	private static final Logger log = Logger.getLogger(RegistryImportService.class.getName());
+
+	/**
+	 * Kinds of records that may be imported
+	 */
+	public static enum ImportType {
+		TAXPAYERS,
+		USERS,
+		RELATIONSHIPS;
+
+		public static ImportType parse(String s) {
+			if (s==null || s.trim().length()==0)
+				return null;
+			return Arrays.stream(values()).filter(t->t.name().equalsIgnoreCase(s.trim())).findAny().orElse(null);
+		}
+	}
+
+	/**
+	 * Number of rows written with each bulk request
+	 */
+	@Value("${registry.import.batch.size:1000}")
+	private int batchSize;
+
+	/**
+	 * Number of bulk requests that may be running while the file is being read
+	 */
+	@Value("${registry.import.concurrent.bulk:2}")
+	private int concurrentBulk;
+
+	@Autowired
+	private TaxpayerRepository taxpayerRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private InterpersonalRepository interpersonalRepository;
+
+	@Autowired
+	private Validator validator;
+
+	@Autowired
+	private CacheManager cacheManager;
+
+	@Autowired
+	private PublishedDataService publishedDataService;
+
+	@Autowired
+	@Qualifier("RegistryImportTaskExecutor")
+	private TaskExecutor taskExecutor;
+
+	/**
+	 * Progress of recent imports
+	 */
+	private final com.google.common.cache.Cache<String, RegistryImportProgress> imports = CacheBuilder.newBuilder()
+			.maximumSize(100)
+			.expireAfterAccess(1, TimeUnit.DAYS)
+			.build();
+
+	/**
+	 * Starts the import of a file in background. The file is deleted after the import.
+	 * @param type Kind of records in file
+	 * @param file File to import (CSV or PARQUET)
+	 * @param filename Original name of the file (the extension tells the file format)
+	 * @param user Login of the user who requested the import
+	 * @param allowSysAdmin Indicates whether it's allowed to import users with SYSADMIN profile
+	 * @return Returns the object that keeps track of the import progress
+	 */
+	public RegistryImportProgress startImport(ImportType type, File file, String filename, String user, boolean allowSysAdmin) {
+		RegistryImportProgress progress = newProgress(type, filename, user);
+		taskExecutor.execute(()->{
+			try (RowsReader rows = openRows(file, filename);) {
+				importRows(type, rows, progress, user, allowSysAdmin);
+				progress.setFinished(DateTimeUtils.now());
+				log.log(Level.INFO, "Finished "+progress);
+			}
+			catch (Throwable ex) {
+				log.log(Level.SEVERE, "Failed the import of "+type+" from file "+filename, ex);
+				progress.setFailed(DateTimeUtils.now(), ex.getMessage());
+			}
+			finally {
+				if (!file.delete())
+					file.deleteOnExit();
+			}
+		});
+		return progress;
+	}
+
+	/**
+	 * Copies the input stream (e.g. the body of a HTTP request) to a temporary file and starts the import at background
+	 * (see {@link #startImport(ImportType, File, String, String, boolean) startImport}), so that the caller may follow
+	 * the progress while the rows are imported. The file is never kept whole in memory.
+	 * @param type Kind of records in file
+	 * @param input Contents of file (CSV or PARQUET). The stream is closed after reading.
+	 * @param filename Original name of the file (the extension tells the file format)
+	 * @param user Login of the user who requested the import
+	 * @param allowSysAdmin Indicates whether it's allowed to import users with SYSADMIN profile
+	 * @return Returns the object that keeps track of the import progress
+	 */
+	public RegistryImportProgress importStream(ImportType type, InputStream input, String filename, String user, boolean allowSysAdmin) throws IOException {
+		File tempFile = File.createTempFile("REGISTRY_IMPORT", isParquet(filename) ? ".parquet" : ".csv");
+		try {
+			Files.copy(input, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException ex) {
+			if (!tempFile.delete())
+				tempFile.deleteOnExit();
+			throw ex;
+		}
+		finally {
+			input.close();
+		}
+		return startImport(type, tempFile, filename, user, allowSysAdmin);
+	}
+
+	/**
+	 * Registers the progress of a new import
+	 */
+	private RegistryImportProgress newProgress(ImportType type, String filename, String user) {
+		RegistryImportProgress progress = new RegistryImportProgress(UUID.randomUUID().toString(), type.name(), filename, user, DateTimeUtils.now());
+		imports.put(progress.getId(), progress);
+		log.log(Level.INFO, "User "+user+" started the import of "+type+" from file "+filename+" with id "+progress.getId());
+		return progress;
+	}
+
+	/**
+	 * Returns the progress of an import started recently
+	 */
+	public Optional<RegistryImportProgress> getProgress(String id) {
+		return Optional.ofNullable(imports.getIfPresent(id));
+	}
+
+	/**
+	 * Imports all the rows, waiting until all the bulk requests are finished
+	 * @param type Kind of records
+	 * @param rows Rows read from file (each row maps column names to values)
+	 * @param progress Object for tracking the progress and reporting errors
+	 * @param user Login of the user who requested the import
+	 * @param allowSysAdmin Indicates whether it's allowed to import users with SYSADMIN profile
+	 */
+	public void importRows(ImportType type, Iterator<Map<String,Object>> rows, RegistryImportProgress progress, String user, boolean allowSysAdmin) throws InterruptedException {
+		final BatchImporter<?,?> importer;
+		switch (type) {
+		case TAXPAYERS:
+			importer = new TaxpayersImporter();
+			break;
+		case USERS:
+			importer = new UsersImporter(allowSysAdmin);
+			break;
+		case RELATIONSHIPS:
+			importer = new RelationshipsImporter(user);
+			break;
+		default:
+			throw new UnsupportedOperationException(String.valueOf(type));
+		}
+		importer.importRows(rows, progress);
+		if (ImportType.TAXPAYERS.equals(type)) {
+			Cache cache = cacheManager.getCache("qualifierValues");
+			if (cache!=null)
+				cache.clear();
+		}
+	}
+
+	/**
+	 * Opens the file for reading rows according to its extension (CSV or PARQUET)
+	 */
+	public static RowsReader openRows(File file, String filename) throws IOException {
+		String name = (filename==null) ? file.getName() : filename;
+		if (isParquet(name))
+			return new ParquetRowsReader(file);
+		else
+			return new CSVRowsReader(new FileInputStream(file));
+	}
+
+	/**
+	 * Returns TRUE if the file name has the extension of PARQUET files. Other files are considered CSV.
+	 */
+	private static boolean isParquet(String filename) {
+		return filename!=null && filename.toLowerCase().endsWith(".parquet");
+	}
+
+	/**
+	 * Normalizes column names for matching (ignores case, spaces and punctuation)
+	 */
+	public static String normalizeColumnName(String name) {
+		if (name==null)
+			return null;
+		return name.replaceAll("[^A-Za-z0-9]", "").toLowerCase();
+	}
+
+	/**
+	 * Returns an ID for a new record derived from its natural key, so that the same record always gets the same ID
+	 */
+	public static String formatImportId(ImportType type, String naturalKey) {
+		return Hashing.sha256().hashString(type.name()+":"+naturalKey, StandardCharsets.UTF_8).toString().substring(0, 40);
+	}
+
+	/**
+	 * Iterates over rows of a file. Each row maps normalized column names to values.
+	 */
+	public static interface RowsReader extends Iterator<Map<String,Object>>, Closeable {
+	}
+
+	/**
+	 * Reads rows from CSV file. The first row must contain the column names.
+	 */
+	private static class CSVRowsReader implements RowsReader {
+		private final CsvParser parser;
+		private final String[] columns;
+		private String[] next;
+
+		CSVRowsReader(InputStream stream) throws IOException {
+			BOMInputStream input = new BOMInputStream(stream);
+			String charset = input.getBOMCharsetName();
+			CsvParserSettings settings = new CsvParserSettings();
+			settings.detectFormatAutomatically();
+			settings.setDelimiterDetectionEnabled(true);
+			settings.setSkipEmptyLines(true);
+			settings.setIgnoreLeadingWhitespaces(true);
+			settings.setIgnoreTrailingWhitespaces(true);
+			settings.setMaxCharsPerColumn(-1);
+			parser = new CsvParser(settings);
+			parser.beginParsing(new InputStreamReader(input, (charset==null) ? StandardCharsets.UTF_8 : Charset.forName(charset)));
+			String[] header = parser.parseNext();
+			if (header==null) {
+				columns = new String[0];
+			}
+			else {
+				columns = Arrays.stream(header).map(RegistryImportService::normalizeColumnName).toArray(String[]::new);
+				next = parser.parseNext();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next!=null;
+		}
+
+		@Override
+		public Map<String, Object> next() {
+			if (next==null)
+				throw new NoSuchElementException();
+			Map<String,Object> row = new HashMap<>();
+			for (int i=0; i<columns.length && i<next.length; i++) {
+				if (columns[i]!=null && next[i]!=null)
+					row.put(columns[i], next[i]);
+			}
+			next = parser.parseNext();
+			return row;
+		}
+
+		@Override
+		public void close() throws IOException {
+			parser.stopParsing();
+		}
+	}
+
+	/**
+	 * Reads rows from PARQUET file
+	 */
+	private static class ParquetRowsReader implements RowsReader {
+		private final LoadFromParquet loader;
+		private Map<String,Object> next;
+
+		ParquetRowsReader(File file) throws IOException {
+			loader = new LoadFromParquet();
+			loader.setInputFile(file);
+			loader.init();
+			next = loader.next();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next!=null;
+		}
+
+		@Override
+		public Map<String, Object> next() {
+			if (next==null)
+				throw new NoSuchElementException();
+			Map<String,Object> row = new HashMap<>();
+			for (Map.Entry<String,Object> entry: next.entrySet()) {
+				if (entry.getValue()!=null)
+					row.put(normalizeColumnName(entry.getKey()), entry.getValue());
+			}
+			try {
+				next = loader.next();
+			} catch (IOException ex) {
+				throw new RuntimeException(ex);
+			}
+			return row;
+		}
+
+		@Override
+		public void close() throws IOException {
+			loader.close();
+		}
+	}
+
+	/**
+	 * One valid row waiting for the bulk request
+	 */
+	private static class ValidRow<D> {
+		final long rowNumber;
+		final String key;
+		final D dto;
+		ValidRow(long rowNumber, String key, D dto) {
+			this.rowNumber = rowNumber;
+			this.key = key;
+			this.dto = dto;
+		}
+	}
+
+	/**
+	 * Common procedures for importing rows in batches
+	 * @param <D> The type of DTO built from each row
+	 * @param <E> The type of entity stored in database
+	 */
+	private abstract class BatchImporter<D, E> {
+
+		private final ImportType type;
+
+		BatchImporter(ImportType type) {
+			this.type = type;
+		}
+
+		/**
+		 * Builds the DTO from one row. Throws IllegalArgumentException if the row contents are not valid.
+		 */
+		abstract D parse(Map<String,Object> row);
+
+		/**
+		 * Returns the natural key of the DTO
+		 */
+		abstract String getNaturalKey(D dto);
+
+		/**
+		 * Returns the existing records for the natural keys
+		 */
+		abstract Map<String,E> findExisting(Set<String> keys, Collection<D> dtos);
+
+		/**
+		 * Creates a new entity with the provided ID
+		 */
+		abstract E newEntity(String id);
+
+		/**
+		 * Updates the entity with the DTO contents. Returns TRUE if the changes must be propagated elsewhere after
+		 * saving (see {@link #afterSaveChanged(List) afterSaveChanged}).
+		 */
+		abstract boolean updateEntity(E entity, D dto, boolean created);
+
+		/**
+		 * Saves all the entities with one bulk request
+		 */
+		abstract void saveAll(List<E> entities);
+
+		/**
+		 * Propagates the changes of the entities of one batch after they have been saved. Does nothing by default.
+		 */
+		void afterSaveChanged(List<E> changed) throws Exception {
+		}
+
+		void importRows(Iterator<Map<String,Object>> rows, RegistryImportProgress progress) throws InterruptedException {
+			final int maxBatchSize = Math.max(1, batchSize);
+			final int maxConcurrent = Math.max(1, concurrentBulk);
+			final ExecutorService bulkExecutor = Executors.newFixedThreadPool(maxConcurrent);
+			final Semaphore pendingBulks = new Semaphore(maxConcurrent);
+			try {
+				List<ValidRow<D>> batch = new ArrayList<>(maxBatchSize);
+				while (rows.hasNext()) {
+					Map<String,Object> row = rows.next();
+					long rowNumber = progress.incrementRowsRead();
+					D dto;
+					try {
+						dto = parse(row);
+					}
+					catch (IllegalArgumentException ex) {
+						progress.addError(rowNumber, ex.getMessage());
+						continue;
+					}
+					Set<ConstraintViolation<D>> violations = validator.validate(dto);
+					if (!violations.isEmpty()) {
+						progress.addError(rowNumber, violations.stream()
+							.map(v->v.getPropertyPath()+": "+v.getMessage())
+							.sorted()
+							.collect(Collectors.joining("; ")));
+						continue;
+					}
+					batch.add(new ValidRow<>(rowNumber, getNaturalKey(dto), dto));
+					if (batch.size()>=maxBatchSize) {
+						submitBatch(batch, progress, bulkExecutor, pendingBulks);
+						batch = new ArrayList<>(maxBatchSize);
+					}
+				}
+				if (!batch.isEmpty()) {
+					submitBatch(batch, progress, bulkExecutor, pendingBulks);
+				}
+			}
+			finally {
+				bulkExecutor.shutdown();
+				bulkExecutor.awaitTermination(1, TimeUnit.DAYS);
+			}
+		}
+
+		/**
+		 * Resolves the existing records of the batch and writes the batch with one bulk request at background
+		 */
+		private void submitBatch(List<ValidRow<D>> batch, RegistryImportProgress progress,
+				ExecutorService bulkExecutor, Semaphore pendingBulks) throws InterruptedException {
+
+			// If the same natural key occurs more than once in the same batch, the last one prevails
+			Map<String, ValidRow<D>> unique = new LinkedHashMap<>();
+			for (ValidRow<D> row: batch) {
+				unique.put(row.key, row);
+			}
+			long superseded = batch.size() - unique.size();
+
+			Map<String,E> existing;
+			try {
+				existing = findExisting(unique.keySet(), unique.values().stream().map(r->r.dto).collect(Collectors.toList()));
+			}
+			catch (Exception ex) {
+				log.log(Level.SEVERE, "Error while searching existing records for import "+progress.getId(), ex);
+				for (ValidRow<D> row: batch)
+					progress.addError(row.rowNumber, "Could not check existing record: "+ex.getMessage());
+				return;
+			}
+
+			List<E> entities = new ArrayList<>(unique.size());
+			List<E> changed = new ArrayList<>();
+			long created = 0;
+			for (ValidRow<D> row: unique.values()) {
+				E entity = existing.get(row.key);
+				boolean isNew = (entity==null);
+				if (isNew) {
+					entity = newEntity(formatImportId(type, row.key));
+					created++;
+				}
+				if (updateEntity(entity, row.dto, isNew))
+					changed.add(entity);
+				entities.add(entity);
+			}
+			final long countCreated = created;
+			// Only the rows actually written count as updated (the superseded ones are counted apart)
+			final long countUpdated = unique.size() - created;
+			final long countSuperseded = superseded;
+
+			pendingBulks.acquire();
+			bulkExecutor.execute(()->{
+				try {
+					saveAll(entities);
+					progress.addRowsCreated(countCreated);
+					progress.addRowsUpdated(countUpdated);
+					progress.addRowsSuperseded(countSuperseded);
+				}
+				catch (Throwable ex) {
+					log.log(Level.SEVERE, "Error while saving "+entities.size()+" records for import "+progress.getId(), ex);
+					for (ValidRow<D> row: batch)
+						progress.addError(row.rowNumber, "Could not save record: "+ex.getMessage());
+					pendingBulks.release();
+					return;
+				}
+				try {
+					if (!changed.isEmpty())
+						afterSaveChanged(changed);
+				}
+				catch (Throwable ex) {
+					log.log(Level.WARNING, "Error while propagating changes of "+changed.size()+" records for import "+progress.getId(), ex);
+				}
+				finally {
+					pendingBulks.release();
+				}
+			});
+			if (superseded>0 && log.isLoggable(Level.FINE))
+				log.log(Level.FINE, "Import "+progress.getId()+" had "+superseded+" repeated rows in the same batch");
+		}
+	}
+
+	/**
+	 * Imports taxpayers. The natural key is the taxpayer ID.
+	 */
+	private class TaxpayersImporter extends BatchImporter<TaxpayerDto, Taxpayer> {
+
+		TaxpayersImporter() {
+			super(ImportType.TAXPAYERS);
+		}
+
+		@Override
+		TaxpayerDto parse(Map<String, Object> row) {
+			TaxpayerDto dto = new TaxpayerDto();
+			dto.setTaxPayerId(getText(row, "taxpayerid"));
+			dto.setName(getText(row, "name"));
+			dto.setAddress(getText(row, "address"));
+			dto.setZipCode(getText(row, "zipcode"));
+			dto.setQualifier1(getText(row, "qualifier1"));
+			dto.setQualifier2(getText(row, "qualifier2"));
+			dto.setQualifier3(getText(row, "qualifier3"));
+			dto.setQualifier4(getText(row, "qualifier4"));
+			dto.setQualifier5(getText(row, "qualifier5"));
+			dto.setActive(getBoolean(row, "active", true));
+			return dto;
+		}
+
+		@Override
+		String getNaturalKey(TaxpayerDto dto) {
+			return dto.getTaxPayerId();
+		}
+
+		@Override
+		Map<String, Taxpayer> findExisting(Set<String> keys, Collection<TaxpayerDto> dtos) {
+			return taxpayerRepository.findByTaxPayerIdIn(keys).stream()
+				.filter(t->keys.contains(t.getTaxPayerId()))
+				.collect(Collectors.toMap(Taxpayer::getTaxPayerId, t->t, (a,b)->a));
+		}
+
+		@Override
+		Taxpayer newEntity(String id) {
+			Taxpayer entity = new Taxpayer();
+			entity.setId(id);
+			return entity;
+		}
+
+		@Override
+		boolean updateEntity(Taxpayer entity, TaxpayerDto dto, boolean created) {
+			Map<String,Object> previousData = created ? null : ETLContext.getTaxpayerBasicInformation(entity);
+			dto.updateEntity(entity, /*updateIfPresent*/!created);
+			// The ETL denormalizes some of the taxpayer information in published data
+			return !created && PublishedDataService.hasChangedPublishedTaxpayerData(previousData, ETLContext.getTaxpayerBasicInformation(entity));
+		}
+
+		@Override
+		void afterSaveChanged(List<Taxpayer> changed) throws Exception {
+			// One update of published data for the whole batch
+			publishedDataService.updatePublishedTaxpayerData(changed, /*waitForCompletion*/true);
+		}
+
+		@Override
+		void saveAll(List<Taxpayer> entities) {
+			taxpayerRepository.saveAllWithTimestamp(entities);
+		}
+	}
+
+	/**
+	 * Imports users. The natural key is the login (ignoring case). Passwords are not imported. New users
+	 * must use the password reset procedure or some external identity provider.
+	 */
+	private class UsersImporter extends BatchImporter<UserDto, User> {
+
+		private final boolean allowSysAdmin;
+
+		UsersImporter(boolean allowSysAdmin) {
+			super(ImportType.USERS);
+			this.allowSysAdmin = allowSysAdmin;
+		}
+
+		@Override
+		UserDto parse(Map<String, Object> row) {
+			UserDto dto = new UserDto();
+			dto.setLogin(getText(row, "login"));
+			dto.setName(getText(row, "name"));
+			String profile = getText(row, "profile");
+			if (profile!=null) {
+				UserProfile userProfile = UserProfile.parse(profile);
+				if (userProfile==null)
+					throw new IllegalArgumentException("profile: unknown profile '"+profile+"'");
+				if (UserProfile.SYSADMIN.equals(userProfile) && !allowSysAdmin)
+					throw new IllegalArgumentException("profile: only a system administrator may create another system administrator");
+				dto.setProfile(userProfile);
+			}
+			dto.setTaxpayerId(getText(row, "taxpayerid"));
+			dto.setActive(getBoolean(row, "active", true));
+			return dto;
+		}
+
+		@Override
+		String getNaturalKey(UserDto dto) {
+			return dto.getLogin().toLowerCase();
+		}
+
+		@Override
+		Map<String, User> findExisting(Set<String> keys, Collection<UserDto> dtos) {
+			return userRepository.findByLoginIn(keys).stream()
+				.filter(u->u.getLogin()!=null && keys.contains(u.getLogin().toLowerCase()))
+				.collect(Collectors.toMap(u->u.getLogin().toLowerCase(), u->u, (a,b)->a));
+		}
+
+		@Override
+		User newEntity(String id) {
+			User entity = new User();
+			entity.setId(id);
+			return entity;
+		}
+
+		@Override
+		boolean updateEntity(User entity, UserDto dto, boolean created) {
+			if (!created && UserProfile.SYSADMIN.equals(entity.getProfile()) && !allowSysAdmin) {
+				// Keeps the profile of an existing system administrator
+				dto.setProfile(entity.getProfile());
+			}
+			dto.updateEntity(entity);
+			return false;
+		}
+
+		@Override
+		void saveAll(List<User> entities) {
+			OffsetDateTime now = DateTimeUtils.now();
+			entities.forEach(e->e.setTimestamp(now));
+			userRepository.saveAll(entities);
+		}
+	}
+
+	/**
+	 * Imports interpersonal relationships. The natural key is the combination of both persons and the relationship type.
+	 */
+	private class RelationshipsImporter extends BatchImporter<InterpersonalDto, Interpersonal> {
+
+		private final String user;
+
+		RelationshipsImporter(String user) {
+			super(ImportType.RELATIONSHIPS);
+			this.user = user;
+		}
+
+		@Override
+		InterpersonalDto parse(Map<String, Object> row) {
+			InterpersonalDto dto = new InterpersonalDto();
+			dto.setPersonId1(getText(row, "personid1"));
+			dto.setPersonId2(getText(row, "personid2"));
+			String relationshipType = getText(row, "relationshiptype");
+			if (relationshipType!=null) {
+				RelationshipType type = RelationshipType.parse(relationshipType);
+				if (type==null)
+					throw new IllegalArgumentException("relationshipType: unknown relationship type '"+relationshipType+"'");
+				dto.setRelationshipType(type);
+			}
+			dto.setActive(getBoolean(row, "active", true));
+			return dto;
+		}
+
+		@Override
+		String getNaturalKey(InterpersonalDto dto) {
+			return formatKey(dto.getPersonId1(), dto.getRelationshipType(), dto.getPersonId2());
+		}
+
+		private String formatKey(String personId1, RelationshipType relationshipType, String personId2) {
+			return personId1+"|"+((relationshipType==null)?"":relationshipType.name())+"|"+personId2;
+		}
+
+		@Override
+		Map<String, Interpersonal> findExisting(Set<String> keys, Collection<InterpersonalDto> dtos) {
+			Set<String> persons = dtos.stream().map(InterpersonalDto::getPersonId1).collect(Collectors.toCollection(HashSet::new));
+			Map<String, Interpersonal> existing = new HashMap<>();
+			for (Interpersonal rel: interpersonalRepository.findByPersonId1In(persons)) {
+				String key = formatKey(rel.getPersonId1(), rel.getRelationshipType(), rel.getPersonId2());
+				if (!keys.contains(key))
+					continue;
+				// Prefers the active relationship if there are more than one
+				Interpersonal prev = existing.get(key);
+				if (prev==null || (!prev.isActive() && rel.isActive()))
+					existing.put(key, rel);
+			}
+			return existing;
+		}
+
+		@Override
+		Interpersonal newEntity(String id) {
+			Interpersonal entity = new Interpersonal();
+			entity.setId(id);
+			return entity;
+		}
+
+		@Override
+		boolean updateEntity(Interpersonal entity, InterpersonalDto dto, boolean created) {
+			boolean wasActive = entity.isActive();
+			dto.updateEntity(entity);
+			if (created) {
+				entity.setTimestamp(DateTimeUtils.now());
+				entity.setUser(user);
+			}
+			else if (wasActive && !dto.isActive()) {
+				entity.setRemovedTimestamp(DateTimeUtils.now());
+			}
+			else if (dto.isActive()) {
+				entity.setRemovedTimestamp(null);
+			}
+			return false;
+		}
+
+		@Override
+		void saveAll(List<Interpersonal> entities) {
+			interpersonalRepository.saveAllWithTimestamp(entities);
+		}
+	}
+
+	/**
+	 * Returns the text value of a column, or NULL if absent or empty
+	 */
+	private static String getText(Map<String,Object> row, String column) {
+		Object value = row.get(column);
+		if (value==null)
+			return null;
+		String text = value.toString().trim();
+		return (text.length()==0) ? null : text;
+	}
+
+	/**
+	 * Returns the boolean value of a column, or the default value if absent or empty
+	 */
+	private static boolean getBoolean(Map<String,Object> row, String column, boolean defaultValue) {
+		Object value = row.get(column);
+		if (value instanceof Boolean)
+			return (Boolean)value;
+		String text = getText(row, column);
+		if (text==null)
+			return defaultValue;
+		switch (text.toLowerCase()) {
+		case "true":
+		case "yes":
+		case "y":
+		case "1":
+			return true;
+		case "false":
+		case "no":
+		case "n":
+		case "0":
+			return false;
+		default:
+			throw new IllegalArgumentException(column+": not a boolean value '"+text+"'");
+		}
+	}
+}
@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.idb.cacao.api.errors.GeneralException;
+import org.idb.cacao.web.dto.ResumableUpload;
+import org.idb.cacao.web.entities.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+
+/**
+ * Service for receiving large files in chunks.<BR>
+ * <BR>
+ * The client starts an upload informing the file size and the SHA-256 of the whole file. Each chunk is then sent with its
+ * own SHA-256 and is written directly to its position in a partial file kept in the 'storage.incoming.files.partial.dir'
+ * directory, without buffering the whole request. Chunks may be sent in any order and may be sent again after failures.
+ * The state of each upload (including the verified chunks) is kept in a small JSON file next to the partial file, so that
+ * an interrupted upload may be resumed later, even after a restart of this application.<BR>
+ * <BR>
+ * Only after all chunks have been received and the SHA-256 of the whole file has been verified, the file may be stored and
+ * published for processing. Uploads not finished after 'upload.resumable.expiration.hours' are discarded.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class ResumableUploadService {
+
+	private static final Logger log = Logger.getLogger(ResumableUploadService.class.getName());
+
+	private static final Pattern SHA256_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+	private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("^[0-9a-f\\-]{36}$");
+
+	private static final String STATE_SUFFIX = ".json";
+
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@Autowired
+	private MessageSource messageSource;
+
+	@Value("${storage.incoming.files.partial.dir:/var/cacao/incoming_files/partial}")
+	private String partialDir;
+
+	/**
+	 * Default size of chunks if not informed by the client
+	 */
+	@Value("${upload.resumable.chunk.size:8388608}")
+	private int defaultChunkSize;
+
+	/**
+	 * Maximum size of chunks
+	 */
+	@Value("${upload.resumable.max.chunk.size:67108864}")
+	private int maxChunkSize;
+
+	/**
+	 * Maximum size of files
+	 */
+	@Value("${upload.resumable.max.file.size:21474836480}")
+	private long maxFileSize;
+
+	/**
+	 * Time an unfinished upload is kept before being discarded
+	 */
+	@Value("${upload.resumable.expiration.hours:48}")
+	private long expirationHours;
+
+	private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	/**
+	 * Uploads in progress that have been accessed since start. Also used for synchronizing changes in the state of each upload.
+	 */
+	private final Map<String, ResumableUpload> uploads = new ConcurrentHashMap<>();
+
+	/**
+	 * Starts a new upload
+	 * @param user User uploading the file
+	 * @param filename Original file name
+	 * @param fileSize Size of the whole file in bytes
+	 * @param hash SHA-256 of the whole file (hexadecimal)
+	 * @param chunkSize Size of each chunk in bytes (the last one may be smaller). If NULL, uses the configured default.
+	 */
+	public ResumableUpload start(User user, String templateName, String templateVersion, String inputName,
+			String filename, long fileSize, String hash, Integer chunkSize) throws IOException {
+
+		removeExpired();
+
+		if (fileSize<=0)
+			throw new GeneralException(messageSource.getMessage("upload.failed.empty.file", null, LocaleContextHolder.getLocale()));
+		if (fileSize>maxFileSize)
+			throw new GeneralException(messageSource.getMessage("upload.failed.file.too.large", new Object[] { maxFileSize }, LocaleContextHolder.getLocale()));
+		if (hash==null || !SHA256_PATTERN.matcher(hash.toLowerCase()).find())
+			throw new GeneralException(messageSource.getMessage("upload.failed.invalid.checksum", null, LocaleContextHolder.getLocale()));
+		int size = (chunkSize==null) ? defaultChunkSize : chunkSize;
+		if (size<=0 || size>maxChunkSize)
+			throw new GeneralException(messageSource.getMessage("upload.failed.invalid.chunk.size", new Object[] { maxChunkSize }, LocaleContextHolder.getLocale()));
+
+		ResumableUpload upload = new ResumableUpload();
+		upload.setUploadId(UUID.randomUUID().toString());
+		upload.setUserLogin(user.getLogin());
+		upload.setTemplateName(templateName);
+		upload.setTemplateVersion(templateVersion);
+		upload.setInputName(inputName);
+		upload.setFilename(Paths.get(filename).getFileName().toString());
+		upload.setFileSize(fileSize);
+		upload.setChunkSize(size);
+		upload.setHash(hash.toLowerCase());
+		upload.setCreated(System.currentTimeMillis());
+		upload.setLastUpdate(upload.getCreated());
+
+		Files.createDirectories(getPartialDir());
+		try (FileChannel channel = FileChannel.open(getPartialFile(upload.getUploadId()), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			// Allocates the whole file at once so that chunks may be written in any order
+			channel.write(ByteBuffer.wrap(new byte[1]), fileSize-1);
+		}
+		saveState(upload);
+		uploads.put(upload.getUploadId(), upload);
+
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, String.format("User %s started upload %s of file %s with %d bytes in %d chunks",
+					user.getLogin(), upload.getUploadId(), upload.getFilename(), fileSize, upload.getChunks()));
+		}
+
+		return upload;
+	}
+
+	/**
+	 * Returns the state of an upload in progress, if it exists and was started by the same user
+	 */
+	public Optional<ResumableUpload> getUpload(String uploadId, User user) {
+		if (uploadId==null || !UPLOAD_ID_PATTERN.matcher(uploadId).find())
+			return Optional.empty();
+		ResumableUpload upload = uploads.computeIfAbsent(uploadId, this::loadState);
+		if (upload==null || user==null || !user.getLogin().equals(upload.getUserLogin()))
+			return Optional.empty();
+		return Optional.of(upload);
+	}
+
+	/**
+	 * Receives one chunk, writing it directly to its position in the partial file. The chunk is only considered as received
+	 * if its size and its SHA-256 matches the expected ones. Chunks are not accepted anymore once the completion of the
+	 * upload has started (see {@link #complete(ResumableUpload) complete}).
+	 * @param upload Upload in progress
+	 * @param chunk Index of the chunk (starting at 0)
+	 * @param hash SHA-256 of the chunk contents (hexadecimal)
+	 * @param input Chunk contents
+	 */
+	public ResumableUpload writeChunk(ResumableUpload upload, int chunk, String hash, InputStream input) throws IOException {
+
+		if (chunk<0 || chunk>=upload.getChunks())
+			throw new GeneralException(messageSource.getMessage("upload.failed.invalid.chunk", new Object[] { chunk }, LocaleContextHolder.getLocale()));
+		if (hash==null || !SHA256_PATTERN.matcher(hash.toLowerCase()).find())
+			throw new GeneralException(messageSource.getMessage("upload.failed.invalid.checksum", null, LocaleContextHolder.getLocale()));
+
+		synchronized (upload) {
+			checkAcceptsChunks(upload);
+			// The previous contents of this chunk (if any) will be overwritten, so it only counts again if the new ones are verified
+			upload.setChunksInProgress(upload.getChunksInProgress()+1);
+			upload.setChunkNotReceived(chunk);
+		}
+		try {
+			final int expectedSize = upload.getChunkSize(chunk);
+			final long offset = (long)chunk * upload.getChunkSize();
+			final Hasher hasher = Hashing.sha256().newHasher();
+			long written = 0;
+			try (FileChannel channel = FileChannel.open(getPartialFile(upload.getUploadId()), StandardOpenOption.WRITE)) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = input.read(buffer))>=0) {
+					if (written+read>expectedSize) {
+						// More data than expected
+						written += read;
+						break;
+					}
+					hasher.putBytes(buffer, 0, read);
+					ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+					while (bb.hasRemaining()) {
+						channel.write(bb, offset + written + bb.position());
+					}
+					written += read;
+				}
+			}
+
+			if (written!=expectedSize)
+				throw new GeneralException(messageSource.getMessage("upload.failed.invalid.chunk.contents", new Object[] { chunk, expectedSize, written }, LocaleContextHolder.getLocale()));
+			if (!hasher.hash().toString().equals(hash.toLowerCase()))
+				throw new GeneralException(messageSource.getMessage("upload.failed.chunk.checksum", new Object[] { chunk }, LocaleContextHolder.getLocale()));
+
+			synchronized (upload) {
+				upload.setChunkReceived(chunk);
+				upload.setLastUpdate(System.currentTimeMillis());
+				saveState(upload);
+			}
+		}
+		finally {
+			synchronized (upload) {
+				upload.setChunksInProgress(upload.getChunksInProgress()-1);
+				upload.notifyAll();
+			}
+		}
+
+		return upload;
+	}
+
+	/**
+	 * Throws an error if the upload is being completed or has already been finished. Should be called with the lock of the upload.
+	 */
+	private void checkAcceptsChunks(ResumableUpload upload) {
+		if (upload.isFinished())
+			throw new GeneralException(messageSource.getMessage("upload.resumable.not.found", new Object[] { upload.getUploadId() }, LocaleContextHolder.getLocale()));
+		if (upload.isCompleting())
+			throw new GeneralException(messageSource.getMessage("upload.failed.completing", new Object[] { upload.getUploadId() }, LocaleContextHolder.getLocale()));
+	}
+
+	/**
+	 * Starts the completion of an upload. From now on no more chunks are accepted, and the chunks still being written are
+	 * waited for. Then checks that all the chunks have been received and that the SHA-256 of the whole file matches the one
+	 * informed at the start.<BR>
+	 * If the verification fails, the upload is kept and accepts chunks again. If the SHA-256 does not match, all the chunks
+	 * are considered as missing, so that the client may send them again under the same upload.
+	 * @return Returns the location of the complete file. The caller should move it to the storage and then call {@link #finish(ResumableUpload) finish}.
+	 */
+	public Path complete(ResumableUpload upload) throws IOException {
+		synchronized (upload) {
+			checkAcceptsChunks(upload);
+			upload.setCompleting(true);
+			try {
+				while (upload.getChunksInProgress()>0)
+					upload.wait();
+			}
+			catch (InterruptedException ex) {
+				upload.setCompleting(false);
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the chunks of upload "+upload.getUploadId(), ex);
+			}
+		}
+		boolean verified = false;
+		try {
+			Path file = verify(upload);
+			verified = true;
+			return file;
+		}
+		finally {
+			if (!verified) {
+				synchronized (upload) {
+					upload.setCompleting(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that all the chunks have been received and that the SHA-256 of the whole file matches the one informed at
+	 * the start. Should be called only while no chunks are being written.
+	 */
+	private Path verify(ResumableUpload upload) throws IOException {
+		if (!upload.isComplete())
+			throw new GeneralException(messageSource.getMessage("upload.failed.incomplete", new Object[] { upload.getChunks() - upload.getReceivedChunks().size() }, LocaleContextHolder.getLocale()));
+		Path partialFile = getPartialFile(upload.getUploadId());
+		final String hash;
+		try (HashingInputStream his = new HashingInputStream(Hashing.sha256(), Files.newInputStream(partialFile))) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (his.read(buffer)>=0) {
+				// just computing the hash
+			}
+			hash = his.hash().toString();
+		}
+		if (!hash.equals(upload.getHash())) {
+			// Each chunk matched its own checksum when it was received, so we can't tell which one is wrong now
+			synchronized (upload) {
+				upload.clearReceivedChunks();
+				upload.setLastUpdate(System.currentTimeMillis());
+				saveState(upload);
+			}
+			throw new GeneralException(messageSource.getMessage("upload.failed.file.checksum", new Object[] { upload.getFilename() }, LocaleContextHolder.getLocale()));
+		}
+		return partialFile;
+	}
+
+	/**
+	 * Discards an upload (finished or not), removing its state and partial file, if any. Chunks still being written
+	 * to it are not registered anymore.
+	 */
+	public void finish(ResumableUpload upload) {
+		synchronized (upload) {
+			upload.setFinished(true);
+			uploads.remove(upload.getUploadId(), upload);
+			try {
+				Files.deleteIfExists(getPartialFile(upload.getUploadId()));
+				Files.deleteIfExists(getStateFile(upload.getUploadId()));
+			}
+			catch (IOException ex) {
+				log.log(Level.WARNING, "Could not delete files of upload "+upload.getUploadId(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Discards the uploads not finished in due time
+	 */
+	public void removeExpired() {
+		Path dir = getPartialDir();
+		if (!Files.isDirectory(dir))
+			return;
+		final long expiration = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(expirationHours);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*"+STATE_SUFFIX)) {
+			for (Path file: files) {
+				if (Files.getLastModifiedTime(file).toMillis()>=expiration)
+					continue;
+				String uploadId = file.getFileName().toString();
+				uploadId = uploadId.substring(0, uploadId.length()-STATE_SUFFIX.length());
+				ResumableUpload upload = uploads.get(uploadId);
+				if (upload==null) {
+					upload = new ResumableUpload();
+					upload.setUploadId(uploadId);
+				}
+				synchronized (upload) {
+					if (upload.isCompleting())
+						continue;
+					log.log(Level.INFO, "Discarding expired upload "+uploadId);
+					finish(upload);
+				}
+			}
+		}
+		catch (IOException ex) {
+			log.log(Level.WARNING, "Could not check expired uploads at "+dir, ex);
+		}
+	}
+
+	private Path getPartialDir() {
+		return Paths.get(partialDir);
+	}
+
+	private Path getPartialFile(String uploadId) {
+		return getPartialDir().resolve(uploadId + PARTIAL_SUFFIX);
+	}
+
+	private Path getStateFile(String uploadId) {
+		return getPartialDir().resolve(uploadId + STATE_SUFFIX);
+	}
+
+	/**
+	 * Saves the state of the upload. Should be called with the lock of the upload, so that it does not write again
+	 * the state of an upload already finished.
+	 */
+	private void saveState(ResumableUpload upload) throws IOException {
+		if (upload.isFinished())
+			throw new GeneralException(messageSource.getMessage("upload.resumable.not.found", new Object[] { upload.getUploadId() }, LocaleContextHolder.getLocale()));
+		Path stateFile = getStateFile(upload.getUploadId());
+		Path tempFile = stateFile.resolveSibling(stateFile.getFileName().toString() + ".tmp");
+		mapper.writeValue(tempFile.toFile(), upload);
+		Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private ResumableUpload loadState(String uploadId) {
+		Path stateFile = getStateFile(uploadId);
+		if (!Files.exists(stateFile) || !Files.exists(getPartialFile(uploadId)))
+			return null;
+		try {
+			return mapper.readValue(stateFile.toFile(), ResumableUpload.class);
+		}
+		catch (IOException ex) {
+			log.log(Level.WARNING, "Could not read the state of upload "+uploadId, ex);
+			return null;
+		}
+	}
+}
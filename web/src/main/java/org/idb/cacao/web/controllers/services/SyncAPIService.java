@@ -40,6 +40,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -66,6 +67,7 @@ import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.idb.cacao.api.Taxpayer;
 import org.idb.cacao.api.errors.CommonErrors;
 import org.idb.cacao.api.errors.GeneralException;
 import org.idb.cacao.api.storage.FileSystemStorageService;
@@ -97,6 +99,8 @@ import org.idb.cacao.web.utils.ZipConsumer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
@@ -237,6 +241,12 @@ public class SyncAPIService {
 	@Autowired
 	private Collection<Repository<?, ?>> allRepositories;
 
+	@Autowired
+	private PublishedDataService publishedDataService;
+
+	@Autowired
+	private CacheManager cacheManager;
+
 	@Value("${spring.elasticsearch.rest.connection-timeout}")
 	private String elasticSearchConnectionTimeout;
 
@@ -552,6 +562,10 @@ public class SyncAPIService {
 		final String uri = SyncContexts.REPOSITORY_ENTITIES.getEndpoint(repositoryClass.getSimpleName());
 		
 		final BatchSave batchToSave = new BatchSave(BULK_LOAD_BATCH_COMMIT, entity.getSimpleName(), repository);
+		if (Taxpayer.class.equals(entity)) {
+			// The ETL denormalizes some of the taxpayer information in published data
+			batchToSave.setAfterSave(this::updatePublishedTaxpayerData);
+		}
 		
 		final Class<?> foundInterface = ReflectUtils.getInterfaceWithFilter(repository.getClass(), 
 				/*filter*/cl->cl.getAnnotation(Synchronizable.class)!=null);
@@ -609,6 +623,26 @@ public class SyncAPIService {
 		log.log(Level.INFO, FINISHED_COPYING+batchToSave.counter.longValue()+FILES_FROM+uri+" in "+elapsed_time+" ms and "+bytesReceivedHere+BYTES);
 		if (batchToSave.countErrors.longValue()>0)
 			log.log(Level.INFO, "Number of errors while copying "+batchToSave.counter.longValue()+FILES_FROM+uri+": "+batchToSave.countErrors.longValue());
+
+		if (Taxpayer.class.equals(entity) && batchToSave.counter.longValue()>0) {
+			Cache cache = cacheManager.getCache("qualifierValues");
+			if (cache!=null)
+				cache.clear();
+		}
+	}
+
+	/**
+	 * Updates the taxpayer information denormalized in published data after saving one batch of taxpayers received
+	 * from the master
+	 */
+	private void updatePublishedTaxpayerData(List<Object> saved) {
+		List<Taxpayer> taxpayers = saved.stream().filter(Taxpayer.class::isInstance).map(Taxpayer.class::cast).collect(Collectors.toList());
+		try {
+			publishedDataService.updatePublishedTaxpayerData(taxpayers, /*waitForCompletion*/true);
+		}
+		catch (Exception ex) {
+			log.log(Level.WARNING, "Could not update "+taxpayers.size()+" taxpayers in published data", ex);
+		}
 	}
 	
 	/**
@@ -623,6 +657,7 @@ public class SyncAPIService {
 		private final LongAdder countErrors;
 		private final LongAdder counter;
 		private final String simpleName;
+		private Consumer<List<Object>> afterSave;
 		BatchSave(int batchSize,
 				String simpleName,
 				CrudRepository<Object, ?> repository) {
@@ -633,6 +668,12 @@ public class SyncAPIService {
 			countErrors = new LongAdder();
 			counter = new LongAdder();
 		}
+		/**
+		 * Optional procedure to be called with the instances saved in each batch
+		 */
+		void setAfterSave(Consumer<List<Object>> afterSave) {
+			this.afterSave = afterSave;
+		}
 		void push(Object instance) {
 			batchToSave.add(instance);
 			if (batchToSave.size()>=batchSize) {
@@ -646,21 +687,29 @@ public class SyncAPIService {
 			try {
 				repository.saveAll(batchToSave);
 				counter.add(batchToSave.size());
+				if (afterSave!=null)
+					afterSave.accept(batchToSave);
 			}
 			catch (Exception ex) {
 				// In case of error, let's try saving one at a time
 				if (batchToSave.size()>1) {
+					List<Object> saved = new ArrayList<>(batchToSave.size());
 					for (Object record: batchToSave) {
 						try {
 							repository.save(record);
 							counter.increment();
+							saved.add(record);
 						}
 						catch (Throwable ex2) {
 							log.log(Level.WARNING, "Error while saving "+simpleName+" with contents "+getSampleInfoForLog(record), ex);
 							countErrors.increment();
+							if (afterSave!=null && !saved.isEmpty())
+								afterSave.accept(saved);
 							return;							
 						}
 					}
+					if (afterSave!=null)
+						afterSave.accept(saved);
 				}
 				else {
 					log.log(Level.WARNING, "Error while saving "+simpleName+" with contents "+getSampleInfoForLog(batchToSave), ex);
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.services;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.idb.cacao.api.templates.DocumentTemplate;
+import org.idb.cacao.api.templates.DomainTable;
+import org.idb.cacao.api.templates.TemplatesCache;
+import org.idb.cacao.api.templates.TemplatesCache.ChangeKind;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.stereotype.Service;
+
+/**
+ * Publishes a message to KAFKA whenever a {@link DocumentTemplate DocumentTemplate} or a {@link DomainTable DomainTable}
+ * changes, so that all the services may discard the stale objects from their {@link TemplatesCache TemplatesCache}.
+ * 
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class TemplateChangeNotifier {
+
+	private static final Logger log = Logger.getLogger(TemplateChangeNotifier.class.getName());
+	
+	/**
+	 * Binding name for publishing change messages
+	 */
+	public static final String BINDING_TEMPLATE_CHANGED = "templateChanged-out-0";
+
+	private final StreamBridge streamBridge;
+	
+	public TemplateChangeNotifier(StreamBridge streamBridge) {
+		this.streamBridge = streamBridge;
+	}
+
+	/**
+	 * Notifies about a template that has been created, changed or deleted
+	 */
+	public void templateChanged(DocumentTemplate template) {
+		if (template==null)
+			return;
+		templateChanged(template.getName(), template.getVersion());
+	}
+
+	/**
+	 * Notifies about a template that has been created, changed or deleted, given its name and version (e.g. the
+	 * previous name and version of a template that has been renamed)
+	 */
+	public void templateChanged(String name, String version) {
+		if (name==null)
+			return;
+		send(TemplatesCache.formatChangeMessage(ChangeKind.TEMPLATE, name, version));
+	}
+
+	/**
+	 * Notifies about a domain table that has been created, changed or deleted
+	 */
+	public void domainTableChanged(DomainTable table) {
+		if (table==null)
+			return;
+		domainTableChanged(table.getName(), table.getVersion());
+	}
+
+	/**
+	 * Notifies about a domain table that has been created, changed or deleted, given its name and version (e.g. the
+	 * previous name and version of a domain table that has been renamed)
+	 */
+	public void domainTableChanged(String name, String version) {
+		if (name==null)
+			return;
+		send(TemplatesCache.formatChangeMessage(ChangeKind.DOMAIN_TABLE, name, version));
+	}
+
+	/**
+	 * Notifies about changes in any number of templates or domain tables (e.g. bulk deletion)
+	 */
+	public void allChanged() {
+		send(TemplatesCache.formatChangeMessage(ChangeKind.ALL, null, null));
+	}
+	
+	private void send(String message) {
+		try {
+			streamBridge.send(BINDING_TEMPLATE_CHANGED, message);
+		}
+		catch (Exception ex) {
+			// Services will still get the change after the entries in their caches expire
+			log.log(Level.WARNING, "Could not publish template change message "+message, ex);
+		}
+	}
+}
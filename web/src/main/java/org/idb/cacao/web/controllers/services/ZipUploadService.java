@@ -0,0 +1,594 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers.services;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.idb.cacao.api.DocumentSituation;
+import org.idb.cacao.api.DocumentSituationHistory;
+import org.idb.cacao.api.DocumentUploaded;
+import org.idb.cacao.api.errors.GeneralException;
+import org.idb.cacao.api.storage.IStorageService;
+import org.idb.cacao.api.utils.DateTimeUtils;
+import org.idb.cacao.web.dto.FileUploadedEvent;
+import org.idb.cacao.web.entities.ZipUploadBatch;
+import org.idb.cacao.web.repositories.DocumentSituationHistoryRepository;
+import org.idb.cacao.web.repositories.DocumentUploadedRepository;
+import org.idb.cacao.web.repositories.ZipUploadBatchRepository;
+import org.idb.cacao.web.utils.ZipConsumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Service for storing the files contained in an uploaded ZIP file.<BR>
+ * <BR>
+ * The ZIP file is processed at background. Its files are extracted straight into the storage by the threads shared
+ * by all ZIP files (see 'upload.zip.parallelism'), reading each entry directly from the ZIP file (no need to
+ * extract the entries in order). The stored files are registered for processing in groups (see 'upload.zip.bulk.size'),
+ * with one bulk request for the uploaded documents and another one for their situation history.<BR>
+ * <BR>
+ * The progress of each ZIP file is saved from time to time (see 'upload.zip.progress.interval.seconds'), and may be
+ * queried at any node with {@link #getBatch(String) getBatch}.<BR>
+ * <BR>
+ * The ZIP files are kept in a local working directory (see 'upload.zip.work.dir') together with a journal of the files
+ * stored from each one of them. If the application stops in the middle of some ZIP file, {@link #removeOrphans() removeOrphans}
+ * discards at the next startup the files stored but not registered, the ZIP files left behind and marks the
+ * interrupted batches as failed.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Service
+public class ZipUploadService {
+
+	private static final Logger log = Logger.getLogger(ZipUploadService.class.getName());
+
+	@Value("${max.entries.per.uploaded.zip}")
+	private int maxEntriesPerUploadedZip;
+
+	/**
+	 * Number of files of the same ZIP file waiting to be extracted or being extracted (the threads are configured in
+	 * 'ZipEntryTaskExecutor' and are shared by all ZIP files)
+	 */
+	@Value("${upload.zip.parallelism:4}")
+	private int parallelism;
+
+	/**
+	 * Minimum interval between saves of the progress of the same ZIP file
+	 */
+	@Value("${upload.zip.progress.interval.seconds:5}")
+	private int progressIntervalSeconds;
+
+	/**
+	 * Local directory for the ZIP files being processed and their journals
+	 */
+	@Value("${upload.zip.work.dir:${java.io.tmpdir}/cacao_zip_upload}")
+	private String workDir;
+
+	/**
+	 * Number of documents registered with each bulk request
+	 */
+	@Value("${upload.zip.bulk.size:100}")
+	private int bulkSize;
+
+	@Autowired
+	private IStorageService storageService;
+
+	@Autowired
+	private DocumentUploadedRepository documentsUploadedRepository;
+
+	@Autowired
+	private DocumentSituationHistoryRepository documentsSituationHistoryRepository;
+
+	@Autowired
+	private ZipUploadBatchRepository batchRepository;
+
+	@Autowired
+	private FileUploadedProducer fileUploadedProducer;
+
+	@Autowired
+	@Qualifier("ZipUploadTaskExecutor")
+	private TaskExecutor taskExecutor;
+
+	@Autowired
+	@Qualifier("ZipEntryTaskExecutor")
+	private TaskExecutor entryExecutor;
+
+	/**
+	 * Progress of recent ZIP files processed by this node (more recent than the saved ones while they are running)
+	 */
+	private final Cache<String, ZipUploadBatch> batches = CacheBuilder.newBuilder()
+			.maximumSize(1000)
+			.expireAfterAccess(1, TimeUnit.HOURS)
+			.build();
+
+	/**
+	 * Time of the last save of the progress of each running ZIP file
+	 */
+	private final Map<String, AtomicLong> lastSaved = new ConcurrentHashMap<>();
+
+	/**
+	 * Files in working directory older than this were left behind by some previous execution
+	 */
+	private final long startupTime = System.currentTimeMillis();
+
+	/**
+	 * Suffix of the journal kept for each ZIP file
+	 */
+	private static final String JOURNAL_SUFFIX = ".journal";
+
+	/**
+	 * One file extracted from the ZIP file and already stored, but not yet registered
+	 */
+	private static class StoredFile {
+
+		final String filename;
+
+		final String fileId;
+
+		final String subDir;
+
+		final String hash;
+
+		final long fileSize;
+
+		StoredFile(String filename, String fileId, String subDir, String hash, long fileSize) {
+			this.filename = filename;
+			this.fileId = fileId;
+			this.subDir = subDir;
+			this.hash = hash;
+			this.fileSize = fileSize;
+		}
+	}
+
+	/**
+	 * Journal of the files stored from one ZIP file. Each line tells the operation, the file ID and the sub directory
+	 * in storage. A file is 'pending' before being written to the storage, 'stored' after that and 'registered' after
+	 * its document has been saved.
+	 */
+	private static class Journal implements Closeable {
+
+		static final String PENDING = "P";
+
+		static final String STORED = "S";
+
+		static final String REGISTERED = "R";
+
+		private final BufferedWriter writer;
+
+		Journal(Path file) throws IOException {
+			writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+
+		synchronized void write(String operation, String fileId, String subDir) throws IOException {
+			writer.write(operation);
+			writer.write(' ');
+			writer.write(fileId);
+			if (subDir!=null) {
+				writer.write(' ');
+				writer.write(subDir);
+			}
+			writer.newLine();
+			writer.flush();
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Creates an empty file in the working directory for receiving an uploaded ZIP file, which must be given
+	 * to {@link #start(File, String, DocumentUploaded) start} afterwards
+	 */
+	public File createZipFile() throws IOException {
+		Path dir = getWorkDir();
+		Files.createDirectories(dir);
+		return File.createTempFile("ZIP_UPLOAD", ".zip", dir.toFile());
+	}
+
+	/**
+	 * Starts storing the files contained in a ZIP file at background. The ZIP file is deleted afterwards.<BR>
+	 * The number of entries is checked before returning, so that an invalid ZIP file is reported right away.
+	 * @param zipFile		The ZIP file
+	 * @param filename		Original name of the ZIP file
+	 * @param prototype		Information to be replicated to every document uploaded (template name, template version,
+	 * 						input name, user, IP address, etc.)
+	 * @return Returns the object that keeps track of the progress. If the ZIP file does not contain any file, returns
+	 * 			an object already finished (with no files) and the ZIP file is discarded.
+	 */
+	public ZipUploadBatch start(File zipFile, String filename, DocumentUploaded prototype) throws IOException, GeneralException {
+
+		final ZipFile zip;
+		final int totalFiles;
+		try {
+			zip = new ZipFile(zipFile);
+		}
+		catch (IOException ex) {
+			deleteQuietly(zipFile);
+			throw ex;
+		}
+		try {
+			final Enumeration<? extends ZipEntry> entries = zip.entries();
+			final int[] countFiles = new int[1];
+			new ZipConsumer(()->entries.hasMoreElements() ? entries.nextElement() : null, /*contentsInputStream*/null,
+					(entry, input)->{
+						if (!entry.isDirectory())
+							countFiles[0]++;
+					})
+			.threadholdEntries(maxEntriesPerUploadedZip)
+			.run();
+			totalFiles = countFiles[0];
+		}
+		catch (IOException | RuntimeException ex) {
+			zip.close();
+			deleteQuietly(zipFile);
+			throw ex;
+		}
+
+		final ZipUploadBatch batch = new ZipUploadBatch(UUID.randomUUID().toString(), filename, prototype.getTemplateName(),
+				prototype.getTemplateVersion(), prototype.getInputName(), prototype.getUserLogin(), totalFiles, DateTimeUtils.now());
+
+		if (totalFiles==0) {
+			zip.close();
+			deleteQuietly(zipFile);
+			batch.setFinished(DateTimeUtils.now());
+			return batch;
+		}
+
+		final Path journalFile = getWorkDir().resolve(batch.getBatchId()+JOURNAL_SUFFIX);
+		final Journal journal;
+		try {
+			Files.createDirectories(journalFile.getParent());
+			journal = new Journal(journalFile);
+		}
+		catch (IOException ex) {
+			zip.close();
+			deleteQuietly(zipFile);
+			throw ex;
+		}
+
+		batches.put(batch.getBatchId(), batch);
+		saveProgress(batch, /*force*/true);
+		if (log.isLoggable(Level.INFO)) {
+			log.log(Level.INFO, String.format("User %s uploading %d files within %s for template %s from %s (batch %s)",
+					prototype.getUserLogin(), totalFiles, filename, prototype.getTemplateName(), prototype.getIpAddress(), batch.getBatchId()));
+		}
+
+		taskExecutor.execute(()->{
+			try {
+				storeAll(zip, batch, prototype, journal);
+				batch.setFinished(DateTimeUtils.now());
+				log.log(Level.INFO, "Finished "+batch);
+			}
+			catch (Throwable ex) {
+				log.log(Level.SEVERE, "Failed the upload of files within "+filename, ex);
+				batch.setFailed(DateTimeUtils.now(), ex.getMessage());
+			}
+			finally {
+				saveProgress(batch, /*force*/true);
+				lastSaved.remove(batch.getBatchId());
+				try {
+					zip.close();
+				}
+				catch (IOException ex) {
+					log.log(Level.WARNING, "Could not close "+zipFile, ex);
+				}
+				deleteQuietly(zipFile);
+				try {
+					journal.close();
+					Files.deleteIfExists(journalFile);
+				}
+				catch (IOException ex) {
+					log.log(Level.WARNING, "Could not delete "+journalFile, ex);
+				}
+			}
+		});
+
+		return batch;
+	}
+
+	/**
+	 * Returns the progress of a ZIP file uploaded recently at this node or at any other node
+	 */
+	public Optional<ZipUploadBatch> getBatch(String batchId) {
+		ZipUploadBatch batch = batches.getIfPresent(batchId);
+		if (batch!=null)
+			return Optional.of(batch);
+		return batchRepository.findById(batchId);
+	}
+
+	/**
+	 * Saves the current progress of a ZIP file, unless it was saved recently and 'force' is FALSE
+	 */
+	private void saveProgress(ZipUploadBatch batch, boolean force) {
+		AtomicLong last = lastSaved.computeIfAbsent(batch.getBatchId(), id->new AtomicLong());
+		synchronized (last) {
+			long now = System.currentTimeMillis();
+			if (!force && now - last.get() < TimeUnit.SECONDS.toMillis(progressIntervalSeconds))
+				return;
+			try {
+				batchRepository.save(batch.clone());
+				last.set(now);
+			}
+			catch (Throwable ex) {
+				log.log(Level.WARNING, "Could not save the progress of "+batch, ex);
+			}
+		}
+	}
+
+	/**
+	 * Stores all the files contained in the ZIP file, waiting until all of them are registered
+	 */
+	private void storeAll(ZipFile zip, ZipUploadBatch batch, DocumentUploaded prototype, Journal journal) throws InterruptedException {
+		final int maxBulkSize = Math.max(1, bulkSize);
+		final int maxConcurrent = Math.max(1, parallelism);
+		final Semaphore pendingEntries = new Semaphore(maxConcurrent);
+		final List<StoredFile> storedFiles = new ArrayList<>(maxBulkSize);
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory())
+					continue;
+				pendingEntries.acquire();
+				try {
+					entryExecutor.execute(()->{
+						try {
+							StoredFile stored = storeEntry(zip, entry, journal);
+							List<StoredFile> toRegister = null;
+							synchronized (storedFiles) {
+								storedFiles.add(stored);
+								if (storedFiles.size()>=maxBulkSize) {
+									toRegister = new ArrayList<>(storedFiles);
+									storedFiles.clear();
+								}
+							}
+							if (toRegister!=null)
+								registerAll(toRegister, batch, prototype, journal);
+						}
+						catch (Throwable ex) {
+							log.log(Level.WARNING, "Could not store "+entry.getName()+" within "+batch.getFilename(), ex);
+							batch.addRejected(entry.getName(), ex.getMessage());
+						}
+						finally {
+							pendingEntries.release();
+						}
+					});
+				}
+				catch (RuntimeException ex) {
+					pendingEntries.release();
+					throw ex;
+				}
+			}
+		}
+		finally {
+			// The threads are shared with other ZIP files, so waits only for the entries of this one
+			pendingEntries.acquireUninterruptibly(maxConcurrent);
+		}
+		if (!storedFiles.isEmpty()) {
+			registerAll(storedFiles, batch, prototype, journal);
+		}
+	}
+
+	/**
+	 * Copies one entry of the ZIP file into the storage
+	 */
+	private StoredFile storeEntry(ZipFile zip, ZipEntry entry, Journal journal) throws IOException {
+		String fileId = UUID.randomUUID().toString();
+		journal.write(Journal.PENDING, fileId, storageService.getSubDir());
+		try (InputStream input = zip.getInputStream(entry)) {
+			CountingInputStream cis = new CountingInputStream(input);
+			HashingInputStream his = new HashingInputStream(Hashing.sha256(), cis);
+			String subDir = storageService.store(fileId, his, /* closeInputStream */false);
+			try {
+				journal.write(Journal.STORED, fileId, subDir);
+			}
+			catch (IOException ex) {
+				storageService.delete(subDir + File.separator + fileId);
+				throw ex;
+			}
+			return new StoredFile(entry.getName(), fileId, subDir, his.hash().toString(), cis.getCount());
+		}
+	}
+
+	/**
+	 * Keeps the information about files already saved in storage and publishes them for processing. The documents
+	 * and their situation history are saved with bulk requests. If they could not be saved, the stored files are
+	 * discarded.
+	 */
+	private void registerAll(List<StoredFile> files, ZipUploadBatch batch, DocumentUploaded prototype, Journal journal) {
+		final OffsetDateTime timestamp = DateTimeUtils.now();
+
+		List<DocumentUploaded> docs = new ArrayList<>(files.size());
+		for (StoredFile file: files) {
+			DocumentUploaded doc = prototype.clone();
+			doc.setId(null);
+			doc.setFileId(file.fileId);
+			doc.setFilename(file.filename);
+			doc.setSubDir(file.subDir);
+			doc.setHash(file.hash);
+			doc.setTimestamp(timestamp);
+			doc.setChangedTime(timestamp);
+			doc.setSituation(DocumentSituation.RECEIVED);
+			docs.add(doc);
+		}
+
+		List<DocumentUploaded> savedDocs = null;
+		try {
+			savedDocs = Lists.newArrayList(documentsUploadedRepository.saveAll(docs));
+
+			List<DocumentSituationHistory> situations = savedDocs.stream().map(savedInfo->{
+				DocumentSituationHistory situationHistory = new DocumentSituationHistory();
+				situationHistory.setDocumentId(savedInfo.getId());
+				situationHistory.setDocumentFilename(savedInfo.getFilename());
+				situationHistory.setTemplateName(savedInfo.getTemplateName());
+				situationHistory.setSituation(DocumentSituation.RECEIVED);
+				situationHistory.setTimestamp(timestamp);
+				situationHistory.setChangedTime(timestamp);
+				return situationHistory;
+			}).collect(Collectors.toList());
+			documentsSituationHistoryRepository.saveAll(situations);
+		}
+		catch (Throwable ex) {
+			log.log(Level.SEVERE, "Could not register "+files.size()+" files within "+batch.getFilename(), ex);
+			if (savedDocs!=null) {
+				try {
+					documentsUploadedRepository.deleteAll(savedDocs);
+				}
+				catch (Throwable ex2) {
+					log.log(Level.SEVERE, "Could not rollback", ex2);
+				}
+			}
+			for (StoredFile file: files) {
+				storageService.delete(file.subDir + File.separator + file.fileId);
+				batch.addRejected(file.filename, ex.getMessage());
+			}
+			saveProgress(batch, /*force*/false);
+			return;
+		}
+
+		try {
+			for (StoredFile file: files) {
+				journal.write(Journal.REGISTERED, file.fileId, file.subDir);
+			}
+		}
+		catch (IOException ex) {
+			// At startup the files are also checked against the registered documents
+			log.log(Level.WARNING, "Could not write to the journal of "+batch, ex);
+		}
+
+		for (int i=0; i<savedDocs.size(); i++) {
+			StoredFile file = files.get(i);
+			FileUploadedEvent event = new FileUploadedEvent();
+			event.setDocument(savedDocs.get(i));
+			event.setFileSize(file.fileSize);
+			try {
+				fileUploadedProducer.fileUploaded(event);
+				batch.addStored(file.filename, file.fileId);
+			}
+			catch (Throwable ex) {
+				log.log(Level.SEVERE, "Could not publish "+file.filename+" within "+batch.getFilename(), ex);
+				batch.addRejected(file.filename, ex.getMessage());
+			}
+		}
+		saveProgress(batch, /*force*/false);
+	}
+
+	/**
+	 * Discards whatever was left behind by ZIP files interrupted by the end of some previous execution: the files
+	 * stored but not registered, the ZIP files and their journals. The interrupted batches are marked as failed.
+	 * Should be called at startup.
+	 */
+	public void removeOrphans() throws IOException {
+		Path dir = getWorkDir();
+		if (!Files.isDirectory(dir))
+			return;
+		List<Path> files;
+		try (Stream<Path> list = Files.list(dir)) {
+			files = list.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+		for (Path file: files) {
+			if (Files.getLastModifiedTime(file).toMillis()>=startupTime)
+				continue; // belongs to some ZIP file uploaded after startup
+			String name = file.getFileName().toString();
+			if (name.endsWith(JOURNAL_SUFFIX)) {
+				removeOrphans(name.substring(0, name.length()-JOURNAL_SUFFIX.length()), file);
+			}
+			else if (name.toLowerCase().endsWith(".zip")) {
+				log.log(Level.INFO, "Removing ZIP file left behind: "+file);
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	/**
+	 * Discards the files stored but not registered according to the journal of an interrupted ZIP file
+	 */
+	private void removeOrphans(String batchId, Path journalFile) throws IOException {
+		// File ID -> sub directory of files not registered
+		Map<String, String> notRegistered = new LinkedHashMap<>();
+		for (String line: Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+			String[] parts = line.split(" ");
+			if (parts.length<2)
+				continue;
+			String fileId = parts[1];
+			String subDir = (parts.length>2) ? parts[2] : null;
+			if (Journal.PENDING.equals(parts[0]))
+				notRegistered.putIfAbsent(fileId, subDir);
+			else if (Journal.STORED.equals(parts[0]) && subDir!=null)
+				notRegistered.put(fileId, subDir);
+			else if (Journal.REGISTERED.equals(parts[0]))
+				notRegistered.remove(fileId);
+		}
+		int removed = 0;
+		for (Map.Entry<String, String> file: notRegistered.entrySet()) {
+			if (file.getValue()==null)
+				continue;
+			// The document may have been saved right before the interruption
+			if (!documentsUploadedRepository.findByFileId(file.getKey(), PageRequest.of(0, 1)).isEmpty())
+				continue;
+			if (storageService.delete(file.getValue() + File.separator + file.getKey()))
+				removed++;
+		}
+		Optional<ZipUploadBatch> batch = batchRepository.findById(batchId);
+		if (batch.isPresent() && batch.get().isRunning()) {
+			batch.get().setFailed(DateTimeUtils.now(), "Interrupted before storing all the files");
+			batchRepository.save(batch.get());
+		}
+		Files.delete(journalFile);
+		log.log(Level.INFO, "Removed "+removed+" files stored but not registered from the interrupted batch "+batchId);
+	}
+
+	private Path getWorkDir() {
+		return Paths.get(workDir);
+	}
+
+	private static void deleteQuietly(File file) {
+		if (file.exists() && !file.delete())
+			file.deleteOnExit();
+	}
+}
@@ -69,6 +69,22 @@ public class AnalysisItem implements Comparable<AnalysisItem> {
 
 		}
 	}
+	
+	public AnalysisItem(String[] values, double sumValue, double averegaValue, double deviationValue, double q1, double median, double q3) {
+		this.statementOrder = values.length > 0 ? values[0] : "";
+		this.statementName = values.length > 1 ? values[1] : "";
+		
+		setQ1(Precision.round(q1, 2, RoundingMode.HALF_DOWN.ordinal()));
+		setMedian(Precision.round(median, 2, RoundingMode.HALF_DOWN.ordinal()));
+		setQ3(Precision.round(q3, 2, RoundingMode.HALF_DOWN.ordinal()));
+
+		if (!Double.isNaN(getQ1()) && !Double.isNaN(getQ3())
+				&& getQ1() != 0 && getQ3() != 0) {
+			setSum(sumValue);
+			setAverage(averegaValue);
+			setDeviation(deviationValue);
+		}
+	}
 
 	public String getStatementOrder() {
 		return statementOrder;
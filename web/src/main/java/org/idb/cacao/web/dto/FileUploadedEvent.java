@@ -6,12 +6,18 @@
  *******************************************************************************/
 package org.idb.cacao.web.dto;
 
+import org.idb.cacao.api.DocumentEvent;
+import org.idb.cacao.api.DocumentUploaded;
 import org.springframework.stereotype.Component;
 
 @Component
 public class FileUploadedEvent {
 	private String fileId;
 
+	private DocumentUploaded document;
+
+	private Long fileSize;
+
 		
 	
 	public String getFileId() {
@@ -21,4 +27,37 @@ public class FileUploadedEvent {
 	public void setFileId(String fileId) {
 		this.fileId = fileId;
 	}
+
+	/**
+	 * The uploaded document. If informed, the message published to KAFKA carries its information, so that
+	 * the validator does not need to look it up.
+	 */
+	public DocumentUploaded getDocument() {
+		return document;
+	}
+
+	public void setDocument(DocumentUploaded document) {
+		this.document = document;
+		if (document!=null)
+			this.fileId = document.getId();
+	}
+
+	/**
+	 * Size of the uploaded file in bytes, if known
+	 */
+	public Long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(Long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Returns the payload of the message to be published to KAFKA
+	 */
+	public String toPayload() {
+		DocumentEvent event = (document==null) ? DocumentEvent.of(fileId) : DocumentEvent.of(document);
+		return event.withFileSize(fileSize).toPayload();
+	}
 }
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.dto;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Direct and indirect ownership of one taxpayer over another taxpayer of the same economic group, as computed at ETL
+ * for the ownership graph.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class Ownership implements Comparable<Ownership> {
+
+	private String ownerId;
+
+	private String ownerName;
+
+	private String ownedId;
+
+	private String ownedName;
+
+	private double directPercentage;
+
+	private double effectivePercentage;
+
+	private boolean controlled;
+
+	private String groupId;
+
+	public Ownership() {
+		super();
+	}
+
+	/**
+	 * Constructor for a published document of the ownership graph
+	 */
+	public Ownership(Map<String, Object> values) {
+		this.ownerId = Objects.toString(values.get("owner_id"), null);
+		this.ownerName = Objects.toString(values.get("owner_name"), null);
+		this.ownedId = Objects.toString(values.get("owned_id"), null);
+		this.ownedName = Objects.toString(values.get("owned_name"), null);
+		this.directPercentage = toDouble(values.get("direct_percentage"));
+		this.effectivePercentage = toDouble(values.get("effective_percentage"));
+		this.controlled = Boolean.parseBoolean(Objects.toString(values.get("controlled"), "false"));
+		this.groupId = Objects.toString(values.get("owner_group_id"), null);
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		return (value == null) ? 0d : Double.parseDouble(value.toString());
+	}
+
+	public String getOwnerId() {
+		return ownerId;
+	}
+
+	public void setOwnerId(String ownerId) {
+		this.ownerId = ownerId;
+	}
+
+	public String getOwnerName() {
+		return ownerName;
+	}
+
+	public void setOwnerName(String ownerName) {
+		this.ownerName = ownerName;
+	}
+
+	public String getOwnedId() {
+		return ownedId;
+	}
+
+	public void setOwnedId(String ownedId) {
+		this.ownedId = ownedId;
+	}
+
+	public String getOwnedName() {
+		return ownedName;
+	}
+
+	public void setOwnedName(String ownedName) {
+		this.ownedName = ownedName;
+	}
+
+	/**
+	 * Percentage of shares directly held by the owner (100 = 100%)
+	 */
+	public double getDirectPercentage() {
+		return directPercentage;
+	}
+
+	public void setDirectPercentage(double directPercentage) {
+		this.directPercentage = directPercentage;
+	}
+
+	/**
+	 * Percentage of shares effectively held by the owner, directly and indirectly (100 = 100%)
+	 */
+	public double getEffectivePercentage() {
+		return effectivePercentage;
+	}
+
+	public void setEffectivePercentage(double effectivePercentage) {
+		this.effectivePercentage = effectivePercentage;
+	}
+
+	/**
+	 * Indicates whether the owner controls the owned taxpayer, directly or through a chain of controlled taxpayers
+	 */
+	public boolean isControlled() {
+		return controlled;
+	}
+
+	public void setControlled(boolean controlled) {
+		this.controlled = controlled;
+	}
+
+	/**
+	 * Taxpayer Id of the ultimate parent of the economic group
+	 */
+	public String getGroupId() {
+		return groupId;
+	}
+
+	public void setGroupId(String groupId) {
+		this.groupId = groupId;
+	}
+
+	@Override
+	public int compareTo(Ownership o) {
+		int c = Objects.compare(ownerId, o.ownerId, String::compareTo);
+		if (c != 0)
+			return c;
+		return Objects.compare(ownedId, o.ownedId, String::compareTo);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(ownerId, ownedId, groupId);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		Ownership other = (Ownership) obj;
+		return Objects.equals(ownerId, other.ownerId) && Objects.equals(ownedId, other.ownedId)
+				&& Objects.equals(groupId, other.groupId);
+	}
+
+	@Override
+	public String toString() {
+		return ownerId + " -> " + ownedId + " (" + effectivePercentage + "%)";
+	}
+
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.dto;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and report of one bulk import of taxpayers, users or interpersonal relationships.<BR>
+ * Rows are counted as they are read from the file. Each row that could not be imported is reported with
+ * its row number (starting at 1 for the first row after the header) and the reason.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class RegistryImportProgress implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Maximum number of row errors kept in the report. The other ones are only counted.
+	 */
+	public static final int MAX_ERRORS_REPORTED = 1_000;
+
+	public static enum Status {
+		RUNNING,
+		FINISHED,
+		FAILED
+	}
+
+	/**
+	 * One row that could not be imported
+	 */
+	public static class RowError implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long row;
+
+		private final String message;
+
+		public RowError(long row, String message) {
+			this.row = row;
+			this.message = message;
+		}
+
+		public long getRow() {
+			return row;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return "row " + row + ": " + message;
+		}
+	}
+
+	private final String id;
+
+	private final String type;
+
+	private final String filename;
+
+	private final String user;
+
+	private final OffsetDateTime started;
+
+	private volatile OffsetDateTime finished;
+
+	private volatile Status status;
+
+	private volatile String failure;
+
+	private final AtomicLong rowsRead = new AtomicLong();
+
+	private final AtomicLong rowsCreated = new AtomicLong();
+
+	private final AtomicLong rowsUpdated = new AtomicLong();
+
+	private final AtomicLong rowsSuperseded = new AtomicLong();
+
+	private final AtomicLong rowsRejected = new AtomicLong();
+
+	private final List<RowError> errors = new ArrayList<>();
+
+	public RegistryImportProgress(String id, String type, String filename, String user, OffsetDateTime started) {
+		this.id = id;
+		this.type = type;
+		this.filename = filename;
+		this.user = user;
+		this.started = started;
+		this.status = Status.RUNNING;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public OffsetDateTime getStarted() {
+		return started;
+	}
+
+	public OffsetDateTime getFinished() {
+		return finished;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public long getRowsRead() {
+		return rowsRead.get();
+	}
+
+	public long getRowsCreated() {
+		return rowsCreated.get();
+	}
+
+	public long getRowsUpdated() {
+		return rowsUpdated.get();
+	}
+
+	/**
+	 * Number of rows that were not written because some later row of the same batch had the same natural key
+	 */
+	public long getRowsSuperseded() {
+		return rowsSuperseded.get();
+	}
+
+	public long getRowsRejected() {
+		return rowsRejected.get();
+	}
+
+	public List<RowError> getErrors() {
+		synchronized (errors) {
+			return new ArrayList<>(errors);
+		}
+	}
+
+	public long incrementRowsRead() {
+		return rowsRead.incrementAndGet();
+	}
+
+	public void addRowsCreated(long count) {
+		rowsCreated.addAndGet(count);
+	}
+
+	public void addRowsUpdated(long count) {
+		rowsUpdated.addAndGet(count);
+	}
+
+	public void addRowsSuperseded(long count) {
+		rowsSuperseded.addAndGet(count);
+	}
+
+	/**
+	 * Reports one row that could not be imported
+	 */
+	public void addError(long row, String message) {
+		rowsRejected.incrementAndGet();
+		synchronized (errors) {
+			if (errors.size()<MAX_ERRORS_REPORTED)
+				errors.add(new RowError(row, message));
+		}
+	}
+
+	public void setFinished(OffsetDateTime finished) {
+		this.finished = finished;
+		this.status = Status.FINISHED;
+	}
+
+	public void setFailed(OffsetDateTime finished, String failure) {
+		this.finished = finished;
+		this.failure = failure;
+		this.status = Status.FAILED;
+	}
+
+	public boolean isRunning() {
+		return Status.RUNNING.equals(status);
+	}
+
+	@Override
+	public String toString() {
+		return "RegistryImportProgress [id=" + id + ", type=" + type + ", filename=" + filename + ", status=" + status
+				+ ", rowsRead=" + rowsRead + ", rowsCreated=" + rowsCreated + ", rowsUpdated=" + rowsUpdated
+				+ ", rowsSuperseded=" + rowsSuperseded + ", rowsRejected=" + rowsRejected + "]";
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.dto;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * State of a file being uploaded in chunks (see {@link org.idb.cacao.web.controllers.services.ResumableUploadService ResumableUploadService}).
+ * It's kept in a small JSON file next to the partial file, so that an interrupted upload may be resumed later.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class ResumableUpload {
+
+	private String uploadId;
+
+	private String userLogin;
+
+	private String templateName;
+
+	private String templateVersion;
+
+	private String inputName;
+
+	private String filename;
+
+	private long fileSize;
+
+	private int chunkSize;
+
+	/**
+	 * SHA-256 of the whole file declared by the client (hexadecimal, lower case)
+	 */
+	private String hash;
+
+	private long created;
+
+	private long lastUpdate;
+
+	private BitSet receivedChunks = new BitSet();
+
+	/**
+	 * Number of chunks being written right now (not persisted, guarded by the lock of this object)
+	 */
+	private transient int chunksInProgress;
+
+	/**
+	 * Indicates the whole file is being verified, so no more chunks are accepted (not persisted, guarded by the lock of this object)
+	 */
+	private transient boolean completing;
+
+	/**
+	 * Indicates this upload has been finished or discarded (not persisted, guarded by the lock of this object)
+	 */
+	private transient boolean finished;
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public void setUploadId(String uploadId) {
+		this.uploadId = uploadId;
+	}
+
+	public String getUserLogin() {
+		return userLogin;
+	}
+
+	public void setUserLogin(String userLogin) {
+		this.userLogin = userLogin;
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public void setTemplateName(String templateName) {
+		this.templateName = templateName;
+	}
+
+	public String getTemplateVersion() {
+		return templateVersion;
+	}
+
+	public void setTemplateVersion(String templateVersion) {
+		this.templateVersion = templateVersion;
+	}
+
+	public String getInputName() {
+		return inputName;
+	}
+
+	public void setInputName(String inputName) {
+		this.inputName = inputName;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public void setFilename(String filename) {
+		this.filename = filename;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 * Date/time this upload started (in unix epoch)
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public void setCreated(long created) {
+		this.created = created;
+	}
+
+	/**
+	 * Date/time of the last chunk received (in unix epoch)
+	 */
+	public long getLastUpdate() {
+		return lastUpdate;
+	}
+
+	public void setLastUpdate(long lastUpdate) {
+		this.lastUpdate = lastUpdate;
+	}
+
+	/**
+	 * Indices of the chunks already received and verified
+	 */
+	public List<Integer> getReceivedChunks() {
+		return receivedChunks.stream().boxed().collect(Collectors.toList());
+	}
+
+	public void setReceivedChunks(List<Integer> receivedChunks) {
+		this.receivedChunks = new BitSet();
+		if (receivedChunks!=null)
+			receivedChunks.forEach(this.receivedChunks::set);
+	}
+
+	/**
+	 * Total number of chunks of this file
+	 */
+	public int getChunks() {
+		return (int)((fileSize + chunkSize - 1) / chunkSize);
+	}
+
+	/**
+	 * Expected size of a given chunk (the last one may be smaller than the others)
+	 */
+	public int getChunkSize(int chunk) {
+		return (int)Math.min(chunkSize, fileSize - (long)chunk * chunkSize);
+	}
+
+	@JsonIgnore
+	public boolean isChunkReceived(int chunk) {
+		return receivedChunks.get(chunk);
+	}
+
+	public void setChunkReceived(int chunk) {
+		receivedChunks.set(chunk);
+	}
+
+	public void setChunkNotReceived(int chunk) {
+		receivedChunks.clear(chunk);
+	}
+
+	public void clearReceivedChunks() {
+		receivedChunks.clear();
+	}
+
+	/**
+	 * Returns TRUE if all the chunks have been received
+	 */
+	public boolean isComplete() {
+		return receivedChunks.cardinality()==getChunks();
+	}
+
+	@JsonIgnore
+	public int getChunksInProgress() {
+		return chunksInProgress;
+	}
+
+	@JsonIgnore
+	public void setChunksInProgress(int chunksInProgress) {
+		this.chunksInProgress = chunksInProgress;
+	}
+
+	@JsonIgnore
+	public boolean isCompleting() {
+		return completing;
+	}
+
+	@JsonIgnore
+	public void setCompleting(boolean completing) {
+		this.completing = completing;
+	}
+
+	@JsonIgnore
+	public boolean isFinished() {
+		return finished;
+	}
+
+	@JsonIgnore
+	public void setFinished(boolean finished) {
+		this.finished = finished;
+	}
+
+}
@@ -130,6 +130,14 @@ public class User implements Serializable, Cloneable, Comparable<User> {
 	@Field(type=Keyword)
 	@AFieldDescriptor(externalName = "user.token")
 	private String apiToken;
+
+	/**
+	 * Keyed digest of the API TOKEN (see {@link org.idb.cacao.web.controllers.services.KeyStoreService#digest(String, String) digest}).
+	 * Indexed for looking up the user given the token without decrypting all the tokens.
+	 */
+	@Field(type=Keyword)
+	@JsonIgnore
+	private String apiTokenDigest;
 	
 	/**
 	 * Token granting access to the Kibana User Interface. It's actually a randomly
@@ -265,6 +273,20 @@ public class User implements Serializable, Cloneable, Comparable<User> {
 		this.apiToken = apiToken;
 	}
 
+	/**
+	 * {@link #apiTokenDigest}
+	 */
+	public String getApiTokenDigest() {
+		return apiTokenDigest;
+	}
+
+	/**
+	 * {@link #apiTokenDigest}
+	 */
+	public void setApiTokenDigest(String apiTokenDigest) {
+		this.apiTokenDigest = apiTokenDigest;
+	}
+
 	/**
 	 * Token granting access to the Kibana User Interface. It's actually a randomly
 	 * generated password created at the Kibana user management internal space and
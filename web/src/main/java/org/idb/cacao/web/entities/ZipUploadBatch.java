@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.entities;
+
+import static org.springframework.data.elasticsearch.annotations.FieldType.Date;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Integer;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Keyword;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Nested;
+import static org.springframework.data.elasticsearch.annotations.FieldType.Text;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+
+/**
+ * Progress and report of the files extracted from one uploaded ZIP file (see {@link org.idb.cacao.web.controllers.services.ZipUploadService ZipUploadService}).<BR>
+ * Each file stored and registered for processing is reported with its file ID. Each file that could not be
+ * stored is reported with the reason.<BR>
+ * The same object is changed by the threads storing the files, so all of its changes are synchronized. It's saved
+ * from time to time while the files are being stored, so that the progress may be queried at any node.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Document(indexName="cacao_zip_upload")
+public class ZipUploadBatch implements Serializable, Cloneable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static enum Status {
+		RUNNING,
+		FINISHED,
+		FAILED
+	}
+
+	/**
+	 * One file extracted from the ZIP file
+	 */
+	public static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		@Field(type=Keyword)
+		private String filename;
+
+		@Field(type=Keyword)
+		private String fileId;
+
+		@Field(type=Text)
+		private String error;
+
+		public Entry() {
+		}
+
+		public Entry(String filename, String fileId, String error) {
+			this.filename = filename;
+			this.fileId = fileId;
+			this.error = error;
+		}
+
+		public String getFilename() {
+			return filename;
+		}
+
+		public void setFilename(String filename) {
+			this.filename = filename;
+		}
+
+		/**
+		 * File ID (the same returned by the upload of one single file). NULL if the file could not be stored.
+		 */
+		public String getFileId() {
+			return fileId;
+		}
+
+		public void setFileId(String fileId) {
+			this.fileId = fileId;
+		}
+
+		/**
+		 * Reason why the file could not be stored. NULL if it was stored.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		public void setError(String error) {
+			this.error = error;
+		}
+
+		@Override
+		public String toString() {
+			return (error==null) ? filename + ": " + fileId : filename + ": " + error;
+		}
+	}
+
+	@Id
+	private String batchId;
+
+	@Field(type=Keyword)
+	private String filename;
+
+	@Field(type=Keyword)
+	private String templateName;
+
+	@Field(type=Keyword)
+	private String templateVersion;
+
+	@Field(type=Keyword)
+	private String inputName;
+
+	@Field(type=Keyword)
+	private String user;
+
+	@Field(type=Integer)
+	private int totalFiles;
+
+	@Field(type=Date, store = true, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSSZZ")
+	private OffsetDateTime started;
+
+	@Field(type=Date, store = true, pattern = "uuuu-MM-dd'T'HH:mm:ss.SSSZZ")
+	private OffsetDateTime finished;
+
+	@Field(type=Keyword)
+	private Status status;
+
+	@Field(type=Text)
+	private String failure;
+
+	@Field(type=Integer)
+	private int filesStored;
+
+	@Field(type=Integer)
+	private int filesRejected;
+
+	@Field(type=Nested)
+	private List<Entry> entries = new ArrayList<>();
+
+	public ZipUploadBatch() {
+	}
+
+	public ZipUploadBatch(String batchId, String filename, String templateName, String templateVersion, String inputName,
+			String user, int totalFiles, OffsetDateTime started) {
+		this.batchId = batchId;
+		this.filename = filename;
+		this.templateName = templateName;
+		this.templateVersion = templateVersion;
+		this.inputName = inputName;
+		this.user = user;
+		this.totalFiles = totalFiles;
+		this.started = started;
+		this.status = Status.RUNNING;
+	}
+
+	public String getBatchId() {
+		return batchId;
+	}
+
+	public void setBatchId(String batchId) {
+		this.batchId = batchId;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public void setFilename(String filename) {
+		this.filename = filename;
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public void setTemplateName(String templateName) {
+		this.templateName = templateName;
+	}
+
+	public String getTemplateVersion() {
+		return templateVersion;
+	}
+
+	public void setTemplateVersion(String templateVersion) {
+		this.templateVersion = templateVersion;
+	}
+
+	public String getInputName() {
+		return inputName;
+	}
+
+	public void setInputName(String inputName) {
+		this.inputName = inputName;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	/**
+	 * Number of files inside the ZIP file (not counting directories)
+	 */
+	public int getTotalFiles() {
+		return totalFiles;
+	}
+
+	public void setTotalFiles(int totalFiles) {
+		this.totalFiles = totalFiles;
+	}
+
+	public OffsetDateTime getStarted() {
+		return started;
+	}
+
+	public void setStarted(OffsetDateTime started) {
+		this.started = started;
+	}
+
+	public synchronized OffsetDateTime getFinished() {
+		return finished;
+	}
+
+	public synchronized void setFinished(OffsetDateTime finished) {
+		this.finished = finished;
+		this.status = Status.FINISHED;
+	}
+
+	public synchronized Status getStatus() {
+		return status;
+	}
+
+	public synchronized void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public synchronized String getFailure() {
+		return failure;
+	}
+
+	public synchronized void setFailure(String failure) {
+		this.failure = failure;
+	}
+
+	public synchronized int getFilesStored() {
+		return filesStored;
+	}
+
+	public synchronized void setFilesStored(int filesStored) {
+		this.filesStored = filesStored;
+	}
+
+	public synchronized int getFilesRejected() {
+		return filesRejected;
+	}
+
+	public synchronized void setFilesRejected(int filesRejected) {
+		this.filesRejected = filesRejected;
+	}
+
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<>(entries);
+	}
+
+	public synchronized void setEntries(List<Entry> entries) {
+		this.entries = (entries==null) ? new ArrayList<>() : new ArrayList<>(entries);
+	}
+
+	/**
+	 * Reports one file stored and registered for processing
+	 */
+	public synchronized void addStored(String filename, String fileId) {
+		filesStored++;
+		entries.add(new Entry(filename, fileId, null));
+	}
+
+	/**
+	 * Reports one file that could not be stored
+	 */
+	public synchronized void addRejected(String filename, String error) {
+		filesRejected++;
+		entries.add(new Entry(filename, null, error));
+	}
+
+	public synchronized void setFailed(OffsetDateTime finished, String failure) {
+		this.finished = finished;
+		this.failure = failure;
+		this.status = Status.FAILED;
+	}
+
+	public synchronized boolean isRunning() {
+		return Status.RUNNING.equals(status);
+	}
+
+	/**
+	 * Returns a copy of the current progress, which is not affected by further changes (e.g. for saving it while the
+	 * files are still being stored)
+	 */
+	@Override
+	public synchronized ZipUploadBatch clone() {
+		try {
+			ZipUploadBatch copy = (ZipUploadBatch)super.clone();
+			copy.entries = new ArrayList<>(entries);
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ZipUploadBatch [batchId=" + batchId + ", filename=" + filename + ", templateName=" + templateName
+				+ ", status=" + status + ", totalFiles=" + totalFiles + ", filesStored=" + filesStored
+				+ ", filesRejected=" + filesRejected + "]";
+	}
+}
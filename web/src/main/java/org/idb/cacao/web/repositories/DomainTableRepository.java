@@ -9,6 +9,7 @@ package org.idb.cacao.web.repositories;
 import java.util.List;
 import java.util.Optional;
 
+import org.idb.cacao.api.ETLContext;
 import org.idb.cacao.api.templates.DomainTable;
 import org.idb.cacao.api.utils.DateTimeUtils;
 import org.idb.cacao.web.Synchronizable;
@@ -20,7 +21,7 @@ import org.springframework.stereotype.Repository;
 
 @Repository
 @Synchronizable(timestamp="changedTime",id="id",uniqueConstraint={"name","version"})
-public interface DomainTableRepository extends ElasticsearchRepository<DomainTable, String> {
+public interface DomainTableRepository extends ElasticsearchRepository<DomainTable, String>, ETLContext.DomainTableRepository {
 
 	@Query("{\"match\": {\"name.keyword\": {\"query\": \"?0\"}}}")
 	public List<DomainTable> findByName(String name);
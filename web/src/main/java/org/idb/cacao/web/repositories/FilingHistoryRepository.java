@@ -0,0 +1,22 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.repositories;
+
+import org.idb.cacao.api.FilingHistory;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * DAO for FilingHistory objects (bitmap of periods filed by each taxpayer for each template).<BR>
+ * These objects are maintained by the ETL.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@Repository
+public interface FilingHistoryRepository extends ElasticsearchRepository<FilingHistory, String> {
+}
@@ -6,6 +6,8 @@
  *******************************************************************************/
 package org.idb.cacao.web.repositories;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.idb.cacao.api.utils.DateTimeUtils;
@@ -16,6 +18,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.annotations.CountQuery;
+import org.springframework.data.elasticsearch.annotations.Query;
 import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
 import org.springframework.stereotype.Repository;
 
@@ -54,6 +57,22 @@ public interface UserRepository extends ElasticsearchRepository<User, String> {
 	 */
 	public User findByLoginIgnoreCaseAndActiveIsTrue(String login);
 
+	/**
+	 * Find all users given their logins (emails)
+	 */
+	public List<User> findByLoginIn(Collection<String> logins);
+
+	/**
+	 * Find the users given the digest of their API token (see {@link User#getApiTokenDigest() getApiTokenDigest}). There should be only one.
+	 */
+	public List<User> findByApiTokenDigest(String apiTokenDigest);
+
+	/**
+	 * Find users with API token whose digest has not been computed yet (e.g. tokens created by previous versions)
+	 */
+	@Query("{ \"bool\": { \"filter\": [{ \"exists\": { \"field\": \"apiToken\" }}], \"must_not\": [{ \"exists\": { \"field\": \"apiTokenDigest\" }}] }}")
+	public Page<User> findByApiTokenWithoutDigest(Pageable pageable);
+
 	/**
 	 * Find all users, allowing pagination over the results
 	 */
@@ -19,11 +19,10 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
-import org.idb.cacao.web.controllers.services.KeyStoreService;
+import org.idb.cacao.web.controllers.services.ApiTokenService;
 import org.idb.cacao.web.controllers.services.PrivilegeService;
 import org.idb.cacao.web.entities.SystemPrivilege;
 import org.idb.cacao.web.entities.User;
-import org.idb.cacao.web.repositories.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.csrf.CsrfFilter;
@@ -42,10 +41,7 @@ public class ApiKeyAuthenticationFilter implements Filter {
 	private static final String AUTH_METHOD = "api-key";
     
 	@Autowired
-	private UserRepository userRepository;
-	
-	@Autowired
-	private KeyStoreService ksRepository;
+	private ApiTokenService apiTokenService;
 
     @Autowired
     private PrivilegeService privilegeService;
@@ -108,18 +104,6 @@ public class ApiKeyAuthenticationFilter implements Filter {
     }
     
     private Optional<User> getUserGivenTokenAPI(String apiKey) {
-    	if (apiKey==null || apiKey.trim().length()==0)
-    		return Optional.empty();
-    	
-    	for (User user:userRepository.findAll()) {
-    		if (user.getApiToken()==null || user.getApiToken().trim().length()==0)
-    			continue;
-    		String decrypted = ksRepository.decrypt(KeyStoreService.PREFIX_MAIL, user.getApiToken());
-    		if (decrypted.equals(apiKey)) {
-    			return Optional.of(user);
-    		}
-    	}
-    	
-    	return Optional.empty();
+    	return apiTokenService.getUserGivenToken(apiKey);
     }
 }
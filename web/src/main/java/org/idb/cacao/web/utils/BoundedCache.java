@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Spring {@link org.springframework.cache.Cache Cache} backed by a Guava cache with limited size and time to live.<BR>
+ * <BR>
+ * The size is measured in 'weight' units. Collections and maps weight as many units as their number of elements (plus one),
+ * so that one single large result (e.g. the accounts of a large taxpayer) counts more than several small ones. Any
+ * other object weights one unit.
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class BoundedCache extends AbstractValueAdaptingCache {
+
+	private final String name;
+
+	private final Cache<Object, Object> cache;
+
+	private final long maximumWeight;
+
+	private final long ttlMinutes;
+
+	/**
+	 * @param name Cache name
+	 * @param maximumWeight Maximum total weight of all entries in cache (see {@link #weigh(Object) weigh})
+	 * @param ttlMinutes Time to live (in minutes) of each entry after written. Zero or negative means entries never expire.
+	 */
+	public BoundedCache(String name, long maximumWeight, long ttlMinutes) {
+		super(/*allowNullValues*/true);
+		this.name = name;
+		this.maximumWeight = maximumWeight;
+		this.ttlMinutes = ttlMinutes;
+		CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+				.maximumWeight(maximumWeight)
+				.weigher((Object key, Object value)->weigh(value))
+				.recordStats();
+		if (ttlMinutes>0)
+			builder = builder.expireAfterWrite(ttlMinutes, TimeUnit.MINUTES);
+		this.cache = builder.build();
+	}
+
+	/**
+	 * Returns the weight of a cached value
+	 */
+	public static int weigh(Object value) {
+		if (value instanceof Collection)
+			return ((Collection<?>)value).size() + 1;
+		if (value instanceof Map)
+			return ((Map<?,?>)value).size() + 1;
+		return 1;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Object getNativeCache() {
+		return cache;
+	}
+
+	@Override
+	protected Object lookup(Object key) {
+		return cache.getIfPresent(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		try {
+			return (T) fromStoreValue(cache.get(key, ()->toStoreValue(valueLoader.call())));
+		}
+		catch (ExecutionException | UncheckedExecutionException ex) {
+			throw new ValueRetrievalException(key, valueLoader, ex.getCause());
+		}
+	}
+
+	@Override
+	public void put(Object key, Object value) {
+		cache.put(key, toStoreValue(value));
+	}
+
+	@Override
+	public void evict(Object key) {
+		cache.invalidate(key);
+	}
+
+	@Override
+	public void clear() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Evicts all the entries whose keys satisfy the predicate
+	 * @return Returns the number of evicted entries
+	 */
+	public int evictIf(Predicate<Object> keyPredicate) {
+		int evicted = 0;
+		for (Object key: cache.asMap().keySet()) {
+			if (keyPredicate.test(key)) {
+				cache.invalidate(key);
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Number of entries in cache
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * Statistics of this cache (hits, misses, evictions, etc.) since start
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	public long getTtlMinutes() {
+		return ttlMinutes;
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Key of a cached result computed over published data. Besides the method arguments, the key tells which taxpayer and which
+ * published data indices the result depends on, so that whenever a file gets processed only the entries related to the
+ * same taxpayer and to the indices written by its template are evicted (see {@link #dependsOn(String, Collection) dependsOn}).
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+public class PublishedDataCacheKey implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Taxpayer ID. NULL means the cached result depends on the published data of all taxpayers.
+	 */
+	private final String taxpayerId;
+
+	private final Set<String> indices;
+
+	private final List<Object> params;
+
+	private PublishedDataCacheKey(String taxpayerId, Set<String> indices, List<Object> params) {
+		this.taxpayerId = taxpayerId;
+		this.indices = indices;
+		this.params = params;
+	}
+
+	/**
+	 * Returns a key for a result computed over the published data of one taxpayer
+	 * @param taxpayerId Taxpayer ID
+	 * @param indices Published data indices the result depends on
+	 * @param params Other arguments of the cached method
+	 */
+	public static PublishedDataCacheKey of(String taxpayerId, Collection<String> indices, Object... params) {
+		return new PublishedDataCacheKey(taxpayerId,
+				(indices==null) ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(indices)),
+				(params==null) ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(params)));
+	}
+
+	/**
+	 * Returns a key for a result computed over the published data of all taxpayers
+	 * @param indices Published data indices the result depends on
+	 * @param params Other arguments of the cached method
+	 */
+	public static PublishedDataCacheKey ofAllTaxpayers(Collection<String> indices, Object... params) {
+		return of(/*taxpayerId*/null, indices, params);
+	}
+
+	public String getTaxpayerId() {
+		return taxpayerId;
+	}
+
+	public Set<String> getIndices() {
+		return indices;
+	}
+
+	public List<Object> getParams() {
+		return params;
+	}
+
+	/**
+	 * Returns TRUE if the cached result may have been changed by new published data of the given taxpayer written to
+	 * any of the given indices.
+	 * @param taxpayerId Taxpayer ID. NULL means any taxpayer.
+	 * @param changedIndices Published data indices that have been changed. NULL means any index.
+	 */
+	public boolean dependsOn(String taxpayerId, Collection<String> changedIndices) {
+		if (this.taxpayerId!=null && taxpayerId!=null && !this.taxpayerId.equals(taxpayerId))
+			return false;
+		if (changedIndices==null)
+			return true;
+		for (String index: changedIndices) {
+			if (indices.contains(index))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(taxpayerId, indices, params);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		PublishedDataCacheKey other = (PublishedDataCacheKey) obj;
+		return Objects.equals(taxpayerId, other.taxpayerId)
+				&& Objects.equals(indices, other.indices)
+				&& Objects.equals(params, other.params);
+	}
+
+	@Override
+	public String toString() {
+		return "PublishedDataCacheKey [taxpayerId=" + taxpayerId + ", indices=" + indices + ", params=" + params + "]";
+	}
+
+}
@@ -44,6 +44,10 @@ import org.elasticsearch.search.aggregations.AggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
 import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
@@ -79,6 +83,11 @@ public class SearchUtils {
 	
 	public static final int DEFAULT_PAGE_SIZE = 5;
 	
+	/**
+	 * Name of the aggregation created by {@link #compositeAggregationBuilder(String[], int, Map, AggregationBuilder...) compositeAggregationBuilder}
+	 */
+	public static final String COMPOSITE_AGGREGATION = "groups";
+	
 	public static Optional<AdvancedSearch> fromJSON(Optional<String> asJson) {
 		if (!asJson.isPresent())
 			return Optional.empty();
@@ -706,4 +715,59 @@ public class SearchUtils {
 		return result;
 	}
 	
+	/**
+	 * Create a {@link CompositeAggregationBuilder} for ES search grouping by all the fields at once. Differently from the nested
+	 * terms aggregations created by {@link #aggregationBuilder(String[], AggregationBuilder...) aggregationBuilder}, the
+	 * buckets are returned in pages of fixed size, so the memory used by ES and by the application is bounded regardless of
+	 * the number of combinations.
+	 * 
+	 * @param fields			Field names for aggregation
+	 * @param pageSize			Maximum number of buckets to return
+	 * @param afterKey			Position returned by {@link #collectCompositeAggregation(Aggregations, String[], int, BiFunction, List) collectCompositeAggregation}
+	 * 							for the previous page, or NULL for the first page
+	 * @param metrics			Metrics to aggregate for each field combination
+	 * @return					{@link CompositeAggregationBuilder} named {@link #COMPOSITE_AGGREGATION COMPOSITE_AGGREGATION}
+	 */
+	public static CompositeAggregationBuilder compositeAggregationBuilder(String[] fields, int pageSize, Map<String, Object> afterKey,
+			AggregationBuilder... metrics) {
+		List<CompositeValuesSourceBuilder<?>> sources = new ArrayList<>(fields.length);
+		for (int i = 0; i < fields.length; i++) {
+			sources.add(new TermsValuesSourceBuilder("g" + i).field(fields[i]));
+		}
+		CompositeAggregationBuilder agg = AggregationBuilders.composite(COMPOSITE_AGGREGATION, sources).size(pageSize);
+		if (afterKey != null)
+			agg.aggregateAfter(afterKey);
+		Arrays.stream(metrics).forEach(agg::subAggregation);
+		return agg;
+	}
+	
+	/**
+	 * Collects one page of buckets of the aggregation created by {@link #compositeAggregationBuilder(String[], int, Map, AggregationBuilder...) compositeAggregationBuilder}
+	 * 
+	 * @param agg				Aggregations of the search response
+	 * @param fields			Field names for aggregation (same as informed to compositeAggregationBuilder)
+	 * @param pageSize			Maximum number of buckets requested (same as informed to compositeAggregationBuilder)
+	 * @param function			Function for building the result for each bucket
+	 * @param results			Where to add the results
+	 * @return					The position for requesting the next page, or NULL if this is the last page
+	 */
+	public static <R> Map<String, Object> collectCompositeAggregation(Aggregations agg, String[] fields, int pageSize,
+			BiFunction<Aggregations, String[], R> function, List<R> results) {
+		CompositeAggregation composite = (agg == null) ? null : agg.get(COMPOSITE_AGGREGATION);
+		if (composite == null || composite.getBuckets().isEmpty())
+			return null;
+		for (CompositeAggregation.Bucket bucket : composite.getBuckets()) {
+			String[] values = new String[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				Object value = bucket.getKey().get("g" + i);
+				values[i] = (value == null) ? null : value.toString();
+			}
+			R obj = function.apply(bucket.getAggregations(), values);
+			if ( obj != null )
+				results.add(obj);
+		}
+		// A page that is not full is the last one
+		return (composite.getBuckets().size() < pageSize) ? null : composite.afterKey();
+	}
+	
 }
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright © [2021]. Banco Interamericano de Desarrollo ("BID"). Uso autorizado.
+ * Los procedimientos y resultados obtenidos en base a la ejecución de este software son los programados por los desarrolladores y no necesariamente reflejan el punto de vista del BID, de su Directorio Ejecutivo ni de los países que representa.
+ *
+ * This software uses third-party components, distributed accordingly to their own licenses.
+ *******************************************************************************/
+package org.idb.cacao.web.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.idb.cacao.api.Taxpayer;
+import org.idb.cacao.mock_es.ElasticsearchMockClient;
+import org.idb.cacao.web.entities.Interpersonal;
+import org.idb.cacao.web.entities.RelationshipType;
+import org.idb.cacao.web.entities.User;
+import org.idb.cacao.web.entities.UserProfile;
+import org.idb.cacao.web.repositories.InterpersonalRepository;
+import org.idb.cacao.web.repositories.TaxpayerRepository;
+import org.idb.cacao.web.repositories.UserRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithUserDetails;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests the bulk import of taxpayers, users and interpersonal relationships
+ *
+ * @author Gustavo Figueiredo
+ *
+ */
+@RunWith(JUnitPlatform.class)
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+@SpringBootTest( webEnvironment = WebEnvironment.RANDOM_PORT)
+class RegistryImportAPIControllerTests {
+
+	/**
+	 * Maximum time to wait for each import at background
+	 */
+	private static final long IMPORT_TIMEOUT_MS = 60_000;
+
+	private static ElasticsearchMockClient mockElastic;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private TaxpayerRepository taxpayerRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private InterpersonalRepository interpersonalRepository;
+
+	@BeforeAll
+	public static void beforeClass() throws Exception {
+		int port = ElasticsearchMockClient.findRandomPort();
+		mockElastic = new ElasticsearchMockClient(port);
+		System.setProperty("es.port", String.valueOf(port));
+	}
+
+	@AfterAll
+	public static void afterClass() {
+		if (mockElastic!=null)
+			mockElastic.stop();
+	}
+
+	/**
+	 * Sends the CSV contents as the body of the request and waits until the import at background is finished
+	 */
+	private ResultActions importCSV(String type, String contents) throws Exception {
+		String response = mockMvc.perform(post("/api/registry/import")
+				.with(csrf())
+				.param("type", type)
+				.param("filename", "test.csv")
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.content(contents.getBytes(StandardCharsets.UTF_8)))
+			.andExpect(status().isAccepted())
+			.andExpect(jsonPath("$.id").isNotEmpty())
+			.andReturn().getResponse().getContentAsString();
+		String id = new ObjectMapper().readTree(response).get("id").asText();
+
+		long timeout = System.currentTimeMillis() + IMPORT_TIMEOUT_MS;
+		while (true) {
+			ResultActions progress = mockMvc.perform(get("/api/registry/import/"+id))
+				.andExpect(status().isOk());
+			String status = new ObjectMapper().readTree(progress.andReturn().getResponse().getContentAsString()).get("status").asText();
+			if (!"RUNNING".equals(status) || System.currentTimeMillis() > timeout)
+				return progress.andExpect(jsonPath("$.status").value("FINISHED"));
+			Thread.sleep(100);
+		}
+	}
+
+	/**
+	 * Test the import of taxpayers: column names in different forms, rejected rows, repeated rows in the same file
+	 * and a second import updating the records of the first one
+	 */
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testImportTaxpayers() throws Exception {
+
+		importCSV("taxpayers",
+				"Taxpayer ID;Name;QUALIFIER_1;Active\n"
+				+ "100001;First Company;RETAIL;yes\n"
+				+ "100002;Second Company;INDUSTRY;\n"
+				+ "100001;First Company Ltd;RETAIL;yes\n"	// repeated (the last one prevails)
+				+ ";Without ID;RETAIL;yes\n"				// rejected (missing taxpayer ID)
+				+ "100003;Third Company;RETAIL;maybe\n")	// rejected (not a boolean)
+			.andExpect(jsonPath("$.rowsRead").value(5))
+			.andExpect(jsonPath("$.rowsCreated").value(2))
+			.andExpect(jsonPath("$.rowsUpdated").value(0))
+			.andExpect(jsonPath("$.rowsSuperseded").value(1))
+			.andExpect(jsonPath("$.rowsRejected").value(2))
+			.andExpect(jsonPath("$.errors[0].row").value(4))
+			.andExpect(jsonPath("$.errors[1].row").value(5));
+
+		assertEquals("First Company Ltd", taxpayerRepository.findByTaxPayerId("100001").get().getName());
+		assertEquals("RETAIL", taxpayerRepository.findByTaxPayerId("100001").get().getQualifier1());
+		assertTrue(taxpayerRepository.findByTaxPayerId("100002").get().isActive());
+		assertFalse(taxpayerRepository.findByTaxPayerId("100003").isPresent());
+
+		importCSV("TAXPAYERS",
+				"taxPayerId,name,active\n"
+				+ "100002,Second Company Inc,no\n"
+				+ "100004,Fourth Company,\n")
+			.andExpect(jsonPath("$.rowsRead").value(2))
+			.andExpect(jsonPath("$.rowsCreated").value(1))
+			.andExpect(jsonPath("$.rowsUpdated").value(1))
+			.andExpect(jsonPath("$.rowsSuperseded").value(0))
+			.andExpect(jsonPath("$.rowsRejected").value(0));
+
+		List<Taxpayer> second = StreamSupport.stream(taxpayerRepository.findAll().spliterator(), false)
+				.filter(t->"100002".equals(t.getTaxPayerId()))
+				.collect(Collectors.toList());
+		assertEquals(1, second.size(), "Importing the same taxpayer again should not create a duplicate");
+		assertEquals("Second Company Inc", second.get(0).getName());
+		assertFalse(second.get(0).isActive());
+		// Columns absent from the file do not erase previous values
+		assertEquals("INDUSTRY", second.get(0).getQualifier1());
+	}
+
+	/**
+	 * Test the import of users: logins are matched ignoring case, unknown profiles are rejected
+	 */
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testImportUsers() throws Exception {
+
+		importCSV("USERS",
+				"Login,Name,Profile,Taxpayer ID\n"
+				+ "user1@import.test,User One,DECLARANT,100001\n"
+				+ "user2@import.test,User Two,AUTHORITY,\n"
+				+ "USER1@import.test,User One Again,DECLARANT,100001\n"	// repeated (the last one prevails)
+				+ "user3@import.test,User Three,UNKNOWN,\n"				// rejected (unknown profile)
+				+ "not a login,User Four,DECLARANT,\n")					// rejected (not an e-mail)
+			.andExpect(jsonPath("$.rowsRead").value(5))
+			.andExpect(jsonPath("$.rowsCreated").value(2))
+			.andExpect(jsonPath("$.rowsUpdated").value(0))
+			.andExpect(jsonPath("$.rowsSuperseded").value(1))
+			.andExpect(jsonPath("$.rowsRejected").value(2));
+
+		importCSV("USERS",
+				"Login,Name,Profile\n"
+				+ "user2@import.test,User Two,READONLY\n")
+			.andExpect(jsonPath("$.rowsCreated").value(0))
+			.andExpect(jsonPath("$.rowsUpdated").value(1))
+			.andExpect(jsonPath("$.rowsRejected").value(0));
+
+		List<User> users = StreamSupport.stream(userRepository.findAll().spliterator(), false)
+				.filter(u->u.getLogin()!=null && u.getLogin().toLowerCase().endsWith("@import.test"))
+				.collect(Collectors.toList());
+		assertEquals(2, users.size(), "Importing the same user again should not create a duplicate");
+		User user1 = users.stream().filter(u->u.getLogin().equalsIgnoreCase("user1@import.test")).findAny().get();
+		assertEquals("User One Again", user1.getName());
+		assertEquals("100001", user1.getTaxpayerId());
+		User user2 = users.stream().filter(u->u.getLogin().equalsIgnoreCase("user2@import.test")).findAny().get();
+		assertEquals(UserProfile.READONLY, user2.getProfile());
+	}
+
+	/**
+	 * Test the import of interpersonal relationships: the natural key is the pair of persons and the relationship type
+	 */
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testImportRelationships() throws Exception {
+
+		importCSV("relationships",
+				"Person ID 1;Relationship Type;Person ID 2\n"
+				+ "200001;DIRECTOR;200002\n"
+				+ "200001;ACCOUNTANT;200002\n"		// same persons, other type
+				+ "200001;director;200002\n"		// repeated (the last one prevails)
+				+ "200001;FRIEND;200003\n")			// rejected (unknown type)
+			.andExpect(jsonPath("$.rowsRead").value(4))
+			.andExpect(jsonPath("$.rowsCreated").value(2))
+			.andExpect(jsonPath("$.rowsUpdated").value(0))
+			.andExpect(jsonPath("$.rowsSuperseded").value(1))
+			.andExpect(jsonPath("$.rowsRejected").value(1));
+
+		importCSV("relationships",
+				"Person ID 1;Relationship Type;Person ID 2;Active\n"
+				+ "200001;ACCOUNTANT;200002;false\n")
+			.andExpect(jsonPath("$.rowsCreated").value(0))
+			.andExpect(jsonPath("$.rowsUpdated").value(1));
+
+		List<Interpersonal> relationships = StreamSupport.stream(interpersonalRepository.findAll().spliterator(), false)
+				.filter(r->"200001".equals(r.getPersonId1()))
+				.collect(Collectors.toList());
+		assertEquals(2, relationships.size(), "Importing the same relationship again should not create a duplicate");
+		Interpersonal accountant = relationships.stream().filter(r->RelationshipType.ACCOUNTANT.equals(r.getRelationshipType())).findAny().get();
+		assertFalse(accountant.isActive());
+		Interpersonal director = relationships.stream().filter(r->RelationshipType.DIRECTOR.equals(r.getRelationshipType())).findAny().get();
+		assertTrue(director.isActive());
+	}
+
+	/**
+	 * Test the rejection of unknown types of records and the query of progress
+	 */
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testImportProgress() throws Exception {
+
+		mockMvc.perform(post("/api/registry/import")
+				.with(csrf())
+				.param("type", "SOMETHING")
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.content("a,b\n1,2\n".getBytes(StandardCharsets.UTF_8)))
+			.andExpect(status().isBadRequest());
+
+		String response = importCSV("TAXPAYERS", "Taxpayer ID,Name\n300001,Some Company\n")
+			.andReturn().getResponse().getContentAsString();
+		String id = new ObjectMapper().readTree(response).get("id").asText();
+
+		mockMvc.perform(get("/api/registry/import/"+id))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.rowsCreated").value(1));
+
+		mockMvc.perform(get("/api/registry/import/unknown"))
+			.andExpect(status().isNotFound());
+	}
+}
@@ -6,16 +6,30 @@
  *******************************************************************************/
 package org.idb.cacao.web.rest.services;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.OffsetDateTime;
 import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.idb.cacao.api.DocumentUploaded;
 import org.idb.cacao.api.storage.IStorageService;
@@ -23,8 +37,11 @@ import org.idb.cacao.api.templates.DocumentFormat;
 import org.idb.cacao.api.templates.DocumentInput;
 import org.idb.cacao.api.templates.DocumentTemplate;
 import org.idb.cacao.mock_es.ElasticsearchMockClient;
+import org.idb.cacao.web.controllers.services.ZipUploadService;
+import org.idb.cacao.web.entities.ZipUploadBatch;
 import org.idb.cacao.web.repositories.DocumentTemplateRepository;
 import org.idb.cacao.web.repositories.DocumentUploadedRepository;
+import org.idb.cacao.web.repositories.ZipUploadBatchRepository;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -37,18 +54,25 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.web.servlet.MockMvc;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
 @RunWith(JUnitPlatform.class)
 @AutoConfigureMockMvc
 @DirtiesContext(classMode = ClassMode.AFTER_CLASS)
 @SpringBootTest( webEnvironment = WebEnvironment.RANDOM_PORT,
 		properties = {
-		"storage.incoming.files.original.dir=${java.io.tmpdir}/cacao/storage"
+		"storage.incoming.files.original.dir=${java.io.tmpdir}/cacao/storage",
+		"storage.incoming.files.partial.dir=${java.io.tmpdir}/cacao/partial",
+		"upload.zip.work.dir=${java.io.tmpdir}/cacao/zip_upload"
 })
 class DocumentStoreAPIControllerTests {
 
@@ -63,6 +87,12 @@ class DocumentStoreAPIControllerTests {
 	@Autowired
 	private DocumentUploadedRepository documentsUploadedRepository;
 	
+	@Autowired
+	private ZipUploadBatchRepository zipUploadBatchRepository;
+
+	@Autowired
+	private ZipUploadService zipUploadService;
+
 	@Autowired
 	private MockMvc mockMvc;
 	
@@ -118,4 +148,301 @@ class DocumentStoreAPIControllerTests {
 		assertNotNull(path);
 		assertTrue(storageService.delete(subdir_and_filename));
 	}
+
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testResumableUpload() throws Exception {
+		
+		// Creates some template for testing
+		DocumentTemplate template = new DocumentTemplate();
+		template.setName("TEST RESUMABLE");
+		template.setVersion("1.0");
+		DocumentInput input = new DocumentInput();
+		input.setInputName("CSV");
+		input.setFormat(DocumentFormat.CSV);
+		template.setInputs(Arrays.asList(input));
+		templateRepository.save(template);
+
+		// Contents will be sent in 3 chunks (the last one smaller than the others)
+		byte[] contents = "Spring Framework - Resumable Upload".getBytes(StandardCharsets.UTF_8);
+		final int chunkSize = 16;
+		
+		String response = this.mockMvc.perform(
+				post("/api/doc/resumable")
+				.with(csrf())
+				.param("filename", "test_resumable.txt")
+				.param("fileSize", String.valueOf(contents.length))
+				.param("sha256", Hashing.sha256().hashBytes(contents).toString())
+				.param("chunkSize", String.valueOf(chunkSize))
+				.param("templateName", "TEST RESUMABLE")
+				.param("templateVersion", "1.0")
+				.param("inputName", "CSV"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.chunks").value(3))
+				.andReturn().getResponse().getContentAsString();
+		JsonNode upload = new ObjectMapper().readTree(response);
+		String uploadId = upload.get("uploadId").asText();
+		assertNotNull(uploadId);
+		
+		// Sends the chunks out of order, and also one chunk with wrong checksum
+		for (int chunk: new int[] { 2, 0 }) {
+			byte[] chunkContents = Arrays.copyOfRange(contents, chunk*chunkSize, Math.min(contents.length, (chunk+1)*chunkSize));
+			this.mockMvc.perform(
+					put("/api/doc/resumable/"+uploadId+"/"+chunk)
+					.with(csrf())
+					.contentType(MediaType.APPLICATION_OCTET_STREAM)
+					.header("X-Checksum-SHA256", Hashing.sha256().hashBytes(chunkContents).toString())
+					.content(chunkContents))
+					.andExpect(status().isOk());
+		}
+		this.mockMvc.perform(
+				put("/api/doc/resumable/"+uploadId+"/1")
+				.with(csrf())
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.header("X-Checksum-SHA256", Hashing.sha256().hashBytes(new byte[chunkSize]).toString())
+				.content(Arrays.copyOfRange(contents, chunkSize, 2*chunkSize)))
+				.andExpect(status().isBadRequest());
+		
+		// Can't complete while there are missing chunks
+		this.mockMvc.perform(
+				get("/api/doc/resumable/"+uploadId))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.complete").value(false));
+		
+		// Resumes with the missing chunk
+		byte[] chunkContents = Arrays.copyOfRange(contents, chunkSize, 2*chunkSize);
+		this.mockMvc.perform(
+				put("/api/doc/resumable/"+uploadId+"/1")
+				.with(csrf())
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.header("X-Checksum-SHA256", Hashing.sha256().hashBytes(chunkContents).toString())
+				.content(chunkContents))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.complete").value(true));
+		
+		this.mockMvc.perform(
+				post("/api/doc/resumable/"+uploadId+"/complete")
+				.with(csrf()))
+				.andExpect(status().isOk());
+		
+		Page<DocumentUploaded> match_uploads = documentsUploadedRepository.findByFilename("test_resumable.txt", PageRequest.ofSize(1));
+		assertFalse(match_uploads.isEmpty());
+		DocumentUploaded match_upload = match_uploads.getContent().get(0);
+		String subdir_and_filename = match_upload.getSubDir()+File.separator+match_upload.getFileId();
+		
+		Path path = storageService.find(subdir_and_filename);
+		assertNotNull(path);
+		assertTrue(Arrays.equals(contents, Files.readAllBytes(path)));
+		assertTrue(storageService.delete(subdir_and_filename));
+		
+		// The upload may not be resumed anymore
+		this.mockMvc.perform(
+				get("/api/doc/resumable/"+uploadId))
+				.andExpect(status().isNotFound());
+	}
+
+	/**
+	 * Test an upload whose chunks match their own checksums, but the whole file does not match its checksum. The upload
+	 * is kept, so that the chunks may be sent again.
+	 */
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testResumableUploadFileChecksum() throws Exception {
+		
+		// Creates some template for testing
+		DocumentTemplate template = new DocumentTemplate();
+		template.setName("TEST RESUMABLE CHECKSUM");
+		template.setVersion("1.0");
+		DocumentInput input = new DocumentInput();
+		input.setInputName("CSV");
+		input.setFormat(DocumentFormat.CSV);
+		template.setInputs(Arrays.asList(input));
+		templateRepository.save(template);
+
+		byte[] contents = "Spring Framework - Resumable Upload".getBytes(StandardCharsets.UTF_8);
+		byte[] wrongContents = "Spring Framework - Resumable Wrong!".getBytes(StandardCharsets.UTF_8);
+		final int chunkSize = 16;
+		
+		String response = this.mockMvc.perform(
+				post("/api/doc/resumable")
+				.with(csrf())
+				.param("filename", "test_resumable_checksum.txt")
+				.param("fileSize", String.valueOf(contents.length))
+				.param("sha256", Hashing.sha256().hashBytes(contents).toString())
+				.param("chunkSize", String.valueOf(chunkSize))
+				.param("templateName", "TEST RESUMABLE CHECKSUM")
+				.param("templateVersion", "1.0")
+				.param("inputName", "CSV"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		String uploadId = new ObjectMapper().readTree(response).get("uploadId").asText();
+		
+		for (byte[] attempt: new byte[][] { wrongContents, contents }) {
+			for (int chunk=0; chunk<3; chunk++) {
+				byte[] chunkContents = Arrays.copyOfRange(attempt, chunk*chunkSize, Math.min(attempt.length, (chunk+1)*chunkSize));
+				this.mockMvc.perform(
+						put("/api/doc/resumable/"+uploadId+"/"+chunk)
+						.with(csrf())
+						.contentType(MediaType.APPLICATION_OCTET_STREAM)
+						.header("X-Checksum-SHA256", Hashing.sha256().hashBytes(chunkContents).toString())
+						.content(chunkContents))
+						.andExpect(status().isOk());
+			}
+			if (attempt==wrongContents) {
+				this.mockMvc.perform(
+						post("/api/doc/resumable/"+uploadId+"/complete")
+						.with(csrf()))
+						.andExpect(status().isBadRequest());
+				
+				// The upload is still there, waiting for all the chunks again
+				this.mockMvc.perform(
+						get("/api/doc/resumable/"+uploadId))
+						.andExpect(status().isOk())
+						.andExpect(jsonPath("$.complete").value(false))
+						.andExpect(jsonPath("$.receivedChunks").isEmpty());
+			}
+		}
+		
+		this.mockMvc.perform(
+				post("/api/doc/resumable/"+uploadId+"/complete")
+				.with(csrf()))
+				.andExpect(status().isOk());
+		
+		Page<DocumentUploaded> match_uploads = documentsUploadedRepository.findByFilename("test_resumable_checksum.txt", PageRequest.ofSize(1));
+		assertFalse(match_uploads.isEmpty());
+		DocumentUploaded match_upload = match_uploads.getContent().get(0);
+		String subdir_and_filename = match_upload.getSubDir()+File.separator+match_upload.getFileId();
+		
+		Path path = storageService.find(subdir_and_filename);
+		assertNotNull(path);
+		assertTrue(Arrays.equals(contents, Files.readAllBytes(path)));
+		assertTrue(storageService.delete(subdir_and_filename));
+	}
+
+	@WithUserDetails(value="admin@admin",userDetailsServiceBeanName="CustomUserDetailsService")
+	@Test
+	void testZipUpload() throws Exception {
+		
+		// Creates some template for testing
+		DocumentTemplate template = new DocumentTemplate();
+		template.setName("TEST ZIP");
+		template.setVersion("1.0");
+		DocumentInput input = new DocumentInput();
+		input.setInputName("CSV");
+		input.setFormat(DocumentFormat.CSV);
+		template.setInputs(Arrays.asList(input));
+		templateRepository.save(template);
+		
+		// ZIP file with 3 files and one directory (which is ignored)
+		ByteArrayOutputStream zipContents = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(zipContents)) {
+			zip.putNextEntry(new ZipEntry("dir/"));
+			zip.closeEntry();
+			for (int i=1; i<=3; i++) {
+				zip.putNextEntry(new ZipEntry("dir/test_zip_"+i+".txt"));
+				zip.write(("Spring Framework "+i).getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		MockMultipartFile multipartFile = new MockMultipartFile("fileinput", "test.zip",
+				"application/zip", zipContents.toByteArray());
+		String response = this.mockMvc.perform(
+				multipart("/api/doc")
+				.file(multipartFile)
+				.with(csrf())
+				.param("templateName", "TEST ZIP")
+				.param("templateVersion", "1.0")
+				.param("inputName", "CSV"))
+				.andExpect(status().isAccepted())
+				.andExpect(jsonPath("$.result").value("ok"))
+				.andReturn().getResponse().getContentAsString();
+		String batchId = new ObjectMapper().readTree(response).get("batch_id").asText();
+		assertNotNull(batchId);
+		
+		// Waits for the files to be stored at background
+		JsonNode batch = null;
+		for (int attempt=0; attempt<100; attempt++) {
+			String progress = this.mockMvc.perform(
+					get("/api/doc/batch/"+batchId))
+					.andExpect(status().isOk())
+					.andReturn().getResponse().getContentAsString();
+			batch = new ObjectMapper().readTree(progress);
+			if (!"RUNNING".equals(batch.get("status").asText()))
+				break;
+			Thread.sleep(100);
+		}
+		assertEquals("FINISHED", batch.get("status").asText());
+		assertEquals(3, batch.get("totalFiles").asInt());
+		assertEquals(3, batch.get("filesStored").asInt());
+		assertEquals(0, batch.get("filesRejected").asInt());
+
+		// The progress is also available to other nodes
+		ZipUploadBatch saved = zipUploadBatchRepository.findById(batchId).orElse(null);
+		assertNotNull(saved);
+		assertEquals(ZipUploadBatch.Status.FINISHED, saved.getStatus());
+		assertEquals(3, saved.getFilesStored());
+		assertEquals(3, saved.getEntries().size());
+		
+		for (int i=1; i<=3; i++) {
+			Page<DocumentUploaded> match_uploads = documentsUploadedRepository.findByFilename("dir/test_zip_"+i+".txt", PageRequest.ofSize(1));
+			assertFalse(match_uploads.isEmpty());
+			DocumentUploaded match_upload = match_uploads.getContent().get(0);
+			String subdir_and_filename = match_upload.getSubDir()+File.separator+match_upload.getFileId();
+			
+			Path path = storageService.find(subdir_and_filename);
+			assertNotNull(path);
+			assertTrue(Arrays.equals(("Spring Framework "+i).getBytes(StandardCharsets.UTF_8), Files.readAllBytes(path)));
+			assertTrue(storageService.delete(subdir_and_filename));
+		}
+	}
+
+	/**
+	 * Test the removal of whatever was left behind by a ZIP file interrupted by the end of some previous execution
+	 */
+	@Test
+	void testRemoveZipOrphans() throws Exception {
+
+		Path workDir = zipUploadService.createZipFile().getParentFile().toPath();
+		FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+
+		// One file was stored and registered, the other one was stored but not registered
+		String registeredFileId = "test-zip-orphan-registered";
+		String registeredSubDir = storageService.store(registeredFileId, new ByteArrayInputStream("registered".getBytes(StandardCharsets.UTF_8)), true);
+		String orphanFileId = "test-zip-orphan-stored";
+		String orphanSubDir = storageService.store(orphanFileId, new ByteArrayInputStream("orphan".getBytes(StandardCharsets.UTF_8)), true);
+
+		ZipUploadBatch interrupted = new ZipUploadBatch("test-zip-orphan-batch", "interrupted.zip", "TEST ZIP", "1.0", "CSV",
+				"admin@admin", 3, OffsetDateTime.now());
+		interrupted.addStored("registered.txt", registeredFileId);
+		zipUploadBatchRepository.save(interrupted);
+
+		Path journal = workDir.resolve(interrupted.getBatchId()+".journal");
+		Files.write(journal, Arrays.asList(
+				"P "+registeredFileId+" "+registeredSubDir,
+				"S "+registeredFileId+" "+registeredSubDir,
+				"P "+orphanFileId+" "+orphanSubDir,
+				"S "+orphanFileId+" "+orphanSubDir,
+				"R "+registeredFileId+" "+registeredSubDir,
+				"P never-stored "+orphanSubDir), StandardCharsets.UTF_8);
+		Files.setLastModifiedTime(journal, past);
+		Path zipFile = workDir.resolve("ZIP_UPLOAD_interrupted.zip");
+		Files.write(zipFile, new byte[] { 1, 2, 3 });
+		Files.setLastModifiedTime(zipFile, past);
+
+		// Recent files belong to uploads started after startup
+		Path recentZipFile = zipUploadService.createZipFile().toPath();
+
+		zipUploadService.removeOrphans();
+
+		assertNotNull(storageService.find(registeredSubDir+File.separator+registeredFileId));
+		assertNull(storageService.find(orphanSubDir+File.separator+orphanFileId));
+		assertFalse(Files.exists(journal));
+		assertFalse(Files.exists(zipFile));
+		assertTrue(Files.exists(recentZipFile));
+		assertEquals(ZipUploadBatch.Status.FAILED, zipUploadBatchRepository.findById(interrupted.getBatchId()).get().getStatus());
+
+		storageService.delete(registeredSubDir+File.separator+registeredFileId);
+		Files.delete(recentZipFile);
+	}
 }